@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.anonymous;
+
+import static org.wildfly.sasl.anonymous.AbstractAnonymousFactory.ANONYMOUS;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * A complete ANONYMOUS authentication carrying a trace string.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AnonymousBenchmark {
+
+    private AnonymousServerFactory serverFactory;
+    private Map<String, Object> serverProps;
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        serverFactory = new AnonymousServerFactory();
+        serverProps = Collections.<String, Object>emptyMap();
+        message = "trace@example.com".getBytes(Charsets.UTF_8);
+    }
+
+    @Benchmark
+    public String handshake() throws SaslException {
+        SaslServer server = serverFactory.createSaslServer(ANONYMOUS, "TestProtocol", "TestServer", serverProps, null);
+        server.evaluateResponse(message);
+        if (server.isComplete() == false) {
+            throw new IllegalStateException("Handshake did not complete");
+        }
+        String authorizationId = server.getAuthorizationID();
+        server.dispose();
+        return authorizationId;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.benchmark;
+
+import java.io.IOException;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.sasl.AuthorizeCallback;
+import javax.security.sasl.RealmCallback;
+import javax.security.sasl.RealmChoiceCallback;
+
+import org.wildfly.sasl.callback.VerifyPasswordCallback;
+
+/**
+ * A {@link CallbackHandler} for a single fixed identity, usable on both the client and the server side of a benchmark
+ * handshake.  It never blocks so that only the mechanism itself is measured.
+ */
+public final class BenchmarkCallbackHandler implements CallbackHandler {
+
+    private final String username;
+    private final char[] password;
+    private final String realm;
+
+    public BenchmarkCallbackHandler(final String username, final char[] password, final String realm) {
+        this.username = username;
+        this.password = password;
+        this.realm = realm;
+    }
+
+    public BenchmarkCallbackHandler(final String username, final char[] password) {
+        this(username, password, null);
+    }
+
+    public void handle(final Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+        for (Callback current : callbacks) {
+            if (current instanceof NameCallback) {
+                NameCallback ncb = (NameCallback) current;
+                String defaultName = ncb.getDefaultName();
+                if (defaultName != null && defaultName.equals(username) == false) {
+                    throw new IOException("Invalid username received.");
+                }
+                ncb.setName(username);
+            } else if (current instanceof PasswordCallback) {
+                ((PasswordCallback) current).setPassword(password);
+            } else if (current instanceof VerifyPasswordCallback) {
+                VerifyPasswordCallback vcb = (VerifyPasswordCallback) current;
+                vcb.setVerified(String.valueOf(password).equals(vcb.getPassword()));
+            } else if (current instanceof RealmChoiceCallback) {
+                ((RealmChoiceCallback) current).setSelectedIndex(0);
+            } else if (current instanceof RealmCallback) {
+                RealmCallback rcb = (RealmCallback) current;
+                rcb.setText(realm != null ? realm : rcb.getDefaultText());
+            } else if (current instanceof AuthorizeCallback) {
+                AuthorizeCallback acb = (AuthorizeCallback) current;
+                acb.setAuthorized(acb.getAuthenticationID().equals(acb.getAuthorizationID()));
+            } else {
+                throw new UnsupportedCallbackException(current, current.getClass().getSimpleName() + " not supported.");
+            }
+        }
+    }
+}
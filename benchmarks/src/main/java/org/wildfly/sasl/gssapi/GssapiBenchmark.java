@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.gssapi;
+
+import static org.wildfly.sasl.gssapi.AbstractGssapiFactory.GSSAPI;
+
+import java.io.IOException;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.auth.login.LoginException;
+import javax.security.sasl.AuthorizeCallback;
+import javax.security.sasl.Sasl;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A complete GSSAPI authentication against the in-process {@link TestKDC}.
+ * <p/>
+ * The client and server subjects are obtained once per trial, so each invocation covers creation of the SASL client and
+ * server, the Kerberos context establishment (including the service ticket request) and the security layer negotiation.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GssapiBenchmark {
+
+    private TestKDC testKdc;
+    private Subject clientSubject;
+    private Subject serverSubject;
+    private GssapiClientFactory clientFactory;
+    private GssapiServerFactory serverFactory;
+    private Map<String, String> props;
+
+    @Setup
+    public void setup() throws LoginException {
+        testKdc = new TestKDC();
+        testKdc.startDirectoryService();
+        testKdc.startKDC();
+
+        clientSubject = JAASUtil.loginClient();
+        serverSubject = JAASUtil.loginServer();
+        clientFactory = new GssapiClientFactory();
+        serverFactory = new GssapiServerFactory();
+        props = new HashMap<String, String>();
+        props.put(Sasl.QOP, "auth");
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (testKdc != null) {
+            testKdc.stopAll();
+            testKdc = null;
+        }
+    }
+
+    @Benchmark
+    public String handshake() throws SaslException {
+        SaslClient client = new SubjectWrappingSaslClient(createClient(), clientSubject);
+        SaslServer server = new SubjectWrappingSaslServer(createServer(), serverSubject);
+
+        byte[] exchange = new byte[0];
+        while (client.isComplete() == false || server.isComplete() == false) {
+            exchange = client.evaluateChallenge(exchange);
+            if (server.isComplete() == false) {
+                exchange = server.evaluateResponse(exchange);
+            }
+        }
+        String authorizationId = server.getAuthorizationID();
+        client.dispose();
+        server.dispose();
+        return authorizationId;
+    }
+
+    private SaslClient createClient() throws SaslException {
+        return doAs(clientSubject, new PrivilegedExceptionAction<SaslClient>() {
+
+            @Override
+            public SaslClient run() throws SaslException {
+                return clientFactory.createSaslClient(new String[] { GSSAPI }, null, "sasl", "test_server_1", props, null);
+            }
+        });
+    }
+
+    private SaslServer createServer() throws SaslException {
+        return doAs(serverSubject, new PrivilegedExceptionAction<SaslServer>() {
+
+            @Override
+            public SaslServer run() throws SaslException {
+                return serverFactory.createSaslServer(GSSAPI, "sasl", "test_server", props, new AuthorizeOnlyCallbackHandler());
+            }
+        });
+    }
+
+    private static <T> T doAs(final Subject subject, final PrivilegedExceptionAction<T> action) throws SaslException {
+        try {
+            return Subject.doAs(subject, action);
+        } catch (PrivilegedActionException e) {
+            if (e.getCause() instanceof SaslException) {
+                throw (SaslException) e.getCause();
+            }
+            throw new SaslException(e.getMessage(), e);
+        }
+    }
+
+    private static class AuthorizeOnlyCallbackHandler implements CallbackHandler {
+
+        @Override
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            for (Callback current : callbacks) {
+                if (current instanceof AuthorizeCallback) {
+                    AuthorizeCallback ac = (AuthorizeCallback) current;
+                    ac.setAuthorized(ac.getAuthenticationID().equals(ac.getAuthorizationID()));
+                } else {
+                    throw new UnsupportedCallbackException(current);
+                }
+            }
+        }
+    }
+}
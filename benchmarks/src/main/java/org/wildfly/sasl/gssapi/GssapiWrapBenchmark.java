@@ -0,0 +1,205 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.gssapi;
+
+import static org.wildfly.sasl.gssapi.AbstractGssapiFactory.GSSAPI;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.auth.login.LoginException;
+import javax.security.sasl.AuthorizeCallback;
+import javax.security.sasl.Sasl;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.util.AbstractSaslWrapper;
+
+/**
+ * Wrapping a number of frames on the client and unwrapping them on the server of an established GSSAPI security layer,
+ * one frame per call as byte arrays or buffers against all of the frames in one batch call.
+ * <p/>
+ * Results are per frame.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GssapiWrapBenchmark {
+
+    private static final int FRAMES = 16;
+
+    @Param({ "auth-int", "auth-conf" })
+    private String qop = "auth-conf";
+
+    @Param({ "64", "1024" })
+    private int frameSize = 64;
+
+    private TestKDC testKdc;
+    private GssapiClient client;
+    private GssapiServer server;
+    private byte[][] frameArrays;
+    private ByteBuffer[] frames;
+    private ByteBuffer wrapped;
+    private ByteBuffer[] unwrapped;
+
+    @Setup
+    public void setup() throws LoginException, SaslException {
+        testKdc = new TestKDC();
+        testKdc.startDirectoryService();
+        testKdc.startKDC();
+
+        final Subject clientSubject = JAASUtil.loginClient();
+        final Subject serverSubject = JAASUtil.loginServer();
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(Sasl.QOP, qop);
+        client = doAs(clientSubject, new PrivilegedExceptionAction<GssapiClient>() {
+
+            @Override
+            public GssapiClient run() throws SaslException {
+                return (GssapiClient) new GssapiClientFactory().createSaslClient(new String[] { GSSAPI }, null, "sasl",
+                        "test_server_1", props, null);
+            }
+        });
+        server = doAs(serverSubject, new PrivilegedExceptionAction<GssapiServer>() {
+
+            @Override
+            public GssapiServer run() throws SaslException {
+                return (GssapiServer) new GssapiServerFactory().createSaslServer(GSSAPI, "sasl", "test_server", props,
+                        new AuthorizeOnlyCallbackHandler());
+            }
+        });
+
+        SaslClient wrappedClient = new SubjectWrappingSaslClient(client, clientSubject);
+        SaslServer wrappedServer = new SubjectWrappingSaslServer(server, serverSubject);
+        byte[] exchange = new byte[0];
+        while (wrappedClient.isComplete() == false || wrappedServer.isComplete() == false) {
+            exchange = wrappedClient.evaluateChallenge(exchange);
+            if (wrappedServer.isComplete() == false) {
+                exchange = wrappedServer.evaluateResponse(exchange);
+            }
+        }
+
+        frameArrays = new byte[FRAMES][frameSize];
+        frames = new ByteBuffer[FRAMES];
+        unwrapped = new ByteBuffer[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = ByteBuffer.wrap(frameArrays[i]);
+            unwrapped[i] = ByteBuffer.allocate(frameSize + 128);
+        }
+        // room for the token header, checksum and padding of each frame
+        wrapped = ByteBuffer.allocate(FRAMES * (AbstractSaslWrapper.FRAME_HEADER_LENGTH + frameSize + 128));
+    }
+
+    @TearDown
+    public void tearDown() throws SaslException {
+        client.dispose();
+        server.dispose();
+        if (testKdc != null) {
+            testKdc.stopAll();
+            testKdc = null;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int singleArrays() throws SaslException {
+        int total = 0;
+        for (byte[] frame : frameArrays) {
+            byte[] message = client.wrap(frame, 0, frame.length);
+            total += server.unwrap(message, 0, message.length).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int singleBuffers() throws SaslException {
+        int total = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i].clear();
+            wrapped.clear();
+            client.wrap(frames[i], wrapped);
+            wrapped.flip();
+            unwrapped[i].clear();
+            total += server.unwrap(wrapped, unwrapped[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int batch() throws SaslException {
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i].clear();
+            unwrapped[i].clear();
+        }
+        wrapped.clear();
+        if (client.wrap(frames, 0, FRAMES, wrapped) != FRAMES) {
+            throw new IllegalStateException("Not all frames wrapped");
+        }
+        wrapped.flip();
+        return server.unwrap(wrapped, unwrapped, 0, FRAMES);
+    }
+
+    private static <T> T doAs(final Subject subject, final PrivilegedExceptionAction<T> action) throws SaslException {
+        try {
+            return Subject.doAs(subject, action);
+        } catch (PrivilegedActionException e) {
+            if (e.getCause() instanceof SaslException) {
+                throw (SaslException) e.getCause();
+            }
+            throw new SaslException(e.getMessage(), e);
+        }
+    }
+
+    private static class AuthorizeOnlyCallbackHandler implements CallbackHandler {
+
+        @Override
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            for (Callback current : callbacks) {
+                if (current instanceof AuthorizeCallback) {
+                    AuthorizeCallback ac = (AuthorizeCallback) current;
+                    ac.setAuthorized(ac.getAuthenticationID().equals(ac.getAuthorizationID()));
+                } else {
+                    throw new UnsupportedCallbackException(current);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.localuser;
+
+import static org.wildfly.sasl.localuser.LocalUserSaslFactory.JBOSS_LOCAL_USER;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.benchmark.BenchmarkCallbackHandler;
+
+/**
+ * A complete JBOSS-LOCAL-USER authentication, including creation and removal of the challenge file or the use of a
+ * challenge slot.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LocalUserBenchmark {
+
+    private static final String USERNAME = "George";
+    private static final String[] MECHANISMS = { JBOSS_LOCAL_USER };
+
+    /**
+     * The value of {@link LocalUserServer#LOCAL_USER_CHALLENGE_SLOTS}, "0" creates a file for each challenge.
+     */
+    @Param({ "0", "64" })
+    private String challengeSlots = "0";
+
+    private LocalUserServerFactory serverFactory;
+    private LocalUserClientFactory clientFactory;
+    private Map<String, Object> serverProps;
+    private Map<String, Object> props;
+    private CallbackHandler serverCallback;
+    private CallbackHandler clientCallback;
+
+    @Setup
+    public void setup() {
+        serverFactory = new LocalUserServerFactory();
+        clientFactory = new LocalUserClientFactory();
+        serverProps = new HashMap<String, Object>();
+        serverProps.put(LocalUserServer.LOCAL_USER_CHALLENGE_SLOTS, challengeSlots);
+        props = Collections.<String, Object>emptyMap();
+        serverCallback = new BenchmarkCallbackHandler(USERNAME, null);
+        clientCallback = new BenchmarkCallbackHandler(USERNAME, null);
+    }
+
+    @Benchmark
+    public String handshake() throws SaslException {
+        SaslServer server = serverFactory.createSaslServer(JBOSS_LOCAL_USER, "TestProtocol", "TestServer", serverProps, serverCallback);
+        SaslClient client = clientFactory.createSaslClient(MECHANISMS, USERNAME, "TestProtocol", "TestServer", props, clientCallback);
+
+        byte[] message = client.evaluateChallenge(new byte[0]);
+        message = server.evaluateResponse(message);
+        message = client.evaluateChallenge(message);
+        server.evaluateResponse(message);
+        if (server.isComplete() == false) {
+            throw new IllegalStateException("Handshake did not complete");
+        }
+        String authorizationId = server.getAuthorizationID();
+        client.dispose();
+        server.dispose();
+        return authorizationId;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import static org.wildfly.sasl.md5digest.MD5DigestServerFactory.JBOSS_DIGEST_MD5;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.WildFlySasl;
+import org.wildfly.sasl.benchmark.BenchmarkCallbackHandler;
+
+/**
+ * A complete DIGEST-MD5 authentication: server challenge, client response and server verification.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MD5DigestBenchmark {
+
+    private static final String PROTOCOL = "TestProtocol";
+    private static final String SERVER_NAME = "TestServer";
+    private static final String USERNAME = "George";
+    private static final String[] MECHANISMS = { JBOSS_DIGEST_MD5 };
+
+    /**
+     * The value of {@link WildFlySasl#DIGEST_SERVER_POOL_SIZE}, "0" constructs a new server for each handshake.
+     */
+    @Param({ "0", "16" })
+    private String poolSize = "0";
+
+    private MD5DigestServerFactory serverFactory;
+    private MD5DigestClientFactory clientFactory;
+    private Map<String, Object> serverProps;
+    private CallbackHandler serverCallback;
+    private CallbackHandler clientCallback;
+
+    @Setup
+    public void setup() {
+        serverFactory = new MD5DigestServerFactory();
+        clientFactory = new MD5DigestClientFactory();
+        serverProps = new HashMap<String, Object>();
+        serverProps.put(MD5DigestServerFactory.REALM_PROPERTY, "TestRealm");
+        serverProps.put(WildFlySasl.DIGEST_SERVER_POOL_SIZE, poolSize);
+        serverCallback = new BenchmarkCallbackHandler(USERNAME, "gpwd".toCharArray());
+        clientCallback = new BenchmarkCallbackHandler(USERNAME, "gpwd".toCharArray());
+    }
+
+    @Benchmark
+    public String handshake() throws SaslException {
+        SaslServer server = serverFactory.createSaslServer(JBOSS_DIGEST_MD5, PROTOCOL, SERVER_NAME, serverProps, serverCallback);
+        SaslClient client = clientFactory.createSaslClient(MECHANISMS, USERNAME, PROTOCOL, SERVER_NAME,
+                Collections.<String, Object>emptyMap(), clientCallback);
+
+        byte[] message = server.evaluateResponse(new byte[0]);
+        message = client.evaluateChallenge(message);
+        server.evaluateResponse(message);
+        if (server.isComplete() == false) {
+            throw new IllegalStateException("Handshake did not complete");
+        }
+        String authorizationId = server.getAuthorizationID();
+        client.dispose();
+        server.dispose();
+        return authorizationId;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.HexConverter;
+
+/**
+ * The DIGEST-MD5 response-value computation on its own.
+ * <p/>
+ * {@code copying} reproduces the former computation, which built each of URP, A1, A2 and KD in a separate
+ * {@link ByteStringBuilder} and digested a copy of it, as a baseline for the streaming computation of the mechanism.
+ * Run with {@code -prof gc} (the default in {@link org.wildfly.sasl.benchmark.BenchmarkMain}) to compare allocations.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MD5DigestResponseBenchmark {
+
+    private static final String USERNAME = "George";
+    private static final String REALM = "TestRealm";
+    private static final char[] PASSWORD = "gpwd".toCharArray();
+    private static final String DIGEST_URI = "TestProtocol/TestServer";
+    private static final byte[] NONCE = "OA6MG9tEQGm2hh3dOcaaBNqBZTtL5+bMpzY8iEU1jH01".getBytes(Charsets.LATIN_1);
+    private static final byte[] CNONCE = "OA6MHXh6VqTrRk+cDvpIjbh3UP4C08AzQ8ECq3eXWydR".getBytes(Charsets.LATIN_1);
+
+    private MD5DigestSaslClient mechanism;
+    private byte[] digestUrp;
+    private byte[] response;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        mechanism = new MD5DigestSaslClient(MD5DigestServerFactory.JBOSS_DIGEST_MD5, "TestProtocol", "TestServer", null, USERNAME, false);
+        digestUrp = mechanism.digestUserRealmPassword(USERNAME, REALM, PASSWORD);
+        response = new byte[32];
+        if (MessageDigest.isEqual(copying(), streamingFromPassword()) == false) {
+            throw new IllegalStateException("Streaming and copying computations disagree");
+        }
+    }
+
+    @Benchmark
+    public byte[] streamingFromPassword() throws NoSuchAlgorithmException {
+        mechanism.digestResponse(USERNAME, REALM, PASSWORD, NONCE, 1, CNONCE, USERNAME, "auth", DIGEST_URI, response, 0);
+        return response;
+    }
+
+    @Benchmark
+    public byte[] streamingFromHash() throws NoSuchAlgorithmException {
+        mechanism.digestResponse(digestUrp, 0, NONCE, 1, CNONCE, USERNAME, "auth", DIGEST_URI, response, 0);
+        return response;
+    }
+
+    @Benchmark
+    public byte[] copying() throws NoSuchAlgorithmException {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+
+        ByteStringBuilder urp = new ByteStringBuilder();
+        urp.appendLatin1(USERNAME);
+        urp.append(':');
+        urp.appendLatin1(REALM);
+        urp.append(':');
+        urp.appendLatin1(new String(PASSWORD));
+        byte[] digest_urp = md5.digest(urp.toArray());
+
+        ByteStringBuilder A1 = new ByteStringBuilder();
+        A1.append(digest_urp);
+        A1.append(':');
+        A1.append(NONCE);
+        A1.append(':');
+        A1.append(CNONCE);
+        A1.append(':');
+        A1.append(USERNAME);
+        byte[] digest_A1 = md5.digest(A1.toArray());
+
+        ByteStringBuilder A2 = new ByteStringBuilder();
+        A2.append("AUTHENTICATE");
+        A2.append(':');
+        A2.append(DIGEST_URI);
+        byte[] digest_A2 = md5.digest(A2.toArray());
+
+        ByteStringBuilder KD = new ByteStringBuilder();
+        KD.append(HexConverter.convertToHexBytes(digest_A1));
+        KD.append(':');
+        KD.append(NONCE);
+        KD.append(':');
+        KD.append("00000001");
+        KD.append(':');
+        KD.append(CNONCE);
+        KD.append(':');
+        KD.append("auth");
+        KD.append(':');
+        KD.append(HexConverter.convertToHexBytes(digest_A2));
+        KD.updateDigest(md5);
+        return HexConverter.convertToHexBytes(md5.digest());
+    }
+}
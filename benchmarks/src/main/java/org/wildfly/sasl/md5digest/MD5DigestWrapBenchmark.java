@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import static org.wildfly.sasl.md5digest.MD5DigestServerFactory.JBOSS_DIGEST_MD5;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.sasl.Sasl;
+import javax.security.sasl.SaslException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.benchmark.BenchmarkCallbackHandler;
+import org.wildfly.sasl.util.AbstractSaslWrapper;
+
+/**
+ * Wrapping a number of frames on the client and unwrapping them on the server of an established DIGEST-MD5 security
+ * layer, one frame per call as byte arrays or buffers against all of the frames in one batch call.
+ * <p/>
+ * Results are per frame.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MD5DigestWrapBenchmark {
+
+    private static final String PROTOCOL = "TestProtocol";
+    private static final String SERVER_NAME = "TestServer";
+    private static final String USERNAME = "George";
+    private static final int FRAMES = 16;
+
+    @Param({ "auth-int", "auth-conf" })
+    private String qop = "auth-conf";
+
+    @Param({ "64", "1024" })
+    private int frameSize = 64;
+
+    private MD5DigestSaslClient client;
+    private MD5DigestSaslServer server;
+    private byte[][] frameArrays;
+    private ByteBuffer[] frames;
+    private ByteBuffer wrapped;
+    private ByteBuffer[] unwrapped;
+
+    @Setup
+    public void setup() throws SaslException {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(MD5DigestServerFactory.REALM_PROPERTY, "TestRealm");
+        props.put(Sasl.QOP, qop);
+        server = (MD5DigestSaslServer) new MD5DigestServerFactory().createSaslServer(JBOSS_DIGEST_MD5, PROTOCOL,
+                SERVER_NAME, props, new BenchmarkCallbackHandler(USERNAME, "gpwd".toCharArray()));
+        client = (MD5DigestSaslClient) new MD5DigestClientFactory().createSaslClient(new String[] { JBOSS_DIGEST_MD5 },
+                USERNAME, PROTOCOL, SERVER_NAME, props, new BenchmarkCallbackHandler(USERNAME, "gpwd".toCharArray()));
+        client.evaluateChallenge(server.evaluateResponse(client.evaluateChallenge(server.evaluateResponse(new byte[0]))));
+        if (client.isComplete() == false || qop.equals(client.getNegotiatedProperty(Sasl.QOP)) == false) {
+            throw new IllegalStateException("Security layer not negotiated");
+        }
+
+        frameArrays = new byte[FRAMES][frameSize];
+        frames = new ByteBuffer[FRAMES];
+        unwrapped = new ByteBuffer[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = ByteBuffer.wrap(frameArrays[i]);
+            unwrapped[i] = ByteBuffer.allocate(frameSize + 64);
+        }
+        // room for the largest padding and trailer of each frame
+        wrapped = ByteBuffer.allocate(FRAMES * (AbstractSaslWrapper.FRAME_HEADER_LENGTH + frameSize + 32));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int singleArrays() throws SaslException {
+        int total = 0;
+        for (byte[] frame : frameArrays) {
+            byte[] message = client.wrap(frame, 0, frame.length);
+            total += server.unwrap(message, 0, message.length).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int singleBuffers() throws SaslException {
+        int total = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i].clear();
+            wrapped.clear();
+            client.wrap(frames[i], wrapped);
+            wrapped.flip();
+            unwrapped[i].clear();
+            total += server.unwrap(wrapped, unwrapped[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int batch() throws SaslException {
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i].clear();
+            unwrapped[i].clear();
+        }
+        wrapped.clear();
+        if (client.wrap(frames, 0, FRAMES, wrapped) != FRAMES) {
+            throw new IllegalStateException("Not all frames wrapped");
+        }
+        wrapped.flip();
+        return server.unwrap(wrapped, unwrapped, 0, FRAMES);
+    }
+}
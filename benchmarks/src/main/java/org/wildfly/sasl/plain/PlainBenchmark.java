@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.plain;
+
+import static org.wildfly.sasl.plain.PlainServerFactory.PLAIN;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.benchmark.BenchmarkCallbackHandler;
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * A complete PLAIN authentication of a pre-encoded client message.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PlainBenchmark {
+
+    private PlainServerFactory serverFactory;
+    private Map<String, Object> serverProps;
+    private CallbackHandler serverCallback;
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        serverFactory = new PlainServerFactory();
+        serverProps = Collections.<String, Object>emptyMap();
+        serverCallback = new BenchmarkCallbackHandler("George", "gpwd".toCharArray());
+        message = "\u0000George\u0000gpwd".getBytes(Charsets.UTF_8);
+    }
+
+    @Benchmark
+    public String handshake() throws SaslException {
+        SaslServer server = serverFactory.createSaslServer(PLAIN, "TestProtocol", "TestServer", serverProps, serverCallback);
+        server.evaluateResponse(message);
+        if (server.isComplete() == false) {
+            throw new IllegalStateException("Handshake did not complete");
+        }
+        String authorizationId = server.getAuthorizationID();
+        server.dispose();
+        return authorizationId;
+    }
+}
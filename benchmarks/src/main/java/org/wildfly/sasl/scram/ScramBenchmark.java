@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.sasl.AuthorizeCallback;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.sasl.WildFlySasl;
+import org.wildfly.sasl.benchmark.BenchmarkCallbackHandler;
+import org.wildfly.sasl.callback.ScramCredentialCallback;
+
+/**
+ * A complete SCRAM authentication: client first message, server first message, client proof and server signature.
+ * The server verifies against a stored credential so only the client can spend time on the salted password.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ScramBenchmark {
+
+    private static final String PROTOCOL = "TestProtocol";
+    private static final String SERVER_NAME = "TestServer";
+    private static final String USERNAME = "George";
+    private static final byte[] SALT = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+    private static final int ITERATION_COUNT = 4096;
+
+    @Param({ ScramServerFactory.SCRAM_SHA_256, ScramServerFactory.SCRAM_SHA_1 })
+    private String mechanism = ScramServerFactory.SCRAM_SHA_256;
+
+    /**
+     * The value of {@link WildFlySasl#SCRAM_KEY_CACHE}, "false" derives the salted password on every handshake.
+     */
+    @Param({ "true", "false" })
+    private String keyCache = "true";
+
+    private ScramServerFactory serverFactory;
+    private ScramClientFactory clientFactory;
+    private String[] mechanisms;
+    private Map<String, Object> serverProps;
+    private Map<String, Object> clientProps;
+    private CallbackHandler serverCallback;
+    private CallbackHandler clientCallback;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        serverFactory = new ScramServerFactory();
+        clientFactory = new ScramClientFactory();
+        mechanisms = new String[] { mechanism };
+        serverProps = new HashMap<String, Object>();
+        clientProps = new HashMap<String, Object>();
+        clientProps.put(WildFlySasl.SCRAM_KEY_CACHE, keyCache);
+        byte[] saltedPassword = ScramUtil.getSaltedPassword(mechanism, "gpwd".toCharArray(), SALT, ITERATION_COUNT);
+        serverCallback = new CredentialCallbackHandler(ScramUtil.getStoredKey(mechanism, saltedPassword),
+                ScramUtil.getServerKey(mechanism, saltedPassword));
+        clientCallback = new BenchmarkCallbackHandler(USERNAME, "gpwd".toCharArray());
+        ScramKeyCache.SHARED.clear();
+    }
+
+    @Benchmark
+    public String handshake() throws SaslException {
+        SaslServer server = serverFactory.createSaslServer(mechanism, PROTOCOL, SERVER_NAME, serverProps, serverCallback);
+        SaslClient client = clientFactory.createSaslClient(mechanisms, null, PROTOCOL, SERVER_NAME, clientProps, clientCallback);
+
+        byte[] message = client.evaluateChallenge(new byte[0]);
+        message = server.evaluateResponse(message);
+        message = client.evaluateChallenge(message);
+        message = server.evaluateResponse(message);
+        client.evaluateChallenge(message);
+        if (server.isComplete() == false || client.isComplete() == false) {
+            throw new IllegalStateException("Handshake did not complete");
+        }
+        String authorizationId = server.getAuthorizationID();
+        client.dispose();
+        server.dispose();
+        return authorizationId;
+    }
+
+    /**
+     * Supplies the precomputed stored credential of {@link #USERNAME}, as a server backed by a user store would.
+     */
+    private static final class CredentialCallbackHandler implements CallbackHandler {
+
+        private final byte[] storedKey;
+        private final byte[] serverKey;
+
+        CredentialCallbackHandler(final byte[] storedKey, final byte[] serverKey) {
+            this.storedKey = storedKey;
+            this.serverKey = serverKey;
+        }
+
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            for (Callback current : callbacks) {
+                if (current instanceof NameCallback) {
+                    if (USERNAME.equals(((NameCallback) current).getDefaultName()) == false) {
+                        throw new IOException("Unexpected user name");
+                    }
+                } else if (current instanceof ScramCredentialCallback) {
+                    ((ScramCredentialCallback) current).setCredential(SALT, ITERATION_COUNT, storedKey, serverKey);
+                } else if (current instanceof AuthorizeCallback) {
+                    AuthorizeCallback acb = (AuthorizeCallback) current;
+                    acb.setAuthorized(acb.getAuthenticationID().equals(acb.getAuthorizationID()));
+                } else {
+                    throw new UnsupportedCallbackException(current);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base64 encoding and decoding of {@code size} random bytes, a 32 byte nonce being the common case.
+ * <p/>
+ * {@code encodePerByte} and {@code decodeBranching} reproduce the former codec, which appended each character to the
+ * {@link ByteStringBuilder} separately and decoded through a chain of range checks, as a baseline.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SaslBase64Benchmark {
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(Charsets.LATIN_1);
+
+    @Param({ "32", "1024" })
+    private int size = 32;
+
+    private byte[] plain;
+    private byte[] encoded;
+    private byte[] encodeTarget;
+    private byte[] decodeTarget;
+    private ByteBuffer directTarget;
+    private ByteStringBuilder builder;
+
+    @Setup
+    public void setup() {
+        plain = new byte[size];
+        new Random(42).nextBytes(plain);
+        ByteStringBuilder bsb = new ByteStringBuilder();
+        SaslBase64.encode(plain, bsb);
+        encoded = bsb.toArray();
+        encodeTarget = new byte[SaslBase64.encodedLength(size)];
+        decodeTarget = new byte[SaslBase64.maxDecodedLength(encoded.length)];
+        directTarget = ByteBuffer.allocateDirect(encodeTarget.length);
+        builder = new ByteStringBuilder();
+
+        ByteStringBuilder baseline = new ByteStringBuilder();
+        encodePerByte(plain, 0, plain.length, baseline);
+        if (baseline.contentEquals(encoded) == false || Arrays.equals(plain, decodeBranching()) == false) {
+            throw new IllegalStateException("Baseline and table driven codecs disagree");
+        }
+    }
+
+    @Benchmark
+    public ByteStringBuilder encodeBuilder() {
+        builder.setLength(0);
+        SaslBase64.encode(plain, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public byte[] encodeArray() {
+        SaslBase64.encode(plain, 0, plain.length, encodeTarget, 0);
+        return encodeTarget;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeDirectBuffer() {
+        directTarget.clear();
+        SaslBase64.encode(plain, 0, plain.length, directTarget);
+        return directTarget;
+    }
+
+    @Benchmark
+    public ByteStringBuilder encodePerByte() {
+        builder.setLength(0);
+        encodePerByte(plain, 0, plain.length, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public ByteStringBuilder decodeBuilder() {
+        builder.setLength(0);
+        SaslBase64.decode(encoded, 0, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public byte[] decodeArray() {
+        SaslBase64.decode(encoded, 0, encoded.length, decodeTarget, 0);
+        return decodeTarget;
+    }
+
+    @Benchmark
+    public byte[] decodeBranching() {
+        builder.setLength(0);
+        decodeBranching(encoded, 0, encoded.length, builder);
+        return builder.toArray();
+    }
+
+    private static void encodePerByte(byte[] original, int offset, int len, ByteStringBuilder target) {
+        int count = 0;
+        byte s;
+        while (count < len) {
+            s = original[offset + count++];
+            target.append(ALPHABET, (s & 0xff) >>> 2, 1);
+            if (count == len) {
+                target.append(ALPHABET, (s & 0xff) << 4 & 0x3f, 1).append('=').append('=');
+                return;
+            }
+            target.append(ALPHABET, ((s & 0xff) << 4 | ((s = original[offset + count++]) & 0xff) >>> 4) & 0x3f, 1);
+            if (count == len) {
+                target.append(ALPHABET, (s & 0xff) << 2 & 0x3f, 1).append('=');
+                return;
+            }
+            target.append(ALPHABET, ((s & 0xff) << 2 | ((s = original[offset + count++]) & 0xff) >>> 6) & 0x3f, 1);
+            target.append(ALPHABET, s & 0x3f, 1);
+        }
+    }
+
+    private static int decodeByte(byte b) {
+        if (b >= 'A' && b <= 'Z') {
+            return b - 'A';
+        } else if (b >= 'a' && b <= 'z') {
+            return b - 'a' + 26;
+        } else if (b >= '0' && b <= '9') {
+            return b - '0' + 52;
+        } else if (b == '+') {
+            return 62;
+        } else if (b == '/') {
+            return 63;
+        } else if (b == '=') {
+            return -2;
+        } else {
+            return -1;
+        }
+    }
+
+    private static void decodeBranching(byte[] encoded, int offset, int len, ByteStringBuilder target) {
+        int count = 0;
+        int t1, t2;
+        while (count < len) {
+            t1 = decodeByte(encoded[offset + count++]);
+            t2 = decodeByte(encoded[offset + count++]);
+            target.append((byte) ((t1 & 0xff) << 2 | (t2 & 0xff) >>> 4));
+            t1 = decodeByte(encoded[offset + count++]);
+            if (t1 == -2) {
+                return;
+            }
+            target.append((byte) ((t2 & 0xff) << 4 | (t1 & 0xff) >>> 2));
+            t2 = decodeByte(encoded[offset + count++]);
+            if (t2 == -2) {
+                return;
+            }
+            target.append((byte) ((t1 & 0xff) << 6 | t2));
+        }
+    }
+}
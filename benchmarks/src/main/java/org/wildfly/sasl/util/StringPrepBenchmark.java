@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SASLprep of a typical user name, a typical password and a non-ASCII name into a reused {@link ByteStringBuilder}.
+ * <p/>
+ * {@code perCodePoint} reproduces the former encoding, which normalized every string and applied each prohibition
+ * check to each code point in turn, as a baseline. Run with {@code -prof gc} (the default in
+ * {@link org.wildfly.sasl.benchmark.BenchmarkMain}): the ASCII inputs should show no allocation at all for
+ * {@code compiled}.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StringPrepBenchmark {
+
+    @Param({ "username", "password", "unicode" })
+    private String input = "username";
+
+    private String string;
+    private final ByteStringBuilder target = new ByteStringBuilder();
+    private final StringPrep.Profile profile = StringPrep.compile(StringPrep.PROFILE_SASL_STORED);
+
+    @Setup
+    public void setup() {
+        if ("username".equals(input)) {
+            string = "jsmith@example.com";
+        } else if ("password".equals(input)) {
+            string = "Tr0ub4dor&3-correct horse";
+        } else {
+            string = "J\u00FCrgen M\u00FCller-L\u00FCdenscheidt";
+        }
+        byte[] expected = compiled().toArray();
+        if (Arrays.equals(expected, perCodePoint().toArray()) == false) {
+            throw new IllegalStateException("Baseline and compiled profile disagree");
+        }
+    }
+
+    @Benchmark
+    public ByteStringBuilder compiled() {
+        target.reset();
+        profile.encode(string, target);
+        return target;
+    }
+
+    @Benchmark
+    public ByteStringBuilder perCodePoint() {
+        target.reset();
+        final String normalized = Normalizer.normalize(string, Normalizer.Form.NFKC);
+        final int len = normalized.length();
+        int i = 0;
+        while (i < len) {
+            final int ch = normalized.codePointAt(i);
+            i += Character.charCount(ch);
+            Character.getDirectionality(ch);
+            if (StringPrep.mapCodePointToNothing(ch)) continue;
+            if (StringPrep.mapCodePointToSpace(ch)) {
+                target.append(' ');
+                continue;
+            }
+            StringPrep.forbidNonAsciiSpaces(ch);
+            StringPrep.forbidAsciiControl(ch);
+            StringPrep.forbidNonAsciiControl(ch);
+            StringPrep.forbidPrivateUse(ch);
+            StringPrep.forbidNonCharacter(ch);
+            StringPrep.forbidSurrogate(ch);
+            StringPrep.forbidInappropriateForPlainText(ch);
+            StringPrep.forbidInappropriateForCanonicalRepresentation(ch);
+            StringPrep.forbidChangeDisplayPropertiesOrDeprecated(ch);
+            StringPrep.forbidTagging(ch);
+            StringPrep.forbidUnassigned(ch);
+            target.appendUtf8Raw(ch);
+        }
+        return target;
+    }
+}
@@ -41,6 +41,16 @@ public final class WildFlySasl {
      */
     public static final String GSSAPI_DELEGATE_CREDENTIAL = "wildfly.sasl.gssapi.client.delegate-credential";
 
+    /**
+     * Property name for the number of seconds a GSSAPI server caches the acceptor credential for its protocol and server
+     * name, so that only the {@link org.ietf.jgss.GSSContext} is created for each authentication.  A cached credential is
+     * refreshed shortly before it expires.  The property value is an {@link Integer} or a {@link String}.  The default
+     * value is "0" which acquires a new credential for every authentication.
+     *
+     * Note: This is a server only property and is not used client side.
+     */
+    public static final String GSSAPI_CREDENTIAL_CACHE_TTL = "wildfly.sasl.gssapi.server.credential-cache-ttl";
+
     /**
      * The various specifications for the SASL mechanisms mandate certain behaviour and verification of that behaviour at the
      * opposite side of the connection, unfortunately when interacting with other SASL mechanism implementations some of these
@@ -59,12 +69,78 @@ public final class WildFlySasl {
      */
     public static final String SCRAM_MAX_ITERATION_COUNT = "wildfly.sasl.scram.max-iteration-count";
 
+    /**
+     * Property name to specify if a SCRAM client should keep the keys it derives from a password, salt and iteration
+     * count, so that authenticating again with the same password does not repeat the iterated hashing.  The keys are
+     * held in memory only, indexed by a keyed hash rather than the password itself.  The property value is "true" or
+     * "false".  The default value is "true".
+     *
+     * Note: This is a client only property and is not used server side.
+     */
+    public static final String SCRAM_KEY_CACHE = "wildfly.sasl.scram.client.key-cache";
+
+    /**
+     * Property name for the time in microseconds that deriving the salted password of a new SCRAM credential may take
+     * on this host, for example "2000".  When set the server measures the cost of the derivation and recommends the
+     * highest iteration count within this budget and within {@link #SCRAM_MIN_ITERATION_COUNT} and
+     * {@link #SCRAM_MAX_ITERATION_COUNT} to the callback handler, see
+     * {@link org.wildfly.sasl.callback.ScramCredentialCallback#getRecommendedIterationCount()}.  The property value is
+     * an {@link Integer} or a {@link String}.  The default value is "0" which disables the measurement.
+     *
+     * Note: This is a server only property and is not used client side.
+     */
+    public static final String SCRAM_ITERATION_BUDGET = "wildfly.sasl.scram.server.iteration-budget";
+
+    /**
+     * Property name for the number of seconds after which a SCRAM server measures the cost of the salted password
+     * derivation again, so that the recommended iteration count follows changes in load.  The property value is an
+     * {@link Integer} or a {@link String}.  The default value is "300", "0" measures only once.
+     *
+     * Note: This is a server only property and is not used client side.
+     */
+    public static final String SCRAM_RECALIBRATION_INTERVAL = "wildfly.sasl.scram.server.recalibration-interval";
+
     /**
      * Property name for the algorithm name of a {@link SecureRandom} implementation to use.  Using this property can
      * improve security, at the cost of performance.
      */
     public static final String SECURE_RNG = "wildfly.sasl.secure-rng";
 
+    /**
+     * Property name for the number of seconds a DIGEST-MD5 server keeps a nonce usable for subsequent authentication as
+     * described in RFC 2831 section 2.2.  The property value is an {@link Integer} or a {@link String}.  The default
+     * value is "0" which disables subsequent authentication.
+     *
+     * Note: This is a server only property and is not used client side.
+     */
+    public static final String DIGEST_NONCE_LIFETIME = "wildfly.sasl.digest.server.nonce-lifetime";
+
+    /**
+     * Property name for the number of disposed DIGEST-MD5 servers kept for reuse with each configuration, so that
+     * connections do not pay the construction cost of a new server.  A pooled server is given back to the pool by
+     * {@link javax.security.sasl.SaslServer#dispose()} and must not be used after that.  The property value is an
+     * {@link Integer} or a {@link String}.  The default value is "0" which disables pooling.
+     *
+     * Note: This is a server only property and is not used client side.
+     */
+    public static final String DIGEST_SERVER_POOL_SIZE = "wildfly.sasl.digest.server.pool-size";
+
+    /**
+     * Property name for the cipher-values a DIGEST-MD5 client or server may use for the auth-conf quality of protection,
+     * a comma separated list of "3des", "rc4", "des", "rc4-56" and "rc4-40" in order of preference.  Cipher-values
+     * without an available implementation are left out.  The default is all of them in the order listed here.
+     */
+    public static final String DIGEST_CIPHERS = "wildfly.sasl.digest.ciphers";
+
+    /**
+     * Property name to specify if a DIGEST-MD5 client should remember the nonce of a previous authentication with the same
+     * server and attempt subsequent authentication with it, saving the challenge round trip.  The property value is
+     * "true" or "false".  The default value is "false".
+     *
+     * Note: This is a client only property and is not used server side.
+     */
+    public static final String DIGEST_REAUTHENTICATION = "wildfly.sasl.digest.client.reauthentication";
+
     /**
      * Property name for indicating a channel binding type to use.  Can also be read as a negotiated property indicating
      * the type of binding which was negotiated, or {@code null} if no channel binding was negotiated.
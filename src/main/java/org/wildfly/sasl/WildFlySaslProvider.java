@@ -23,6 +23,8 @@ import static org.wildfly.sasl.gssapi.AbstractGssapiFactory.GSSAPI;
 import static org.wildfly.sasl.localuser.LocalUserSaslFactory.JBOSS_LOCAL_USER;
 import static org.wildfly.sasl.md5digest.MD5DigestServerFactory.JBOSS_DIGEST_MD5;
 import static org.wildfly.sasl.plain.PlainServerFactory.PLAIN;
+import static org.wildfly.sasl.scram.ScramServerFactory.SCRAM_SHA_1;
+import static org.wildfly.sasl.scram.ScramServerFactory.SCRAM_SHA_256;
 
 import java.security.Provider;
 
@@ -38,6 +40,8 @@ import org.wildfly.sasl.localuser.LocalUserServerFactory;
 import org.wildfly.sasl.md5digest.MD5DigestClientFactory;
 import org.wildfly.sasl.md5digest.MD5DigestServerFactory;
 import org.wildfly.sasl.plain.PlainServerFactory;
+import org.wildfly.sasl.scram.ScramClientFactory;
+import org.wildfly.sasl.scram.ScramServerFactory;
 
 
 /**
@@ -71,6 +75,10 @@ public class WildFlySaslProvider extends Provider {
         put(SASL_CLIENT_FACTORY + DOT + GSSAPI, GssapiClientFactory.class.getName());
         put(SASL_CLIENT_FACTORY + DOT + JBOSS_DIGEST_MD5, MD5DigestClientFactory.class.getName());
         put(SASL_SERVER_FACTORY + DOT + JBOSS_DIGEST_MD5, MD5DigestServerFactory.class.getName());
+        put(SASL_CLIENT_FACTORY + DOT + SCRAM_SHA_256, ScramClientFactory.class.getName());
+        put(SASL_SERVER_FACTORY + DOT + SCRAM_SHA_256, ScramServerFactory.class.getName());
+        put(SASL_CLIENT_FACTORY + DOT + SCRAM_SHA_1, ScramClientFactory.class.getName());
+        put(SASL_SERVER_FACTORY + DOT + SCRAM_SHA_1, ScramServerFactory.class.getName());
     }
 
     /**
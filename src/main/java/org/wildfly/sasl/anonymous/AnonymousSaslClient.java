@@ -37,6 +37,20 @@ import org.wildfly.sasl.util.StringPrep;
  */
 public final class AnonymousSaslClient extends AbstractSaslClient {
 
+    private static final StringPrep.Profile TRACE_PROFILE = StringPrep.compile(0
+        | StringPrep.MAP_TO_NOTHING
+        | StringPrep.MAP_TO_SPACE
+        | StringPrep.FORBID_ASCII_CONTROL
+        | StringPrep.FORBID_NON_ASCII_CONTROL
+        | StringPrep.FORBID_PRIVATE_USE
+        | StringPrep.FORBID_NON_CHARACTER
+        | StringPrep.FORBID_SURROGATE
+        | StringPrep.FORBID_INAPPROPRIATE_FOR_PLAIN_TEXT
+        | StringPrep.FORBID_CHANGE_DISPLAY_AND_DEPRECATED
+        | StringPrep.FORBID_TAGGING
+        | StringPrep.NORMALIZE_KC
+    );
+
     private final SaslState initial = new SaslState() {
         public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
             if (message != null && message.length > 0) {
@@ -55,19 +69,7 @@ public final class AnonymousSaslClient extends AbstractSaslClient {
                 throw new SaslException("Authentication name is empty");
             }
             ByteStringBuilder b = new ByteStringBuilder();
-            StringPrep.encode(name, b, 0
-                | StringPrep.MAP_TO_NOTHING
-                | StringPrep.MAP_TO_SPACE
-                | StringPrep.FORBID_ASCII_CONTROL
-                | StringPrep.FORBID_NON_ASCII_CONTROL
-                | StringPrep.FORBID_PRIVATE_USE
-                | StringPrep.FORBID_NON_CHARACTER
-                | StringPrep.FORBID_SURROGATE
-                | StringPrep.FORBID_INAPPROPRIATE_FOR_PLAIN_TEXT
-                | StringPrep.FORBID_CHANGE_DISPLAY_AND_DEPRECATED
-                | StringPrep.FORBID_TAGGING
-                | StringPrep.NORMALIZE_KC
-            );
+            TRACE_PROFILE.encode(name, b);
             context.negotiationComplete();
             return b.toArray();
         }
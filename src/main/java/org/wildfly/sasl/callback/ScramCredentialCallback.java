@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.callback;
+
+import javax.security.auth.callback.Callback;
+
+/**
+ * Callback to allow SCRAM mechanisms to request the stored credential of a user: the salt and iteration count used to
+ * derive the salted password, together with the StoredKey and ServerKey of RFC 5802 derived from it.
+ * <p/>
+ * Verifying against these keys only takes a few hash operations, the iterated derivation of the salted password is
+ * done once when the credential is stored, see {@link org.wildfly.sasl.scram.ScramUtil}.  The keys depend on the hash
+ * function of the mechanism, which is given by {@link #getMechanismName()}.
+ */
+public class ScramCredentialCallback implements Callback {
+
+    private final String mechanismName;
+    private final int recommendedIterationCount;
+    private byte[] salt;
+    private int iterationCount;
+    private byte[] storedKey;
+    private byte[] serverKey;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param mechanismName - the SCRAM mechanism the credential is requested for, such as "SCRAM-SHA-256".
+     */
+    public ScramCredentialCallback(final String mechanismName) {
+        this(mechanismName, 0);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param mechanismName - the SCRAM mechanism the credential is requested for, such as "SCRAM-SHA-256".
+     * @param recommendedIterationCount - the iteration count recommended for a new credential, or 0 for none.
+     */
+    public ScramCredentialCallback(final String mechanismName, final int recommendedIterationCount) {
+        this.mechanismName = mechanismName;
+        this.recommendedIterationCount = recommendedIterationCount;
+    }
+
+    /**
+     * Get the SCRAM mechanism the credential is requested for.
+     *
+     * @return the mechanism name.
+     */
+    public String getMechanismName() {
+        return mechanismName;
+    }
+
+    /**
+     * Get the iteration count recommended for a credential derived now, calibrated against the time the derivation may
+     * take on this host.  A handler which derives the credential on demand, or which upgrades a stored credential when
+     * its iteration count falls behind, should use this count.
+     *
+     * @return the recommended iteration count, or 0 if the server has no recommendation.
+     */
+    public int getRecommendedIterationCount() {
+        return recommendedIterationCount;
+    }
+
+    /**
+     * Set the stored credential of the user.
+     *
+     * @param salt - the salt used to derive the salted password.
+     * @param iterationCount - the iteration count used to derive the salted password.
+     * @param storedKey - the StoredKey, {@code H(HMAC(SaltedPassword, "Client Key"))}.
+     * @param serverKey - the ServerKey, {@code HMAC(SaltedPassword, "Server Key")}.
+     */
+    public void setCredential(final byte[] salt, final int iterationCount, final byte[] storedKey, final byte[] serverKey) {
+        this.salt = salt;
+        this.iterationCount = iterationCount;
+        this.storedKey = storedKey;
+        this.serverKey = serverKey;
+    }
+
+    /**
+     * Determine whether a credential has been set on this Callback.
+     *
+     * @return {@code true} if a credential has been set.
+     */
+    public boolean isCredentialSet() {
+        return storedKey != null;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public int getIterationCount() {
+        return iterationCount;
+    }
+
+    public byte[] getStoredKey() {
+        return storedKey;
+    }
+
+    public byte[] getServerKey() {
+        return serverKey;
+    }
+}
@@ -18,6 +18,10 @@
 
 package org.wildfly.sasl.gssapi;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -31,7 +35,7 @@ import org.ietf.jgss.Oid;
 import org.jboss.logging.Logger;
 import org.wildfly.sasl.WildFlySasl;
 import org.wildfly.sasl.util.AbstractSaslParticipant;
-import org.wildfly.sasl.util.SaslWrapper;
+import org.wildfly.sasl.util.AbstractSaslWrapper;
 
 /**
  * Base class for the SaslServer and SaslClient implementations implementing the GSSAPI mechanism as defined by RFC 4752
@@ -240,17 +244,22 @@ abstract class AbstractGssapiMechanism extends AbstractSaslParticipant {
 
     }
 
-    protected class GssapiWrapper implements SaslWrapper {
+    protected class GssapiWrapper extends AbstractSaslWrapper {
 
         private final boolean confidential;
+        // one MessageProp for each direction, reset before each use
+        private final MessageProp wrapProp;
+        private final MessageProp unwrapProp;
 
         protected GssapiWrapper(final boolean confidential) {
             this.confidential = confidential;
+            this.wrapProp = new MessageProp(0, confidential);
+            this.unwrapProp = new MessageProp(0, confidential);
         }
 
         @Override
         public byte[] wrap(byte[] outgoing, int offset, int len) throws SaslException {
-            MessageProp prop = new MessageProp(0, confidential);
+            MessageProp prop = resetProp(wrapProp);
             try {
                 byte[] response = gssContext.wrap(outgoing, offset, len, prop);
                 log.tracef("Wrapping message of length '%d' resulting message of length '%d'", len, response.length);
@@ -262,7 +271,7 @@ abstract class AbstractGssapiMechanism extends AbstractSaslParticipant {
 
         @Override
         public byte[] unwrap(byte[] incoming, int offset, int len) throws SaslException {
-            MessageProp prop = new MessageProp(0, confidential);
+            MessageProp prop = resetProp(unwrapProp);
             try {
                 byte[] response = gssContext.unwrap(incoming, offset, len, prop);
                 log.tracef("Unwrapping message of length '%d' resulting message of length '%d'", len, response.length);
@@ -272,5 +281,165 @@ abstract class AbstractGssapiMechanism extends AbstractSaslParticipant {
             }
         }
 
+        @Override
+        public int wrap(ByteBuffer source, ByteBuffer target) throws SaslException {
+            final int len = source.remaining();
+            final int written = wrapFrame(source, target);
+            log.tracef("Wrapping message of length '%d' resulting message of length '%d'", len, written);
+            return written;
+        }
+
+        @Override
+        public int unwrap(ByteBuffer source, ByteBuffer target) throws SaslException {
+            final int len = source.remaining();
+            final int written = unwrapFrame(source, target);
+            log.tracef("Unwrapping message of length '%d' resulting message of length '%d'", len, written);
+            return written;
+        }
+
+        @Override
+        public int wrap(ByteBuffer[] sources, int offset, int length, ByteBuffer target) throws SaslException {
+            final int count = super.wrap(sources, offset, length, target);
+            log.tracef("Wrapped %d of %d messages", count, length);
+            return count;
+        }
+
+        @Override
+        public int unwrap(ByteBuffer source, ByteBuffer[] targets, int offset, int length) throws SaslException {
+            final int count = super.unwrap(source, targets, offset, length);
+            log.tracef("Unwrapped %d messages", count);
+            return count;
+        }
+
+        @Override
+        protected int wrapFrame(ByteBuffer source, ByteBuffer target) throws SaslException {
+            MessageProp prop = resetProp(wrapProp);
+            final int len = source.remaining();
+            try {
+                // check before wrapping as each wrap uses up a sequence number of the context
+                if (gssContext.getWrapSizeLimit(0, confidential, target.remaining()) < len) {
+                    throw new BufferOverflowException();
+                }
+                final int written;
+                if (source.hasArray()) {
+                    byte[] response = gssContext.wrap(source.array(), source.arrayOffset() + source.position(), len, prop);
+                    written = put(response, target);
+                } else {
+                    written = transfer(source, target, prop, true);
+                }
+                source.position(source.limit());
+                return written;
+            } catch (GSSException e) {
+                throw new SaslException("Unable to wrap message.", e);
+            }
+        }
+
+        @Override
+        protected int unwrapFrame(ByteBuffer source, ByteBuffer target) throws SaslException {
+            MessageProp prop = resetProp(unwrapProp);
+            final int len = source.remaining();
+            // the context consumes the token and its sequence number, so the room must be known to suffice beforehand;
+            // a message is never longer than its token
+            if (target.remaining() < len) {
+                throw new BufferOverflowException();
+            }
+            try {
+                final int written;
+                if (source.hasArray()) {
+                    byte[] response = gssContext.unwrap(source.array(), source.arrayOffset() + source.position(), len, prop);
+                    written = put(response, target);
+                } else {
+                    written = transfer(source, target, prop, false);
+                }
+                source.position(source.limit());
+                return written;
+            } catch (GSSException e) {
+                throw new SaslException("Unable to unwrap message.", e);
+            }
+        }
+
+        private MessageProp resetProp(MessageProp prop) {
+            prop.setQOP(0);
+            prop.setPrivacy(confidential);
+            return prop;
+        }
+
+        private int put(byte[] response, ByteBuffer target) {
+            if (response.length > target.remaining()) {
+                throw new BufferOverflowException();
+            }
+            target.put(response);
+            return response.length;
+        }
+
+        /**
+         * Stream a direct buffer through the GSSContext, the token is written straight to the target.
+         */
+        private int transfer(ByteBuffer source, ByteBuffer target, MessageProp prop, boolean wrap) throws GSSException {
+            final ByteBuffer out = target.duplicate();
+            final InputStream is = new ByteBufferInputStream(source.duplicate());
+            final OutputStream os = new ByteBufferOutputStream(out);
+            if (wrap) {
+                gssContext.wrap(is, os, prop);
+            } else {
+                gssContext.unwrap(is, os, prop);
+            }
+            final int written = out.position() - target.position();
+            target.position(out.position());
+            return written;
+        }
+
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            final int remaining = buffer.remaining();
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            final int cnt = Math.min(len, remaining);
+            buffer.get(b, off, cnt);
+            return cnt;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private static final class ByteBufferOutputStream extends OutputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferOutputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
     }
 }
\ No newline at end of file
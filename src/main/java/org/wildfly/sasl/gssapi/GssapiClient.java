@@ -21,6 +21,7 @@ package org.wildfly.sasl.gssapi;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
@@ -36,6 +37,7 @@ import org.ietf.jgss.MessageProp;
 import org.jboss.logging.Logger;
 import org.wildfly.sasl.WildFlySasl;
 import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.SaslEvaluationListener;
 import org.wildfly.sasl.util.SaslState;
 import org.wildfly.sasl.util.SaslStateContext;
 
@@ -189,6 +191,17 @@ public class GssapiClient extends AbstractGssapiMechanism implements SaslClient
         return evaluateMessage(challenge);
     }
 
+    /**
+     * Evaluate an authentication challenge on the given executor, notifying the listener of the response to send back.
+     *
+     * @param challenge the authentication challenge
+     * @param executor the executor to run the evaluation, including any callbacks
+     * @param listener the listener to notify of the outcome
+     */
+    public void evaluateChallenge(final byte[] challenge, final Executor executor, final SaslEvaluationListener listener) {
+        evaluateMessage(challenge, executor, listener);
+    }
+
     /**
      * GSSAPI is a client first mechanism, this state both verifies that requirement is met and provides the first token from
      * the client.
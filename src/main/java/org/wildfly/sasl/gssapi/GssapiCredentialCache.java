@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.gssapi;
+
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.jboss.logging.Logger;
+
+/**
+ * A cache of acceptor credentials so that each new {@link GssapiServer} only has to create its {@link GSSContext}.
+ * <p/>
+ * Credentials are held per host based service name and per {@link Subject} in effect when they were acquired, the
+ * Subject being where the Kerberos keys come from.  A credential is used for the configured time to live, or its own
+ * remaining lifetime if shorter.  Once 80% of that time has passed the next caller acquires a fresh credential while
+ * other callers carry on using the current one, so the cost is not paid by many connections at the expiry.
+ */
+final class GssapiCredentialCache {
+
+    private static final Logger log = Logger.getLogger(GssapiCredentialCache.class);
+
+    static final GssapiCredentialCache SHARED = new GssapiCredentialCache();
+
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    /**
+     * Get an acceptor credential for the service name, acquiring a new one if there is none cached or it is due for
+     * refresh.
+     *
+     * @param manager the manager to acquire credentials from
+     * @param localName the host based service name, protocol@serverName
+     * @param ttl the time to live of a credential in nanoseconds
+     * @return the credential
+     */
+    GSSCredential getAcceptorCredential(GSSManager manager, String localName, long ttl) throws GSSException {
+        final Key key = new Key(localName, Subject.getSubject(AccessController.getContext()));
+        final long now = System.nanoTime();
+        final Entry current;
+        synchronized (entries) {
+            current = entries.get(key);
+            if (current != null && now - current.expiry < 0) {
+                if (now - current.refreshAt < 0 || current.refreshing) {
+                    return current.credential;
+                }
+                // this caller refreshes, everyone else keeps using the current credential until it expires
+                current.refreshing = true;
+            }
+        }
+
+        final GSSCredential credential;
+        try {
+            credential = createAcceptorCredential(manager, localName);
+        } catch (GSSException e) {
+            if (current != null && System.nanoTime() - current.expiry < 0) {
+                log.debugf(e, "Unable to refresh acceptor credential for '%s', using the current credential", localName);
+                synchronized (entries) {
+                    current.refreshing = false;
+                }
+                return current.credential;
+            }
+            throw e;
+        }
+        long lifetime = ttl;
+        final int remaining = credential.getRemainingAcceptLifetime(null);
+        if (remaining != GSSCredential.INDEFINITE_LIFETIME) {
+            lifetime = Math.min(lifetime, TimeUnit.SECONDS.toNanos(remaining));
+        }
+        synchronized (entries) {
+            purge();
+            entries.put(key, new Entry(credential, now + lifetime, now + lifetime / 5 * 4));
+        }
+        return credential;
+    }
+
+    /**
+     * Acquire a new acceptor credential for the service name.
+     */
+    static GSSCredential createAcceptorCredential(GSSManager manager, String localName) throws GSSException {
+        GSSName ourName = manager.createName(localName, GSSName.NT_HOSTBASED_SERVICE, AbstractGssapiMechanism.KERBEROS_V5);
+        return manager.createCredential(ourName, GSSContext.INDEFINITE_LIFETIME, AbstractGssapiMechanism.KERBEROS_V5,
+                GSSCredential.ACCEPT_ONLY);
+    }
+
+    /**
+     * Drop the entries of Subjects which have been garbage collected.
+     */
+    private void purge() {
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().isCleared()) {
+                keys.remove();
+            }
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * A service name and the identity of a Subject, which is only weakly referenced.
+     */
+    private static final class Key {
+
+        private final String name;
+        private final WeakReference<Subject> subject;
+        private final int hashCode;
+
+        Key(final String name, final Subject subject) {
+            this.name = name;
+            this.subject = subject == null ? null : new WeakReference<Subject>(subject);
+            this.hashCode = name.hashCode() * 31 + System.identityHashCode(subject);
+        }
+
+        boolean isCleared() {
+            return subject != null && subject.get() == null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key == false) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            if (hashCode != other.hashCode || name.equals(other.name) == false) {
+                return false;
+            }
+            if (subject == null || other.subject == null) {
+                return subject == other.subject;
+            }
+            final Subject s = subject.get();
+            return s != null && s == other.subject.get();
+        }
+    }
+
+    private static final class Entry {
+
+        private final GSSCredential credential;
+        private final long expiry;
+        private final long refreshAt;
+        private boolean refreshing;
+
+        Entry(final GSSCredential credential, final long expiry, final long refreshAt) {
+            this.credential = credential;
+            this.expiry = expiry;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
@@ -19,6 +19,8 @@
 package org.wildfly.sasl.gssapi;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -30,11 +32,12 @@ import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSCredential;
 import org.ietf.jgss.GSSException;
 import org.ietf.jgss.GSSManager;
-import org.ietf.jgss.GSSName;
 import org.ietf.jgss.MessageProp;
 import org.ietf.jgss.Oid;
 import org.jboss.logging.Logger;
+import org.wildfly.sasl.WildFlySasl;
 import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.SaslEvaluationListener;
 import org.wildfly.sasl.util.SaslState;
 import org.wildfly.sasl.util.SaslStateContext;
 
@@ -61,9 +64,14 @@ public class GssapiServer extends AbstractGssapiMechanism implements SaslServer
         log.tracef("Our name '%s'", localName);
         GSSContext gssContext = null;
         try {
-            GSSName ourName = manager.createName(localName, GSSName.NT_HOSTBASED_SERVICE, KERBEROS_V5);
-            GSSCredential ourCredential = manager.createCredential(ourName, GSSContext.INDEFINITE_LIFETIME, KERBEROS_V5,
-                    GSSCredential.ACCEPT_ONLY);
+            final int credentialTtl = getCredentialCacheTtl(props);
+            final GSSCredential ourCredential;
+            if (credentialTtl > 0) {
+                ourCredential = GssapiCredentialCache.SHARED.getAcceptorCredential(manager, localName,
+                        TimeUnit.SECONDS.toNanos(credentialTtl));
+            } else {
+                ourCredential = GssapiCredentialCache.createAcceptorCredential(manager, localName);
+            }
 
             gssContext = manager.createContext(ourCredential);
         } catch (GSSException e) {
@@ -75,6 +83,21 @@ public class GssapiServer extends AbstractGssapiMechanism implements SaslServer
         this.gssContext = gssContext;
     }
 
+    private static int getCredentialCacheTtl(final Map<String, ?> props) throws SaslException {
+        Object value = props.get(WildFlySasl.GSSAPI_CREDENTIAL_CACHE_TTL);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Integer) {
+            return ((Integer) value).intValue();
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid value for " + WildFlySasl.GSSAPI_CREDENTIAL_CACHE_TTL + ": " + value, e);
+        }
+    }
+
     @Override
     public void init() {
         getContext().setNegotiationState(new AcceptorState());
@@ -92,6 +115,17 @@ public class GssapiServer extends AbstractGssapiMechanism implements SaslServer
         return evaluateMessage(response);
     }
 
+    /**
+     * Evaluate an authentication response on the given executor, notifying the listener of the challenge to send back.
+     *
+     * @param response the authentication response
+     * @param executor the executor to run the evaluation, including any callbacks
+     * @param listener the listener to notify of the outcome
+     */
+    public void evaluateResponse(final byte[] response, final Executor executor, final SaslEvaluationListener listener) {
+        evaluateMessage(response, executor, listener);
+    }
+
     // States
 
     // 1 - Acceptor State
@@ -0,0 +1,261 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.localuser;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the challenge files of JBOSS-LOCAL-USER servers which are abandoned or whose deadline has passed, so that
+ * servers need no finalizer.
+ * <p/>
+ * Each challenge file is tracked by a {@link PhantomReference} to the server that created it.  A single daemon thread
+ * deletes the file once the server has become unreachable or the deadline of the challenge has passed, whichever
+ * comes first; a server which completes or is disposed deletes its file itself.  The first time a challenge directory
+ * is used the thread also deletes challenge files older than the deadline which were left there by a process which
+ * did not get the chance to clean up after itself.
+ * <p/>
+ * Challenges held in {@link ChallengeSlots} are tracked the same way, their slot is released instead of a file
+ * being deleted.  The scan of a directory also deletes the slot files of processes which have gone.
+ */
+final class ChallengeFileReaper implements Runnable {
+
+    static final String PREFIX = "local";
+    static final String SUFFIX = ".challenge";
+
+    /**
+     * How often the thread checks the deadlines of outstanding challenges.
+     */
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    private static final ChallengeFileReaper INSTANCE = new ChallengeFileReaper();
+
+    private static final FilenameFilter CHALLENGE_FILES = new FilenameFilter() {
+        public boolean accept(final File dir, final String name) {
+            return name.startsWith(PREFIX) && (name.endsWith(SUFFIX) || name.endsWith(ChallengeSlots.SUFFIX));
+        }
+    };
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    private final Set<Challenge> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<Challenge, Boolean>());
+    private final Set<File> scannedPaths = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final ConcurrentLinkedQueue<OrphanScan> pendingScans = new ConcurrentLinkedQueue<OrphanScan>();
+    private volatile Thread thread;
+
+    private ChallengeFileReaper() {
+    }
+
+    static ChallengeFileReaper getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start tracking a challenge file.
+     *
+     * @param owner the server the file belongs to
+     * @param file the challenge file
+     * @param timeoutMillis the time after which the file is deleted even if the owner is still reachable, or 0 for no
+     *        deadline
+     * @return the tracked challenge, to be {@link Challenge#delete() deleted} by the owner once done with it
+     */
+    Challenge track(final Object owner, final File file, final long timeoutMillis) {
+        ensureStarted();
+        scan(file.getParentFile(), timeoutMillis);
+        return track(new Challenge(owner, queue, file, null, -1, timeoutMillis));
+    }
+
+    /**
+     * Start tracking a challenge held in a slot.
+     *
+     * @param owner the server the slot belongs to
+     * @param slots the slots
+     * @param slot the slot number
+     * @param timeoutMillis the time after which the slot is released even if the owner is still reachable, or 0 for
+     *        no deadline
+     * @return the tracked challenge, to be {@link Challenge#delete() deleted} by the owner once done with it
+     */
+    Challenge track(final Object owner, final ChallengeSlots slots, final int slot, final long timeoutMillis) {
+        ensureStarted();
+        scan(slots.getFile().getParentFile(), timeoutMillis);
+        return track(new Challenge(owner, queue, null, slots, slot, timeoutMillis));
+    }
+
+    private void scan(final File directory, final long timeoutMillis) {
+        if (timeoutMillis > 0 && directory != null && scannedPaths.add(directory)) {
+            pendingScans.add(new OrphanScan(directory, timeoutMillis));
+        }
+    }
+
+    private Challenge track(final Challenge challenge) {
+        outstanding.add(challenge);
+        return challenge;
+    }
+
+    /**
+     * Get the number of challenge files currently tracked.
+     */
+    int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    private void ensureStarted() {
+        if (thread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (thread == null) {
+                final SecurityManager sm = System.getSecurityManager();
+                if (sm != null) {
+                    thread = AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+                        public Thread run() {
+                            return startThread();
+                        }
+                    });
+                } else {
+                    thread = startThread();
+                }
+            }
+        }
+    }
+
+    private Thread startThread() {
+        final Thread reaper = new Thread(this, "JBOSS-LOCAL-USER challenge reaper");
+        reaper.setDaemon(true);
+        // do not pin the class loader of whichever deployment happened to start the thread
+        reaper.setContextClassLoader(null);
+        reaper.start();
+        return reaper;
+    }
+
+    public void run() {
+        for (;;) {
+            try {
+                OrphanScan scan;
+                while ((scan = pendingScans.poll()) != null) {
+                    scan.run();
+                }
+                Reference<?> reference = queue.remove(CHECK_INTERVAL_MILLIS);
+                while (reference != null) {
+                    ((Challenge) reference).delete();
+                    reference = queue.poll();
+                }
+                final long now = System.nanoTime();
+                for (Challenge challenge : outstanding) {
+                    if (challenge.isExpired(now)) {
+                        challenge.delete();
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // nothing else to do on this thread
+            } catch (RuntimeException ignored) {
+                // keep reaping, a single file that cannot be deleted is no reason to leak the others
+            }
+        }
+    }
+
+    /**
+     * A challenge file or slot and its deadline, which becomes enqueued once the server which created it is
+     * unreachable.
+     */
+    final class Challenge extends PhantomReference<Object> {
+
+        private final File file;
+        private final ChallengeSlots slots;
+        private final int slot;
+        private final boolean hasDeadline;
+        private final long deadline;
+
+        Challenge(final Object owner, final ReferenceQueue<Object> queue, final File file, final ChallengeSlots slots, final int slot,
+                final long timeoutMillis) {
+            super(owner, queue);
+            this.file = file;
+            this.slots = slots;
+            this.slot = slot;
+            this.hasDeadline = timeoutMillis > 0;
+            this.deadline = hasDeadline ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        }
+
+        boolean isExpired() {
+            return isExpired(System.nanoTime());
+        }
+
+        boolean isExpired(final long now) {
+            return hasDeadline && now - deadline >= 0;
+        }
+
+        /**
+         * Delete the file or release the slot, if this has not been done already, and stop tracking it.
+         */
+        void delete() {
+            clear();
+            if (outstanding.remove(this)) {
+                if (slots != null) {
+                    slots.release(slot);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the challenge files in a directory which are older than the deadline of a challenge, and the slot files
+     * of the same age whose process has gone.
+     */
+    private static final class OrphanScan {
+
+        private final File directory;
+        private final long maxAgeMillis;
+
+        OrphanScan(final File directory, final long maxAgeMillis) {
+            this.directory = directory;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        void run() {
+            final File[] files = directory.listFiles(CHALLENGE_FILES);
+            if (files == null) {
+                return;
+            }
+            final long oldest = System.currentTimeMillis() - maxAgeMillis;
+            for (File file : files) {
+                final long modified = file.lastModified();
+                if (modified == 0 || modified >= oldest || file.isFile() == false) {
+                    continue;
+                }
+                if (file.getName().endsWith(ChallengeSlots.SUFFIX)) {
+                    // a live process keeps its slot file however old
+                    ChallengeSlots.deleteIfAbandoned(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.localuser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A preallocated file of JBOSS-LOCAL-USER challenges, memory mapped by the server, as an alternative to creating a
+ * file for every challenge.
+ * <p/>
+ * The file is created the same way as a challenge file, with the default permissions of the process, so the trust model
+ * is the same: a client proves it runs as a user with access to the file by reading the challenge from it, and who
+ * that is depends on the umask and the permissions of the challenge directory.  The server writes a challenge to a
+ * free slot of the mapping and sends the path of the file with the slot number; the client reads the slot at its offset
+ * in the file.  Writes to the mapping are visible to reads of the file by other processes as both go through the page
+ * cache, no forced write to disk is needed.
+ * <p/>
+ * A slot is zeroed when it is released so that an old challenge cannot be read from it.  One file is created per
+ * challenge directory and slot count by each process, and deleted when the process exits.  The process also holds a
+ * lock on the file while it lives, past the end of the slots so that reads of the challenges are never blocked; a
+ * file whose lock can be taken was left behind by a process which has gone, and is deleted by
+ * {@link #deleteIfAbandoned(File)}.
+ */
+final class ChallengeSlots {
+
+    static final int CHALLENGE_SIZE = 8;
+    static final String PREFIX = "local";
+    static final String SUFFIX = ".challenge-slots";
+
+    /**
+     * The largest number of slots, which keeps the mapping at a few megabytes.
+     */
+    static final int MAX_SLOTS = 1 << 20;
+
+    /**
+     * The byte locked by the process which created a file, which no slot reaches.
+     */
+    private static final long LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    private static final ConcurrentMap<String, ChallengeSlots> INSTANCES = new ConcurrentHashMap<String, ChallengeSlots>();
+
+    private final File file;
+    /**
+     * Kept open for the lifetime of the process, closing it would release the lock.
+     */
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    /**
+     * A bit for each slot, set while the slot is in use.
+     */
+    private final AtomicLongArray used;
+    /**
+     * Where the search for a free slot starts, advanced on each allocation so that slots are reused as late as
+     * possible.
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+    private ChallengeSlots(final File file, final FileChannel channel, final MappedByteBuffer buffer, final int slotCount) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.used = new AtomicLongArray((slotCount + 63) >>> 6);
+    }
+
+    /**
+     * Get the slots of this process for the given challenge directory, creating the file on first use.
+     *
+     * @param basePath the challenge directory
+     * @param slotCount the number of slots, between 1 and {@link #MAX_SLOTS}
+     * @return the slots
+     * @throws IOException if the file cannot be created or mapped
+     */
+    static ChallengeSlots getInstance(final File basePath, final int slotCount) throws IOException {
+        final String key = basePath.getPath() + File.pathSeparatorChar + slotCount;
+        ChallengeSlots slots = INSTANCES.get(key);
+        if (slots == null) {
+            synchronized (INSTANCES) {
+                slots = INSTANCES.get(key);
+                if (slots == null) {
+                    slots = create(basePath, slotCount);
+                    INSTANCES.put(key, slots);
+                }
+            }
+        }
+        return slots;
+    }
+
+    private static ChallengeSlots create(final File basePath, final int slotCount) throws IOException {
+        if (slotCount < 1 || slotCount > MAX_SLOTS) {
+            throw new IllegalArgumentException("Invalid challenge slot count " + slotCount);
+        }
+        // same permissions as a challenge file, Files.createTempFile would make it owner only
+        final File file = File.createTempFile(PREFIX, SUFFIX, basePath);
+        file.deleteOnExit();
+        final Path path = file.toPath();
+        boolean ok = false;
+        try {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                if (channel.tryLock(LOCK_POSITION, 1, false) == null) {
+                    throw new IOException("Unable to lock challenge slot file " + file);
+                }
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotCount * CHALLENGE_SIZE);
+                ok = true;
+                return new ChallengeSlots(file, channel, buffer, slotCount);
+            } finally {
+                if (ok == false) {
+                    channel.close();
+                }
+            }
+        } finally {
+            if (ok == false) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete a slot file if the process which created it has gone, which is the case when its lock can be taken.
+     * The files of this process are never touched, as on some platforms closing any channel to a file releases every
+     * lock the process holds on it.
+     *
+     * @param file the slot file
+     * @return {@code true} if the file was deleted
+     */
+    static boolean deleteIfAbandoned(final File file) {
+        for (ChallengeSlots slots : INSTANCES.values()) {
+            if (slots.file.equals(file)) {
+                return false;
+            }
+        }
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            return false;
+        }
+        boolean abandoned = false;
+        try {
+            final FileLock lock = channel.tryLock(LOCK_POSITION, 1, false);
+            if (lock != null) {
+                abandoned = true;
+                lock.release();
+            }
+        } catch (IOException | OverlappingFileLockException ignored) {
+            // held by another process, or this one
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return abandoned && file.delete();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Take a free slot.
+     *
+     * @return the slot number, or -1 if all slots are in use
+     */
+    int allocate() {
+        final int words = used.length();
+        final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % slotCount;
+        int word = start >>> 6;
+        for (int i = 0; i <= words; i++) {
+            long bits = used.get(word);
+            // in the first word only look at or after the start, the last round covers the rest of that word
+            long candidates = ~bits;
+            if (i == 0) {
+                candidates &= -1L << (start & 63);
+            }
+            while (candidates != 0) {
+                final int bit = Long.numberOfTrailingZeros(candidates);
+                final int slot = (word << 6) + bit;
+                if (slot >= slotCount) {
+                    break;
+                }
+                if (used.compareAndSet(word, bits, bits | 1L << bit)) {
+                    return slot;
+                }
+                bits = used.get(word);
+                candidates = ~bits & (i == 0 ? -1L << (start & 63) : -1L);
+            }
+            word = word + 1 == words ? 0 : word + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Write a challenge to a slot taken with {@link #allocate()}.
+     */
+    void write(final int slot, final byte[] challenge) {
+        final int offset = slot * CHALLENGE_SIZE;
+        for (int i = 0; i < CHALLENGE_SIZE; i++) {
+            buffer.put(offset + i, challenge[i]);
+        }
+    }
+
+    /**
+     * Zero a slot and make it free again.
+     */
+    void release(final int slot) {
+        final int offset = slot * CHALLENGE_SIZE;
+        for (int i = 0; i < CHALLENGE_SIZE; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+        final int word = slot >>> 6;
+        final long bit = 1L << (slot & 63);
+        long bits;
+        do {
+            bits = used.get(word);
+        } while (used.compareAndSet(word, bits, bits & ~bit) == false);
+    }
+}
@@ -22,6 +22,11 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 
 import org.wildfly.sasl.util.AbstractSaslClient;
@@ -71,26 +76,14 @@ public final class LocalUserClient extends AbstractSaslClient {
                 }
                 context.setNegotiationState(new SaslState() {
                     public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
-                        final String path = new String(message, Charsets.UTF_8);
-                        final File file = new File(path);
-                        final byte[] challenge = new byte[8];
-                        int t = 0;
-                        try {
-                            final FileInputStream stream = new FileInputStream(file);
-                            try {
-                                while (t < 8) {
-                                    int r = stream.read(challenge, t, 8-t);
-                                    if (r < 0) {
-                                        throw new SaslException("Invalid server challenge");
-                                    } else {
-                                        t += r;
-                                    }
-                                }
-                            } finally {
-                                safeClose(stream);
-                            }
-                        } catch (IOException e) {
-                            throw new SaslException("Failed to read server challenge", e);
+                        final int separator = Charsets.indexOf(message, UTF8NUL);
+                        final byte[] challenge;
+                        if (separator == -1) {
+                            challenge = readChallengeFile(new String(message, Charsets.UTF_8));
+                        } else {
+                            final String path = new String(message, 0, separator, Charsets.UTF_8);
+                            final String slot = new String(message, separator + 1, message.length - separator - 1, Charsets.UTF_8);
+                            challenge = readChallengeSlot(path, slot);
                         }
                         String authenticationId = getAuthorizationId();
                         String authenticationRealm = null;
@@ -119,6 +112,62 @@ public final class LocalUserClient extends AbstractSaslClient {
         });
     }
 
+    private static byte[] readChallengeFile(final String path) throws SaslException {
+        final File file = new File(path);
+        final byte[] challenge = new byte[8];
+        int t = 0;
+        try {
+            final FileInputStream stream = new FileInputStream(file);
+            try {
+                while (t < 8) {
+                    int r = stream.read(challenge, t, 8-t);
+                    if (r < 0) {
+                        throw new SaslException("Invalid server challenge");
+                    } else {
+                        t += r;
+                    }
+                }
+            } finally {
+                safeClose(stream);
+            }
+        } catch (IOException e) {
+            throw new SaslException("Failed to read server challenge", e);
+        }
+        return challenge;
+    }
+
+    /**
+     * Read a challenge from a slot of the server's challenge slot file, the slot number in decimal.
+     */
+    private static byte[] readChallengeSlot(final String path, final String slot) throws SaslException {
+        final long position;
+        try {
+            position = Integer.parseInt(slot) * 8L;
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid server challenge", e);
+        }
+        if (position < 0) {
+            throw new SaslException("Invalid server challenge");
+        }
+        final byte[] challenge = new byte[8];
+        final ByteBuffer buffer = ByteBuffer.wrap(challenge);
+        try {
+            final FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new SaslException("Invalid server challenge");
+                    }
+                }
+            } finally {
+                safeClose(channel);
+            }
+        } catch (IOException | InvalidPathException e) {
+            throw new SaslException("Failed to read server challenge", e);
+        }
+        return challenge;
+    }
+
     private static void safeClose(Closeable c) {
         if (c != null) try {
             c.close();
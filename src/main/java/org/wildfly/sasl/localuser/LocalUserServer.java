@@ -28,6 +28,7 @@ import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
@@ -54,16 +55,24 @@ public final class LocalUserServer extends AbstractSaslServer implements SaslSer
     public static final String LEGACY_LOCAL_USER_CHALLENGE_PATH = "jboss.sasl.local-user.challenge-path";
     public static final String DEFAULT_USER = "wildfly.sasl.local-user.default-user";
     public static final String LEGACY_DEFAULT_USER = "jboss.sasl.local-user.default-user";
+    // Seconds after which an unanswered challenge file is deleted and the challenge rejected, 0 for no limit. Default to 60
+    public static final String LOCAL_USER_CHALLENGE_TIMEOUT = "wildfly.sasl.local-user.challenge-timeout";
+    // Number of challenge slots in a shared memory mapped file used instead of a file per challenge, 0 for a file per
+    // challenge. Default to 0, clients must support slots when enabled
+    public static final String LOCAL_USER_CHALLENGE_SLOTS = "wildfly.sasl.local-user.challenge-slots";
 
     private static final byte UTF8NUL = 0x00;
+    private static final int DEFAULT_CHALLENGE_TIMEOUT = 60;
 
     private volatile String authorizationId;
-    private volatile File challengeFile;
+    private volatile ChallengeFileReaper.Challenge challenge;
     private final File basePath;
     private final String defaultUser;
     private final boolean useSecureRandom;
+    private final long challengeTimeoutMillis;
+    private final int challengeSlotCount;
 
-    LocalUserServer(final String protocol, final String serverName, final Map<String, ?> props, final CallbackHandler callbackHandler) {
+    LocalUserServer(final String protocol, final String serverName, final Map<String, ?> props, final CallbackHandler callbackHandler) throws SaslException {
         super(LocalUserSaslFactory.JBOSS_LOCAL_USER, protocol, serverName, callbackHandler);
         String value;
         if (props.containsKey(LOCAL_USER_CHALLENGE_PATH)) {
@@ -109,6 +118,32 @@ public final class LocalUserServer extends AbstractSaslServer implements SaslSer
         } else {
             defaultUser = null;
         }
+
+        final int challengeTimeout = getIntSetting(props, LOCAL_USER_CHALLENGE_TIMEOUT, DEFAULT_CHALLENGE_TIMEOUT);
+        challengeTimeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(0, challengeTimeout));
+
+        challengeSlotCount = getIntSetting(props, LOCAL_USER_CHALLENGE_SLOTS, 0);
+    }
+
+    /**
+     * Get an integer property from the properties, or failing that from the system properties.
+     */
+    private static int getIntSetting(final Map<String, ?> props, final String name, final int defaultValue) throws SaslException {
+        Object value = props.get(name);
+        if (value == null) {
+            value = getProperty(name);
+        }
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Integer) {
+            return ((Integer) value).intValue();
+        }
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid value for " + name + ": " + value, e);
+        }
     }
 
     private static String getProperty(final String name) {
@@ -146,46 +181,33 @@ public final class LocalUserServer extends AbstractSaslServer implements SaslSer
                 } else {
                     authorizationId = new String(message, Charsets.UTF_8);
                 }
-                final Random random = getRandom();
-                try {
-                    challengeFile = File.createTempFile("local", ".challenge", basePath);
-                } catch (IOException e) {
-                    throw new SaslException("Failed to create challenge file", e);
-                }
-
-                final FileOutputStream fos;
-                try {
-                    fos = new FileOutputStream(challengeFile);
-                } catch (FileNotFoundException e) {
-                    throw new SaslException("Failed to create challenge file", e);
-                }
-                boolean ok = false;
-                final byte[] bytes;
-                try {
-                    bytes = new byte[8];
-                    random.nextBytes(bytes);
-                    try {
-                        fos.write(bytes);
-                        fos.close();
-                        ok = true;
-                    } catch (IOException e) {
-                        throw new SaslException("Failed to create challenge file", e);
-                    }
-                } finally {
-                    if (!ok) {
-                        deleteChallenge();
-                    }
-                    try {
-                        fos.close();
-                    } catch (Throwable ignored) {
-                    }
+                final byte[] bytes = new byte[8];
+                getRandom().nextBytes(bytes);
+                final ChallengeSlots slots = getChallengeSlots();
+                final int slot = slots == null ? -1 : slots.allocate();
+                final byte[] response;
+                if (slot >= 0) {
+                    challenge = ChallengeFileReaper.getInstance().track(LocalUserServer.this, slots, slot, challengeTimeoutMillis);
+                    slots.write(slot, bytes);
+                    // the path and the slot number separated by a NUL, which a path cannot contain
+                    final String path = slots.getFile().getAbsolutePath();
+                    final String slotNumber = Integer.toString(slot);
+                    final int pathLength = Charsets.encodedLengthOf(path);
+                    response = new byte[pathLength + 1 + slotNumber.length()];
+                    Charsets.encodeTo(path, response, 0);
+                    Charsets.encodeTo(slotNumber, response, pathLength + 1);
+                } else {
+                    // no slots configured or all of them in use
+                    response = writeChallengeFile(bytes);
                 }
-                final String path = challengeFile.getAbsolutePath();
-                final byte[] response = new byte[Charsets.encodedLengthOf(path)];
-                Charsets.encodeTo(path, response, 0);
                 getContext().setNegotiationState(new SaslState() {
                     public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
+                        final ChallengeFileReaper.Challenge current = challenge;
+                        final boolean expired = current != null && current.isExpired();
                         deleteChallenge();
+                        if (expired) {
+                            throw new SaslException("Challenge expired");
+                        }
                         final int length = message.length;
                         if (length < 8) {
                             throw new SaslException("Invalid response");
@@ -238,6 +260,60 @@ public final class LocalUserServer extends AbstractSaslServer implements SaslSer
         });
     }
 
+    private ChallengeSlots getChallengeSlots() throws SaslException {
+        if (challengeSlotCount == 0) {
+            return null;
+        }
+        if (challengeSlotCount < 0 || challengeSlotCount > ChallengeSlots.MAX_SLOTS) {
+            throw new SaslException("Invalid challenge slot count " + challengeSlotCount);
+        }
+        try {
+            return ChallengeSlots.getInstance(basePath, challengeSlotCount);
+        } catch (IOException e) {
+            throw new SaslException("Failed to create challenge slots", e);
+        }
+    }
+
+    private byte[] writeChallengeFile(final byte[] bytes) throws SaslException {
+        final File challengeFile;
+        try {
+            challengeFile = File.createTempFile(ChallengeFileReaper.PREFIX, ChallengeFileReaper.SUFFIX, basePath);
+        } catch (IOException e) {
+            throw new SaslException("Failed to create challenge file", e);
+        }
+        challenge = ChallengeFileReaper.getInstance().track(this, challengeFile, challengeTimeoutMillis);
+
+        final FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(challengeFile);
+        } catch (FileNotFoundException e) {
+            deleteChallenge();
+            throw new SaslException("Failed to create challenge file", e);
+        }
+        boolean ok = false;
+        try {
+            try {
+                fos.write(bytes);
+                fos.close();
+                ok = true;
+            } catch (IOException e) {
+                throw new SaslException("Failed to create challenge file", e);
+            }
+        } finally {
+            if (!ok) {
+                deleteChallenge();
+            }
+            try {
+                fos.close();
+            } catch (Throwable ignored) {
+            }
+        }
+        final String path = challengeFile.getAbsolutePath();
+        final byte[] response = new byte[Charsets.encodedLengthOf(path)];
+        Charsets.encodeTo(path, response, 0);
+        return response;
+    }
+
     public String getAuthorizationID() {
         assertComplete();
 
@@ -245,9 +321,10 @@ public final class LocalUserServer extends AbstractSaslServer implements SaslSer
     }
 
     private void deleteChallenge() {
-        if (challengeFile != null) {
-            challengeFile.delete();
-            challengeFile = null;
+        final ChallengeFileReaper.Challenge current = challenge;
+        if (current != null) {
+            challenge = null;
+            current.delete();
         }
     }
 
@@ -256,9 +333,4 @@ public final class LocalUserServer extends AbstractSaslServer implements SaslSer
         super.dispose();
         deleteChallenge();
     }
-
-    @Override
-    protected void finalize() throws Throwable {
-        deleteChallenge();
-    }
 }
@@ -18,22 +18,28 @@
 
 package org.wildfly.sasl.md5digest;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.security.Provider;
+import java.security.Security;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
 
+import org.wildfly.sasl.WildFlySasl;
 import org.wildfly.sasl.util.AbstractSaslParticipant;
 import org.wildfly.sasl.util.ByteStringBuilder;
 import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.DigestPool;
 import org.wildfly.sasl.util.HexConverter;
-import org.wildfly.sasl.util.SaslBase64;
+import org.wildfly.sasl.util.NonceGenerator;
 
 /**
  * 
@@ -44,15 +50,19 @@ abstract class AbstractMD5DigestMechanism extends AbstractSaslParticipant {
     
     public static enum FORMAT {CLIENT, SERVER}; 
     
-    private static final int MAX_PARSED_RESPONSE_SIZE = 13;
     private static final String algorithm = "MD5";
     static String authMethod = "AUTHENTICATE";
-    private static String SECURITY_MARK = "00000000000000000000000000000000";   // 32 zeros
-    private static int NONCE_SIZE = 36;
+    private static final byte[] SECURITY_MARK = "00000000000000000000000000000000".getBytes(Charsets.LATIN_1);   // 32 zeros
+    private static final byte[] HEX_BYTES = "0123456789abcdef".getBytes(Charsets.LATIN_1);
+    private static final int NONCE_SIZE = 36;
 
     public static final int DEFAULT_MAXBUF = 65536;
     public static final char DELIMITER = ',';
     public static final String DEFAULT_QOP = "auth";
+    public static final String QOP_AUTH_INT = "auth-int";
+    public static final String QOP_AUTH_CONF = "auth-conf";
+    // the largest maxbuf-value allowed by RFC 2831
+    public static final int MAX_MAXBUF = 16777215;
     public static final String[] CIPHER_OPTS = {"des", "3des", "rc4", "rc4-40", "rc4-56"};
 
     public static final String[] DEFAULT_CIPHER_NAMES = { 
@@ -61,8 +71,16 @@ abstract class AbstractMD5DigestMechanism extends AbstractSaslParticipant {
         "DES/CBC/NoPadding"   
     };
 
+    // cipher-values in order of preference
+    private static final String[] CIPHER_PREFERENCE = {"3des", "rc4", "des", "rc4-56", "rc4-40"};
+
+    // the cipher-values found to have an implementation, replaced when the installed providers change
+    private static volatile CipherAvailability cipherAvailability;
+
     private FORMAT format;
     protected String digestURI;
+    private final ParsedDigestMessage parsedMessage = new ParsedDigestMessage();
+    private final NonceGenerator nonceGenerator;
     
     /**
      * @param mechanismName
@@ -71,9 +89,21 @@ abstract class AbstractMD5DigestMechanism extends AbstractSaslParticipant {
      * @param callbackHandler
      */
     public AbstractMD5DigestMechanism(String mechanismName, String protocol, String serverName, CallbackHandler callbackHandler, FORMAT format) {
+        this(mechanismName, protocol, serverName, callbackHandler, format, NonceGenerator.getDefault());
+    }
+
+    /**
+     * @param mechanismName
+     * @param protocol
+     * @param serverName
+     * @param callbackHandler
+     * @param nonceGenerator the source of the random nonce data
+     */
+    public AbstractMD5DigestMechanism(String mechanismName, String protocol, String serverName, CallbackHandler callbackHandler, FORMAT format, NonceGenerator nonceGenerator) {
         super(mechanismName, protocol, serverName, callbackHandler);
         this.format = format;
         this.digestURI = getProtocol() + "/" + getServerName();
+        this.nonceGenerator = nonceGenerator;
     }
 
     
@@ -98,37 +128,126 @@ abstract class AbstractMD5DigestMechanism extends AbstractSaslParticipant {
             return false;
     }
     
-    static String getSupportedCiphers() {
-        StringBuilder ciphers = new StringBuilder();
-        // TODO: introduce system property to get list of ciphers to evaluate
-        // for now stick with default
-        for (String c : DEFAULT_CIPHER_NAMES) {
-            try {
-                Cipher.getInstance(c);
-                if (ciphers.length() > 0) {
-                    ciphers.append(DELIMITER);
+    /**
+     * Get those of the given cipher-values for which a cipher implementation is available, keeping their order.
+     *
+     * @param ciphers the cipher-values in order of preference, {@code null} for all cipher-values in the default order
+     */
+    static String getSupportedCiphers(String[] ciphers) {
+        final CipherAvailability availability = getCipherAvailability();
+        if (ciphers == null) {
+            return availability.supported;
+        }
+        StringBuilder supported = new StringBuilder();
+        for (String cipher : ciphers) {
+            if (availability.isAvailable(cipher)) {
+                if (supported.length() > 0) {
+                    supported.append(DELIMITER);
                 }
-                ciphers.append(c);
-            } catch (NoSuchAlgorithmException e) {
-                // no impl found
-            } catch (NoSuchPaddingException e) {
-                // no impl found
+                supported.append(cipher);
             }
         }
-        
-        return ciphers.toString();
+        return supported.toString();
     }
 
-    static byte[] generateNonce() {
-        SecureRandom random = new SecureRandom();
-        byte[] nonceData = new byte[NONCE_SIZE];
-        random.nextBytes(nonceData);
+    /**
+     * Get the cipher availability for the installed providers, probing for the cipher implementations only if the
+     * providers have changed since the last probe.
+     */
+    private static CipherAvailability getCipherAvailability() {
+        final Provider[] providers = Security.getProviders();
+        CipherAvailability availability = cipherAvailability;
+        if (availability == null || availability.isProbedWith(providers) == false) {
+            cipherAvailability = availability = new CipherAvailability(providers);
+        }
+        return availability;
+    }
 
+    /**
+     * Get the cipher-values configured with {@link WildFlySasl#DIGEST_CIPHERS}, in order of preference.
+     *
+     * @return the cipher-values, or {@code null} if none are configured
+     */
+    static String[] getCiphers(Map<String, ?> props) throws SaslException {
+        Object value = props == null ? null : props.get(WildFlySasl.DIGEST_CIPHERS);
+        if (value == null) {
+            return null;
+        }
+        String[] ciphers = value.toString().trim().split("\\s*,\\s*");
+        for (int i = 0; i < ciphers.length; i++) {
+            String cipher = ciphers[i].toLowerCase(Locale.ENGLISH);
+            if (Arrays.asList(CIPHER_PREFERENCE).contains(cipher) == false) {
+                throw new SaslException("Unsupported cipher " + ciphers[i] + " in " + WildFlySasl.DIGEST_CIPHERS);
+            }
+            ciphers[i] = cipher;
+        }
+        return ciphers;
+    }
+
+    /**
+     * Get the nonce generator for the {@link java.security.SecureRandom} algorithm configured with {@link WildFlySasl#SECURE_RNG}.
+     */
+    static NonceGenerator getNonceGenerator(Map<String, ?> props) throws SaslException {
+        Object algorithm = props == null ? null : props.get(WildFlySasl.SECURE_RNG);
+        if (algorithm == null) {
+            return NonceGenerator.getDefault();
+        }
+        try {
+            return NonceGenerator.getInstance(algorithm.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new SaslException("Secure random algorithm " + algorithm + " is not available", e);
+        }
+    }
+
+    /**
+     * Get the qop-values configured with {@link Sasl#QOP}, in order of preference.
+     */
+    static String[] getQops(Map<String, ?> props) throws SaslException {
+        Object value = props == null ? null : props.get(Sasl.QOP);
+        if (value == null) {
+            return new String[] { DEFAULT_QOP };
+        }
+        String[] qops = value.toString().trim().split("\\s*,\\s*");
+        for (String qop : qops) {
+            if (DEFAULT_QOP.equals(qop) == false && QOP_AUTH_INT.equals(qop) == false && QOP_AUTH_CONF.equals(qop) == false) {
+                throw new SaslException("Unrecognised QOP value '" + qop + "'");
+            }
+        }
+        return qops;
+    }
+
+    /**
+     * Get the receive buffer size configured with {@link Sasl#MAX_BUFFER}.
+     */
+    static int getMaxBuffer(Map<String, ?> props) throws SaslException {
+        Object value = props == null ? null : props.get(Sasl.MAX_BUFFER);
+        if (value == null) {
+            return DEFAULT_MAXBUF;
+        }
+        final int maxbuf;
+        try {
+            maxbuf = Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid value for " + Sasl.MAX_BUFFER + ": " + value, e);
+        }
+        if (maxbuf <= 0 || maxbuf > MAX_MAXBUF) {
+            throw new SaslException(String.format("Receive buffer requested '%d' is outside the supported range 1 - %d.", maxbuf, MAX_MAXBUF));
+        }
+        return maxbuf;
+    }
+
+    byte[] generateNonce() {
         ByteStringBuilder nonceBase64 = new ByteStringBuilder();
-        SaslBase64.encode(nonceData, nonceBase64);
-        
+        appendNonce(nonceBase64);
         return nonceBase64.toArray();
-    }    
+    }
+
+    /**
+     * Append a new Base64 encoded nonce to the target.
+     */
+    void appendNonce(ByteStringBuilder target) {
+        nonceGenerator.appendBase64(NONCE_SIZE, target);
+    }
 
     /**
      * Converts input to HEX and pad it from left with zeros to totalLength.
@@ -138,225 +257,365 @@ abstract class AbstractMD5DigestMechanism extends AbstractSaslParticipant {
      * @return
      */
     static byte[] convertToHexBytesWithLeftPadding(int input, int totalLength) {
-        byte[] retValue = new byte[totalLength];  
-        Arrays.fill(retValue, (byte) '0');
-        byte[] hex = Integer.valueOf(String.valueOf(input), 16).toString().getBytes(Charsets.UTF_8);
-        if (hex.length > totalLength) {
+        byte[] retValue = new byte[totalLength];
+        writeHexWithLeftPadding(input, retValue, 0, totalLength);
+        return retValue;
+    }
+
+    private static void writeHexWithLeftPadding(int input, byte[] target, int offset, int totalLength) {
+        if (totalLength < 8 && input >>> (totalLength << 2) != 0) {
             throw new IllegalArgumentException("totalLength ("+totalLength+") is less than length of conversion result.");
         }
-        
-        int from = totalLength - hex.length;
-        for (int i = 0; i < hex.length; i++) {
-            retValue[from + i] = hex[i];
+        for (int i = offset + totalLength - 1; i >= offset; i--) {
+            target[i] = HEX_BYTES[input & 0x0F];
+            input >>>= 4;
         }
-        return retValue;
     }
-        
+
+    // Scratch space for the response computation, laid out as
+    // [ H(A1) hex (32) | H(A2) hex (32) | nonce-count (8) | raw digest (16) ]
+    private static final int HEX_A1 = 0;
+    private static final int HEX_A2 = 32;
+    private static final int NONCE_COUNT = 64;
+    private static final int RAW_DIGEST = 72;
+    private final byte[] scratch = new byte[88];
+
+    // H(A1) of the last response-value computed, from which the security layer keys are derived
+    private final byte[] hA1 = new byte[16];
+
+    // Scratch space for encoding strings which are fed to the digest
+    private byte[] encodeBuffer = new byte[64];
+
+    @Override
+    protected void reset(final CallbackHandler callbackHandler) {
+        Arrays.fill(hA1, (byte) 0);
+        Arrays.fill(scratch, (byte) 0);
+        super.reset(callbackHandler);
+    }
+
     byte[] digestResponse(String username, String realm, char[] password, 
             byte[] nonce, int nonce_count, byte[] cnonce,
             String authzid, String qop, String digest_uri) throws NoSuchAlgorithmException {
 
-        MessageDigest md5 = MessageDigest.getInstance(algorithm);
+        byte[] response = new byte[32];
+        digestResponse(username, realm, password, nonce, nonce_count, cnonce, authzid, qop, digest_uri, response, 0);
+        return response;
+    }
 
-        ByteStringBuilder urp = new ByteStringBuilder(); // username:realm:password
-        urp.appendLatin1(username);
-        urp.append(':');
-        if (realm == null) {
-            urp.appendLatin1("");
-        } else {
-            urp.appendLatin1(realm);
+    /**
+     * Compute the response-value from the plain text password, writing the 32 hex bytes to the target array.
+     */
+    void digestResponse(String username, String realm, char[] password,
+            byte[] nonce, int nonce_count, byte[] cnonce,
+            String authzid, String qop, String digest_uri,
+            byte[] target, int offset) throws NoSuchAlgorithmException {
+
+        // the raw digest area is only used once H(urp) has been fed to the A1 digest
+        digestUserRealmPassword(username, realm, password, scratch, RAW_DIGEST);
+        digestResponse(scratch, RAW_DIGEST, nonce, nonce_count, cnonce, authzid, qop, digest_uri, target, offset);
+    }
+
+    /**
+     * Compute H({ username-value, ":", realm-value, ":", passwd }), the value which may also be stored in place of the
+     * plain text password and supplied through a {@link org.wildfly.sasl.callback.DigestHashCallback}.
+     */
+    byte[] digestUserRealmPassword(String username, String realm, char[] password) throws NoSuchAlgorithmException {
+        byte[] digest_urp = new byte[16];
+        digestUserRealmPassword(username, realm, password, digest_urp, 0);
+        return digest_urp;
+    }
+
+    private void digestUserRealmPassword(String username, String realm, char[] password, byte[] target, int offset) throws NoSuchAlgorithmException {
+        MessageDigest md5 = DigestPool.getMessageDigest(algorithm);
+        try {
+            // username:realm:password
+            updateLatin1(md5, username);
+            md5.update((byte) ':');
+            if (realm != null) {
+                updateLatin1(md5, realm);
+            }
+            md5.update((byte) ':');
+            updateLatin1(md5, password);
+
+            digestInto(md5, target, offset);
+        } finally {
+            DigestPool.release(md5);
+        }
+    }
+
+    /**
+     * Compute the response-value from an already digested username:realm:password.
+     */
+    byte[] digestResponse(byte[] digest_urp,
+            byte[] nonce, int nonce_count, byte[] cnonce,
+            String authzid, String qop, String digest_uri) throws NoSuchAlgorithmException {
+
+        byte[] response = new byte[32];
+        digestResponse(digest_urp, 0, nonce, nonce_count, cnonce, authzid, qop, digest_uri, response, 0);
+        return response;
+    }
+
+    /**
+     * Compute the response-value from an already digested username:realm:password, writing the 32 hex bytes to the
+     * target array.
+     * <p/>
+     * Each part is fed to the digest as it is produced so nothing is allocated.
+     */
+    void digestResponse(byte[] digest_urp, int digest_urp_offset,
+            byte[] nonce, int nonce_count, byte[] cnonce,
+            String authzid, String qop, String digest_uri,
+            byte[] target, int offset) throws NoSuchAlgorithmException {
+
+        MessageDigest md5 = DigestPool.getMessageDigest(algorithm);
+        try {
+            // A1
+            md5.update(digest_urp, digest_urp_offset, 16);
+            md5.update((byte) ':');
+            md5.update(nonce);
+            md5.update((byte) ':');
+            md5.update(cnonce);
+            if (authzid != null) {
+                md5.update((byte) ':');
+                updateUtf8(md5, authzid);
+            }
+            digestInto(md5, hA1, 0);
+
+            digestKD(md5, authMethod, nonce, nonce_count, cnonce, qop, digest_uri, target, offset);
+        } finally {
+            DigestPool.release(md5);
         }
-        urp.append(':');
-        urp.appendLatin1(new String(password));
-
-        byte[] digest_urp = md5.digest(urp.toArray());
-        md5.reset();
-
-        // A1
-        ByteStringBuilder A1 = new ByteStringBuilder();
-        A1.append(digest_urp);
-        A1.append(':');
-        A1.append(nonce);
-        A1.append(':');
-        A1.append(cnonce);
-        if (authzid != null) {
-            A1.append(':');
-            A1.append(authzid);
+    }
+
+    /**
+     * Compute the response-auth value (rspauth) of the last response-value computed, writing the 32 hex bytes to the
+     * target array.
+     */
+    void digestResponseAuth(byte[] nonce, int nonce_count, byte[] cnonce, String qop, String digest_uri,
+            byte[] target, int offset) throws NoSuchAlgorithmException {
+
+        MessageDigest md5 = DigestPool.getMessageDigest(algorithm);
+        try {
+            // A2 has no method for the response-auth
+            digestKD(md5, null, nonce, nonce_count, cnonce, qop, digest_uri, target, offset);
+        } finally {
+            DigestPool.release(md5);
         }
-        byte[] digest_A1 = md5.digest(A1.toArray());
-        md5.reset();
-        
+    }
+
+    /**
+     * KD(HEX(H(A1)), { nonce-value, ":" nc-value, ":", cnonce-value, ":", qop-value, ":", HEX(H(A2)) })
+     */
+    private void digestKD(MessageDigest md5, String method,
+            byte[] nonce, int nonce_count, byte[] cnonce, String qop, String digest_uri,
+            byte[] target, int offset) {
+
+        final byte[] scratch = this.scratch;
+        HexConverter.convertToHexBytes(hA1, 0, 16, scratch, HEX_A1);
+
         // QOP
         String qop_value;
-        if (qop != null && "".equals(qop)) {
+        if (qop != null && "".equals(qop) == false) {
             qop_value = qop;
         } else {
             qop_value = DEFAULT_QOP;
         }
 
         // A2
-        ByteStringBuilder A2 = new ByteStringBuilder();
-        //if (format == FORMAT.CLIENT) { 
-            A2.append(authMethod);
-        //}
-        A2.append(':');
-        A2.append(digest_uri);
-        if ("auth-conf".equals(qop_value) || "auth-int".equals(qop_value)) {
-            A2.append(':');
-            A2.append(SECURITY_MARK);
+        if (method != null) {
+            updateUtf8(md5, method);
+        }
+        md5.update((byte) ':');
+        updateUtf8(md5, digest_uri);
+        if (QOP_AUTH_CONF.equals(qop_value) || QOP_AUTH_INT.equals(qop_value)) {
+            md5.update((byte) ':');
+            md5.update(SECURITY_MARK);
         }
+        digestInto(md5, scratch, RAW_DIGEST);
+        HexConverter.convertToHexBytes(scratch, RAW_DIGEST, 16, scratch, HEX_A2);
 
-        byte[] digest_A2 = md5.digest(A2.toArray());
-        md5.reset();
-        
-        ByteStringBuilder KD = new ByteStringBuilder();
-        KD.append(HexConverter.convertToHexBytes(digest_A1));
-        KD.append(':');
-        KD.append(nonce);
-        KD.append(':');
-        KD.append(convertToHexBytesWithLeftPadding(nonce_count, 8));
-        KD.append(':');
-        KD.append(cnonce);
-        KD.append(':');
-        KD.append(qop_value);
-        KD.append(':');
-        KD.append(HexConverter.convertToHexBytes(digest_A2));
-
-        KD.updateDigest(md5);
-        return HexConverter.convertToHexBytes(md5.digest());
+        // KD
+        md5.update(scratch, HEX_A1, 32);
+        md5.update((byte) ':');
+        md5.update(nonce);
+        md5.update((byte) ':');
+        writeHexWithLeftPadding(nonce_count, scratch, NONCE_COUNT, 8);
+        md5.update(scratch, NONCE_COUNT, 8);
+        md5.update((byte) ':');
+        md5.update(cnonce);
+        md5.update((byte) ':');
+        updateUtf8(md5, qop_value);
+        md5.update((byte) ':');
+        md5.update(scratch, HEX_A2, 32);
+
+        digestInto(md5, scratch, RAW_DIGEST);
+        HexConverter.convertToHexBytes(scratch, RAW_DIGEST, 16, target, offset);
     }
 
     /**
-     * Client side method to parse challenge sent by server.
+     * Install the security layer for the negotiated qop-value, keyed from the last response-value computed.
      *
-     * @param challenge
-     * @return
+     * @param qop the negotiated qop-value
+     * @param cipher the negotiated cipher-value for auth-conf
+     * @return the installed wrapper, or {@code null} if the qop-value has no security layer
      */
-    HashMap<String, byte[]> parseResponse(byte [] challenge) throws SaslException {
-
-        HashMap<String, byte[]> response = new HashMap<String, byte[]> (MAX_PARSED_RESPONSE_SIZE);
-        int i = skipWhiteSpace(challenge, 0);
-
-        StringBuilder key = new StringBuilder(10);
-        ByteStringBuilder value = new ByteStringBuilder();
+    DigestWrapper installSecurityLayer(String qop, String cipher) throws SaslException {
+        final DigestWrapper wrapper;
+        if (QOP_AUTH_INT.equals(qop)) {
+            wrapper = new DigestWrapper(hA1, format == FORMAT.CLIENT, null);
+        } else if (QOP_AUTH_CONF.equals(qop)) {
+            wrapper = new DigestWrapper(hA1, format == FORMAT.CLIENT, cipher);
+        } else {
+            wrapper = null;
+        }
+        setWrapper(wrapper);
+        return wrapper;
+    }
 
-        Integer realmNumber = new Integer(0);
+    private static void digestInto(MessageDigest md5, byte[] target, int offset) {
+        try {
+            md5.digest(target, offset, 16);
+        } catch (DigestException e) {
+            // the target always has room for the 16 byte MD5 result
+            throw new IllegalStateException(e);
+        }
+    }
 
-        boolean insideKey = true;
-        boolean insideQuotedValue = false;
-        boolean expectSeparator = false;
+    private byte[] encodeBuffer(int length) {
+        byte[] buffer = encodeBuffer;
+        if (buffer.length < length) {
+            encodeBuffer = buffer = new byte[Math.max(length, buffer.length << 1)];
+        }
+        return buffer;
+    }
 
-        byte b;
-        while (i < challenge.length) {
-            b = challenge[i];
-            // parsing keyword
-            if (insideKey) {
-                if (b == ',') {
-                    if (key.length() != 0) {
-                        throw new SaslException("DIGEST-MD5 keyword cannot contain ',' " + key.toString());
-                    }
-                }
-                else if (b == '=') {
-                    if (key.length() == 0) {
-                        throw new SaslException("DIGEST-MD5 keyword cannot be empty");
-                    }
-                    insideKey = false;
-                    i = skipWhiteSpace(challenge, i + 1);
-
-                    if (i < challenge.length) {
-                        if (challenge[i] == '"') {
-                            insideQuotedValue = true;
-                            ++i; // Skip quote
-                        }
-                    }
-                    else {
-                        throw new SaslException("No value found for keyword: " + key.toString());
-                    }
-                }
-                else if (isWhiteSpace(b)) {
-                    i = skipWhiteSpace(challenge, i + 1);
+    private void updateLatin1(MessageDigest md5, String s) {
+        final int len = s.length();
+        final byte[] buffer = encodeBuffer(len);
+        char c;
+        for (int i = 0; i < len; i ++) {
+            c = s.charAt(i);
+            if (c > 255) throw new IllegalArgumentException();
+            buffer[i] = (byte) c;
+        }
+        md5.update(buffer, 0, len);
+    }
 
-                    if (i < challenge.length) {
-                        if (challenge[i] != '=') {
-                            throw new SaslException("'=' expected after keyword: " + key.toString());
-                        }
-                    }
-                    else {
-                         throw new SaslException("'=' expected after keyword: " + key.toString());
-                    }
-                }
-                else {
-                    key.append((char)b);
-                    i++;
-                }
+    private void updateLatin1(MessageDigest md5, char[] s) {
+        final int len = s.length;
+        final byte[] buffer = encodeBuffer(len);
+        try {
+            char c;
+            for (int i = 0; i < len; i ++) {
+                c = s[i];
+                if (c > 255) throw new IllegalArgumentException();
+                buffer[i] = (byte) c;
             }
-            // parsing quoted value
-            else if (insideQuotedValue) {
-                if (b == '\\') {
-                    i++; // skip the escape char
-                    if (i < challenge.length) {
-                        value.append((char)challenge[i]);
-                    }
-                    else {
-                        throw new SaslException("Unmatched quote found for value: " + value.toString());
-                    }
-                }
-                else if (b == '"') {
-                    // closing quote
-                    i++;
-                    insideQuotedValue = false;
-                    expectSeparator = true;
-                }
-                else {
-                    value.append((char)b);
-                    i++;
-                }
+            md5.update(buffer, 0, len);
+        } finally {
+            // wipe out the password
+            Arrays.fill(buffer, 0, len, (byte) 0);
+        }
+    }
+
+    private void updateUtf8(MessageDigest md5, String s) {
+        final int len = s.length();
+        // each char takes at most three bytes, a surrogate pair four
+        final byte[] buffer = encodeBuffer(len * 3);
+        int j = 0;
+        int c;
+        int i = 0;
+        while (i < len) {
+            c = s.charAt(i++);
+            if (c < 0x80) {
+                buffer[j++] = (byte) c;
+                continue;
             }
-            // terminated value
-            else if (isWhiteSpace(b) || b == ',') {
-                realmNumber = addToParsedChallenge(response, key, value, realmNumber);
-                key = new StringBuilder();
-                value = new ByteStringBuilder();
-                i = skipWhiteSpace(challenge, i);
-                if (i < challenge.length && challenge[i] == ',') {
-                    expectSeparator = false;
-                    insideKey = true;
-                    i++;
+            if (Character.isHighSurrogate((char) c)) {
+                if (i < len && Character.isLowSurrogate(s.charAt(i))) {
+                    c = Character.toCodePoint((char) c, s.charAt(i++));
+                } else {
+                    throw new IllegalArgumentException();
                 }
             }
-            // expect separator
-            else if (expectSeparator) {
-                String val = new String(value.toArray());
-                throw new SaslException("Expecting comma or linear whitespace after quoted string: \"" + val + "\"");
-            }
-            else {
-                value.append((char)b);
-                i++;
+            if (c < 0x800) {
+                buffer[j++] = (byte) (0xC0 | 0x1F & c >>> 6);
+                buffer[j++] = (byte) (0x80 | 0x3F & c);
+            } else if (c < 0x10000) {
+                buffer[j++] = (byte) (0xE0 | 0x0F & c >>> 12);
+                buffer[j++] = (byte) (0x80 | 0x3F & c >>> 6);
+                buffer[j++] = (byte) (0x80 | 0x3F & c);
+            } else {
+                buffer[j++] = (byte) (0xF0 | 0x07 & c >>> 18);
+                buffer[j++] = (byte) (0x80 | 0x3F & c >>> 12);
+                buffer[j++] = (byte) (0x80 | 0x3F & c >>> 6);
+                buffer[j++] = (byte) (0x80 | 0x3F & c);
             }
         }
+        md5.update(buffer, 0, j);
+    }
 
-        if (insideQuotedValue) {
-            throw new SaslException("Unmatched quote found for value: " + value.toString());
-        }
+    /**
+     * Parse a digest-challenge (client side) or a digest-response (server side).
+     * <p/>
+     * The returned instance is reused by each call and refers directly to the given message, which must not be modified
+     * while the parsed values are in use.
+     *
+     * @param challenge the message to parse
+     * @return the parsed message
+     */
+    ParsedDigestMessage parseResponse(byte [] challenge) throws SaslException {
+        return parsedMessage.parse(challenge);
+    }
+
+    /**
+     * The result of probing for an implementation of each cipher-value with a given list of providers.
+     */
+    private static final class CipherAvailability {
+
+        private final Provider[] providers;
+        private final boolean[] available = new boolean[CIPHER_PREFERENCE.length];
+        private final String supported;
 
-        if (key.length() > 0) {
-            realmNumber = addToParsedChallenge(response, key, value, realmNumber);
+        CipherAvailability(final Provider[] providers) {
+            this.providers = providers;
+            StringBuilder supported = new StringBuilder();
+            for (int i = 0; i < CIPHER_PREFERENCE.length; i++) {
+                try {
+                    Cipher.getInstance(DigestWrapper.getTransformation(CIPHER_PREFERENCE[i]));
+                    available[i] = true;
+                    if (supported.length() > 0) {
+                        supported.append(DELIMITER);
+                    }
+                    supported.append(CIPHER_PREFERENCE[i]);
+                } catch (NoSuchAlgorithmException e) {
+                    // no impl found
+                } catch (NoSuchPaddingException e) {
+                    // no impl found
+                }
+            }
+            this.supported = supported.toString();
         }
 
-        return response;
-    }
-    
-    private int addToParsedChallenge(HashMap<String, byte[]> response, StringBuilder keyBuilder, ByteStringBuilder valueBuilder, int realmNumber) {
-        String k = keyBuilder.toString();
-        byte[] v = valueBuilder.toArray();
-        if (format == FORMAT.CLIENT && "realm".equals(k)) {
-            response.put(k + ":" + String.valueOf(realmNumber), v);
-            realmNumber++;
+        boolean isAvailable(final String cipher) {
+            for (int i = 0; i < CIPHER_PREFERENCE.length; i++) {
+                if (CIPHER_PREFERENCE[i].equals(cipher)) {
+                    return available[i];
+                }
+            }
+            return false;
         }
-        else {
-            response.put(k, v);
+
+        boolean isProbedWith(final Provider[] providers) {
+            // Provider.equals compares the provider properties, the identity is all that matters here
+            if (providers.length != this.providers.length) {
+                return false;
+            }
+            for (int i = 0; i < providers.length; i++) {
+                if (providers[i] != this.providers[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
-        return realmNumber;
     }
-    
 }
@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.sasl.md5digest;
+
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * The directives of the DIGEST-MD5 digest-challenge and digest-response messages (RFC 2831) which are understood by
+ * this implementation, used to index the values held by a {@link ParsedDigestMessage}.
+ */
+enum DigestDirective {
+
+    USERNAME("username"),
+    REALM("realm"),
+    NONCE("nonce"),
+    CNONCE("cnonce"),
+    NONCE_COUNT("nc"),
+    QOP("qop"),
+    DIGEST_URI("digest-uri"),
+    RESPONSE("response"),
+    AUTHZID("authzid"),
+    MAXBUF("maxbuf"),
+    CHARSET("charset"),
+    CIPHER("cipher"),
+    STALE("stale"),
+    ALGORITHM("algorithm"),
+    RSPAUTH("rspauth"),
+    ;
+
+    private static final DigestDirective[] VALUES = values();
+
+    private final byte[] name;
+
+    DigestDirective(final String name) {
+        this.name = name.getBytes(Charsets.LATIN_1);
+    }
+
+    /**
+     * Get the directive with the given name, compared without regard to ASCII case.
+     *
+     * @param bytes the array holding the name
+     * @param offs the offset of the name
+     * @param len the length of the name
+     * @return the directive, or {@code null} if the name is not known
+     */
+    static DigestDirective forName(final byte[] bytes, final int offs, final int len) {
+        outer: for (DigestDirective directive : VALUES) {
+            final byte[] name = directive.name;
+            if (name.length != len) {
+                continue;
+            }
+            for (int i = 0; i < len; i++) {
+                int b = bytes[offs + i];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != name[i]) {
+                    continue outer;
+                }
+            }
+            return directive;
+        }
+        return null;
+    }
+}
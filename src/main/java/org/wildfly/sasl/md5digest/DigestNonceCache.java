@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * The nonces a DIGEST-MD5 server has issued which may still be used for subsequent authentication, together with the
+ * last nonce-count seen for each of them.
+ * <p/>
+ * The cache holds at most a fixed number of nonces, the oldest being dropped first, and each nonce expires at a deadline
+ * given when it is added.
+ */
+final class DigestNonceCache {
+
+    static final int MAX_ENTRIES = 4096;
+
+    /**
+     * The cache shared by all servers.
+     */
+    static final DigestNonceCache SHARED = new DigestNonceCache(MAX_ENTRIES);
+
+    private final LinkedHashMap<String, NonceEntry> entries;
+
+    DigestNonceCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, NonceEntry>(16, 0.75f, false) {
+            protected boolean removeEldestEntry(final Map.Entry<String, NonceEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Add a nonce which has just been used for a successful authentication.
+     *
+     * @param nonce the nonce
+     * @param nonceCount the nonce-count used with it
+     * @param deadline the {@link System#nanoTime()} after which the nonce may no longer be used
+     */
+    synchronized void add(final byte[] nonce, final int nonceCount, final long deadline) {
+        entries.put(key(nonce), new NonceEntry(nonceCount, deadline));
+    }
+
+    /**
+     * Determine whether a nonce may be used again.  The nonce must be present and not expired, and the nonce-count must
+     * be greater than any nonce-count committed for it before.  Nothing is recorded, the nonce-count is only
+     * {@link #commit(byte[], int) committed} once the digest-response using it has been verified, so that a forged
+     * response cannot use up the nonce.
+     *
+     * @param nonce the nonce
+     * @param nonceCount the nonce-count the client sent
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the nonce may be used
+     */
+    synchronized boolean check(final byte[] nonce, final int nonceCount, final long now) {
+        final String key = key(nonce);
+        final NonceEntry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (now - entry.deadline > 0) {
+            entries.remove(key);
+            return false;
+        }
+        return nonceCount > entry.lastNonceCount;
+    }
+
+    /**
+     * Record the nonce-count of a verified digest-response as the last one seen for the nonce.
+     *
+     * @param nonce the nonce
+     * @param nonceCount the nonce-count the client sent
+     * @return {@code true} if the nonce is still present and the nonce-count is still greater than the last one seen,
+     *         {@code false} if another authentication has committed the same or a greater nonce-count in the meantime
+     */
+    synchronized boolean commit(final byte[] nonce, final int nonceCount) {
+        final NonceEntry entry = entries.get(key(nonce));
+        if (entry == null || nonceCount <= entry.lastNonceCount) {
+            return false;
+        }
+        entry.lastNonceCount = nonceCount;
+        return true;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static String key(final byte[] nonce) {
+        return new String(nonce, Charsets.LATIN_1);
+    }
+
+    static final class NonceEntry {
+        int lastNonceCount;
+        final long deadline;
+
+        NonceEntry(final int lastNonceCount, final long deadline) {
+            this.lastNonceCount = lastNonceCount;
+            this.deadline = deadline;
+        }
+    }
+}
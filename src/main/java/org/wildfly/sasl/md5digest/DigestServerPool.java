@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.wildfly.sasl.util.NonceGenerator;
+
+/**
+ * Idle DIGEST-MD5 servers kept for reuse, so that a server with a given configuration is only constructed when none is
+ * idle.  A server is given back to its pool when it is disposed of and is reset before it is handed out again.
+ */
+final class DigestServerPool {
+
+    /**
+     * The most distinct configurations pooled, servers of further configurations are not pooled.
+     */
+    private static final int MAX_CONFIGURATIONS = 64;
+
+    static final DigestServerPool SHARED = new DigestServerPool();
+
+    private final ConcurrentMap<Key, Idle> pools = new ConcurrentHashMap<Key, Idle>();
+
+    /**
+     * Get the idle servers of a configuration.
+     *
+     * @param key the configuration
+     * @param maxIdle the most servers to keep idle
+     * @return the idle servers, or {@code null} if servers of this configuration are not pooled
+     */
+    Idle getIdle(final Key key, final int maxIdle) {
+        Idle idle = pools.get(key);
+        if (idle == null) {
+            if (pools.size() >= MAX_CONFIGURATIONS) {
+                return null;
+            }
+            final Idle created = new Idle();
+            idle = pools.putIfAbsent(key, created);
+            if (idle == null) {
+                idle = created;
+            }
+        }
+        idle.maxIdle = maxIdle;
+        return idle;
+    }
+
+    int size() {
+        int size = 0;
+        for (Idle idle : pools.values()) {
+            size += idle.size.get();
+        }
+        return size;
+    }
+
+    void clear() {
+        pools.clear();
+    }
+
+    /**
+     * The idle servers of a single configuration.
+     */
+    static final class Idle {
+
+        private final ConcurrentLinkedQueue<MD5DigestSaslServer> servers = new ConcurrentLinkedQueue<MD5DigestSaslServer>();
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile int maxIdle;
+
+        MD5DigestSaslServer take() {
+            final MD5DigestSaslServer server = servers.poll();
+            if (server != null) {
+                size.decrementAndGet();
+            }
+            return server;
+        }
+
+        void release(final MD5DigestSaslServer server) {
+            if (size.incrementAndGet() > maxIdle) {
+                size.decrementAndGet();
+                return;
+            }
+            servers.offer(server);
+        }
+    }
+
+    /**
+     * The configuration of a server, servers with equal configurations are interchangeable.
+     */
+    static final class Key {
+
+        private final String[] realms;
+        private final String mechanismName;
+        private final String protocol;
+        private final String serverName;
+        private final NonceGenerator nonceGenerator;
+        private final int nonceLifetime;
+        private final String[] qops;
+        private final int maxbuf;
+        private final String[] ciphers;
+        private final int hashCode;
+
+        Key(final String[] realms, final String mechanismName, final String protocol, final String serverName,
+                final NonceGenerator nonceGenerator, final int nonceLifetime, final String[] qops, final int maxbuf,
+                final String[] ciphers) {
+            this.realms = realms;
+            this.mechanismName = mechanismName;
+            this.protocol = protocol;
+            this.serverName = serverName;
+            this.nonceGenerator = nonceGenerator;
+            this.nonceLifetime = nonceLifetime;
+            this.qops = qops;
+            this.maxbuf = maxbuf;
+            this.ciphers = ciphers;
+            int hashCode = Arrays.hashCode(realms);
+            hashCode = hashCode * 31 + mechanismName.hashCode();
+            hashCode = hashCode * 31 + protocol.hashCode();
+            hashCode = hashCode * 31 + serverName.hashCode();
+            hashCode = hashCode * 31 + System.identityHashCode(nonceGenerator);
+            hashCode = hashCode * 31 + nonceLifetime;
+            hashCode = hashCode * 31 + Arrays.hashCode(qops);
+            hashCode = hashCode * 31 + maxbuf;
+            this.hashCode = hashCode * 31 + Arrays.hashCode(ciphers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof Key == false) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode && nonceGenerator == other.nonceGenerator
+                    && nonceLifetime == other.nonceLifetime && maxbuf == other.maxbuf
+                    && mechanismName.equals(other.mechanismName) && protocol.equals(other.protocol)
+                    && serverName.equals(other.serverName) && Arrays.equals(realms, other.realms)
+                    && Arrays.equals(qops, other.qops) && Arrays.equals(ciphers, other.ciphers);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The previous authentications of DIGEST-MD5 clients, kept to attempt subsequent authentication with the same server.
+ * <p/>
+ * Sessions are keyed by digest-uri, authorization id and user name, at most a fixed number of sessions are kept with the least
+ * recently used being dropped first.  No credential is kept, the callback handler is asked again on each authentication.
+ */
+final class DigestSessionCache {
+
+    static final int MAX_ENTRIES = 256;
+
+    /**
+     * The cache shared by all clients.
+     */
+    static final DigestSessionCache SHARED = new DigestSessionCache(MAX_ENTRIES);
+
+    private final LinkedHashMap<String, Session> sessions;
+    /**
+     * The number of sessions with each server, keyed by digest-uri and authorization id.
+     */
+    private final HashMap<String, Integer> serverCounts = new HashMap<String, Integer>();
+
+    DigestSessionCache(final int maxEntries) {
+        sessions = new LinkedHashMap<String, Session>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry<String, Session> eldest) {
+                if (size() > maxEntries) {
+                    final String key = eldest.getKey();
+                    removed(key.substring(0, key.length() - eldest.getValue().userName.length()));
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized Session get(final String digestURI, final String authorizationId, final String userName) {
+        return sessions.get(key(digestURI, authorizationId, userName));
+    }
+
+    /**
+     * Determine whether there is a session with the server for any user, in which case a client attempts subsequent
+     * authentication once it knows the user name.
+     */
+    synchronized boolean contains(final String digestURI, final String authorizationId) {
+        return serverCounts.containsKey(serverKey(digestURI, authorizationId));
+    }
+
+    synchronized void put(final String digestURI, final String authorizationId, final Session session) {
+        final String serverKey = serverKey(digestURI, authorizationId);
+        if (sessions.put(serverKey + session.userName, session) == null) {
+            final Integer count = serverCounts.get(serverKey);
+            serverCounts.put(serverKey, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Remove the session, unless it has already been replaced.
+     */
+    synchronized void remove(final String digestURI, final String authorizationId, final Session session) {
+        final String key = key(digestURI, authorizationId, session.userName);
+        if (sessions.get(key) == session) {
+            sessions.remove(key);
+            removed(serverKey(digestURI, authorizationId));
+        }
+    }
+
+    private void removed(final String serverKey) {
+        final int count = serverCounts.get(serverKey);
+        if (count == 1) {
+            serverCounts.remove(serverKey);
+        } else {
+            serverCounts.put(serverKey, count - 1);
+        }
+    }
+
+    private static String key(final String digestURI, final String authorizationId, final String userName) {
+        return serverKey(digestURI, authorizationId) + userName;
+    }
+
+    private static String serverKey(final String digestURI, final String authorizationId) {
+        // a marker keeps no authorization id apart from an empty one
+        return authorizationId == null ? digestURI + '\0' + '\0' : digestURI + '\0' + '+' + authorizationId + '\0';
+    }
+
+    static final class Session {
+        final String userName;
+        final String realm;
+        final byte[] nonce;
+        final byte[] cnonce;
+        final Charset charset;
+        final String qop;
+        final int maxbuf;
+        final String cipher;
+        private final AtomicInteger nonceCount;
+
+        Session(final String userName, final String realm, final byte[] nonce, final byte[] cnonce, final Charset charset,
+                final String qop, final int maxbuf, final String cipher, final int nonceCount) {
+            this.userName = userName;
+            this.realm = realm;
+            this.nonce = nonce;
+            this.cnonce = cnonce;
+            this.charset = charset;
+            this.qop = qop;
+            this.maxbuf = maxbuf;
+            this.cipher = cipher;
+            this.nonceCount = new AtomicInteger(nonceCount);
+        }
+
+        /**
+         * Get the nonce-count to use for the next authentication.
+         */
+        int nextNonceCount() {
+            return nonceCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.sasl.SaslException;
+
+import org.wildfly.sasl.util.AbstractSaslWrapper;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.DigestPool;
+
+/**
+ * The DIGEST-MD5 integrity (auth-int) and confidentiality (auth-conf) security layers as defined by RFC 2831 section 2.3
+ * and 2.4.
+ * <p/>
+ * The keyed {@link Mac} and {@link Cipher} instances are created once for the lifetime of the wrapper, the cipher state
+ * carries over from one message to the next as required by the RFC. Instances are not thread safe, each direction keeps
+ * its own sequence number.
+ */
+final class DigestWrapper extends AbstractSaslWrapper {
+
+    private static final byte[] CLIENT_SIGN_MAGIC = "Digest session key to client-to-server signing key magic constant".getBytes(Charsets.LATIN_1);
+    private static final byte[] SERVER_SIGN_MAGIC = "Digest session key to server-to-client signing key magic constant".getBytes(Charsets.LATIN_1);
+    private static final byte[] CLIENT_SEAL_MAGIC = "Digest H(A1) to client-to-server sealing key magic constant".getBytes(Charsets.LATIN_1);
+    private static final byte[] SERVER_SEAL_MAGIC = "Digest H(A1) to server-to-client sealing key magic constant".getBytes(Charsets.LATIN_1);
+
+    private static final String HMAC_ALGORITHM = "HmacMD5";
+
+    // length of the truncated HMAC, the message type and the sequence number of each wrapped message
+    private static final int MAC_LENGTH = 10;
+    private static final int TRAILER_LENGTH = MAC_LENGTH + 6;
+    // the message type, always 1
+    private static final byte MESSAGE_TYPE_HIGH = 0;
+    private static final byte MESSAGE_TYPE_LOW = 1;
+
+    private final Mac sendMac;
+    private final Mac receiveMac;
+    // null for integrity only
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+    // 0 for a stream cipher
+    private final int blockSize;
+
+    private int sendSequenceNumber;
+    private int receiveSequenceNumber;
+
+    // [ padding (at most 8) | HMAC (16) ], the padding and truncated HMAC are encrypted together
+    private final byte[] trailer = new byte[24];
+    private final ByteBuffer trailerBuffer = ByteBuffer.wrap(trailer);
+    private final byte[] sequenceNumber = new byte[4];
+
+    /**
+     * @param hA1 the raw 16 byte H(A1) of the authentication
+     * @param client {@code true} for the client side of the connection
+     * @param cipher the negotiated cipher-value for confidentiality, or {@code null} for integrity only
+     */
+    DigestWrapper(byte[] hA1, boolean client, String cipher) throws SaslException {
+        try {
+            sendMac = createMac(hA1, client ? CLIENT_SIGN_MAGIC : SERVER_SIGN_MAGIC);
+            receiveMac = createMac(hA1, client ? SERVER_SIGN_MAGIC : CLIENT_SIGN_MAGIC);
+            if (cipher == null) {
+                encryptCipher = null;
+                decryptCipher = null;
+                blockSize = 0;
+            } else {
+                final int n = sealingKeyLength(cipher);
+                encryptCipher = createCipher(cipher, Cipher.ENCRYPT_MODE, deriveKey(hA1, n, client ? CLIENT_SEAL_MAGIC : SERVER_SEAL_MAGIC));
+                decryptCipher = createCipher(cipher, Cipher.DECRYPT_MODE, deriveKey(hA1, n, client ? SERVER_SEAL_MAGIC : CLIENT_SEAL_MAGIC));
+                blockSize = "rc4".equals(cipher) || cipher.startsWith("rc4-") ? 0 : 8;
+            }
+        } catch (GeneralSecurityException e) {
+            throw new SaslException("Unable to initialise the security layer", e);
+        }
+    }
+
+    /**
+     * Get the largest message which wraps to at most the given number of bytes.
+     */
+    int getMaxRawSize(int maxbuf) {
+        return maxbuf - TRAILER_LENGTH - blockSize;
+    }
+
+    @Override
+    public byte[] wrap(byte[] outgoing, int offset, int len) throws SaslException {
+        final byte[] result = new byte[len + getPadding(len) + TRAILER_LENGTH];
+        wrap(ByteBuffer.wrap(outgoing, offset, len), ByteBuffer.wrap(result));
+        return result;
+    }
+
+    @Override
+    public byte[] unwrap(byte[] incoming, int offset, int len) throws SaslException {
+        // the message is no longer than the integrity protected or encrypted part
+        final byte[] result = new byte[Math.max(0, len - (decryptCipher == null ? TRAILER_LENGTH : 6))];
+        final int messageLength = unwrap(ByteBuffer.wrap(incoming, offset, len), ByteBuffer.wrap(result));
+        return messageLength == result.length ? result : Arrays.copyOf(result, messageLength);
+    }
+
+    @Override
+    public int wrap(ByteBuffer source, ByteBuffer target) throws SaslException {
+        final int len = source.remaining();
+        final int pad = getPadding(len);
+        final int wrappedLength = len + pad + TRAILER_LENGTH;
+        if (target.remaining() < wrappedLength) {
+            throw new BufferOverflowException();
+        }
+        final byte[] sequenceNumber = this.sequenceNumber;
+        writeInt(sendSequenceNumber, sequenceNumber, 0);
+
+        // HMAC(Ki, {SeqNum, msg})
+        final Mac mac = sendMac;
+        final int start = source.position();
+        mac.update(sequenceNumber);
+        mac.update(source);
+        source.position(start);
+
+        final byte[] trailer = this.trailer;
+        try {
+            mac.doFinal(trailer, pad);
+            if (encryptCipher == null) {
+                // { msg, HMAC[0..9] }
+                target.put(source);
+                target.put(trailer, 0, MAC_LENGTH);
+            } else {
+                // CIPHER(Kc, { msg, pad, HMAC[0..9] })
+                Arrays.fill(trailer, 0, pad, (byte) pad);
+                final ByteBuffer trailerBuffer = this.trailerBuffer;
+                trailerBuffer.clear();
+                trailerBuffer.limit(pad + MAC_LENGTH);
+                encryptCipher.update(source, target);
+                encryptCipher.update(trailerBuffer, target);
+            }
+        } catch (ShortBufferException e) {
+            // the target has been checked for room for the complete message
+            throw new IllegalStateException(e);
+        }
+        target.put(MESSAGE_TYPE_HIGH);
+        target.put(MESSAGE_TYPE_LOW);
+        target.put(sequenceNumber);
+        sendSequenceNumber++;
+        return wrappedLength;
+    }
+
+    @Override
+    public int unwrap(ByteBuffer source, ByteBuffer target) throws SaslException {
+        final int len = source.remaining();
+        if (len < TRAILER_LENGTH) {
+            throw new SaslException("DIGEST-MD5: wrapped message is too short");
+        }
+        final int start = source.position();
+        final int end = source.limit();
+        if (source.get(end - 6) != MESSAGE_TYPE_HIGH || source.get(end - 5) != MESSAGE_TYPE_LOW) {
+            throw new SaslException("DIGEST-MD5: invalid message type");
+        }
+        final byte[] sequenceNumber = this.sequenceNumber;
+        for (int i = 0; i < 4; i++) {
+            sequenceNumber[i] = source.get(end - 4 + i);
+        }
+        if (readInt(sequenceNumber, 0) != receiveSequenceNumber) {
+            throw new SaslException("DIGEST-MD5: invalid sequence number");
+        }
+
+        // check for room before the MAC or cipher sees anything, so that the caller may retry after an overflow
+        final int sealedLength = len - 6;
+        if (decryptCipher == null) {
+            if (target.remaining() < len - TRAILER_LENGTH) {
+                throw new BufferOverflowException();
+            }
+        } else {
+            if (blockSize != 0 && sealedLength % blockSize != 0) {
+                throw new SaslException("DIGEST-MD5: wrapped message is not a multiple of the cipher block size");
+            }
+            if (target.remaining() < sealedLength) {
+                throw new BufferOverflowException();
+            }
+        }
+
+        final Mac mac = receiveMac;
+        final byte[] trailer = this.trailer;
+        mac.update(sequenceNumber);
+        final int messageLength;
+        if (decryptCipher == null) {
+            messageLength = len - TRAILER_LENGTH;
+            final ByteBuffer message = source.duplicate();
+            message.limit(start + messageLength);
+            mac.update(message);
+            doFinal(mac);
+            int diff = 0;
+            for (int i = 0; i < MAC_LENGTH; i++) {
+                diff |= trailer[i] ^ source.get(start + messageLength + i);
+            }
+            if (diff != 0) {
+                throw new SaslException("DIGEST-MD5: message integrity check failed");
+            }
+            message.position(start);
+            target.put(message);
+        } else {
+            // decrypt straight into the target, the padding and HMAC are dropped by resetting its position
+            final int targetStart = target.position();
+            final ByteBuffer sealed = source.duplicate();
+            sealed.limit(start + sealedLength);
+            try {
+                decryptCipher.update(sealed, target);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            target.position(targetStart);
+            final int macOffset = targetStart + sealedLength - MAC_LENGTH;
+            int pad = 0;
+            if (blockSize != 0) {
+                pad = target.get(macOffset - 1) & 0xff;
+                if (pad == 0 || pad > blockSize) {
+                    throw new SaslException("DIGEST-MD5: invalid padding");
+                }
+                for (int i = macOffset - pad; i < macOffset; i++) {
+                    if (target.get(i) != pad) {
+                        throw new SaslException("DIGEST-MD5: invalid padding");
+                    }
+                }
+            }
+            messageLength = sealedLength - MAC_LENGTH - pad;
+            final ByteBuffer message = target.duplicate();
+            message.limit(targetStart + messageLength);
+            mac.update(message);
+            doFinal(mac);
+            int diff = 0;
+            for (int i = 0; i < MAC_LENGTH; i++) {
+                diff |= trailer[i] ^ target.get(macOffset + i);
+            }
+            if (diff != 0) {
+                throw new SaslException("DIGEST-MD5: message integrity check failed");
+            }
+            target.position(targetStart + messageLength);
+        }
+        source.position(end);
+        receiveSequenceNumber++;
+        return messageLength;
+    }
+
+    private int getPadding(int len) {
+        return blockSize == 0 ? 0 : blockSize - (len + MAC_LENGTH) % blockSize;
+    }
+
+    private void doFinal(Mac mac) {
+        try {
+            mac.doFinal(trailer, 0);
+        } catch (ShortBufferException e) {
+            // the trailer always has room for the 16 byte HMAC-MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the JCE transformation implementing a cipher-value.
+     *
+     * @return the transformation, or {@code null} if the cipher-value is not known
+     */
+    static String getTransformation(String cipher) {
+        switch (cipher) {
+            case "3des":
+                return AbstractMD5DigestMechanism.DEFAULT_CIPHER_NAMES[0];
+            case "rc4":
+            case "rc4-40":
+            case "rc4-56":
+                return AbstractMD5DigestMechanism.DEFAULT_CIPHER_NAMES[1];
+            case "des":
+                return AbstractMD5DigestMechanism.DEFAULT_CIPHER_NAMES[2];
+            default:
+                return null;
+        }
+    }
+
+    private static int sealingKeyLength(String cipher) {
+        switch (cipher) {
+            case "rc4-40":
+                return 5;
+            case "rc4-56":
+                return 7;
+            default:
+                return 16;
+        }
+    }
+
+    private static byte[] deriveKey(byte[] hA1, int n, byte[] magic) throws NoSuchAlgorithmException {
+        MessageDigest md5 = DigestPool.getMessageDigest("MD5");
+        try {
+            md5.update(hA1, 0, n);
+            md5.update(magic);
+            return md5.digest();
+        } finally {
+            DigestPool.release(md5);
+        }
+    }
+
+    private static Mac createMac(byte[] hA1, byte[] magic) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(deriveKey(hA1, 16, magic), HMAC_ALGORITHM));
+        return mac;
+    }
+
+    private static Cipher createCipher(String cipherValue, int mode, byte[] kc) throws GeneralSecurityException {
+        final String transformation = getTransformation(cipherValue);
+        if (transformation == null) {
+            throw new NoSuchAlgorithmException("Unsupported cipher " + cipherValue);
+        }
+        Cipher cipher = Cipher.getInstance(transformation);
+        switch (cipherValue) {
+            case "des":
+                // the key is the first 7 bytes of Kc, the IV the last 8 bytes
+                cipher.init(mode, new SecretKeySpec(addDesParity(kc, 0), "DES"), new IvParameterSpec(kc, 8, 8));
+                break;
+            case "3des": {
+                // two key triple DES, K1 and K2 are the first 14 bytes of Kc and K3 is K1
+                byte[] key = new byte[24];
+                System.arraycopy(addDesParity(kc, 0), 0, key, 0, 8);
+                System.arraycopy(addDesParity(kc, 7), 0, key, 8, 8);
+                System.arraycopy(key, 0, key, 16, 8);
+                cipher.init(mode, new SecretKeySpec(key, "DESede"), new IvParameterSpec(kc, 8, 8));
+                break;
+            }
+            default:
+                cipher.init(mode, new SecretKeySpec(kc, "RC4"));
+        }
+        return cipher;
+    }
+
+    /**
+     * Spread 56 bits of key material over 8 bytes, each holding 7 key bits followed by an odd parity bit.
+     */
+    private static byte[] addDesParity(byte[] key, int offset) {
+        long bits = 0;
+        for (int i = 0; i < 7; i++) {
+            bits = bits << 8 | key[offset + i] & 0xff;
+        }
+        byte[] result = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            int b = (int) (bits >>> 49 - 7 * i) << 1 & 0xfe;
+            result[i] = (byte) (b | Integer.bitCount(b) + 1 & 1);
+        }
+        return result;
+    }
+
+    private static void writeInt(int value, byte[] target, int offset) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return (source[offset] & 0xff) << 24 | (source[offset + 1] & 0xff) << 16 | (source[offset + 2] & 0xff) << 8
+                | source[offset + 3] & 0xff;
+    }
+}
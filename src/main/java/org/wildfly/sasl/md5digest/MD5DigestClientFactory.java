@@ -25,6 +25,7 @@ import javax.security.sasl.SaslClient;
 import javax.security.sasl.SaslClientFactory;
 import javax.security.sasl.SaslException;
 
+import org.wildfly.sasl.WildFlySasl;
 import org.wildfly.sasl.util.AbstractSaslFactory;
 
 /**
@@ -54,9 +55,20 @@ public class MD5DigestClientFactory extends AbstractSaslFactory implements SaslC
         if (selectedMech == null) {
             return null;
         }
-        final MD5DigestSaslClient client = new MD5DigestSaslClient(selectedMech, protocol, serverName, cbh, authorizationId, false);
+        final MD5DigestSaslClient client = new MD5DigestSaslClient(selectedMech, protocol, serverName, cbh, authorizationId, false,
+                AbstractMD5DigestMechanism.getNonceGenerator(props), isReauthentication(props),
+                AbstractMD5DigestMechanism.getQops(props), AbstractMD5DigestMechanism.getMaxBuffer(props),
+                AbstractMD5DigestMechanism.getCiphers(props));
         client.init();
         return client;
     }
 
+    private static boolean isReauthentication(Map<String, ?> props) {
+        Object value = props == null ? null : props.get(WildFlySasl.DIGEST_REAUTHENTICATION);
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+        return value != null && Boolean.parseBoolean(value.toString());
+    }
+
 }
@@ -21,19 +21,21 @@ package org.wildfly.sasl.md5digest;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.concurrent.Executor;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
 import javax.security.auth.callback.PasswordCallback;
 import javax.security.sasl.RealmCallback;
 import javax.security.sasl.RealmChoiceCallback;
+import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslClient;
 import javax.security.sasl.SaslException;
 
 import org.wildfly.sasl.util.ByteStringBuilder;
 import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.NonceGenerator;
+import org.wildfly.sasl.util.SaslEvaluationListener;
 import org.wildfly.sasl.util.SaslQuote;
 import org.wildfly.sasl.util.SaslState;
 import org.wildfly.sasl.util.SaslStateContext;
@@ -47,6 +49,8 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
     
     private static final String DELIMITER = ",";
 
+    private static final int RESPONSE_SIZE_HINT = 512;
+
     private String[] realms;
     private byte[] nonce;
     private String qop;
@@ -54,10 +58,28 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
     private int maxbuf = DEFAULT_MAXBUF;
     private String cipher;
     private String cipher_opts;
-    
+
+    // the qop-values in order of preference and the largest wrapped message this client will receive
+    private final String[] preferredQops;
+    // the acceptable cipher-values in order of preference, null for the default
+    private final String[] preferredCiphers;
+    private final int receivingMaxBuffSize;
+    private DigestWrapper wrapper;
+    // the response-auth the server is expected to send
+    private final byte[] expectedResponseAuth = new byte[32];
+
     private final String authorizationId;
     private final boolean hasInitialResponse;
 
+    // previous authentications, null if subsequent authentication is not used
+    private final DigestSessionCache sessionCache;
+    // whether there is a previous authentication with this server which may be reused, once the user name is known
+    private final boolean attemptReauthentication;
+    // the previous authentication being reused, if any
+    private DigestSessionCache.Session session;
+    // the session of a new authentication, cached once the rspauth of the server has been verified
+    private DigestSessionCache.Session newSession;
+
     private Charset charset = Charsets.LATIN_1;
 
     /**
@@ -70,76 +92,260 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
      */
     public MD5DigestSaslClient(String mechanism, String protocol, String serverName, CallbackHandler callbackHandler,
             String authorizationId, boolean hasInitialResponse) {
-        super(mechanism, protocol, serverName, callbackHandler, FORMAT.CLIENT);
+        this(mechanism, protocol, serverName, callbackHandler, authorizationId, hasInitialResponse, NonceGenerator.getDefault(), false);
+    }
+
+    /**
+     * @param mechanismName
+     * @param protocol
+     * @param serverName
+     * @param callbackHandler
+     * @param authorizationId
+     * @param hasInitialResponse
+     * @param nonceGenerator the source of the random cnonce data
+     * @param reauthentication {@code true} to attempt subsequent authentication using a previous authentication with the
+     *        same server and authorization id
+     */
+    public MD5DigestSaslClient(String mechanism, String protocol, String serverName, CallbackHandler callbackHandler,
+            String authorizationId, boolean hasInitialResponse, NonceGenerator nonceGenerator, boolean reauthentication) {
+        this(mechanism, protocol, serverName, callbackHandler, authorizationId, hasInitialResponse, nonceGenerator,
+                reauthentication, new String[] { DEFAULT_QOP }, DEFAULT_MAXBUF);
+    }
+
+    /**
+     * @param mechanismName
+     * @param protocol
+     * @param serverName
+     * @param callbackHandler
+     * @param authorizationId
+     * @param hasInitialResponse
+     * @param nonceGenerator the source of the random cnonce data
+     * @param reauthentication {@code true} to attempt subsequent authentication using a previous authentication with the
+     *        same server and authorization id
+     * @param qops the acceptable qop-values in order of preference
+     * @param maxbuf the largest wrapped message this client will receive
+     */
+    public MD5DigestSaslClient(String mechanism, String protocol, String serverName, CallbackHandler callbackHandler,
+            String authorizationId, boolean hasInitialResponse, NonceGenerator nonceGenerator, boolean reauthentication,
+            String[] qops, int maxbuf) {
+        this(mechanism, protocol, serverName, callbackHandler, authorizationId, hasInitialResponse, nonceGenerator,
+                reauthentication, qops, maxbuf, null);
+    }
+
+    /**
+     * @param mechanismName
+     * @param protocol
+     * @param serverName
+     * @param callbackHandler
+     * @param authorizationId
+     * @param hasInitialResponse
+     * @param nonceGenerator the source of the random cnonce data
+     * @param reauthentication {@code true} to attempt subsequent authentication using a previous authentication with the
+     *        same server and authorization id
+     * @param qops the acceptable qop-values in order of preference
+     * @param maxbuf the largest wrapped message this client will receive
+     * @param ciphers the acceptable cipher-values for auth-conf in order of preference, {@code null} for the default
+     */
+    public MD5DigestSaslClient(String mechanism, String protocol, String serverName, CallbackHandler callbackHandler,
+            String authorizationId, boolean hasInitialResponse, NonceGenerator nonceGenerator, boolean reauthentication,
+            String[] qops, int maxbuf, String[] ciphers) {
+        super(mechanism, protocol, serverName, callbackHandler, FORMAT.CLIENT, nonceGenerator);
+
+        this.preferredQops = qops;
+        this.preferredCiphers = ciphers;
+        this.receivingMaxBuffSize = maxbuf;
 
         this.hasInitialResponse = hasInitialResponse;
         this.authorizationId = authorizationId;
+        this.sessionCache = reauthentication ? DigestSessionCache.SHARED : null;
+        this.attemptReauthentication = reauthentication && sessionCache.contains(digestURI, authorizationId);
     }
 
-
-    private final SaslState STEP_TWO = new SaslState() {
+    /**
+     * Subsequent authentication (RFC 2831 section 2.2), the initial response is a digest-response reusing the nonce of the
+     * previous authentication with the next nonce-count.
+     */
+    private final SaslState STEP_ONE = new SaslState() {
 
         @Override
         public byte[] evaluateMessage(SaslStateContext context, byte[] message) throws SaslException {
-            HashMap<String, byte[]> parsedChallenge = parseResponse(message);
-            noteChallengeData(parsedChallenge);
-            return createResponse(parsedChallenge);
+            if (message != null && message.length > 0) {
+                // the server sent a challenge anyway
+                return STEP_TWO.evaluateMessage(context, message);
+            }
+            // the session to reuse depends on the user, which must be known before choosing the next state
+            final NameCallback nameCallback = authorizationId != null ? new NameCallback("User name", authorizationId)
+                    : new NameCallback("User name");
+            handleCallbacks(nameCallback);
+            final String userName = nameCallback.getName();
+            final DigestSessionCache.Session session = userName == null ? null : sessionCache.get(digestURI, authorizationId, userName);
+            if (session == null) {
+                // no previous authentication of this user, an empty initial response gets a challenge
+                getContext().setNegotiationState(STEP_TWO);
+                return NO_BYTES;
+            }
+            realms = new String[] { session.realm };
+            nonce = session.nonce;
+            charset = session.charset;
+            qop = session.qop;
+            maxbuf = session.maxbuf;
+            cipher = session.cipher;
+
+            byte[] response = createResponse(session);
+            if (response == null) {
+                // the callback handler named a different user this time, forget the session data not set by a challenge
+                charset = Charsets.LATIN_1;
+                maxbuf = DEFAULT_MAXBUF;
+                getContext().setNegotiationState(STEP_TWO);
+                return NO_BYTES;
+            }
+            MD5DigestSaslClient.this.session = session;
+            getContext().setNegotiationState(STEP_THREE);
+            return response;
         }
 
     };
 
+    private final SaslState STEP_TWO = new SaslState() {
 
-    private void noteChallengeData(HashMap<String, byte[]> parsedChallenge) {
-
-        byte[] chb = parsedChallenge.get("charset");
-        if (chb != null) {
-            String chs = new String(chb);
-            if ("utf-8".equals(chs)) {
-                charset = Charsets.UTF_8;
-            }
+        @Override
+        public byte[] evaluateMessage(SaslStateContext context, byte[] message) throws SaslException {
+            ParsedDigestMessage parsedChallenge = parseResponse(message);
+            noteChallengeData(parsedChallenge);
+            getContext().setNegotiationState(STEP_THREE);
+            return createResponse(null);
         }
 
-        LinkedList<String> realmList = new LinkedList<String>();
-        for (String keyWord: parsedChallenge.keySet()) {
+    };
 
-            if (keyWord.startsWith("realm")) {
-                realmList.add(new String(parsedChallenge.get(keyWord), charset));
-            }
-            else if (keyWord.equals("qop")) {
-                qop = new String(parsedChallenge.get(keyWord), charset);
+    private final SaslState STEP_THREE = new SaslState() {
+
+        @Override
+        public byte[] evaluateMessage(SaslStateContext context, byte[] message) throws SaslException {
+            final DigestSessionCache.Session session = MD5DigestSaslClient.this.session;
+            ParsedDigestMessage parsedResponseAuth = parseResponse(message);
+            if (session != null && parsedResponseAuth.contains(DigestDirective.NONCE)) {
+                // the server did not accept the previous nonce and sent a new challenge
+                sessionCache.remove(digestURI, authorizationId, session);
+                MD5DigestSaslClient.this.session = null;
+                return STEP_TWO.evaluateMessage(context, message);
             }
-            else if (keyWord.equals("stale")) {
-                stale = Boolean.parseBoolean(new String(parsedChallenge.get(keyWord), charset));
+            if (parsedResponseAuth.contains(DigestDirective.RSPAUTH) == false) {
+                forgetSession(session);
+                throw new SaslException(getMechanismName() + ": missing rspauth directive");
             }
-            else if (keyWord.equals("maxbuf")) {
-                int maxbuf = Integer.parseInt(new String(parsedChallenge.get(keyWord)));
-                if (maxbuf > 0) {
-                    this.maxbuf = maxbuf;
-                }
+            if (parsedResponseAuth.digestEquals(DigestDirective.RSPAUTH, expectedResponseAuth, 0, expectedResponseAuth.length) == false) {
+                forgetSession(session);
+                throw new SaslException(getMechanismName() + ": server authentication failed");
             }
-            else if (keyWord.equals("nonce")) {
-                nonce = parsedChallenge.get(keyWord);
+            final DigestSessionCache.Session newSession = MD5DigestSaslClient.this.newSession;
+            if (newSession != null) {
+                sessionCache.put(digestURI, authorizationId, newSession);
+                MD5DigestSaslClient.this.newSession = null;
             }
-            else if (keyWord.equals("cipher")) {
-                cipher_opts = new String(parsedChallenge.get(keyWord), Charsets.UTF_8);
+            wrapper = installSecurityLayer(qop, cipher);
+            getContext().setNegotiationState(SaslState.COMPLETE);
+            return null;
+        }
+
+    };
+
+    /**
+     * Drop the session a subsequent authentication was attempted with, if any, once the server has failed to prove it
+     * knows the password.
+     */
+    private void forgetSession(final DigestSessionCache.Session session) {
+        if (session != null) {
+            sessionCache.remove(digestURI, authorizationId, session);
+            this.session = null;
+        }
+    }
+
+
+    private void noteChallengeData(ParsedDigestMessage parsedChallenge) throws SaslException {
+
+        if (parsedChallenge.contentEqualsIgnoreCase(DigestDirective.CHARSET, "utf-8")) {
+            charset = Charsets.UTF_8;
+        }
+
+        realms = new String[parsedChallenge.getRealmCount()];
+        for (int i = 0; i < realms.length; i++) {
+            realms[i] = parsedChallenge.getRealm(i, charset);
+        }
+
+        String qopOptions = DEFAULT_QOP;
+        if (parsedChallenge.contains(DigestDirective.QOP)) {
+            qopOptions = parsedChallenge.getString(DigestDirective.QOP, charset);
+        }
+        if (parsedChallenge.contains(DigestDirective.STALE)) {
+            stale = parsedChallenge.contentEqualsIgnoreCase(DigestDirective.STALE, "true");
+        }
+        if (parsedChallenge.contains(DigestDirective.MAXBUF)) {
+            int maxbuf = parsedChallenge.getInt(DigestDirective.MAXBUF, 10);
+            if (maxbuf > 0) {
+                this.maxbuf = maxbuf;
             }
         }
+        if (parsedChallenge.contains(DigestDirective.NONCE)) {
+            nonce = parsedChallenge.getBytes(DigestDirective.NONCE);
+        }
+        if (parsedChallenge.contains(DigestDirective.CIPHER)) {
+            cipher_opts = parsedChallenge.getString(DigestDirective.CIPHER, Charsets.UTF_8);
+        }
 
-        realms = new String[realmList.size()];
-        realmList.toArray(realms);
+        choose(qopOptions);
 
-        choose();
+    }
 
+    /**
+     * Choose the most preferred qop-value the server offers and for auth-conf the strongest cipher both sides support.
+     */
+    private void choose(String qopOptions) throws SaslException {
+        String[] offeredQops = split(qopOptions);
+        for (String preferred : preferredQops) {
+            if (contains(offeredQops, preferred) == false) {
+                continue;
+            }
+            if (QOP_AUTH_CONF.equals(preferred)) {
+                String[] offeredCiphers = split(cipher_opts);
+                for (String supported : split(getSupportedCiphers(preferredCiphers))) {
+                    if (contains(offeredCiphers, supported)) {
+                        qop = preferred;
+                        cipher = supported;
+                        return;
+                    }
+                }
+                continue;
+            }
+            qop = preferred;
+            cipher = null;
+            return;
+        }
+        throw new SaslException(getMechanismName() + ": no common qop, the server offered " + qopOptions);
     }
 
+    private static String[] split(String list) {
+        return list == null ? new String[0] : list.trim().split("\\s*,\\s*");
+    }
 
-    private void choose() {
-        cipher = "";
+    private static boolean contains(String[] values, String value) {
+        for (String v : values) {
+            if (v.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private byte[] createResponse(HashMap<String, byte[]> parsedChallenge) throws SaslException {
+    /**
+     * Create the digest-response, for a new authentication if session is {@code null}, otherwise for a subsequent
+     * authentication reusing the session.
+     *
+     * @return the digest-response, or {@code null} if the session is for a different user
+     */
+    private byte[] createResponse(DigestSessionCache.Session session) throws SaslException {
 
-        ByteStringBuilder digestResponse = new ByteStringBuilder();
+        ByteStringBuilder digestResponse = ByteStringBuilder.pooled(RESPONSE_SIZE_HINT);
 
         // charset
         if (Charsets.UTF_8.equals(charset)) {
@@ -165,17 +371,22 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
             handleCallbacks(realmChoiceCallBack, nameCallback, passwordCallback);
             realm = realms[realmChoiceCallBack.getSelectedIndexes()[0]];
         } else {
-            if (realms == null) {
-                
-            }
-            final RealmCallback realmCallback = new RealmCallback("User realm", realms[0]);
+            final RealmCallback realmCallback = realms != null && realms.length == 1
+                    ? new RealmCallback("User realm", realms[0])
+                    : new RealmCallback("User realm");
             handleCallbacks(realmCallback, nameCallback, passwordCallback);
             realm = realmCallback.getText();
         }
         
+        String userName = nameCallback.getName();
+        if (session != null && session.userName.equals(userName) == false) {
+            passwordCallback.clearPassword();
+            digestResponse.release();
+            return null;
+        }
+
         // username
         digestResponse.append("username=\"");
-        String userName = nameCallback.getName();
         digestResponse.append(SaslQuote.quote(userName).getBytes(charset));
         digestResponse.append("\"").append(DELIMITER);
 
@@ -191,22 +402,20 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
 
         // cnonce
         digestResponse.append("cnonce=\"");
-        byte[] cnonce = generateNonce();
+        byte[] cnonce = session == null ? generateNonce() : session.cnonce;
         digestResponse.append(cnonce);
         digestResponse.append("\"").append(DELIMITER);
 
         // nonce-count
-        digestResponse.append("nonce-count=");
-        int nonceCount = getNonceCount();
+        digestResponse.append("nc=");
+        int nonceCount = session == null ? 1 : session.nextNonceCount();
         digestResponse.append(convertToHexBytesWithLeftPadding(nonceCount, 8));
         digestResponse.append(DELIMITER);
 
         // qop
-        if (qop != null) {
-            digestResponse.append("qop=");
-            digestResponse.append(qop);
-            digestResponse.append(DELIMITER);
-        }
+        digestResponse.append("qop=");
+        digestResponse.append(qop);
+        digestResponse.append(DELIMITER);
 
         // digest-uri
         digestResponse.append("digest-uri=\"");
@@ -220,6 +429,7 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
             passwd = passwordCallback.getPassword();
             passwordCallback.clearPassword();
             response_value = digestResponse(userName, realm, passwd, nonce, nonceCount, cnonce, authorizationId, qop, digestURI);
+            digestResponseAuth(nonce, nonceCount, cnonce, qop, digestURI, expectedResponseAuth, 0);
         } catch (NoSuchAlgorithmException e) {
             throw new SaslException("Algorithm not supported", e);
         } finally {
@@ -233,9 +443,9 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
         digestResponse.append(DELIMITER);
 
         // maxbuf
-        if (maxbuf != DEFAULT_MAXBUF) {
+        if (receivingMaxBuffSize != DEFAULT_MAXBUF) {
             digestResponse.append("maxbuf=");
-            digestResponse.append(String.valueOf(maxbuf));
+            digestResponse.append(String.valueOf(receivingMaxBuffSize));
             digestResponse.append(DELIMITER);
         }
 
@@ -253,15 +463,14 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
             digestResponse.append("\"").append(DELIMITER);
         }
 
-        return digestResponse.toArray();
-    }
+        if (session == null && sessionCache != null) {
+            // only cached once the server has proved it knows the password
+            newSession = new DigestSessionCache.Session(userName, realm, nonce, cnonce, charset, qop, maxbuf, cipher, nonceCount);
+        }
 
-    /**
-     * For now it returns always 1
-     * @return
-     */
-    private int getNonceCount() {
-        return 1;
+        byte[] result = digestResponse.toArray();
+        digestResponse.release();
+        return result;
     }
 
     /* (non-Javadoc)
@@ -269,12 +478,28 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
      */
     @Override
     public void init() {
-        getContext().setNegotiationState(STEP_TWO);
+        getContext().setNegotiationState(attemptReauthentication ? STEP_ONE : STEP_TWO);
+    }
+
+    @Override
+    public Object getNegotiatedProperty(String propName) {
+        assertComplete();
+
+        switch (propName) {
+            case Sasl.QOP:
+                return qop;
+            case Sasl.MAX_BUFFER:
+                return Integer.toString(receivingMaxBuffSize);
+            case Sasl.RAW_SEND_SIZE:
+                return Integer.toString(wrapper != null ? wrapper.getMaxRawSize(maxbuf) : maxbuf);
+        }
+
+        return null;
     }
 
     @Override
     public boolean hasInitialResponse() {
-        return hasInitialResponse;
+        return hasInitialResponse || attemptReauthentication;
     }
 
     @Override
@@ -282,4 +507,15 @@ public class MD5DigestSaslClient extends AbstractMD5DigestMechanism implements S
         return evaluateMessage(challenge);
     }
 
+    /**
+     * Evaluate an authentication challenge on the given executor, notifying the listener of the response to send back.
+     *
+     * @param challenge the authentication challenge
+     * @param executor the executor to run the evaluation, including any callbacks
+     * @param listener the listener to notify of the outcome
+     */
+    public void evaluateChallenge(final byte[] challenge, final Executor executor, final SaslEvaluationListener listener) {
+        evaluateMessage(challenge, executor, listener);
+    }
+
 }
@@ -21,17 +21,23 @@ package org.wildfly.sasl.md5digest;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
 import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.sasl.RealmCallback;
+import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
 
+import org.wildfly.sasl.callback.DigestHashCallback;
 import org.wildfly.sasl.util.ByteStringBuilder;
 import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.NonceGenerator;
+import org.wildfly.sasl.util.SaslEvaluationListener;
 import org.wildfly.sasl.util.SaslQuote;
 import org.wildfly.sasl.util.SaslState;
 import org.wildfly.sasl.util.SaslStateContext;
@@ -45,9 +51,85 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
     
     public MD5DigestSaslServer(String[] realms, String mechanismName, String protocol, String serverName,
             CallbackHandler callbackHandler, String charsetName) {
-        super(mechanismName, protocol, serverName, callbackHandler, FORMAT.SERVER);
+        this(realms, mechanismName, protocol, serverName, callbackHandler, charsetName, NonceGenerator.getDefault(), 0);
+    }
+
+    /**
+     * @param realms
+     * @param mechanismName
+     * @param protocol
+     * @param serverName
+     * @param callbackHandler
+     * @param charsetName
+     * @param nonceGenerator the source of the random nonce data
+     * @param nonceLifetime the number of seconds a nonce may be used for subsequent authentication, {@code 0} to disable
+     *        subsequent authentication
+     */
+    public MD5DigestSaslServer(String[] realms, String mechanismName, String protocol, String serverName,
+            CallbackHandler callbackHandler, String charsetName, NonceGenerator nonceGenerator, int nonceLifetime) {
+        this(realms, mechanismName, protocol, serverName, callbackHandler, charsetName, nonceGenerator, nonceLifetime,
+                new String[] { DEFAULT_QOP }, DEFAULT_MAXBUF);
+    }
+
+    /**
+     * @param realms
+     * @param mechanismName
+     * @param protocol
+     * @param serverName
+     * @param callbackHandler
+     * @param charsetName
+     * @param nonceGenerator the source of the random nonce data
+     * @param nonceLifetime the number of seconds a nonce may be used for subsequent authentication, {@code 0} to disable
+     *        subsequent authentication
+     * @param qops the qop-values offered to the client
+     * @param maxbuf the largest wrapped message this server will receive
+     */
+    public MD5DigestSaslServer(String[] realms, String mechanismName, String protocol, String serverName,
+            CallbackHandler callbackHandler, String charsetName, NonceGenerator nonceGenerator, int nonceLifetime,
+            String[] qops, int maxbuf) {
+        this(realms, mechanismName, protocol, serverName, callbackHandler, charsetName, nonceGenerator, nonceLifetime,
+                qops, maxbuf, null);
+    }
+
+    /**
+     * @param realms
+     * @param mechanismName
+     * @param protocol
+     * @param serverName
+     * @param callbackHandler
+     * @param charsetName
+     * @param nonceGenerator the source of the random nonce data
+     * @param nonceLifetime the number of seconds a nonce may be used for subsequent authentication, {@code 0} to disable
+     *        subsequent authentication
+     * @param qops the qop-values offered to the client
+     * @param maxbuf the largest wrapped message this server will receive
+     * @param ciphers the cipher-values offered for auth-conf in order of preference, {@code null} for the default
+     */
+    public MD5DigestSaslServer(String[] realms, String mechanismName, String protocol, String serverName,
+            CallbackHandler callbackHandler, String charsetName, NonceGenerator nonceGenerator, int nonceLifetime,
+            String[] qops, int maxbuf, String[] ciphers) {
+        super(mechanismName, protocol, serverName, callbackHandler, FORMAT.SERVER, nonceGenerator);
         this.realms = realms;
-        this.supportedCiphers = getSupportedCiphers();
+        this.nonceLifetime = TimeUnit.SECONDS.toNanos(nonceLifetime);
+        this.nonceCache = nonceLifetime > 0 ? DigestNonceCache.SHARED : null;
+        this.receivingMaxBuffSize = maxbuf;
+
+        // auth-conf can only be offered with at least one cipher
+        StringBuilder offered = new StringBuilder();
+        for (String qop : qops) {
+            if (QOP_AUTH_CONF.equals(qop)) {
+                String supported = getSupportedCiphers(ciphers);
+                if (supported.isEmpty()) {
+                    continue;
+                }
+                this.supportedCiphers = supported;
+            }
+            if (offered.length() > 0) {
+                offered.append(DELIMITER);
+            }
+            offered.append(qop);
+        }
+        this.qops = offered.length() > 0 ? offered.toString() : DEFAULT_QOP;
         if (charsetName != null && charsetName.equalsIgnoreCase("UTF-8")) {
             // there are only two possibilities 8859_1 or UTF-8 (the 8859_1 is default)
             this.charset = Charsets.UTF_8;
@@ -58,6 +140,10 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
     public static final String[] CIPHER_OPTS = {"des", "3des", "rc4", "rc4-40", "rc4-56"};
 
     private static final String DELIMITER = ",";
+
+    private static final int CHALLENGE_SIZE_HINT = 256;
+
+    private static final byte[] RSPAUTH = "rspauth=".getBytes(Charsets.LATIN_1);
     
     public static final String[] DEFAULT_CIPHER_NAMES = { 
         "DESede/CBC/NoPadding",
@@ -66,14 +152,27 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
     };
 
     private String[] realms;
-    private String configuredQops;
     private String supportedCiphers;
     private Charset charset = Charsets.LATIN_1; // 8859_1 is default
-    private int receivingMaxBuffSize;
-    private String qops;
+    private final int receivingMaxBuffSize;
+    private int sendingMaxBuffSize = DEFAULT_MAXBUF;
+    private final String qops;
+    private String qop;
+    private DigestWrapper wrapper;
     private String authorizationId;
     private int nonceCount = -1;
     private byte[] nonce = null;
+
+    // nonces usable for subsequent authentication, null if subsequent authentication is disabled
+    private final DigestNonceCache nonceCache;
+    private final long nonceLifetime;
+
+    // scratch space for the response value the client is expected to have sent
+    private final byte[] expectedResponse = new byte[32];
+
+    // the pool this server is given back to when disposed of, null if it is not pooled
+    private DigestServerPool.Idle pool;
+    private boolean released;
     
     private final SaslState STEP_ONE = new SaslState() {
         
@@ -81,10 +180,23 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
         public byte[] evaluateMessage(SaslStateContext context, byte[] message) throws SaslException {
     
             if (message.length != 0) {
-                throw new SaslException(getMechanismName() + ": When sending challenge message has to be empty.");
+                // an initial response is an attempt at subsequent authentication (RFC 2831 section 2.2)
+                ParsedDigestMessage parsedDigestResponse = parseResponse(message);
+                if (reuseNonce(parsedDigestResponse)) {
+                    byte[] response = validateDigestResponse(parsedDigestResponse, true);
+                    if (nonceCache.commit(nonce, nonceCount) == false) {
+                        // a concurrent authentication used the same nonce-count
+                        throw new SaslException(getMechanismName() + ": nonce-count has already been used");
+                    }
+                    getContext().setNegotiationState(SaslState.COMPLETE);
+                    return response;
+                }
+                // otherwise carry on as for an initial authentication
+                getContext().setNegotiationState(STEP_THREE);
+                return generateChallenge(nonceCache != null);
             }
             getContext().setNegotiationState(STEP_THREE);
-            return generateChallenge();
+            return generateChallenge(false);
         }
     };
 
@@ -99,11 +211,13 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
             }
             
             // parse digest response
-            HashMap<String, byte[]> parsedDigestResponse = parseResponse(message);
-            noteDigestResponseData(parsedDigestResponse);
-         
+            ParsedDigestMessage parsedDigestResponse = parseResponse(message);
+
             // validate
-            byte[] response = validateDigestResponse(parsedDigestResponse);
+            byte[] response = validateDigestResponse(parsedDigestResponse, false);
+            if (nonceCache != null) {
+                nonceCache.add(nonce, nonceCount, System.nanoTime() + nonceLifetime);
+            }
 
             getContext().setNegotiationState(SaslState.COMPLETE);
             return response;
@@ -137,8 +251,9 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
      *   auth-param        = token "=" ( token | quoted-string )
      * @return
      */
-    private byte[] generateChallenge() {
-        ByteStringBuilder challenge = new ByteStringBuilder(); 
+    private byte[] generateChallenge(boolean stale) {
+        // a typical challenge fits without growing, the array goes back to the pool once copied out
+        ByteStringBuilder challenge = ByteStringBuilder.pooled(CHALLENGE_SIZE_HINT);
         
         // realms
         StringBuilder sb = new StringBuilder();
@@ -148,13 +263,20 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
         challenge.append(sb.toString().getBytes(charset));
         
         
-        // nonce
+        // nonce, Base64 needs no quoting
         challenge.append("nonce=\"");
-        challenge.append(SaslQuote.quote(generateNonce()));
+        final int nonceStart = challenge.length();
+        appendNonce(challenge);
+        final int nonceEnd = challenge.length();
         challenge.append("\"").append(DELIMITER);
         
+        // stale
+        if (stale) {
+            challenge.append("stale=true").append(DELIMITER);
+        }
+
         // qop
-        if (qops != null) {
+        if (DEFAULT_QOP.equals(qops) == false) {
             challenge.append("qop=\"");
             challenge.append(SaslQuote.quote(qops).getBytes(charset));
             challenge.append("\"").append(DELIMITER);
@@ -174,6 +296,9 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
             challenge.append("\"").append(DELIMITER);
         }
         
+        // algorithm, required
+        challenge.append("algorithm=md5-sess").append(DELIMITER);
+
         // cipher
         if (supportedCiphers != null) {
             challenge.append("cipher=\"");
@@ -181,136 +306,192 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
             challenge.append("\"").append(DELIMITER);
         }
         
-        return challenge.toArray();
+        byte[] result = challenge.toArray();
+        challenge.release();
+        nonce = Arrays.copyOfRange(result, nonceStart, nonceEnd);
+        return result;
     }
 
-    private void noteDigestResponseData(HashMap<String, byte[]> parsedDigestResponse) {
-        
-        byte[] data = parsedDigestResponse.get("nonce");
-        if (data != null) {
-            nonce = data.clone();
-        } else {
-            nonce = null;
+    /**
+     * Determine whether the nonce of a digest-response sent as initial response may be used again, in which case it
+     * becomes the nonce of this authentication.  The nonce-count is committed to the cache once the response has been
+     * verified.
+     */
+    private boolean reuseNonce(ParsedDigestMessage parsedDigestResponse) throws SaslException {
+        if (nonceCache == null || parsedDigestResponse.contains(DigestDirective.NONCE) == false
+                || parsedDigestResponse.contains(DigestDirective.NONCE_COUNT) == false) {
+            return false;
         }
-        
-        data = parsedDigestResponse.get("nonce-count");
-        if (data != null) {
-            nonceCount = Integer.valueOf(new String(data));
-        } else {
-            nonceCount = -1;
+        byte[] clientNonce = parsedDigestResponse.getBytes(DigestDirective.NONCE);
+        if (nonceCache.check(clientNonce, parsedDigestResponse.getInt(DigestDirective.NONCE_COUNT, 16), System.nanoTime())) {
+            nonce = clientNonce;
+            return true;
         }
-
+        return false;
     }
-    
-    private byte[] validateDigestResponse(HashMap<String, byte[]> parsedDigestResponse) throws SaslException {
-        if (nonceCount != 1) {
+
+    private byte[] validateDigestResponse(ParsedDigestMessage parsedDigestResponse, boolean subsequent) throws SaslException {
+        if (parsedDigestResponse.contains(DigestDirective.NONCE_COUNT) == false) {
+            throw new SaslException(getMechanismName() + ": missing nonce-count");
+        }
+        nonceCount = parsedDigestResponse.getInt(DigestDirective.NONCE_COUNT, 16);
+        // the nonce-count of subsequent authentication has already been checked against the nonce cache
+        if (subsequent == false && nonceCount != 1) {
             throw new SaslException(getMechanismName() + ": nonce-count is not equal to 1");
         }
-        
+
         Charset clientCharset = Charsets.LATIN_1;
-        if (parsedDigestResponse.get("charset") != null) {
-            String cCharset = new String(parsedDigestResponse.get("charset"), charset);
-            if (Charsets.UTF_8.equals(charset) && cCharset.equals("utf-8")) {
+        if (parsedDigestResponse.contains(DigestDirective.CHARSET)) {
+            if (Charsets.UTF_8.equals(charset) && parsedDigestResponse.contentEqualsIgnoreCase(DigestDirective.CHARSET, "utf-8")) {
                 clientCharset = Charsets.UTF_8;
             } else {
                 throw new SaslException(getMechanismName() + ": client charset should not be specified as server is using iso 8859-1");
             }
         }
-        
-        String userName;
-        if (parsedDigestResponse.get("username") != null) {
-            userName = new String(parsedDigestResponse.get("username"), clientCharset);
-        } else {
+
+        String userName = parsedDigestResponse.getString(DigestDirective.USERNAME, clientCharset);
+        if (userName == null) {
             throw new SaslException(getMechanismName() + ": missing username directive");
         }
-        
-        String clientRealm;
-        if (parsedDigestResponse.get("realm") != null) {
-            clientRealm = new String(parsedDigestResponse.get("realm"), clientCharset);
-        } else {
+
+        String clientRealm = parsedDigestResponse.getString(DigestDirective.REALM, clientCharset);
+        if (clientRealm == null) {
             clientRealm = "";
         }
         if (!serverContainsRealm(clientRealm)) {
             throw new SaslException(getMechanismName() + ": client sent realm not present at the server (" + clientRealm + ")");
         }
-        
-        if (parsedDigestResponse.get("nonce") == null) {
+
+        if (parsedDigestResponse.contains(DigestDirective.NONCE) == false) {
             throw new SaslException(getMechanismName() + ": missing nonce");
         }
-        
-        byte[] nonceFromClient = parsedDigestResponse.get("nonce");
-        if (!Arrays.equals(nonce, nonceFromClient)) {
+        if (parsedDigestResponse.contentEquals(DigestDirective.NONCE, nonce) == false) {
             throw new SaslException(getMechanismName() + ": nonce mismatch");
         }
-        
-        if (parsedDigestResponse.get("cnonce") == null) {
+
+        byte[] cnonce = parsedDigestResponse.getBytes(DigestDirective.CNONCE);
+        if (cnonce == null) {
             throw new SaslException(getMechanismName() + ": missing cnonce");
         }
-        byte[] cnonce = parsedDigestResponse.get("cnonce");
-        
-        if (parsedDigestResponse.get("nonce-count") == null) {
-            throw new SaslException(getMechanismName() + ": missing nonce-count");
-        }
-        
-        String digest_uri;
-        if (parsedDigestResponse.get("digest-uri") != null) {
-            digest_uri = new String(parsedDigestResponse.get("digest-uri"), clientCharset);
-            if (!digest_uri.equalsIgnoreCase(digestURI)) {
-                throw new SaslException(getMechanismName() + ": mismatched digest-uri " + digest_uri + ". Expected: " + digestURI);
+
+        if (parsedDigestResponse.contains(DigestDirective.DIGEST_URI)) {
+            if (parsedDigestResponse.contentEqualsIgnoreCase(DigestDirective.DIGEST_URI, digestURI) == false) {
+                throw new SaslException(getMechanismName() + ": mismatched digest-uri "
+                        + parsedDigestResponse.getString(DigestDirective.DIGEST_URI, clientCharset) + ". Expected: " + digestURI);
             }
         } else {
             throw new SaslException(getMechanismName() + ": digest-uri directive is missing");
         }
 
         String qop;
-        if (parsedDigestResponse.get("qop") != null) {
-            qop = new String(parsedDigestResponse.get("qop"), clientCharset);
-            if (!qop.equals("auth") && !qop.equals("auth-int") && !qop.equals("auth-conf")) {
-                throw new SaslException(getMechanismName() + ": qop directive unexpected value " + qop);
+        if (parsedDigestResponse.contains(DigestDirective.QOP)) {
+            if (parsedDigestResponse.contentEqualsIgnoreCase(DigestDirective.QOP, DEFAULT_QOP)) {
+                qop = DEFAULT_QOP;
+            } else if (parsedDigestResponse.contentEqualsIgnoreCase(DigestDirective.QOP, QOP_AUTH_INT)) {
+                qop = QOP_AUTH_INT;
+            } else if (parsedDigestResponse.contentEqualsIgnoreCase(DigestDirective.QOP, QOP_AUTH_CONF)) {
+                qop = QOP_AUTH_CONF;
+            } else {
+                throw new SaslException(getMechanismName() + ": qop directive unexpected value "
+                        + parsedDigestResponse.getString(DigestDirective.QOP, clientCharset));
             }
         } else {
-            qop = "auth";
+            qop = DEFAULT_QOP;
+        }
+        if (isOffered(qops, qop) == false) {
+            throw new SaslException(getMechanismName() + ": qop " + qop + " was not offered");
         }
-        
-        
-        // get password
-        final NameCallback nameCallback = new NameCallback("User name", userName);
-        final PasswordCallback passwordCallback = new PasswordCallback("User password", false);
-        final RealmCallback realmCallback = new RealmCallback("User realm");
 
-        handleCallbacks(realmCallback, nameCallback, passwordCallback);
-        
-        char[] passwd = null;
-        byte[] expectedResponse;
+        String cipher = null;
+        if (QOP_AUTH_CONF.equals(qop)) {
+            cipher = parsedDigestResponse.getString(DigestDirective.CIPHER, clientCharset);
+            if (cipher == null || isOffered(supportedCiphers, cipher) == false) {
+                throw new SaslException(getMechanismName() + ": cipher " + cipher + " was not offered");
+            }
+        }
+
+        int maxbuf = DEFAULT_MAXBUF;
+        if (parsedDigestResponse.contains(DigestDirective.MAXBUF)) {
+            maxbuf = parsedDigestResponse.getInt(DigestDirective.MAXBUF, 10);
+            if (maxbuf <= 0 || maxbuf > MAX_MAXBUF) {
+                throw new SaslException(getMechanismName() + ": invalid maxbuf " + maxbuf);
+            }
+        }
+
+        if (parsedDigestResponse.contains(DigestDirective.RESPONSE) == false) {
+            throw new SaslException(getMechanismName() + ": missing response directive");
+        }
+
+        // an absent authzid means the authentication identity is also the authorization identity
+        String authzid = parsedDigestResponse.getString(DigestDirective.AUTHZID, clientCharset);
+
+        final byte[] expectedResponse = this.expectedResponse;
         try {
-            passwd = passwordCallback.getPassword();
-            passwordCallback.clearPassword();
-            expectedResponse = digestResponse(userName, clientRealm, passwd, 
-                    nonce, nonceCount, cnonce, 
-                    new String(parsedDigestResponse.get("authzid"), clientCharset), qop, digestURI);
+            byte[] digest_urp = getDigestedUserRealmPassword(userName, clientRealm);
+            if (digest_urp.length != 16) {
+                throw new SaslException(getMechanismName() + ": invalid password hash for user " + userName);
+            }
+            digestResponse(digest_urp, 0,
+                    nonce, nonceCount, cnonce,
+                    authzid, qop, digestURI,
+                    expectedResponse, 0);
         } catch (NoSuchAlgorithmException e) {
             throw new SaslException("Algorithm not supported", e);
-        } finally {
-            // wipe out the password
-            if (passwd != null) {
-                Arrays.fill(passwd, (char)0);
-            }
         }
-        
-        if (parsedDigestResponse.get("response") != null) {
-            if (Arrays.equals(expectedResponse, parsedDigestResponse.get("response"))) {
-                this.authorizationId = new String(parsedDigestResponse.get("authzid"), clientCharset);
-                return new byte[0];
-            } else {
-                throw new SaslException(getMechanismName() + ": authentication failed");
-            }
-            
+
+        if (parsedDigestResponse.digestEquals(DigestDirective.RESPONSE, expectedResponse, 0, expectedResponse.length)) {
+            this.authorizationId = authzid != null ? authzid : userName;
+            this.qop = qop;
+            this.sendingMaxBuffSize = maxbuf;
+            byte[] responseAuth = createResponseAuth(cnonce, qop);
+            this.wrapper = installSecurityLayer(qop, cipher);
+            return responseAuth;
         } else {
-            throw new SaslException(getMechanismName() + ": missing response directive");
+            throw new SaslException(getMechanismName() + ": authentication failed");
         }
-        
+
     }
-    
+
+    /**
+     * Obtain H({ username-value, ":", realm-value, ":", passwd }) for the user.
+     * <p/>
+     * The stored hash is requested first using a {@link DigestHashCallback}, only if the callback handler does not
+     * support it or has no hash available is the plain text password requested and digested.
+     */
+    private byte[] getDigestedUserRealmPassword(String userName, String realm) throws SaslException, NoSuchAlgorithmException {
+        final NameCallback nameCallback = new NameCallback("User name", userName);
+        final RealmCallback realmCallback = new RealmCallback("User realm", realm);
+        final DigestHashCallback digestHashCallback = new DigestHashCallback("User password hash");
+
+        try {
+            tryHandleCallbacks(realmCallback, nameCallback, digestHashCallback);
+            byte[] hash = digestHashCallback.getHash();
+            if (hash != null) {
+                return hash;
+            }
+        } catch (UnsupportedCallbackException e) {
+            if (e.getCallback() != digestHashCallback) {
+                throw new SaslException("Callback handler cannot support callback " + e.getCallback().getClass(), e);
+            }
+        }
+
+        // fall back to the plain text password
+        final PasswordCallback passwordCallback = new PasswordCallback("User password", false);
+        handleCallbacks(realmCallback, nameCallback, passwordCallback);
+
+        char[] passwd = passwordCallback.getPassword();
+        passwordCallback.clearPassword();
+        if (passwd == null) {
+            throw new SaslException(getMechanismName() + ": no password available for user " + userName);
+        }
+        try {
+            return digestUserRealmPassword(userName, realm, passwd);
+        } finally {
+            // wipe out the password
+            Arrays.fill(passwd, (char)0);
+        }
+    }
+
     private boolean serverContainsRealm(String realm) {
         for (String r: realms) {
             if (realm.equals(r)) {
@@ -320,15 +501,50 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
         return false;
     }
     
-    private byte[] createResponseAuth(HashMap<String, byte[]> parsedDigestResponse) {
-        ByteStringBuilder responseAuth = new ByteStringBuilder();
-        responseAuth.append("rspauth=");
-        
-        // TODO
-        byte[] response_value = null;
-        
-        responseAuth.append(response_value);
-        return responseAuth.toArray();
+    /**
+     * Determine whether a value is an element of a comma separated list.
+     */
+    private static boolean isOffered(String list, String value) {
+        if (list == null) {
+            return false;
+        }
+        for (String offered : list.split(DELIMITER)) {
+            if (offered.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create the response-auth sent back to the client once its digest-response has been verified, the same as the
+     * response-value except that A2 does not include the "AUTHENTICATE" method.
+     */
+    private byte[] createResponseAuth(byte[] cnonce, String qop) throws SaslException {
+        byte[] responseAuth = new byte[8 + 32];
+        System.arraycopy(RSPAUTH, 0, responseAuth, 0, 8);
+        try {
+            digestResponseAuth(nonce, nonceCount, cnonce, qop, digestURI, responseAuth, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SaslException("Algorithm not supported", e);
+        }
+        return responseAuth;
+    }
+
+    @Override
+    public Object getNegotiatedProperty(String propName) {
+        assertComplete();
+
+        switch (propName) {
+            case Sasl.QOP:
+                return qop;
+            case Sasl.MAX_BUFFER:
+                return Integer.toString(receivingMaxBuffSize);
+            case Sasl.RAW_SEND_SIZE:
+                return Integer.toString(wrapper != null ? wrapper.getMaxRawSize(sendingMaxBuffSize) : sendingMaxBuffSize);
+        }
+
+        return null;
     }
     
     /* (non-Javadoc)
@@ -352,5 +568,49 @@ public class MD5DigestSaslServer extends AbstractMD5DigestMechanism implements S
         return evaluateMessage(response);
     }
 
+    /**
+     * Give this server back to its pool, if it has one.  A pooled server must not be used once disposed of.
+     */
+    @Override
+    public void dispose() throws SaslException {
+        final DigestServerPool.Idle pool = this.pool;
+        if (pool != null && released == false) {
+            released = true;
+            authorizationId = null;
+            nonce = null;
+            wrapper = null;
+            setWrapper(null);
+            pool.release(this);
+        }
+    }
+
+    void setPool(final DigestServerPool.Idle pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    protected void reset(final CallbackHandler callbackHandler) {
+        sendingMaxBuffSize = DEFAULT_MAXBUF;
+        qop = null;
+        wrapper = null;
+        authorizationId = null;
+        nonceCount = -1;
+        nonce = null;
+        Arrays.fill(expectedResponse, (byte) 0);
+        released = false;
+        super.reset(callbackHandler);
+    }
+
+    /**
+     * Evaluate an authentication response on the given executor, notifying the listener of the challenge to send back.
+     *
+     * @param response the authentication response
+     * @param executor the executor to run the evaluation, including any callbacks
+     * @param listener the listener to notify of the outcome
+     */
+    public void evaluateResponse(final byte[] response, final Executor executor, final SaslEvaluationListener listener) {
+        evaluateMessage(response, executor, listener);
+    }
+
     
 }
@@ -25,7 +25,9 @@ import javax.security.sasl.SaslServer;
 import javax.security.sasl.SaslServerFactory;
 import javax.security.sasl.SaslException;
 
+import org.wildfly.sasl.WildFlySasl;
 import org.wildfly.sasl.util.AbstractSaslFactory;
+import org.wildfly.sasl.util.NonceGenerator;
 
 /**
  * @author <a href="mailto:pskopek@redhat.com">Peter Skopek</a>
@@ -59,9 +61,59 @@ public class MD5DigestServerFactory extends AbstractSaslFactory implements SaslS
             realms = new String[] {serverName};
         }
         
-        final MD5DigestSaslServer server = new MD5DigestSaslServer(realms, mechanism, protocol, serverName, cbh, null);
+        final NonceGenerator nonceGenerator = AbstractMD5DigestMechanism.getNonceGenerator(props);
+        final int nonceLifetime = getNonceLifetime(props);
+        final String[] qops = AbstractMD5DigestMechanism.getQops(props);
+        final int maxbuf = AbstractMD5DigestMechanism.getMaxBuffer(props);
+        final String[] ciphers = AbstractMD5DigestMechanism.getCiphers(props);
+
+        final int poolSize = getPoolSize(props);
+        final DigestServerPool.Idle pool = poolSize > 0 ? DigestServerPool.SHARED.getIdle(new DigestServerPool.Key(realms,
+                mechanism, protocol, serverName, nonceGenerator, nonceLifetime, qops, maxbuf, ciphers), poolSize) : null;
+        if (pool != null) {
+            final MD5DigestSaslServer server = pool.take();
+            if (server != null) {
+                server.reset(cbh);
+                server.init();
+                return server;
+            }
+        }
+
+        final MD5DigestSaslServer server = new MD5DigestSaslServer(realms, mechanism, protocol, serverName, cbh, null,
+                nonceGenerator, nonceLifetime, qops, maxbuf, ciphers);
+        server.setPool(pool);
         server.init();
         return server;
     }
 
+    private static int getPoolSize(Map<String, ?> props) throws SaslException {
+        Object value = props.get(WildFlySasl.DIGEST_SERVER_POOL_SIZE);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Integer) {
+            return ((Integer) value).intValue();
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid value for " + WildFlySasl.DIGEST_SERVER_POOL_SIZE + ": " + value, e);
+        }
+    }
+
+    private static int getNonceLifetime(Map<String, ?> props) throws SaslException {
+        Object value = props.get(WildFlySasl.DIGEST_NONCE_LIFETIME);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Integer) {
+            return ((Integer) value).intValue();
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid value for " + WildFlySasl.DIGEST_NONCE_LIFETIME + ": " + value, e);
+        }
+    }
+
 }
@@ -0,0 +1,439 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.sasl.md5digest;
+
+import static org.wildfly.sasl.md5digest.AbstractMD5DigestMechanism.isWhiteSpace;
+import static org.wildfly.sasl.md5digest.AbstractMD5DigestMechanism.skipWhiteSpace;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.security.sasl.SaslException;
+
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.HexConverter;
+
+/**
+ * A parsed DIGEST-MD5 digest-challenge or digest-response.
+ * <p/>
+ * Parsing does not copy anything: each known {@link DigestDirective} is recorded as an offset and length into the
+ * original message, which must therefore not be modified while the values are in use.  Unknown directives are
+ * skipped.  Quoted values which contain escapes are only unescaped (and copied) when they are actually read.
+ * <p/>
+ * An instance may be reused for any number of messages, each call to {@link #parse(byte[])} discards the previous
+ * content.  Instances are not thread safe.
+ */
+final class ParsedDigestMessage {
+
+    private static final int DIRECTIVE_COUNT = DigestDirective.values().length;
+
+    private final int[] offsets = new int[DIRECTIVE_COUNT];
+    private final int[] lengths = new int[DIRECTIVE_COUNT];
+    private final boolean[] escaped = new boolean[DIRECTIVE_COUNT];
+
+    // the realm directive may be repeated in a challenge
+    private int[] realmOffsets = new int[2];
+    private int[] realmLengths = new int[2];
+    private boolean[] realmEscaped = new boolean[2];
+    private int realmCount;
+
+    private byte[] message;
+
+    ParsedDigestMessage() {
+        clear();
+    }
+
+    /**
+     * Parse the given message, replacing any previously parsed content.
+     *
+     * @param message the message
+     * @return this instance
+     * @throws SaslException if the message is malformed
+     */
+    ParsedDigestMessage parse(final byte[] message) throws SaslException {
+        clear();
+        this.message = message;
+        final int len = message.length;
+        int i = skipWhiteSpace(message, 0);
+        byte b;
+        while (i < len) {
+            if (message[i] == ',') {
+                // empty list element
+                i = skipWhiteSpace(message, i + 1);
+                continue;
+            }
+
+            // keyword
+            final int keyStart = i;
+            while (i < len && (b = message[i]) != '=' && b != ',' && ! isWhiteSpace(b)) {
+                i++;
+            }
+            final int keyLength = i - keyStart;
+            if (i < len && message[i] == ',') {
+                throw new SaslException("DIGEST-MD5 keyword cannot contain ',' " + string(keyStart, keyLength));
+            }
+            i = skipWhiteSpace(message, i);
+            if (i == len || message[i] != '=') {
+                throw new SaslException("'=' expected after keyword: " + string(keyStart, keyLength));
+            }
+            if (keyLength == 0) {
+                throw new SaslException("DIGEST-MD5 keyword cannot be empty");
+            }
+            i = skipWhiteSpace(message, i + 1);
+            if (i == len) {
+                throw new SaslException("No value found for keyword: " + string(keyStart, keyLength));
+            }
+
+            // value
+            final int valueStart;
+            final int valueLength;
+            boolean valueEscaped = false;
+            if (message[i] == '"') {
+                valueStart = ++i;
+                while (i < len && (b = message[i]) != '"') {
+                    if (b == '\\') {
+                        valueEscaped = true;
+                        i++;
+                    }
+                    i++;
+                }
+                if (i >= len) {
+                    throw new SaslException("Unmatched quote found for value: " + string(valueStart, len - valueStart));
+                }
+                valueLength = i - valueStart;
+                i = skipWhiteSpace(message, i + 1);
+                if (i < len && message[i] != ',') {
+                    throw new SaslException("Expecting comma or linear whitespace after quoted string: \"" + string(valueStart, valueLength) + "\"");
+                }
+            } else {
+                valueStart = i;
+                while (i < len && (b = message[i]) != ',' && ! isWhiteSpace(b)) {
+                    i++;
+                }
+                valueLength = i - valueStart;
+                i = skipWhiteSpace(message, i);
+                if (i < len && message[i] != ',') {
+                    throw new SaslException("Expecting comma after value of keyword: " + string(keyStart, keyLength));
+                }
+            }
+
+            final DigestDirective directive = DigestDirective.forName(message, keyStart, keyLength);
+            if (directive != null) {
+                final int idx = directive.ordinal();
+                offsets[idx] = valueStart;
+                lengths[idx] = valueLength;
+                escaped[idx] = valueEscaped;
+                if (directive == DigestDirective.REALM) {
+                    addRealm(valueStart, valueLength, valueEscaped);
+                }
+            }
+
+            if (i < len) {
+                // skip the separator
+                i = skipWhiteSpace(message, i + 1);
+            }
+        }
+        return this;
+    }
+
+    private void clear() {
+        Arrays.fill(offsets, -1);
+        realmCount = 0;
+        message = null;
+    }
+
+    private void addRealm(final int offset, final int length, final boolean isEscaped) {
+        final int realmCount = this.realmCount;
+        if (realmCount == realmOffsets.length) {
+            realmOffsets = Arrays.copyOf(realmOffsets, realmCount << 1);
+            realmLengths = Arrays.copyOf(realmLengths, realmCount << 1);
+            realmEscaped = Arrays.copyOf(realmEscaped, realmCount << 1);
+        }
+        realmOffsets[realmCount] = offset;
+        realmLengths[realmCount] = length;
+        realmEscaped[realmCount] = isEscaped;
+        this.realmCount = realmCount + 1;
+    }
+
+    private String string(final int offset, final int length) {
+        return new String(message, offset, length, Charsets.LATIN_1);
+    }
+
+    /**
+     * Determine whether the directive was present in the message.
+     *
+     * @param directive the directive
+     * @return {@code true} if it was present
+     */
+    boolean contains(final DigestDirective directive) {
+        return offsets[directive.ordinal()] != -1;
+    }
+
+    /**
+     * Get a copy of the (unescaped) value of the directive.
+     *
+     * @param directive the directive
+     * @return the value, or {@code null} if the directive was not present
+     */
+    byte[] getBytes(final DigestDirective directive) {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        if (offset == -1) {
+            return null;
+        }
+        return copy(offset, lengths[idx], escaped[idx]);
+    }
+
+    /**
+     * Get the (unescaped) value of the directive as a string.
+     *
+     * @param directive the directive
+     * @param charset the character set of the value
+     * @return the value, or {@code null} if the directive was not present
+     */
+    String getString(final DigestDirective directive, final Charset charset) {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        if (offset == -1) {
+            return null;
+        }
+        return string(offset, lengths[idx], escaped[idx], charset);
+    }
+
+    /**
+     * Get the number of realm directives present.
+     *
+     * @return the number of realms
+     */
+    int getRealmCount() {
+        return realmCount;
+    }
+
+    /**
+     * Get the value of one of the (possibly repeated) realm directives.
+     *
+     * @param index the index of the realm, in message order
+     * @param charset the character set of the value
+     * @return the realm
+     */
+    String getRealm(final int index, final Charset charset) {
+        if (index < 0 || index >= realmCount) {
+            throw new IndexOutOfBoundsException();
+        }
+        return string(realmOffsets[index], realmLengths[index], realmEscaped[index], charset);
+    }
+
+    /**
+     * Determine whether the value of the directive is exactly the given bytes.
+     *
+     * @param directive the directive
+     * @param other the bytes to compare with
+     * @return {@code true} if the directive is present with that value
+     */
+    boolean contentEquals(final DigestDirective directive, final byte[] other) {
+        return other != null && contentEquals(directive, other, 0, other.length);
+    }
+
+    /**
+     * Determine whether the value of the directive is exactly the given range of bytes.
+     *
+     * @param directive the directive
+     * @param other the array holding the bytes to compare with
+     * @param otherOffset the offset of the bytes to compare with
+     * @param otherLength the number of bytes to compare with
+     * @return {@code true} if the directive is present with that value
+     */
+    boolean contentEquals(final DigestDirective directive, final byte[] other, final int otherOffset, final int otherLength) {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        if (offset == -1 || other == null) {
+            return false;
+        }
+        if (escaped[idx]) {
+            return Arrays.equals(copy(offset, lengths[idx], true), Arrays.copyOfRange(other, otherOffset, otherOffset + otherLength));
+        }
+        final int length = lengths[idx];
+        if (length != otherLength) {
+            return false;
+        }
+        final byte[] message = this.message;
+        for (int i = 0; i < length; i++) {
+            if (message[offset + i] != other[otherOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether the value of the directive is exactly the given hex digest, in time which does not depend on
+     * where the values differ.
+     *
+     * @param directive the directive
+     * @param digest the array holding the hex digest
+     * @param digestOffset the offset of the hex digest
+     * @param digestLength the length of the hex digest
+     * @return {@code true} if the directive is present with that value
+     */
+    boolean digestEquals(final DigestDirective directive, final byte[] digest, final int digestOffset, final int digestLength) {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        if (offset == -1 || digest == null) {
+            return false;
+        }
+        if (escaped[idx]) {
+            final byte[] value = copy(offset, lengths[idx], true);
+            return HexConverter.isEqual(value, 0, value.length, digest, digestOffset, digestLength);
+        }
+        return HexConverter.isEqual(message, offset, lengths[idx], digest, digestOffset, digestLength);
+    }
+
+    /**
+     * Determine whether the value of the directive is the given string, comparing ASCII characters without regard to
+     * case.  Only suitable for values restricted to 8859-1.
+     *
+     * @param directive the directive
+     * @param other the string to compare with
+     * @return {@code true} if the directive is present with that value
+     */
+    boolean contentEqualsIgnoreCase(final DigestDirective directive, final String other) {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        if (offset == -1 || other == null) {
+            return false;
+        }
+        if (escaped[idx]) {
+            return other.equalsIgnoreCase(string(offset, lengths[idx], true, Charsets.LATIN_1));
+        }
+        final int length = lengths[idx];
+        if (length != other.length()) {
+            return false;
+        }
+        final byte[] message = this.message;
+        for (int i = 0; i < length; i++) {
+            int a = message[offset + i] & 0xff;
+            int b = other.charAt(i);
+            if (a != b && toLowerAscii(a) != toLowerAscii(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerAscii(final int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Get the value of the directive as a number.
+     *
+     * @param directive the directive
+     * @param radix the radix of the number ({@code 16} for {@code nonce-count}, {@code 10} for {@code maxbuf})
+     * @return the value
+     * @throws SaslException if the directive is missing or is not a valid number
+     */
+    int getInt(final DigestDirective directive, final int radix) throws SaslException {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        final int length = lengths[idx];
+        if (offset == -1 || length == 0 || escaped[idx]) {
+            throw new SaslException("DIGEST-MD5 invalid numeric value for " + directive);
+        }
+        final byte[] message = this.message;
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            final int digit = Character.digit(message[offset + i], radix);
+            if (digit < 0) {
+                throw new SaslException("DIGEST-MD5 invalid numeric value for " + directive + ": " + string(offset, length));
+            }
+            value = value * radix + digit;
+            if (value > Integer.MAX_VALUE) {
+                throw new SaslException("DIGEST-MD5 numeric value out of range for " + directive + ": " + string(offset, length));
+            }
+        }
+        return (int) value;
+    }
+
+    /**
+     * Append the (unescaped) value of the directive to a builder.
+     *
+     * @param directive the directive
+     * @param target the builder to append to
+     * @return {@code true} if the directive was present
+     */
+    boolean appendTo(final DigestDirective directive, final ByteStringBuilder target) {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        if (offset == -1) {
+            return false;
+        }
+        if (escaped[idx]) {
+            target.append(copy(offset, lengths[idx], true));
+        } else {
+            target.append(message, offset, lengths[idx]);
+        }
+        return true;
+    }
+
+    /**
+     * Feed the (unescaped) value of the directive to a digest.
+     *
+     * @param directive the directive
+     * @param digest the digest to update
+     * @return {@code true} if the directive was present
+     */
+    boolean updateDigest(final DigestDirective directive, final MessageDigest digest) {
+        final int idx = directive.ordinal();
+        final int offset = offsets[idx];
+        if (offset == -1) {
+            return false;
+        }
+        if (escaped[idx]) {
+            digest.update(copy(offset, lengths[idx], true));
+        } else {
+            digest.update(message, offset, lengths[idx]);
+        }
+        return true;
+    }
+
+    private String string(final int offset, final int length, final boolean isEscaped, final Charset charset) {
+        if (isEscaped) {
+            return new String(copy(offset, length, true), charset);
+        }
+        return new String(message, offset, length, charset);
+    }
+
+    private byte[] copy(final int offset, final int length, final boolean isEscaped) {
+        if (! isEscaped) {
+            return Arrays.copyOfRange(message, offset, offset + length);
+        }
+        final byte[] message = this.message;
+        final byte[] result = new byte[length];
+        int j = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = message[offset + i];
+            if (b == '\\' && i + 1 < length) {
+                b = message[offset + ++i];
+            }
+            result[j++] = b;
+        }
+        return Arrays.copyOf(result, j);
+    }
+}
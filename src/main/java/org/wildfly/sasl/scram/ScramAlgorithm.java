@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.wildfly.sasl.util.DigestPool;
+
+/**
+ * The hash function of a SCRAM mechanism and the key derivations of RFC 5802 section 3 built on it.
+ * <p/>
+ * Instances are immutable, the {@link MessageDigest} and {@link Mac} instances are taken from the {@link DigestPool}.
+ */
+final class ScramAlgorithm {
+
+    static final ScramAlgorithm SHA_256 = new ScramAlgorithm(ScramServerFactory.SCRAM_SHA_256, "SHA-256", "HmacSHA256", 32);
+    static final ScramAlgorithm SHA_1 = new ScramAlgorithm(ScramServerFactory.SCRAM_SHA_1, "SHA-1", "HmacSHA1", 20);
+
+    private static final byte[] CLIENT_KEY = { 'C', 'l', 'i', 'e', 'n', 't', ' ', 'K', 'e', 'y' };
+    private static final byte[] SERVER_KEY = { 'S', 'e', 'r', 'v', 'e', 'r', ' ', 'K', 'e', 'y' };
+
+    private final String mechanismName;
+    private final String digestAlgorithm;
+    private final String macAlgorithm;
+    private final int keyLength;
+
+    private ScramAlgorithm(final String mechanismName, final String digestAlgorithm, final String macAlgorithm, final int keyLength) {
+        this.mechanismName = mechanismName;
+        this.digestAlgorithm = digestAlgorithm;
+        this.macAlgorithm = macAlgorithm;
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * Get the algorithm of the given mechanism.
+     *
+     * @param mechanismName the mechanism name
+     * @return the algorithm, or {@code null} if the mechanism is not a supported SCRAM mechanism
+     */
+    static ScramAlgorithm forMechanism(final String mechanismName) {
+        if (SHA_256.mechanismName.equals(mechanismName)) {
+            return SHA_256;
+        } else if (SHA_1.mechanismName.equals(mechanismName)) {
+            return SHA_1;
+        }
+        return null;
+    }
+
+    String getMechanismName() {
+        return mechanismName;
+    }
+
+    /**
+     * Get the length of the salted password and of every key derived from it.
+     */
+    int getKeyLength() {
+        return keyLength;
+    }
+
+    /**
+     * {@code Hi(password, salt, iterationCount)}, which is PBKDF2 with the HMAC of this algorithm producing a single
+     * block.  The two buffers are reused for every iteration, so the cost is that of the HMAC invocations alone.  The MAC
+     * keyed with the password is not pooled, its construction is negligible next to the iterations.
+     *
+     * @param password the normalized password
+     * @param salt the salt
+     * @param iterationCount the iteration count
+     * @return the salted password
+     */
+    byte[] saltedPassword(final byte[] password, final byte[] salt, final int iterationCount) throws NoSuchAlgorithmException, InvalidKeyException {
+        final Mac mac = Mac.getInstance(macAlgorithm);
+        try {
+            mac.init(new SecretKeySpec(password, macAlgorithm));
+            final byte[] u = new byte[keyLength];
+            mac.update(salt);
+            mac.update(new byte[] { 0, 0, 0, 1 });
+            mac.doFinal(u, 0);
+            final byte[] result = u.clone();
+            for (int i = 1; i < iterationCount; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int j = 0; j < keyLength; j++) {
+                    result[j] ^= u[j];
+                }
+            }
+            return result;
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * {@code HMAC(SaltedPassword, "Client Key")}
+     */
+    byte[] clientKey(final byte[] saltedPassword) throws NoSuchAlgorithmException, InvalidKeyException {
+        return hmac(saltedPassword, CLIENT_KEY);
+    }
+
+    /**
+     * {@code HMAC(SaltedPassword, "Server Key")}
+     */
+    byte[] serverKey(final byte[] saltedPassword) throws NoSuchAlgorithmException, InvalidKeyException {
+        return hmac(saltedPassword, SERVER_KEY);
+    }
+
+    /**
+     * {@code H(ClientKey)}
+     */
+    byte[] storedKey(final byte[] clientKey) throws NoSuchAlgorithmException {
+        final MessageDigest digest = DigestPool.getMessageDigest(digestAlgorithm);
+        try {
+            return digest.digest(clientKey);
+        } finally {
+            DigestPool.release(digest);
+        }
+    }
+
+    byte[] hmac(final byte[] key, final byte[] data) throws NoSuchAlgorithmException, InvalidKeyException {
+        return hmac(key, data, 0, data.length);
+    }
+
+    byte[] hmac(final byte[] key, final byte[] data, final int offset, final int length) throws NoSuchAlgorithmException, InvalidKeyException {
+        final Mac mac = DigestPool.getMac(macAlgorithm);
+        try {
+            mac.init(new SecretKeySpec(key, macAlgorithm));
+            mac.update(data, offset, length);
+            return mac.doFinal();
+        } finally {
+            DigestPool.release(mac);
+        }
+    }
+
+    /**
+     * XOR the second array into the first, which must be of the same length.
+     */
+    static void xor(final byte[] target, final byte[] other) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] ^= other[i];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import static org.wildfly.sasl.scram.ScramServerFactory.SCRAM_SHA_1;
+import static org.wildfly.sasl.scram.ScramServerFactory.SCRAM_SHA_256;
+
+import java.util.Map;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslClientFactory;
+import javax.security.sasl.SaslException;
+
+import org.wildfly.sasl.WildFlySasl;
+import org.wildfly.sasl.util.AbstractSaslFactory;
+
+/**
+ * The client factory for the SCRAM-SHA-256 and SCRAM-SHA-1 mechanisms.
+ */
+public class ScramClientFactory extends AbstractSaslFactory implements SaslClientFactory {
+
+    public ScramClientFactory() {
+        super(SCRAM_SHA_256, SCRAM_SHA_1);
+    }
+
+    public SaslClient createSaslClient(String[] mechanisms, String authorizationId, String protocol, String serverName,
+            Map<String, ?> props, CallbackHandler cbh) throws SaslException {
+        if (matches(props) == false) {
+            return null;
+        }
+        String selectedMech = null;
+        for (String mech : mechanisms) {
+            if (ScramAlgorithm.forMechanism(mech) != null) {
+                selectedMech = mech;
+                break;
+            }
+        }
+        if (selectedMech == null) {
+            return null;
+        }
+
+        final int minimum = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_MIN_ITERATION_COUNT, ScramUtil.DEFAULT_MIN_ITERATION_COUNT, 1);
+        final int maximum = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_MAX_ITERATION_COUNT, ScramUtil.DEFAULT_MAX_ITERATION_COUNT, 1);
+        if (minimum > maximum) {
+            throw new SaslException("SCRAM minimum iteration count " + minimum + " is above the maximum " + maximum);
+        }
+        final ScramKeyCache keyCache = getPropertyValue(WildFlySasl.SCRAM_KEY_CACHE, props, true) ? ScramKeyCache.SHARED : null;
+        final ScramSaslClient client = new ScramSaslClient(selectedMech, protocol, serverName, cbh, authorizationId,
+                ScramUtil.getNonceGenerator(props), minimum, maximum, keyCache);
+        client.init();
+        return client;
+    }
+
+    @Override
+    protected boolean isPlainText() {
+        return false;
+    }
+
+    @Override
+    protected boolean isAnonymous() {
+        return false;
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chooses the iteration count of new SCRAM credentials from the measured cost of deriving a salted password on this
+ * host, the highest count whose derivation fits in a per-login budget within a minimum and maximum.
+ * <p/>
+ * The cost is measured on the wall clock, so a measurement taken while the host is busy gives a lower count than one
+ * taken while it is idle.  The first measurement is taken on construction and it is repeated by the first call to
+ * {@link #getIterationCount()} after the recalibration interval; only that caller pays for it, concurrent callers
+ * keep the previous count.
+ */
+public final class ScramIterationCalibrator {
+
+    /**
+     * The iterations of one measurement, enough to outweigh the timer resolution and the setup of the HMAC.
+     */
+    private static final int PROBE_ITERATIONS = 1024;
+
+    /**
+     * The number of measurements of which the median is used, which discards a cold first run or a descheduled one.
+     */
+    private static final int PROBE_ROUNDS = 5;
+
+    /**
+     * Calibrated counts are rounded down to a multiple of this, so that small variations in the measurement do not
+     * change the count of every credential stored.
+     */
+    private static final int GRANULARITY = 256;
+
+    private static final byte[] PROBE_PASSWORD = { 'c', 'a', 'l', 'i', 'b', 'r', 'a', 't', 'e' };
+    private static final byte[] PROBE_SALT = new byte[16];
+
+    private static final ConcurrentMap<String, ScramIterationCalibrator> SHARED = new ConcurrentHashMap<String, ScramIterationCalibrator>();
+
+    private final ScramAlgorithm algorithm;
+    private final long budgetNanos;
+    private final int minimum;
+    private final int maximum;
+    private final long intervalNanos;
+    private final AtomicBoolean calibrating = new AtomicBoolean();
+
+    private volatile int iterationCount;
+    private volatile long probeNanos;
+    private volatile long calibratedAt;
+
+    /**
+     * Construct a new instance and take the first measurement.
+     *
+     * @param mechanismName - the SCRAM mechanism, such as "SCRAM-SHA-256".
+     * @param budgetMicros - the time deriving one salted password may take, in microseconds.
+     * @param minimum - the lowest iteration count to choose, however slow the host.
+     * @param maximum - the highest iteration count to choose, however fast the host.
+     * @param recalibrationSeconds - the number of seconds after which the cost is measured again, or 0 to keep the
+     *        first measurement.
+     * @throws NoSuchAlgorithmException - if the hash function of the mechanism is not available.
+     * @throws IllegalArgumentException - if the mechanism is not supported or a value is out of range.
+     */
+    public ScramIterationCalibrator(final String mechanismName, final long budgetMicros, final int minimum, final int maximum,
+            final long recalibrationSeconds) throws NoSuchAlgorithmException {
+        algorithm = ScramAlgorithm.forMechanism(mechanismName);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unsupported mechanism " + mechanismName);
+        }
+        if (budgetMicros < 1) {
+            throw new IllegalArgumentException("Invalid budget " + budgetMicros);
+        }
+        if (minimum < 1 || maximum < minimum) {
+            throw new IllegalArgumentException("Invalid iteration count bounds " + minimum + " - " + maximum);
+        }
+        if (recalibrationSeconds < 0) {
+            throw new IllegalArgumentException("Invalid recalibration interval " + recalibrationSeconds);
+        }
+        this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(recalibrationSeconds);
+        calibrate();
+    }
+
+    /**
+     * Get the calibrator shared by all servers with the same configuration, so that the cost is not measured for each
+     * authentication.
+     */
+    static ScramIterationCalibrator getInstance(final String mechanismName, final long budgetMicros, final int minimum,
+            final int maximum, final long recalibrationSeconds) throws NoSuchAlgorithmException {
+        final String key = mechanismName + ':' + budgetMicros + ':' + minimum + ':' + maximum + ':' + recalibrationSeconds;
+        ScramIterationCalibrator calibrator = SHARED.get(key);
+        if (calibrator == null) {
+            calibrator = new ScramIterationCalibrator(mechanismName, budgetMicros, minimum, maximum, recalibrationSeconds);
+            final ScramIterationCalibrator existing = SHARED.putIfAbsent(key, calibrator);
+            if (existing != null) {
+                calibrator = existing;
+            }
+        }
+        return calibrator;
+    }
+
+    /**
+     * Get the iteration count for new credentials, measuring the cost again first if the recalibration interval has
+     * passed.
+     *
+     * @return the iteration count.
+     */
+    public int getIterationCount() {
+        if (intervalNanos > 0 && System.nanoTime() - calibratedAt >= intervalNanos && calibrating.compareAndSet(false, true)) {
+            try {
+                calibrate();
+            } catch (NoSuchAlgorithmException e) {
+                // available when constructed, keep the previous count
+                calibratedAt = System.nanoTime();
+            } finally {
+                calibrating.set(false);
+            }
+        }
+        return iterationCount;
+    }
+
+    /**
+     * Get the measured cost of one iteration.
+     *
+     * @return the cost in nanoseconds.
+     */
+    public double getNanosPerIteration() {
+        return (double) probeNanos / PROBE_ITERATIONS;
+    }
+
+    /**
+     * Measure the cost of deriving a salted password now and choose the iteration count from it.
+     *
+     * @return the new iteration count.
+     * @throws NoSuchAlgorithmException - if the hash function of the mechanism is not available.
+     */
+    public int calibrate() throws NoSuchAlgorithmException {
+        final long[] samples = new long[PROBE_ROUNDS];
+        try {
+            for (int i = 0; i < PROBE_ROUNDS; i++) {
+                final long start = System.nanoTime();
+                algorithm.saltedPassword(PROBE_PASSWORD, PROBE_SALT, PROBE_ITERATIONS);
+                samples[i] = System.nanoTime() - start;
+            }
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+        Arrays.sort(samples);
+        final long probe = Math.max(1L, samples[PROBE_ROUNDS / 2]);
+        long count = budgetNanos / probe * PROBE_ITERATIONS + budgetNanos % probe * PROBE_ITERATIONS / probe;
+        count -= count % GRANULARITY;
+        final int result = (int) Math.max(minimum, Math.min(maximum, count));
+        probeNanos = probe;
+        iterationCount = result;
+        calibratedAt = System.nanoTime();
+        return result;
+    }
+}
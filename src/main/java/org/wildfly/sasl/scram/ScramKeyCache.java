@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * The keys derived by SCRAM clients, kept so that authenticating again with the same password, salt and iteration count
+ * does not repeat the iterated hashing of the salted password.
+ * <p/>
+ * Entries are indexed by an HMAC of the mechanism, salt, iteration count and password under a random key generated
+ * for this process, so neither the password nor an unsalted hash of it is held.  At most a fixed number of entries is
+ * kept with the least recently used being dropped first.
+ */
+final class ScramKeyCache {
+
+    static final int MAX_ENTRIES = 64;
+
+    private static final String INDEX_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The cache shared by all clients.
+     */
+    static final ScramKeyCache SHARED = new ScramKeyCache(MAX_ENTRIES);
+
+    private final LinkedHashMap<ByteBuffer, Keys> keys;
+    private final SecretKeySpec indexKey;
+
+    ScramKeyCache(final int maxEntries) {
+        keys = new LinkedHashMap<ByteBuffer, Keys>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, Keys> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        final byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        indexKey = new SecretKeySpec(secret, INDEX_ALGORITHM);
+    }
+
+    /**
+     * Get the keys for the given password, salt and iteration count, deriving them if they are not cached.
+     *
+     * @param algorithm the algorithm of the mechanism
+     * @param password the normalized password
+     * @param salt the salt
+     * @param iterationCount the iteration count
+     * @return the keys
+     */
+    Keys getKeys(final ScramAlgorithm algorithm, final byte[] password, final byte[] salt, final int iterationCount) throws GeneralSecurityException {
+        final ByteBuffer index = index(algorithm, password, salt, iterationCount);
+        Keys cached;
+        synchronized (this) {
+            cached = keys.get(index);
+        }
+        if (cached == null) {
+            // derived outside the lock, two clients racing for the same entry derive the same keys
+            cached = Keys.derive(algorithm, password, salt, iterationCount);
+            synchronized (this) {
+                keys.put(index, cached);
+            }
+        }
+        return cached;
+    }
+
+    synchronized int size() {
+        return keys.size();
+    }
+
+    synchronized void clear() {
+        keys.clear();
+    }
+
+    private ByteBuffer index(final ScramAlgorithm algorithm, final byte[] password, final byte[] salt, final int iterationCount) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance(INDEX_ALGORITHM);
+        mac.init(indexKey);
+        mac.update(algorithm.getMechanismName().getBytes(Charsets.LATIN_1));
+        mac.update(new byte[] { 0, (byte) (iterationCount >>> 24), (byte) (iterationCount >>> 16), (byte) (iterationCount >>> 8), (byte) iterationCount });
+        mac.update(ByteBuffer.allocate(4).putInt(salt.length).array());
+        mac.update(salt);
+        mac.update(password);
+        return ByteBuffer.wrap(mac.doFinal());
+    }
+
+    static final class Keys {
+        final byte[] clientKey;
+        final byte[] storedKey;
+        final byte[] serverKey;
+
+        Keys(final byte[] clientKey, final byte[] storedKey, final byte[] serverKey) {
+            this.clientKey = clientKey;
+            this.storedKey = storedKey;
+            this.serverKey = serverKey;
+        }
+
+        static Keys derive(final ScramAlgorithm algorithm, final byte[] password, final byte[] salt, final int iterationCount) throws GeneralSecurityException {
+            final byte[] saltedPassword = algorithm.saltedPassword(password, salt, iterationCount);
+            final byte[] clientKey = algorithm.clientKey(saltedPassword);
+            return new Keys(clientKey, algorithm.storedKey(clientKey), algorithm.serverKey(saltedPassword));
+        }
+    }
+}
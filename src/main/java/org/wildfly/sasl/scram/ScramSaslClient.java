@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.sasl.SaslException;
+
+import org.wildfly.sasl.util.AbstractSaslClient;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.NonceGenerator;
+import org.wildfly.sasl.util.SaslBase64;
+import org.wildfly.sasl.util.SaslState;
+import org.wildfly.sasl.util.SaslStateContext;
+
+/**
+ * The client side of the SCRAM mechanisms of RFC 5802, without channel binding.
+ * <p/>
+ * The keys derived from the password are taken from a {@link ScramKeyCache} when one is given, so that only the first
+ * authentication with a password, salt and iteration count pays for the iterated hashing.
+ */
+public final class ScramSaslClient extends AbstractSaslClient {
+
+    private final ScramAlgorithm algorithm;
+    private final NonceGenerator nonceGenerator;
+    private final int minimumIterationCount;
+    private final int maximumIterationCount;
+    private final ScramKeyCache keyCache;
+
+    private byte[] password;
+    private byte[] gs2Header;
+    private byte[] clientFirstBare;
+    private byte[] clientNonce;
+    private byte[] expectedServerSignature;
+
+    private final SaslState INITIAL = new SaslState() {
+        public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
+            if (message != null && message.length > 0) {
+                throw new SaslException(getMechanismName() + ": invalid challenge received from server");
+            }
+            NameCallback ncb = new NameCallback("SCRAM authentication name");
+            PasswordCallback pcb = new PasswordCallback("SCRAM password", false);
+            handleCallbacks(ncb, pcb);
+            final String name = ncb.getName();
+            if (name == null || name.isEmpty()) {
+                throw new SaslException(getMechanismName() + ": authentication name is missing");
+            }
+            final char[] passwordChars = pcb.getPassword();
+            pcb.clearPassword();
+            if (passwordChars == null) {
+                throw new SaslException(getMechanismName() + ": password is missing");
+            }
+            try {
+                password = ScramUtil.normalizePassword(passwordChars);
+            } catch (IllegalArgumentException e) {
+                throw new SaslException(getMechanismName() + ": invalid password: " + e.getMessage(), e);
+            } finally {
+                Arrays.fill(passwordChars, (char) 0);
+            }
+
+            final ByteStringBuilder b = new ByteStringBuilder(64);
+            b.append('n').append(',');
+            final String authorizationId = getAuthorizationId();
+            if (authorizationId != null) {
+                b.append('a').append('=');
+                ScramUtil.appendSaslName(authorizationId, b);
+            }
+            b.append(',');
+            final int bareStart = b.length();
+            b.append('n').append('=');
+            ScramUtil.appendSaslName(name, b);
+            b.append(',').append('r').append('=');
+            final int nonceStart = b.length();
+            nonceGenerator.appendBase64(ScramUtil.NONCE_SIZE, b);
+
+            final byte[] clientFirst = b.toArray();
+            gs2Header = Arrays.copyOf(clientFirst, bareStart);
+            clientFirstBare = Arrays.copyOfRange(clientFirst, bareStart, clientFirst.length);
+            clientNonce = Arrays.copyOfRange(clientFirst, nonceStart, clientFirst.length);
+            context.setNegotiationState(SERVER_FIRST);
+            return clientFirst;
+        }
+    };
+
+    private final SaslState SERVER_FIRST = new SaslState() {
+        public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
+            final int length = message.length;
+            if (length > ScramUtil.MAX_MESSAGE_LENGTH) {
+                throw new SaslException(getMechanismName() + ": challenge is too long");
+            }
+            if (length > 0 && message[0] == 'm') {
+                throw new SaslException(getMechanismName() + ": unsupported mandatory extension");
+            }
+            int end = ScramUtil.attributeEnd(message, 0, length, 'r');
+            final int nonceLength = end - 2;
+            if (nonceLength <= clientNonce.length || Arrays.equals(clientNonce, Arrays.copyOfRange(message, 2, 2 + clientNonce.length)) == false) {
+                throw new SaslException(getMechanismName() + ": server nonce does not extend the client nonce");
+            }
+            final byte[] nonce = Arrays.copyOfRange(message, 2, end);
+            int position = end + 1;
+            end = ScramUtil.attributeEnd(message, position, length, 's');
+            final byte[] salt = ScramUtil.decodeBase64(message, position + 2, end - position - 2);
+            position = end + 1;
+            end = ScramUtil.attributeEnd(message, position, length, 'i');
+            final int iterationCount;
+            try {
+                iterationCount = Integer.parseInt(new String(message, position + 2, end - position - 2, Charsets.LATIN_1));
+            } catch (NumberFormatException e) {
+                throw new SaslException(getMechanismName() + ": invalid iteration count", e);
+            }
+            if (iterationCount < minimumIterationCount) {
+                throw new SaslException(getMechanismName() + ": iteration count " + iterationCount + " is below the minimum of " + minimumIterationCount);
+            }
+            if (iterationCount > maximumIterationCount) {
+                throw new SaslException(getMechanismName() + ": iteration count " + iterationCount + " is above the maximum of " + maximumIterationCount);
+            }
+            // any extensions which follow are ignored
+
+            final ByteStringBuilder clientFinal = new ByteStringBuilder(nonce.length + 128);
+            clientFinal.append('c').append('=');
+            SaslBase64.encode(gs2Header, clientFinal);
+            clientFinal.append(',').append('r').append('=').append(nonce);
+            final int withoutProofLength = clientFinal.length();
+
+            final ByteStringBuilder authMessage = new ByteStringBuilder(clientFirstBare.length + length + withoutProofLength + 2);
+            authMessage.append(clientFirstBare).append(',').append(message).append(',').append(clientFinal);
+            try {
+                final ScramKeyCache.Keys keys = keyCache == null
+                        ? ScramKeyCache.Keys.derive(algorithm, password, salt, iterationCount)
+                        : keyCache.getKeys(algorithm, password, salt, iterationCount);
+                final byte[] authMessageBytes = authMessage.toArray();
+                // ClientProof = ClientKey XOR HMAC(StoredKey, AuthMessage)
+                final byte[] proof = algorithm.hmac(keys.storedKey, authMessageBytes);
+                ScramAlgorithm.xor(proof, keys.clientKey);
+                clientFinal.append(',').append('p').append('=');
+                SaslBase64.encode(proof, clientFinal);
+                expectedServerSignature = algorithm.hmac(keys.serverKey, authMessageBytes);
+            } catch (GeneralSecurityException e) {
+                throw new SaslException(getMechanismName() + ": unable to compute proof", e);
+            } finally {
+                Arrays.fill(password, (byte) 0);
+                password = null;
+            }
+            context.setNegotiationState(SERVER_FINAL);
+            return clientFinal.toArray();
+        }
+    };
+
+    private final SaslState SERVER_FINAL = new SaslState() {
+        public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
+            final int length = message.length;
+            if (length > 0 && message[0] == 'e') {
+                final int end = ScramUtil.attributeEnd(message, 0, length, 'e');
+                throw new SaslException(getMechanismName() + ": server rejected authentication: " + new String(message, 2, end - 2, Charsets.UTF_8));
+            }
+            final int end = ScramUtil.attributeEnd(message, 0, length, 'v');
+            final byte[] serverSignature = ScramUtil.decodeBase64(message, 2, end - 2);
+            if (MessageDigest.isEqual(expectedServerSignature, serverSignature) == false) {
+                throw new SaslException(getMechanismName() + ": server authentication failed");
+            }
+            context.negotiationComplete();
+            return null;
+        }
+    };
+
+    /**
+     * Construct a new instance.
+     *
+     * @param mechanismName the SCRAM mechanism name
+     * @param protocol the protocol
+     * @param serverName the server name
+     * @param callbackHandler the callback handler
+     * @param authorizationId the possibly {@code null} authorization id
+     * @param nonceGenerator the source of the client nonce
+     * @param minimumIterationCount the lowest iteration count accepted from the server
+     * @param maximumIterationCount the highest iteration count accepted from the server
+     * @param keyCache the cache of derived keys, or {@code null} to derive them for every authentication
+     */
+    ScramSaslClient(final String mechanismName, final String protocol, final String serverName, final CallbackHandler callbackHandler,
+            final String authorizationId, final NonceGenerator nonceGenerator, final int minimumIterationCount,
+            final int maximumIterationCount, final ScramKeyCache keyCache) {
+        super(mechanismName, protocol, serverName, callbackHandler, authorizationId, true);
+        this.algorithm = ScramAlgorithm.forMechanism(mechanismName);
+        this.nonceGenerator = nonceGenerator;
+        this.minimumIterationCount = minimumIterationCount;
+        this.maximumIterationCount = maximumIterationCount;
+        this.keyCache = keyCache;
+        getContext().setNegotiationState(INITIAL);
+    }
+
+    public void dispose() throws SaslException {
+        if (password != null) {
+            Arrays.fill(password, (byte) 0);
+            password = null;
+        }
+    }
+}
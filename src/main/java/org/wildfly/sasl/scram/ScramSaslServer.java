@@ -0,0 +1,282 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.sasl.AuthorizeCallback;
+import javax.security.sasl.SaslException;
+
+import org.wildfly.sasl.callback.ScramCredentialCallback;
+import org.wildfly.sasl.util.AbstractSaslServer;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.NonceGenerator;
+import org.wildfly.sasl.util.SaslBase64;
+import org.wildfly.sasl.util.SaslState;
+import org.wildfly.sasl.util.SaslStateContext;
+
+/**
+ * The server side of the SCRAM mechanisms of RFC 5802, without channel binding.
+ * <p/>
+ * The client proof is verified against the StoredKey and the server signature computed from the ServerKey which the
+ * callback handler supplies through a {@link ScramCredentialCallback}, so no iterated hashing takes place during
+ * authentication.
+ */
+public final class ScramSaslServer extends AbstractSaslServer {
+
+    private static final int FAKE_SALT_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    /**
+     * The key the salts of unknown users are derived from, which stays the same for the life of the process.
+     */
+    private static final byte[] FAKE_SALT_KEY = randomBytes(32);
+
+    private final ScramAlgorithm algorithm;
+    private final NonceGenerator nonceGenerator;
+    private final ScramIterationCalibrator calibrator;
+
+    private String authenticationId;
+    private String requestedAuthorizationId;
+    private String authorizedId;
+    private byte[] gs2Header;
+    private byte[] clientFirstBare;
+    private byte[] serverFirst;
+    private byte[] nonce;
+    private byte[] storedKey;
+    private byte[] serverKey;
+
+    private final SaslState INITIAL = new SaslState() {
+        public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
+            final int length = message.length;
+            if (length == 0) {
+                // need initial response
+                return NO_BYTES;
+            }
+            if (length > ScramUtil.MAX_MESSAGE_LENGTH) {
+                throw new SaslException(getMechanismName() + ": authentication message is too long");
+            }
+
+            // gs2-header
+            int position;
+            switch (message[0]) {
+                case 'n':
+                case 'y': {
+                    // 'y' only means the client supports channel binding but thinks we do not, which is true
+                    position = 1;
+                    break;
+                }
+                case 'p': {
+                    throw new SaslException(getMechanismName() + ": channel binding is not supported");
+                }
+                default: {
+                    throw new SaslException(getMechanismName() + ": invalid channel binding flag");
+                }
+            }
+            if (position == length || message[position++] != ',') {
+                throw new SaslException(getMechanismName() + ": invalid gs2-header");
+            }
+            if (position < length && message[position] == 'a') {
+                final int end = ScramUtil.attributeEnd(message, position, length, 'a');
+                requestedAuthorizationId = ScramUtil.decodeSaslName(message, position + 2, end - position - 2);
+                position = end;
+            }
+            if (position == length || message[position++] != ',') {
+                throw new SaslException(getMechanismName() + ": invalid gs2-header");
+            }
+            gs2Header = Arrays.copyOf(message, position);
+            clientFirstBare = Arrays.copyOfRange(message, position, length);
+
+            // client-first-message-bare
+            if (position < length && message[position] == 'm') {
+                throw new SaslException(getMechanismName() + ": unsupported mandatory extension");
+            }
+            int end = ScramUtil.attributeEnd(message, position, length, 'n');
+            authenticationId = ScramUtil.decodeSaslName(message, position + 2, end - position - 2);
+            position = end + 1;
+            end = ScramUtil.attributeEnd(message, position, length, 'r');
+            final int clientNonceLength = end - position - 2;
+            if (clientNonceLength == 0) {
+                throw new SaslException(getMechanismName() + ": empty client nonce");
+            }
+            // any extensions which follow are ignored
+
+            NameCallback ncb = new NameCallback("SCRAM authentication identity", authenticationId);
+            ScramCredentialCallback scc = new ScramCredentialCallback(getMechanismName(),
+                    calibrator == null ? 0 : calibrator.getIterationCount());
+            handleCallbacks(ncb, scc);
+            final byte[] salt;
+            final int iterationCount;
+            if (scc.isCredentialSet()) {
+                if (scc.getStoredKey().length != algorithm.getKeyLength() || scc.getServerKey() == null
+                        || scc.getServerKey().length != algorithm.getKeyLength() || scc.getSalt() == null
+                        || scc.getIterationCount() < 1) {
+                    throw new SaslException(getMechanismName() + ": invalid credential");
+                }
+                storedKey = scc.getStoredKey();
+                serverKey = scc.getServerKey();
+                salt = scc.getSalt();
+                iterationCount = scc.getIterationCount();
+            } else {
+                // an unknown user gets a challenge like any other and fails at the proof, as a wrong password does
+                storedKey = randomBytes(algorithm.getKeyLength());
+                serverKey = randomBytes(algorithm.getKeyLength());
+                salt = fakeSalt();
+                iterationCount = calibrator == null ? ScramUtil.DEFAULT_MIN_ITERATION_COUNT : calibrator.getIterationCount();
+            }
+
+            // server-first-message
+            final ByteStringBuilder b = new ByteStringBuilder(clientNonceLength + 96);
+            b.append('r').append('=').append(message, position + 2, clientNonceLength);
+            nonceGenerator.appendBase64(ScramUtil.NONCE_SIZE, b);
+            nonce = Arrays.copyOfRange(b.toArray(), 2, b.length());
+            b.append(',').append('s').append('=');
+            SaslBase64.encode(salt, b);
+            b.append(',').append('i').append('=').appendNumber(iterationCount);
+            serverFirst = b.toArray();
+            context.setNegotiationState(FINAL);
+            return serverFirst;
+        }
+    };
+
+    private final SaslState FINAL = new SaslState() {
+        public byte[] evaluateMessage(final SaslStateContext context, final byte[] message) throws SaslException {
+            final int length = message.length;
+            if (length > ScramUtil.MAX_MESSAGE_LENGTH) {
+                throw new SaslException(getMechanismName() + ": authentication message is too long");
+            }
+
+            // channel-binding, which must repeat the gs2-header as there is no channel binding data
+            int end = ScramUtil.attributeEnd(message, 0, length, 'c');
+            if (Arrays.equals(gs2Header, ScramUtil.decodeBase64(message, 2, end - 2)) == false) {
+                throw new SaslException(getMechanismName() + ": channel binding does not match gs2-header");
+            }
+            int position = end + 1;
+            end = ScramUtil.attributeEnd(message, position, length, 'r');
+            if (Arrays.equals(nonce, Arrays.copyOfRange(message, position + 2, end)) == false) {
+                throw new SaslException(getMechanismName() + ": nonce mismatch");
+            }
+            // the proof is the last attribute, after any extensions
+            int proofStart = -1;
+            position = end;
+            while (position < length) {
+                final int attribute = position + 1;
+                if (attribute == length) {
+                    throw new SaslException(getMechanismName() + ": missing attribute at position " + attribute);
+                }
+                end = ScramUtil.attributeEnd(message, attribute, length, (char) message[attribute]);
+                if (message[attribute] == 'p') {
+                    proofStart = position;
+                    break;
+                }
+                position = end;
+            }
+            if (proofStart == -1) {
+                throw new SaslException(getMechanismName() + ": missing proof");
+            }
+            if (end != length) {
+                throw new SaslException(getMechanismName() + ": unexpected data after proof");
+            }
+            final byte[] proof = ScramUtil.decodeBase64(message, proofStart + 3, end - proofStart - 3);
+            if (proof.length != algorithm.getKeyLength()) {
+                throw new SaslException(getMechanismName() + ": invalid proof length");
+            }
+
+            final ByteStringBuilder authMessage = new ByteStringBuilder(clientFirstBare.length + serverFirst.length + proofStart + 2);
+            authMessage.append(clientFirstBare).append(',').append(serverFirst).append(',').append(message, 0, proofStart);
+            final byte[] serverSignature;
+            try {
+                final byte[] authMessageBytes = authMessage.toArray();
+                // ClientKey = ClientProof XOR HMAC(StoredKey, AuthMessage), then H(ClientKey) must be the StoredKey
+                ScramAlgorithm.xor(proof, algorithm.hmac(storedKey, authMessageBytes));
+                if (MessageDigest.isEqual(storedKey, algorithm.storedKey(proof)) == false) {
+                    throw new SaslException(getMechanismName() + ": authentication failed");
+                }
+                serverSignature = algorithm.hmac(serverKey, authMessageBytes);
+            } catch (GeneralSecurityException e) {
+                throw new SaslException(getMechanismName() + ": unable to verify proof", e);
+            }
+
+            final String authorizationId = requestedAuthorizationId == null ? authenticationId : requestedAuthorizationId;
+            AuthorizeCallback acb = new AuthorizeCallback(authenticationId, authorizationId);
+            handleCallbacks(acb);
+            if (acb.isAuthorized() == false) {
+                throw new SaslException(getMechanismName() + ": " + authenticationId + " is not authorized to act as " + authorizationId);
+            }
+            authorizedId = acb.getAuthorizedID();
+
+            final ByteStringBuilder serverFinal = new ByteStringBuilder(SaslBase64.encodedLength(serverSignature.length) + 2);
+            serverFinal.append('v').append('=');
+            SaslBase64.encode(serverSignature, serverFinal);
+            storedKey = null;
+            serverKey = null;
+            // negotiationComplete must only be called after the authorizedId is set.
+            context.negotiationComplete();
+            return serverFinal.toArray();
+        }
+    };
+
+    /**
+     * Construct a new instance.
+     *
+     * @param mechanismName the SCRAM mechanism name
+     * @param protocol the protocol
+     * @param serverName the server name
+     * @param callbackHandler the callback handler
+     * @param nonceGenerator the source of the server nonce
+     */
+    ScramSaslServer(final String mechanismName, final String protocol, final String serverName, final CallbackHandler callbackHandler,
+            final NonceGenerator nonceGenerator, final ScramIterationCalibrator calibrator) {
+        super(mechanismName, protocol, serverName, callbackHandler);
+        this.algorithm = ScramAlgorithm.forMechanism(mechanismName);
+        this.nonceGenerator = nonceGenerator;
+        this.calibrator = calibrator;
+        getContext().setNegotiationState(INITIAL);
+    }
+
+    /**
+     * The salt sent for an unknown user, the same on each attempt for the same server and user name so that it cannot be
+     * told apart from a stored one.
+     */
+    private byte[] fakeSalt() throws SaslException {
+        final byte[] name = (getServerName() + '\0' + authenticationId).getBytes(Charsets.UTF_8);
+        try {
+            return Arrays.copyOf(algorithm.hmac(FAKE_SALT_KEY, name), FAKE_SALT_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new SaslException(getMechanismName() + ": unable to create salt", e);
+        }
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    public String getAuthorizationID() {
+        assertComplete();
+
+        return authorizedId;
+    }
+}
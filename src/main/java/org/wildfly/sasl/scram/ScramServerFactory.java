@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+import javax.security.sasl.SaslServerFactory;
+
+import org.wildfly.sasl.WildFlySasl;
+import org.wildfly.sasl.util.AbstractSaslFactory;
+
+/**
+ * The server factory for the SCRAM-SHA-256 and SCRAM-SHA-1 mechanisms.
+ */
+public class ScramServerFactory extends AbstractSaslFactory implements SaslServerFactory {
+
+    /**
+     * The SCRAM-SHA-256 mechanism name
+     */
+    public static final String SCRAM_SHA_256 = "SCRAM-SHA-256";
+
+    /**
+     * The SCRAM-SHA-1 mechanism name
+     */
+    public static final String SCRAM_SHA_1 = "SCRAM-SHA-1";
+
+    private static final int DEFAULT_RECALIBRATION_INTERVAL = 300;
+
+    /**
+     * Default constructor.
+     */
+    public ScramServerFactory() {
+        super(SCRAM_SHA_256, SCRAM_SHA_1);
+    }
+
+    public SaslServer createSaslServer(String mechanism, String protocol, String serverName, Map<String, ?> props, CallbackHandler cbh) throws SaslException {
+        if (ScramAlgorithm.forMechanism(mechanism) == null || matches(props) == false) {
+            return null;
+        }
+
+        return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramUtil.getNonceGenerator(props),
+                getCalibrator(mechanism, props));
+    }
+
+    private static ScramIterationCalibrator getCalibrator(final String mechanism, final Map<String, ?> props) throws SaslException {
+        final int budget = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_ITERATION_BUDGET, 0, 0);
+        if (budget == 0) {
+            return null;
+        }
+        final int minimum = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_MIN_ITERATION_COUNT, ScramUtil.DEFAULT_MIN_ITERATION_COUNT, 1);
+        final int maximum = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_MAX_ITERATION_COUNT, ScramUtil.DEFAULT_MAX_ITERATION_COUNT, 1);
+        if (minimum > maximum) {
+            throw new SaslException("SCRAM minimum iteration count " + minimum + " is above the maximum " + maximum);
+        }
+        final int interval = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_RECALIBRATION_INTERVAL, DEFAULT_RECALIBRATION_INTERVAL, 0);
+        try {
+            return ScramIterationCalibrator.getInstance(mechanism, budget, minimum, maximum, interval);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SaslException(mechanism + ": hash function is not available", e);
+        }
+    }
+
+    @Override
+    protected boolean isPlainText() {
+        return false;
+    }
+
+    @Override
+    protected boolean isAnonymous() {
+        return false;
+    }
+
+}
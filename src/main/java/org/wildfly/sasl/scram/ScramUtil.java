@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.scram;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+import javax.security.sasl.SaslException;
+
+import org.wildfly.sasl.WildFlySasl;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.NonceGenerator;
+import org.wildfly.sasl.util.SaslBase64;
+import org.wildfly.sasl.util.StringPrep;
+
+/**
+ * A utility class for deriving the stored credential of a SCRAM user as described in RFC 5802 section 3, for use when
+ * the credential is stored and later returned through a {@link org.wildfly.sasl.callback.ScramCredentialCallback}.
+ * <p/>
+ * Deriving the salted password is deliberately expensive, it should be done once when the password is set and not
+ * on the authentication path.
+ */
+public final class ScramUtil {
+
+    /**
+     * The number of random bytes in a nonce, Base64 encoded to 24 printable characters.
+     */
+    static final int NONCE_SIZE = 18;
+
+    static final int DEFAULT_MIN_ITERATION_COUNT = 4096;
+    static final int DEFAULT_MAX_ITERATION_COUNT = 16384;
+
+    /**
+     * The upper limit of an accepted message, well beyond anything a peer sends without extensions.
+     */
+    static final int MAX_MESSAGE_LENGTH = 8192;
+
+    private static final StringPrep.Profile NAME_PROFILE = StringPrep.compile(StringPrep.PROFILE_SASL_QUERY | StringPrep.MAP_SCRAM_LOGIN_CHARS);
+    private static final StringPrep.Profile PASSWORD_PROFILE = StringPrep.compile(StringPrep.PROFILE_SASL_QUERY);
+
+    private ScramUtil() {
+    }
+
+    /**
+     * Derive the salted password, {@code Hi(Normalize(password), salt, iterationCount)}.
+     *
+     * @param mechanismName - the SCRAM mechanism, such as "SCRAM-SHA-256".
+     * @param password - the password.
+     * @param salt - the salt, which should be random and unique to the user.
+     * @param iterationCount - the iteration count.
+     * @return the salted password.
+     * @throws NoSuchAlgorithmException - if the hash function of the mechanism is not available.
+     * @throws IllegalArgumentException - if the mechanism is not supported or the password is empty or prohibited by
+     *         SASLprep.
+     */
+    public static byte[] getSaltedPassword(final String mechanismName, final char[] password, final byte[] salt, final int iterationCount) throws NoSuchAlgorithmException {
+        if (iterationCount < 1) {
+            throw new IllegalArgumentException("Invalid iteration count " + iterationCount);
+        }
+        try {
+            return algorithm(mechanismName).saltedPassword(normalizePassword(password), salt, iterationCount);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Derive the StoredKey, {@code H(HMAC(SaltedPassword, "Client Key"))}.
+     *
+     * @param mechanismName - the SCRAM mechanism.
+     * @param saltedPassword - the salted password.
+     * @return the StoredKey.
+     * @throws NoSuchAlgorithmException - if the hash function of the mechanism is not available.
+     */
+    public static byte[] getStoredKey(final String mechanismName, final byte[] saltedPassword) throws NoSuchAlgorithmException {
+        final ScramAlgorithm algorithm = algorithm(mechanismName);
+        try {
+            return algorithm.storedKey(algorithm.clientKey(saltedPassword));
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Derive the ServerKey, {@code HMAC(SaltedPassword, "Server Key")}.
+     *
+     * @param mechanismName - the SCRAM mechanism.
+     * @param saltedPassword - the salted password.
+     * @return the ServerKey.
+     * @throws NoSuchAlgorithmException - if the hash function of the mechanism is not available.
+     */
+    public static byte[] getServerKey(final String mechanismName, final byte[] saltedPassword) throws NoSuchAlgorithmException {
+        try {
+            return algorithm(mechanismName).serverKey(saltedPassword);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static ScramAlgorithm algorithm(final String mechanismName) {
+        final ScramAlgorithm algorithm = ScramAlgorithm.forMechanism(mechanismName);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unsupported SCRAM mechanism " + mechanismName);
+        }
+        return algorithm;
+    }
+
+    /**
+     * Normalize the password with SASLprep, treating it as a query string.
+     */
+    static byte[] normalizePassword(final char[] password) {
+        final ByteStringBuilder normalized = new ByteStringBuilder(password.length + 8);
+        PASSWORD_PROFILE.encode(password, normalized);
+        if (normalized.length() == 0) {
+            throw new IllegalArgumentException("Empty password");
+        }
+        return normalized.toArray();
+    }
+
+    /**
+     * Append a user name or authorization id as a saslname, normalized with SASLprep and with "," and "=" escaped.
+     */
+    static void appendSaslName(final String name, final ByteStringBuilder target) throws SaslException {
+        try {
+            NAME_PROFILE.encode(name, target);
+        } catch (IllegalArgumentException e) {
+            throw new SaslException("Invalid name: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decode a saslname, reversing the escaping of "," and "=".
+     */
+    static String decodeSaslName(final byte[] message, final int offset, final int length) throws SaslException {
+        final ByteStringBuilder decoded = new ByteStringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final byte b = message[offset + i];
+            if (b == '=') {
+                if (i + 2 < length && message[offset + i + 1] == '2' && message[offset + i + 2] == 'C') {
+                    decoded.append((byte) ',');
+                } else if (i + 2 < length && message[offset + i + 1] == '3' && message[offset + i + 2] == 'D') {
+                    decoded.append((byte) '=');
+                } else {
+                    throw new SaslException("Invalid escape in name at position " + (offset + i));
+                }
+                i += 2;
+            } else {
+                decoded.append(b);
+            }
+        }
+        if (decoded.length() == 0) {
+            throw new SaslException("Empty name");
+        }
+        return new String(decoded.toArray(), Charsets.UTF_8);
+    }
+
+    /**
+     * Get the end of the attribute starting at the given position, which is the position of the next "," or the end of
+     * the message, after checking that the attribute has the expected name.
+     *
+     * @param message the message
+     * @param position the position of the attribute name
+     * @param length the length of the message
+     * @param name the expected attribute name
+     * @return the end of the attribute value
+     */
+    static int attributeEnd(final byte[] message, final int position, final int length, final char name) throws SaslException {
+        if (position + 1 >= length || message[position] != name || message[position + 1] != '=') {
+            throw new SaslException("Expected attribute '" + name + "' at position " + position);
+        }
+        final int end = Charsets.indexOf(message, ',', position + 2, length - position - 2);
+        return end == -1 ? length : end;
+    }
+
+    /**
+     * Decode the Base64 value of an attribute.
+     */
+    static byte[] decodeBase64(final byte[] message, final int offset, final int length) throws SaslException {
+        final ByteStringBuilder decoded = new ByteStringBuilder(length);
+        try {
+            if (SaslBase64.decode(message, offset, length, decoded) != length) {
+                throw new SaslException("Invalid Base64 value at position " + offset);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new SaslException("Invalid Base64 value: " + e.getMessage(), e);
+        }
+        return decoded.toArray();
+    }
+
+    static NonceGenerator getNonceGenerator(final Map<String, ?> props) throws SaslException {
+        final Object algorithm = props == null ? null : props.get(WildFlySasl.SECURE_RNG);
+        if (algorithm == null) {
+            return NonceGenerator.getDefault();
+        }
+        try {
+            return NonceGenerator.getInstance(algorithm.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new SaslException("Secure random algorithm " + algorithm + " is not available", e);
+        }
+    }
+
+    static int getIntProperty(final Map<String, ?> props, final String property, final int defaultValue, final int lowest) throws SaslException {
+        final Object value = props == null ? null : props.get(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        final int result;
+        try {
+            result = value instanceof Integer ? ((Integer) value).intValue() : Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid value for " + property + ": " + value, e);
+        }
+        if (result < lowest) {
+            throw new SaslException("Invalid value for " + property + ": " + value);
+        }
+        return result;
+    }
+}
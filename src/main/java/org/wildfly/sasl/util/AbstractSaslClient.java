@@ -18,6 +18,8 @@
 
 package org.wildfly.sasl.util;
 
+import java.util.concurrent.Executor;
+
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.SaslClient;
 import javax.security.sasl.SaslException;
@@ -59,6 +61,18 @@ public abstract class AbstractSaslClient extends AbstractSaslParticipant impleme
         return evaluateMessage(challenge);
     }
 
+    /**
+     * Evaluate an authentication challenge received from the server on the given executor, notifying the listener of the
+     * response to send to the server.
+     *
+     * @param challenge the authentication challenge
+     * @param executor the executor to run the evaluation, including any callbacks
+     * @param listener the listener to notify of the outcome
+     */
+    public void evaluateChallenge(final byte[] challenge, final Executor executor, final SaslEvaluationListener listener) {
+        evaluateMessage(challenge, executor, listener);
+    }
+
     /**
      * Determines whether this mechanism has an optional initial response.
      * If true, caller should call {@link #evaluateChallenge(byte[])} with an
@@ -31,8 +31,31 @@ public abstract class AbstractSaslFactory {
 
     static final String[] EMPTY = new String[0];
 
+    /**
+     * The policy properties considered by {@link #matches(Map)}, in the order of their bits in a policy set.
+     */
+    private static final String[] POLICY_PROPERTIES = {
+        Sasl.POLICY_NOPLAINTEXT,
+        Sasl.POLICY_NOANONYMOUS,
+        Sasl.POLICY_FORWARD_SECRECY,
+        Sasl.POLICY_NOACTIVE,
+        Sasl.POLICY_NODICTIONARY,
+        Sasl.POLICY_PASS_CREDENTIALS
+    };
+
+    private static final int NOPLAINTEXT = 1;
+    private static final int NOANONYMOUS = 1 << 1;
+    private static final int FORWARD_SECRECY = 1 << 2;
+    private static final int NOACTIVE = 1 << 3;
+    private static final int NODICTIONARY = 1 << 4;
+    private static final int PASS_CREDENTIALS = 1 << 5;
+
     private final String[] names;
 
+    // bit n is set if the policy set n is matched, the mechanism characteristics are fixed so this is computed once
+    private long matchingPolicies;
+    private volatile boolean matchingPoliciesComputed;
+
     /**
      * Construct a new instance.
      *
@@ -42,6 +65,15 @@ public abstract class AbstractSaslFactory {
         names = new String[] { name };
     }
 
+    /**
+     * Construct a new instance for a family of mechanisms sharing the same characteristics.
+     *
+     * @param names the mechanism names, in order of preference
+     */
+    protected AbstractSaslFactory(final String... names) {
+        this.names = names.clone();
+    }
+
     /**
      * Get the mechanism names matching the given properties.
      *
@@ -49,7 +81,7 @@ public abstract class AbstractSaslFactory {
      * @return the mechanism names
      */
     public String[] getMechanismNames(Map<String, ?> props) {
-        if (matches(props)) {
+        if (matchesPolicies(getPolicies(props))) {
             return names;
         } else {
             return EMPTY;
@@ -64,12 +96,50 @@ public abstract class AbstractSaslFactory {
      * @return {@code true} if there is a match, {@code false} otherwise
      */
     protected boolean matches(final Map<String, ?> props) {
-        return  ! (getPropertyValue(Sasl.POLICY_NOPLAINTEXT, props, false) && isPlainText()
-                || getPropertyValue(Sasl.POLICY_NOANONYMOUS, props, false) && isAnonymous()
-                || getPropertyValue(Sasl.POLICY_FORWARD_SECRECY, props, false) && ! isForwardSecrecy()
-                || getPropertyValue(Sasl.POLICY_NOACTIVE, props, false) && isActiveSusceptible()
-                || getPropertyValue(Sasl.POLICY_NODICTIONARY, props, false) && isDictionarySusceptible()
-                || getPropertyValue(Sasl.POLICY_PASS_CREDENTIALS, props, false) && ! isPassCredentials());
+        return matchesPolicies(getPolicies(props));
+    }
+
+    private boolean matchesPolicies(final int policies) {
+        if (matchingPoliciesComputed == false) {
+            long matching = 0;
+            for (int i = 0; i < 1 << POLICY_PROPERTIES.length; i++) {
+                if (matchesPolicy(i)) {
+                    matching |= 1L << i;
+                }
+            }
+            matchingPolicies = matching;
+            matchingPoliciesComputed = true;
+        }
+        return (matchingPolicies >>> policies & 1) != 0;
+    }
+
+    private boolean matchesPolicy(final int policies) {
+        return  ! ((policies & NOPLAINTEXT) != 0 && isPlainText()
+                || (policies & NOANONYMOUS) != 0 && isAnonymous()
+                || (policies & FORWARD_SECRECY) != 0 && ! isForwardSecrecy()
+                || (policies & NOACTIVE) != 0 && isActiveSusceptible()
+                || (policies & NODICTIONARY) != 0 && isDictionarySusceptible()
+                || (policies & PASS_CREDENTIALS) != 0 && ! isPassCredentials());
+    }
+
+    /**
+     * Get the set of policies requested by the properties, as a bit set in the order of {@link #POLICY_PROPERTIES}.
+     *
+     * @param props the properties, may be {@code null}
+     * @return the policy set
+     */
+    static int getPolicies(final Map<String, ?> props) {
+        if (props == null || props.isEmpty()) {
+            return 0;
+        }
+        int policies = 0;
+        for (int i = 0; i < POLICY_PROPERTIES.length; i++) {
+            final Object value = props.get(POLICY_PROPERTIES[i]);
+            if (value != null && (value instanceof Boolean ? ((Boolean) value).booleanValue() : Boolean.parseBoolean(value.toString()))) {
+                policies |= 1 << i;
+            }
+        }
+        return policies;
     }
 
     /**
@@ -139,16 +209,17 @@ public abstract class AbstractSaslFactory {
     }
 
     /**
-     * Determine whether our mechanism name is among those given.
+     * Determine whether one of our mechanism names is among those given.
      *
      * @param names the names
      * @return {@code true} if the names include our mechanism
      */
     protected boolean isIncluded(final String... names) {
-        final String ourName = this.names[0];
-        for (String name : names) {
-            if (name.equals(ourName)) {
-                return true;
+        for (String ourName : this.names) {
+            for (String name : names) {
+                if (name.equals(ourName)) {
+                    return true;
+                }
             }
         }
         return false;
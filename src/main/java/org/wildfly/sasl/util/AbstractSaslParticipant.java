@@ -18,7 +18,11 @@
 
 package org.wildfly.sasl.util;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -48,12 +52,20 @@ public abstract class AbstractSaslParticipant {
     };
 
     private final String mechanismName;
-    private final CallbackHandler callbackHandler;
+    private CallbackHandler callbackHandler;
     private final String protocol;
     private final String serverName;
 
-    private SaslState state;
+    private final AtomicBoolean evaluating = new AtomicBoolean();
+    private SaslMetrics metrics = SaslInstrumentation.getMetrics();
+    /**
+     * The number of steps of the current negotiation measured so far, evaluations never overlap.
+     */
+    private int steps;
+
+    private volatile SaslState state;
     private SaslWrapper wrapper;
+    private AbstractSaslWrapper bufferWrapper;
 
     /**
      * Construct a new instance.
@@ -92,17 +104,40 @@ public abstract class AbstractSaslParticipant {
      * @throws UnsupportedCallbackException if a callback isn't supported
      */
     protected void tryHandleCallbacks(Callback... callbacks) throws SaslException, UnsupportedCallbackException {
+        final SaslMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0L : System.nanoTime();
         try {
             callbackHandler.handle(callbacks);
         } catch (SaslException | UnsupportedCallbackException e) {
             throw e;
         } catch (Throwable t) {
             throw new SaslException("Callback handler invocation failed", t);
+        } finally {
+            if (metrics != null) {
+                metrics.callbacksHandled(mechanismName, System.nanoTime() - start);
+            }
         }
     }
 
     public void init() {}
 
+    /**
+     * Prepare this participant for a new negotiation with the same configuration, as if it had just been constructed.
+     * Subclasses which support reuse clear their own negotiation state before calling this method, {@link #init()} must
+     * then be called before the participant is used.
+     *
+     * @param callbackHandler the callback handler for the new negotiation
+     */
+    protected void reset(final CallbackHandler callbackHandler) {
+        this.callbackHandler = callbackHandler;
+        this.metrics = SaslInstrumentation.getMetrics();
+        this.steps = 0;
+        this.wrapper = null;
+        this.bufferWrapper = null;
+        this.state = null;
+        evaluating.set(false);
+    }
+
     /**
      * Get the name of this mechanism.
      *
@@ -158,15 +193,78 @@ public abstract class AbstractSaslParticipant {
     }
 
     protected byte[] evaluateMessage(final byte[] message) throws SaslException {
-        boolean ok = false;
+        if (evaluating.get()) {
+            throw new SaslException("An asynchronous evaluation is already in progress");
+        }
+        return evaluate(state, message);
+    }
+
+    private byte[] evaluate(final SaslState current, final byte[] message) throws SaslException {
+        final SaslMetrics metrics = this.metrics;
+        if (metrics == null) {
+            boolean ok = false;
+            try {
+                byte[] result = current.evaluateMessage(context, message);
+                ok = true;
+                return result;
+            } finally {
+                if (! ok) {
+                    state = SaslState.FAILED;
+                }
+            }
+        }
+        final int step = steps++;
+        final long start = System.nanoTime();
         try {
-            byte[] result = state.evaluateMessage(context, message);
-            ok = true;
+            byte[] result = current.evaluateMessage(context, message);
+            metrics.evaluationComplete(mechanismName, step, System.nanoTime() - start, state == SaslState.COMPLETE);
             return result;
-        } finally {
-            if (! ok) {
-                state = SaslState.FAILED;
-            }
+        } catch (Throwable t) {
+            state = SaslState.FAILED;
+            metrics.evaluationFailed(mechanismName, step, System.nanoTime() - start, t);
+            throw t;
+        }
+    }
+
+    /**
+     * Evaluate a message on the given executor, so that any callbacks which block (for example on a directory or database
+     * lookup) do not hold up the calling thread.  The negotiation does not move on until the evaluation has finished,
+     * and the participant must not be used again until the listener has been notified.
+     *
+     * @param message the message to evaluate
+     * @param executor the executor to run the evaluation, including its callbacks
+     * @param listener the listener to notify of the outcome
+     */
+    protected void evaluateMessage(final byte[] message, final Executor executor, final SaslEvaluationListener listener) {
+        if (evaluating.compareAndSet(false, true) == false) {
+            listener.evaluationFailed(new SaslException("An asynchronous evaluation is already in progress"));
+            return;
+        }
+        final SaslState current = state;
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    byte[] reply = null;
+                    SaslException failure = null;
+                    try {
+                        reply = evaluate(current, message);
+                    } catch (SaslException e) {
+                        failure = e;
+                    } catch (Throwable t) {
+                        failure = new SaslException("SASL evaluation failed", t);
+                    }
+                    evaluating.set(false);
+                    if (failure == null) {
+                        listener.evaluationComplete(reply);
+                    } else {
+                        listener.evaluationFailed(failure);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // nothing was evaluated so the negotiation may be retried
+            evaluating.set(false);
+            listener.evaluationFailed(new SaslException("Unable to schedule SASL evaluation", e));
         }
     }
 
@@ -177,6 +275,7 @@ public abstract class AbstractSaslParticipant {
      */
     protected void setWrapper(final SaslWrapper wrapper) {
         this.wrapper = wrapper;
+        this.bufferWrapper = AbstractSaslWrapper.of(wrapper);
     }
 
     /**
@@ -215,6 +314,86 @@ public abstract class AbstractSaslParticipant {
         return wrapper.unwrap(incoming, offset, len);
     }
 
+    /**
+     * Wraps the remaining bytes of a buffer to be sent to the other participant, writing the result to a caller supplied
+     * heap or direct buffer.
+     *
+     * @param source the bytes to encode
+     * @param target the buffer to receive the encoded bytes
+     * @return the number of bytes written to the target
+     * @exception SaslException if wrapping fails
+     * @exception IllegalStateException if wrapping is not configured
+     * @exception java.nio.BufferOverflowException if the target does not have enough room
+     * @see AbstractSaslWrapper#wrap(ByteBuffer, ByteBuffer)
+     */
+    public int wrap(final ByteBuffer source, final ByteBuffer target) throws SaslException {
+        AbstractSaslWrapper wrapper = this.bufferWrapper;
+        if (wrapper == null) {
+            throw new IllegalStateException("Wrapping is not configured");
+        }
+        return wrapper.wrap(source, target);
+    }
+
+    /**
+     * Unwraps the remaining bytes of a buffer received from the other participant, writing the result to a caller
+     * supplied heap or direct buffer.
+     *
+     * @param source the bytes to decode
+     * @param target the buffer to receive the decoded bytes
+     * @return the number of bytes written to the target
+     * @exception SaslException if unwrapping fails
+     * @exception IllegalStateException if wrapping is not configured
+     * @exception java.nio.BufferOverflowException if the target does not have enough room
+     * @see AbstractSaslWrapper#unwrap(ByteBuffer, ByteBuffer)
+     */
+    public int unwrap(final ByteBuffer source, final ByteBuffer target) throws SaslException {
+        AbstractSaslWrapper wrapper = this.bufferWrapper;
+        if (wrapper == null) {
+            throw new IllegalStateException("Wrapping is not configured");
+        }
+        return wrapper.unwrap(source, target);
+    }
+
+    /**
+     * Wraps each of a number of buffers as a separate length prefixed frame, writing the frames to a single target.
+     *
+     * @param sources the frames to encode
+     * @param offset the index of the first source buffer
+     * @param length the number of source buffers
+     * @param target the buffer to receive the encoded frames
+     * @return the number of source buffers encoded
+     * @exception SaslException if wrapping fails
+     * @exception IllegalStateException if wrapping is not configured
+     * @see AbstractSaslWrapper#wrap(ByteBuffer[], int, int, ByteBuffer)
+     */
+    public int wrap(final ByteBuffer[] sources, final int offset, final int length, final ByteBuffer target) throws SaslException {
+        AbstractSaslWrapper wrapper = this.bufferWrapper;
+        if (wrapper == null) {
+            throw new IllegalStateException("Wrapping is not configured");
+        }
+        return wrapper.wrap(sources, offset, length, target);
+    }
+
+    /**
+     * Unwraps the length prefixed frames held by a buffer, each into the next of a number of targets.
+     *
+     * @param source the encoded frames
+     * @param targets the buffers to receive the decoded frames
+     * @param offset the index of the first target buffer
+     * @param length the number of target buffers
+     * @return the number of frames decoded
+     * @exception SaslException if unwrapping fails
+     * @exception IllegalStateException if wrapping is not configured
+     * @see AbstractSaslWrapper#unwrap(ByteBuffer, ByteBuffer[], int, int)
+     */
+    public int unwrap(final ByteBuffer source, final ByteBuffer[] targets, final int offset, final int length) throws SaslException {
+        AbstractSaslWrapper wrapper = this.bufferWrapper;
+        if (wrapper == null) {
+            throw new IllegalStateException("Wrapping is not configured");
+        }
+        return wrapper.unwrap(source, targets, offset, length);
+    }
+
     /**
      * Determine whether the authentication exchange has completed.
      *
@@ -18,6 +18,8 @@
 
 package org.wildfly.sasl.util;
 
+import java.util.concurrent.Executor;
+
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
@@ -51,4 +53,16 @@ public abstract class AbstractSaslServer extends AbstractSaslParticipant impleme
     public byte[] evaluateResponse(final byte[] response) throws SaslException {
         return evaluateMessage(response);
     }
+
+    /**
+     * Evaluate an authentication response received from the client on the given executor, notifying the listener of the
+     * challenge to send back to the client.
+     *
+     * @param response the authentication response
+     * @param executor the executor to run the evaluation, including any callbacks
+     * @param listener the listener to notify of the outcome
+     */
+    public void evaluateResponse(final byte[] response, final Executor executor, final SaslEvaluationListener listener) {
+        evaluateMessage(response, executor, listener);
+    }
 }
@@ -0,0 +1,268 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import javax.security.sasl.SaslException;
+
+/**
+ * A {@link SaslWrapper} which also works on {@link ByteBuffer}s, wrapping single messages and batches of length prefixed
+ * frames; the batch operations are provided in terms of the single frame operations.  The buffer operations are declared
+ * here rather than on {@link SaslWrapper} so that existing implementations of that interface keep working, a wrapper
+ * which only implements the interface is adapted by {@link #of(SaslWrapper)} at the cost of a copy of each message.
+ * <p/>
+ * Each wrapped frame is preceded by its length as a four octet integer in network byte order, the framing used by the
+ * protocols which carry SASL security layers (RFC 4422 section 3.7).
+ */
+public abstract class AbstractSaslWrapper implements SaslWrapper {
+
+    /**
+     * The length of the header preceding each wrapped frame.
+     */
+    public static final int FRAME_HEADER_LENGTH = 4;
+
+    /**
+     * Wrap the remaining bytes of the source buffer, writing the wrapped message to the target buffer.  Either buffer may
+     * be a heap or a direct buffer.
+     * <p/>
+     * On success the source position is advanced to its limit and the target position past the wrapped message.
+     *
+     * @param source the bytes to wrap
+     * @param target the buffer to receive the wrapped message
+     * @return the number of bytes written to the target
+     * @exception SaslException if wrapping fails
+     * @exception java.nio.BufferOverflowException if the target does not have room for the wrapped message, in which case
+     *            the position of neither buffer is changed
+     */
+    public abstract int wrap(ByteBuffer source, ByteBuffer target) throws SaslException;
+
+    /**
+     * Unwrap the remaining bytes of the source buffer, which must hold exactly one wrapped message, writing the message to
+     * the target buffer.  Either buffer may be a heap or a direct buffer.
+     * <p/>
+     * On success the source position is advanced to its limit and the target position past the message.  The room is
+     * checked before anything is unwrapped so that the call may be retried after an overflow, an implementation which
+     * cannot tell the length of the message beforehand requires room for as many bytes as the wrapped message.
+     *
+     * @param source the wrapped message
+     * @param target the buffer to receive the message
+     * @return the number of bytes written to the target
+     * @exception SaslException if unwrapping fails
+     * @exception java.nio.BufferOverflowException if the target does not have room for the message, in which case the
+     *            position of neither buffer is changed
+     */
+    public abstract int unwrap(ByteBuffer source, ByteBuffer target) throws SaslException;
+
+    /**
+     * Gathering wrap, wrap the remaining bytes of each of the source buffers as a separate frame and write the frames one
+     * after the other to the target buffer, each preceded by its four octet length in network byte order.
+     * <p/>
+     * Wrapping stops at the first frame which does not fit in the target, the caller should drain the target and call
+     * again with the remaining sources.
+     *
+     * @param sources the frames to wrap
+     * @param offset the index of the first source buffer
+     * @param length the number of source buffers
+     * @param target the buffer to receive the wrapped frames
+     * @return the number of source buffers wrapped, {@code 0} if the target does not have room for the first
+     * @exception SaslException if wrapping fails
+     */
+    public int wrap(ByteBuffer[] sources, int offset, int length, ByteBuffer target) throws SaslException {
+        int count = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final int start = target.position();
+            if (target.remaining() < FRAME_HEADER_LENGTH) {
+                break;
+            }
+            target.position(start + FRAME_HEADER_LENGTH);
+            final int wrapped;
+            try {
+                wrapped = wrapFrame(sources[i], target);
+            } catch (BufferOverflowException e) {
+                target.position(start);
+                break;
+            }
+            target.putInt(start, wrapped);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Scattering unwrap, unwrap the length prefixed frames held by the source buffer, as written by
+     * {@link #wrap(ByteBuffer[], int, int, ByteBuffer)}, each into the next of the target buffers.
+     * <p/>
+     * Unwrapping stops when the source has no complete frame left or the next frame does not fit in its target, the
+     * source position is left at the start of the first frame not unwrapped.
+     *
+     * @param source the wrapped frames
+     * @param targets the buffers to receive the frames
+     * @param offset the index of the first target buffer
+     * @param length the number of target buffers
+     * @return the number of frames unwrapped
+     * @exception SaslException if unwrapping fails
+     */
+    public int unwrap(ByteBuffer source, ByteBuffer[] targets, int offset, int length) throws SaslException {
+        int count = 0;
+        final ByteBuffer frame = source.duplicate();
+        for (int i = offset; i < offset + length; i++) {
+            final int start = source.position();
+            if (source.remaining() < FRAME_HEADER_LENGTH) {
+                break;
+            }
+            final int frameLength = source.getInt(start);
+            if (frameLength < 0) {
+                throw new SaslException("Invalid frame length " + frameLength);
+            }
+            if (source.remaining() - FRAME_HEADER_LENGTH < frameLength) {
+                // the rest of the frame has not been received yet
+                break;
+            }
+            frame.limit(start + FRAME_HEADER_LENGTH + frameLength);
+            frame.position(start + FRAME_HEADER_LENGTH);
+            try {
+                unwrapFrame(frame, targets[i]);
+            } catch (BufferOverflowException e) {
+                break;
+            }
+            source.position(frame.limit());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Wrap a single frame as part of a batch, by default the same as {@link #wrap(ByteBuffer, ByteBuffer)}.
+     * Implementations may override this to leave out work which only needs doing once per batch.
+     *
+     * @param source the bytes to wrap
+     * @param target the buffer to receive the wrapped message
+     * @return the number of bytes written to the target
+     * @exception SaslException if wrapping fails
+     */
+    protected int wrapFrame(ByteBuffer source, ByteBuffer target) throws SaslException {
+        return wrap(source, target);
+    }
+
+    /**
+     * Unwrap a single frame as part of a batch, by default the same as {@link #unwrap(ByteBuffer, ByteBuffer)}.
+     * Implementations may override this to leave out work which only needs doing once per batch.
+     *
+     * @param source the wrapped message
+     * @param target the buffer to receive the message
+     * @return the number of bytes written to the target
+     * @exception SaslException if unwrapping fails
+     */
+    protected int unwrapFrame(ByteBuffer source, ByteBuffer target) throws SaslException {
+        return unwrap(source, target);
+    }
+
+    /**
+     * Get a wrapper offering the {@link ByteBuffer} operations for the given wrapper.
+     *
+     * @param wrapper the wrapper, may be {@code null}
+     * @return the wrapper itself if it is an {@code AbstractSaslWrapper}, otherwise one which copies each message to and
+     *         from a byte array for it, or {@code null} if the wrapper is {@code null}
+     */
+    public static AbstractSaslWrapper of(final SaslWrapper wrapper) {
+        if (wrapper == null || wrapper instanceof AbstractSaslWrapper) {
+            return (AbstractSaslWrapper) wrapper;
+        }
+        return new ArrayWrapper(wrapper);
+    }
+
+    private static final class ArrayWrapper extends AbstractSaslWrapper {
+
+        private final SaslWrapper wrapper;
+        /**
+         * A message wrapped for a target which was too small, with the result to write on the retry.
+         */
+        private byte[] pendingSource;
+        private byte[] pendingResult;
+
+        ArrayWrapper(final SaslWrapper wrapper) {
+            this.wrapper = wrapper;
+        }
+
+        public byte[] wrap(final byte[] outgoing, final int offset, final int len) throws SaslException {
+            return wrapper.wrap(outgoing, offset, len);
+        }
+
+        public byte[] unwrap(final byte[] incoming, final int offset, final int len) throws SaslException {
+            return wrapper.unwrap(incoming, offset, len);
+        }
+
+        public int wrap(final ByteBuffer source, final ByteBuffer target) throws SaslException {
+            byte[] result = pendingResult;
+            if (result != null) {
+                if (source.equals(ByteBuffer.wrap(pendingSource)) == false) {
+                    throw new SaslException("A wrapped message which did not fit its target must be retried before another message is wrapped");
+                }
+            } else {
+                result = wrapper.wrap(remaining(source), arrayOffset(source), source.remaining());
+            }
+            if (target.remaining() < result.length) {
+                if (pendingResult == null) {
+                    // the wrapper may have used up a sequence number, keep the result for the retry
+                    final byte[] copy = new byte[source.remaining()];
+                    source.duplicate().get(copy);
+                    pendingSource = copy;
+                    pendingResult = result;
+                }
+                throw new BufferOverflowException();
+            }
+            pendingSource = null;
+            pendingResult = null;
+            return put(source, result, target);
+        }
+
+        public int unwrap(final ByteBuffer source, final ByteBuffer target) throws SaslException {
+            final int len = source.remaining();
+            // the length of the message is not known beforehand, it is never longer than the wrapped message
+            if (target.remaining() < len) {
+                throw new BufferOverflowException();
+            }
+            return put(source, wrapper.unwrap(remaining(source), arrayOffset(source), len), target);
+        }
+
+        /**
+         * Get an array holding the remaining bytes of a buffer, its backing array if it has one.
+         */
+        private static byte[] remaining(final ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                return buffer.array();
+            }
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+
+        private static int arrayOffset(final ByteBuffer buffer) {
+            return buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+        }
+
+        private static int put(final ByteBuffer source, final byte[] result, final ByteBuffer target) {
+            target.put(result);
+            source.position(source.limit());
+            return result.length;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import static org.wildfly.sasl.util.Charsets.LATIN_1;
+import static org.wildfly.sasl.util.Charsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.wildfly.sasl.scram.ScramUtil;
+
+/**
+ * A utility for generating the stored credentials of many users at once, for example when migrating a user store to
+ * precomputed DIGEST-MD5 or SCRAM credentials.
+ * <p/>
+ * Records are read as lines of the form {@code username=password}, split at the first '=', blank lines and lines
+ * starting with '#' are skipped.  For each record a line {@code username=credential} is written, in the order the
+ * records were read, where the credential is one of:<ul>
+ *     <li>{@value #DIGEST} - the hex encoded { username ':' realm ':' password } hash, as generated by
+ *     {@link UsernamePasswordHashUtil}.</li>
+ *     <li>{@code SCRAM-SHA-1} or {@code SCRAM-SHA-256} - {@code iteration-count:salt:stored-key:server-key} with a new
+ *     random salt for each user and the last three Base64 encoded, as returned by {@link ScramUtil}.</li>
+ * </ul>
+ * Records are hashed in batches on a {@link ForkJoinPool}, each worker using the digests of its own
+ * {@link DigestPool}.  The next batch is read while the current one is hashed and each batch is written out as soon as
+ * it is complete, so no more than two batches are held in memory however many records there are.
+ */
+public final class BulkUsernamePasswordHashUtil {
+
+    /**
+     * The format of the DIGEST-MD5 { username ':' realm ':' password } hash.
+     */
+    public static final String DIGEST = "DIGEST";
+
+    private static final int DEFAULT_BATCH_SIZE = 4096;
+    private static final int DEFAULT_ITERATION_COUNT = 4096;
+    private static final int SALT_SIZE = 16;
+
+    /**
+     * The number of records below which a task hashes its records instead of splitting them further.
+     */
+    private static final int DIGEST_THRESHOLD = 256;
+    private static final int SCRAM_THRESHOLD = 4;
+
+    private static final String MD5 = "MD5";
+
+    private final String format;
+    private final String realm;
+    private final int iterationCount;
+    private final int parallelism;
+    private final int batchSize;
+    private final int threshold;
+
+    /**
+     * Construct a new instance using all available processors.
+     *
+     * @param format - {@value #DIGEST}, "SCRAM-SHA-1" or "SCRAM-SHA-256".
+     * @param realm - the realm of the {@value #DIGEST} hash, ignored for SCRAM.
+     * @param iterationCount - the iteration count of SCRAM credentials, ignored for {@value #DIGEST}.
+     * @throws NoSuchAlgorithmException - if the hash function of the format is not available.
+     */
+    public BulkUsernamePasswordHashUtil(final String format, final String realm, final int iterationCount) throws NoSuchAlgorithmException {
+        this(format, realm, iterationCount, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param format - {@value #DIGEST}, "SCRAM-SHA-1" or "SCRAM-SHA-256".
+     * @param realm - the realm of the {@value #DIGEST} hash, ignored for SCRAM.
+     * @param iterationCount - the iteration count of SCRAM credentials, ignored for {@value #DIGEST}.
+     * @param parallelism - the number of worker threads.
+     * @param batchSize - the number of records hashed together, which bounds the memory used.
+     * @throws NoSuchAlgorithmException - if the hash function of the format is not available.
+     * @throws IllegalArgumentException - if the format is not known or a value is out of range.
+     */
+    public BulkUsernamePasswordHashUtil(final String format, final String realm, final int iterationCount, final int parallelism,
+            final int batchSize) throws NoSuchAlgorithmException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        }
+        if (DIGEST.equals(format)) {
+            // fail early if MD5 is not available
+            DigestPool.release(DigestPool.getMessageDigest(MD5));
+            threshold = DIGEST_THRESHOLD;
+        } else {
+            // fails early for an unknown format, a missing hash function or a bad iteration count
+            ScramUtil.getSaltedPassword(format, new char[] { 'x' }, new byte[SALT_SIZE], iterationCount);
+            threshold = SCRAM_THRESHOLD;
+        }
+        this.format = format;
+        this.realm = realm == null ? "" : realm;
+        this.iterationCount = iterationCount;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Read all records from the given reader and write their credentials to the given writer.  Neither is closed, the
+     * writer is flushed after each batch.
+     *
+     * @param in - the source of the records.
+     * @param out - the destination of the credentials.
+     * @return the number of records written.
+     * @throws IOException - if reading or writing fails, or a record is invalid, in which case the credentials of the
+     *         records before it have been written.
+     */
+    public long generate(final Reader in, final Writer out) throws IOException {
+        final BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long count = 0;
+        ForkJoinTask<Void> pending = null;
+        Batch pendingBatch = null;
+        Batch batch = new Batch(batchSize);
+        try {
+            int lineNumber = 0;
+            String line;
+            while (true) {
+                line = reader.readLine();
+                if (line != null) {
+                    lineNumber++;
+                    if (line.length() == 0 || line.charAt(0) == '#') {
+                        continue;
+                    }
+                    batch.add(line, lineNumber);
+                    if (batch.size < batchSize) {
+                        continue;
+                    }
+                }
+                if (pending != null) {
+                    pending.join();
+                    count += pendingBatch.writeTo(out);
+                    pending = null;
+                }
+                if (batch.size > 0) {
+                    pendingBatch = batch;
+                    pending = pool.submit(new HashTask(batch, 0, batch.size));
+                    batch = new Batch(batchSize);
+                }
+                if (line == null) {
+                    break;
+                }
+            }
+            if (pending != null) {
+                pending.join();
+                count += pendingBatch.writeTo(out);
+                pending = null;
+            }
+            return count;
+        } finally {
+            if (pending != null) {
+                // writing failed, let the outstanding batch finish so that its passwords are cleared
+                pending.quietlyJoin();
+            }
+            batch.clearPasswords(0, batch.size);
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The records of one batch and, once hashed, their credentials.
+     */
+    private static final class Batch {
+
+        private final String[] names;
+        private final char[][] passwords;
+        private final String[] results;
+        private final int[] lineNumbers;
+        private int size;
+
+        Batch(final int capacity) {
+            names = new String[capacity];
+            passwords = new char[capacity][];
+            results = new String[capacity];
+            lineNumbers = new int[capacity];
+        }
+
+        void add(final String line, final int lineNumber) {
+            final int separator = line.indexOf('=');
+            lineNumbers[size] = lineNumber;
+            if (separator > 0) {
+                names[size] = line.substring(0, separator);
+                final char[] password = new char[line.length() - separator - 1];
+                line.getChars(separator + 1, line.length(), password, 0);
+                passwords[size] = password;
+            }
+            size++;
+        }
+
+        void clearPasswords(final int start, final int end) {
+            for (int i = start; i < end; i++) {
+                if (passwords[i] != null) {
+                    Arrays.fill(passwords[i], (char) 0);
+                    passwords[i] = null;
+                }
+            }
+        }
+
+        int writeTo(final Writer out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                if (results[i] == null) {
+                    throw new IOException("Invalid record at line " + lineNumbers[i] + (names[i] == null ? "" : " for user " + names[i]));
+                }
+                out.write(names[i]);
+                out.write('=');
+                out.write(results[i]);
+                out.write('\n');
+            }
+            out.flush();
+            return size;
+        }
+    }
+
+    private final class HashTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Batch batch;
+        private final int start;
+        private final int end;
+
+        HashTask(final Batch batch, final int start, final int end) {
+            this.batch = batch;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start > threshold) {
+                final int middle = (start + end) >>> 1;
+                invokeAll(new HashTask(batch, start, middle), new HashTask(batch, middle, end));
+                return;
+            }
+            try {
+                if (DIGEST.equals(format)) {
+                    hashDigest();
+                } else {
+                    hashScram();
+                }
+            } finally {
+                batch.clearPasswords(start, end);
+            }
+        }
+
+        private void hashDigest() {
+            final MessageDigest md5;
+            try {
+                md5 = DigestPool.getMessageDigest(MD5);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 was available when this instance was created", e);
+            }
+            try {
+                final UsernamePasswordHashUtil util = new UsernamePasswordHashUtil(md5);
+                for (int i = start; i < end; i++) {
+                    if (batch.passwords[i] != null) {
+                        batch.results[i] = util.generateHashedHexURP(batch.names[i], realm, batch.passwords[i]);
+                    }
+                }
+            } finally {
+                DigestPool.release(md5);
+            }
+        }
+
+        private void hashScram() {
+            final NonceGenerator random = NonceGenerator.getDefault();
+            final byte[] salt = new byte[SALT_SIZE];
+            final ByteStringBuilder b = new ByteStringBuilder(128);
+            for (int i = start; i < end; i++) {
+                if (batch.passwords[i] == null) {
+                    continue;
+                }
+                random.nextBytes(salt, 0, SALT_SIZE);
+                final byte[] saltedPassword;
+                try {
+                    saltedPassword = ScramUtil.getSaltedPassword(format, batch.passwords[i], salt, iterationCount);
+                    b.setLength(0);
+                    b.appendNumber(iterationCount).append(':');
+                    SaslBase64.encode(salt, b);
+                    b.append(':');
+                    SaslBase64.encode(ScramUtil.getStoredKey(format, saltedPassword), b);
+                    b.append(':');
+                    SaslBase64.encode(ScramUtil.getServerKey(format, saltedPassword), b);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(format + " was available when this instance was created", e);
+                } catch (IllegalArgumentException e) {
+                    // an empty password or one prohibited by SASLprep, reported when the batch is written
+                    continue;
+                }
+                Arrays.fill(saltedPassword, (byte) 0);
+                batch.results[i] = new String(b.toArray(), LATIN_1);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        String format = DIGEST;
+        String realm = "";
+        int iterationCount = DEFAULT_ITERATION_COUNT;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        String input = null;
+        String output = null;
+
+        int i = 0;
+        boolean valid = true;
+        while (valid && i < args.length && args[i].startsWith("-")) {
+            if (i + 1 == args.length) {
+                valid = false;
+                break;
+            }
+            final String option = args[i++];
+            final String value = args[i++];
+            if ("-f".equals(option)) {
+                format = value;
+            } else if ("-r".equals(option)) {
+                realm = value;
+            } else if ("-i".equals(option) || "-p".equals(option)) {
+                final int number;
+                try {
+                    number = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    valid = false;
+                    break;
+                }
+                if ("-i".equals(option)) {
+                    iterationCount = number;
+                } else {
+                    parallelism = number;
+                }
+            } else {
+                valid = false;
+            }
+        }
+        if (i < args.length) {
+            input = args[i++];
+        }
+        if (i < args.length) {
+            output = args[i++];
+        }
+        if (valid == false || i != args.length) {
+            System.out.println("Usage : BulkUsernamePasswordHashUtil [-f DIGEST|SCRAM-SHA-1|SCRAM-SHA-256] [-r Realm] [-i IterationCount] [-p Threads] [Input [Output]]");
+            return;
+        }
+
+        final BulkUsernamePasswordHashUtil util = new BulkUsernamePasswordHashUtil(format, realm, iterationCount, parallelism, DEFAULT_BATCH_SIZE);
+        final Reader in = new InputStreamReader(input == null ? System.in : new FileInputStream(input), UTF_8);
+        try {
+            final Writer out = new BufferedWriter(new OutputStreamWriter(output == null ? System.out : new FileOutputStream(output), UTF_8));
+            try {
+                util.generate(in, out);
+            } finally {
+                if (output == null) {
+                    out.flush();
+                } else {
+                    out.close();
+                }
+            }
+        } finally {
+            if (input != null) {
+                in.close();
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.wildfly.sasl.util;
 
+import java.nio.ByteBuffer;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.util.Arrays;
@@ -28,6 +29,18 @@ import javax.crypto.Mac;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class ByteStringBuilder {
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /**
+     * The largest backing array kept for reuse by {@link #pooled(int)}, larger arrays are left to the garbage collector.
+     */
+    private static final int MAX_POOLED_CAPACITY = 8192;
+
+    /**
+     * One spare backing array per thread, a plain {@code byte[]} so no application class is pinned by the thread.
+     */
+    private static final ThreadLocal<byte[]> POOL = new ThreadLocal<byte[]>();
+
     private byte[] content;
     private int length;
 
@@ -35,11 +48,44 @@ public final class ByteStringBuilder {
         this.content = new byte[16];
     }
 
+    /**
+     * Construct a new instance with room for {@code initialCapacity} bytes before the backing array has to grow.
+     *
+     * @param initialCapacity the initial capacity
+     */
+    public ByteStringBuilder(final int initialCapacity) {
+        if (initialCapacity < 0) throw new IllegalArgumentException("Negative initial capacity");
+        this.content = initialCapacity == 0 ? NO_BYTES : new byte[initialCapacity];
+    }
+
     public ByteStringBuilder(final byte[] content) {
         this.content = content.clone();
         this.length = this.content.length;
     }
 
+    /**
+     * Get a builder backed by the calling thread's spare array if it holds at least {@code sizeHint} bytes, otherwise by
+     * a new array of that size. The builder should be {@link #release() released} once its content has been copied
+     * out, which makes the array available to the next call on the same thread. Nested calls before a release simply
+     * allocate.
+     *
+     * @param sizeHint the expected length of the content
+     * @return the builder
+     */
+    public static ByteStringBuilder pooled(final int sizeHint) {
+        final byte[] spare = POOL.get();
+        if (spare != null && spare.length >= sizeHint) {
+            POOL.remove();
+            return new ByteStringBuilder(spare, 0);
+        }
+        return new ByteStringBuilder(sizeHint);
+    }
+
+    private ByteStringBuilder(final byte[] content, final int length) {
+        this.content = content;
+        this.length = length;
+    }
+
     public ByteStringBuilder append(boolean b) {
         appendLatin1(Boolean.toString(b));
         return this;
@@ -171,7 +217,7 @@ public final class ByteStringBuilder {
 
     public ByteStringBuilder append(String s, int offs, int len) {
         int c;
-        int i = offs;
+        int i = 0;
         while (i < len) {
             c = s.charAt(offs + i++);
             if (Character.isHighSurrogate((char) c)) {
@@ -258,8 +304,41 @@ public final class ByteStringBuilder {
         return Arrays.copyOf(content, length);
     }
 
+    /**
+     * Get a read-only buffer over the current content without copying it. The buffer reflects later changes to the
+     * content only until the backing array grows, and must not be used after {@link #reset()} or {@link #release()}.
+     *
+     * @return the read-only buffer, positioned at the start of the content with the content length as its limit
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return ByteBuffer.wrap(content, 0, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Discard the content, keeping the backing array for reuse by this builder.
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * Discard the content and hand the backing array over to {@link #pooled(int)} on the calling thread. This builder
+     * remains usable but starts from an empty array again.
+     */
+    public void release() {
+        final byte[] content = this.content;
+        this.content = NO_BYTES;
+        this.length = 0;
+        if (content.length > 0 && content.length <= MAX_POOLED_CAPACITY) {
+            final byte[] spare = POOL.get();
+            if (spare == null || spare.length < content.length) {
+                POOL.set(content);
+            }
+        }
+    }
+
     public byte byteAt(int index) {
-        if (index < 0 || index > length) throw new IndexOutOfBoundsException();
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException();
         return content[index];
     }
 
@@ -293,6 +372,18 @@ public final class ByteStringBuilder {
         return true;
     }
 
+    /**
+     * Extend the content by the given number of bytes, for the caller to write directly into the backing array.
+     *
+     * @param count the number of bytes to add
+     * @return the backing array, the new bytes start at the length before this call
+     */
+    byte[] extend(final int count) {
+        reserve(count, false);
+        length += count;
+        return content;
+    }
+
     private void reserve(final int count, final boolean clear) {
         final int length = this.length;
         final byte[] content = this.content;
@@ -305,7 +396,7 @@ public final class ByteStringBuilder {
         if (clear) Arrays.fill(content, length, cl, (byte) 0);
         do {
             // not enough space... grow by 1.5x
-            cl = cl + (cl + 1 >> 1);
+            cl = cl == 0 ? 16 : cl + (cl + 1 >> 1);
             if (cl < 0) throw new IllegalStateException("Too large");
         } while (cl - length < count);
         this.content = Arrays.copyOf(content, cl);
@@ -316,7 +407,7 @@ public final class ByteStringBuilder {
         final int cl = content.length;
         final int length = this.length;
         if (length == cl) {
-            content = this.content = Arrays.copyOf(content, cl + (cl + 1 >> 1));
+            content = this.content = Arrays.copyOf(content, cl == 0 ? 16 : cl + (cl + 1 >> 1));
         }
         content[length] = b;
         this.length = length + 1;
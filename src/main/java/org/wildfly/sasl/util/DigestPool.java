@@ -0,0 +1,244 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A per-thread pool of {@link MessageDigest} and {@link Mac} instances, avoiding the provider lookup made by each
+ * {@code getInstance()} call.
+ * <p/>
+ * An instance is taken from the pool with {@link #getMessageDigest(String)} or {@link #getMac(String)} and must be given
+ * back, by the same thread, with the matching {@code release} method once the caller is done with it; a typical use is:
+ * <pre>
+ *     MessageDigest md5 = DigestPool.getMessageDigest("MD5");
+ *     try {
+ *         ...
+ *     } finally {
+ *         DigestPool.release(md5);
+ *     }
+ * </pre>
+ * Instances are reset when released, a {@link Mac} is also re-keyed with a throwaway key so that the key of the caller
+ * is not left behind in the pool; a {@link Mac} must therefore always be initialised by the caller.  Nested use of the
+ * same algorithm on one thread is safe as each call takes a separate instance.  An instance which is never released is
+ * simply left to the garbage collector.
+ */
+public final class DigestPool {
+
+    /**
+     * The maximum number of idle instances kept per algorithm and thread.
+     */
+    private static final int MAX_IDLE = 4;
+
+    private static final byte[] THROWAWAY_KEY = new byte[1];
+
+    /**
+     * The counters of every thread which has used the pool, each thread only writes its own so a borrow does not contend
+     * with other threads; the counts of threads which have gone are moved to the retired counts.
+     */
+    private static final Set<Counts> counts = Collections.newSetFromMap(new ConcurrentHashMap<Counts, Boolean>());
+    private static final ReferenceQueue<Thread> deadThreads = new ReferenceQueue<Thread>();
+    private static final AtomicLong retiredHits = new AtomicLong();
+    private static final AtomicLong retiredMisses = new AtomicLong();
+
+    private static final ThreadLocal<Idle> idle = new ThreadLocal<Idle>() {
+        protected Idle initialValue() {
+            retireDeadThreads();
+            final Counts threadCounts = new Counts(Thread.currentThread(), deadThreads);
+            counts.add(threadCounts);
+            return new Idle(threadCounts);
+        }
+    };
+
+    private DigestPool() {
+    }
+
+    /**
+     * Take a message digest for the given algorithm from the pool of the current thread, creating one if none is idle.
+     *
+     * @param algorithm the digest algorithm name
+     * @return the message digest, in its initial state
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static MessageDigest getMessageDigest(final String algorithm) throws NoSuchAlgorithmException {
+        final Idle idle = DigestPool.idle.get();
+        final MessageDigest digest = idle.digests.take(algorithm);
+        if (digest != null) {
+            idle.counts.hit();
+            return digest;
+        }
+        idle.counts.miss();
+        return MessageDigest.getInstance(algorithm);
+    }
+
+    /**
+     * Give a message digest back to the pool of the current thread.
+     *
+     * @param digest the message digest, may be {@code null}
+     */
+    public static void release(final MessageDigest digest) {
+        if (digest != null) {
+            digest.reset();
+            idle.get().digests.put(digest.getAlgorithm(), digest);
+        }
+    }
+
+    /**
+     * Take a MAC for the given algorithm from the pool of the current thread, creating one if none is idle.  The MAC must
+     * be initialised with the key to use before it is used.
+     *
+     * @param algorithm the MAC algorithm name
+     * @return the MAC
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static Mac getMac(final String algorithm) throws NoSuchAlgorithmException {
+        final Idle idle = DigestPool.idle.get();
+        final Mac mac = idle.macs.take(algorithm);
+        if (mac != null) {
+            idle.counts.hit();
+            return mac;
+        }
+        idle.counts.miss();
+        return Mac.getInstance(algorithm);
+    }
+
+    /**
+     * Give a MAC back to the pool of the current thread.
+     * <p/>
+     * {@link Mac#reset()} keeps the key, so the MAC is initialised with a throwaway key before it is pooled; otherwise the
+     * key, which for SCRAM is the salted password, would stay reachable from the pool until the instance is reused.  A
+     * MAC which does not accept the throwaway key is not pooled.
+     *
+     * @param mac the MAC, may be {@code null}
+     */
+    public static void release(final Mac mac) {
+        if (mac != null) {
+            final String algorithm = mac.getAlgorithm();
+            try {
+                mac.init(new SecretKeySpec(THROWAWAY_KEY, algorithm));
+            } catch (InvalidKeyException e) {
+                return;
+            }
+            idle.get().macs.put(algorithm, mac);
+        }
+    }
+
+    /**
+     * Get the number of requests which were satisfied by an idle pooled instance, summed over all threads.
+     *
+     * @return the hit count
+     */
+    public static long getHitCount() {
+        retireDeadThreads();
+        long total = retiredHits.get();
+        for (Counts threadCounts : counts) {
+            total += threadCounts.hits.get();
+        }
+        return total;
+    }
+
+    /**
+     * Get the number of requests which required a new instance to be created, summed over all threads.
+     *
+     * @return the miss count
+     */
+    public static long getMissCount() {
+        retireDeadThreads();
+        long total = retiredMisses.get();
+        for (Counts threadCounts : counts) {
+            total += threadCounts.misses.get();
+        }
+        return total;
+    }
+
+    private static void retireDeadThreads() {
+        Reference<? extends Thread> reference;
+        while ((reference = deadThreads.poll()) != null) {
+            final Counts threadCounts = (Counts) reference;
+            if (counts.remove(threadCounts)) {
+                retiredHits.addAndGet(threadCounts.hits.get());
+                retiredMisses.addAndGet(threadCounts.misses.get());
+            }
+        }
+    }
+
+    /**
+     * The counters of a single thread, only written by that thread.
+     */
+    static final class Counts extends WeakReference<Thread> {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        Counts(final Thread thread, final ReferenceQueue<Thread> queue) {
+            super(thread, queue);
+        }
+
+        void hit() {
+            // a single writer, so an ordered store is enough and no atomic read-modify-write is needed
+            hits.lazySet(hits.get() + 1);
+        }
+
+        void miss() {
+            misses.lazySet(misses.get() + 1);
+        }
+    }
+
+    static final class Idle {
+        final Instances<MessageDigest> digests = new Instances<MessageDigest>();
+        final Instances<Mac> macs = new Instances<Mac>();
+        final Counts counts;
+
+        Idle(final Counts counts) {
+            this.counts = counts;
+        }
+    }
+
+    static final class Instances<T> {
+        private final HashMap<String, ArrayDeque<T>> byAlgorithm = new HashMap<String, ArrayDeque<T>>(4);
+
+        T take(final String algorithm) {
+            final ArrayDeque<T> deque = byAlgorithm.get(algorithm);
+            return deque == null ? null : deque.pollFirst();
+        }
+
+        void put(final String algorithm, final T instance) {
+            ArrayDeque<T> deque = byAlgorithm.get(algorithm);
+            if (deque == null) {
+                byAlgorithm.put(algorithm, deque = new ArrayDeque<T>(MAX_IDLE));
+            }
+            if (deque.size() < MAX_IDLE) {
+                deque.addFirst(instance);
+            }
+        }
+    }
+}
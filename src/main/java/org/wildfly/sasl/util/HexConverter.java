@@ -18,6 +18,8 @@
 
 package org.wildfly.sasl.util;
 
+import java.util.Arrays;
+
 /**
  * A utility class for mapping between byte arrays and their hex representation and back again.
  *
@@ -31,6 +33,31 @@ public class HexConverter {
     private static final byte[] HEX_BYTES = new byte[]
             {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
+    /**
+     * The two hex bytes of every byte value, at index {@code (b & 0xff) * 2}.
+     */
+    private static final byte[] HEX_PAIRS = new byte[512];
+
+    /**
+     * The value of every hex digit in either case, {@code -1} for any other character up to 255.
+     */
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[i * 2] = HEX_BYTES[i >> 4];
+            HEX_PAIRS[i * 2 + 1] = HEX_BYTES[i & 0x0F];
+        }
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
     /**
      * Take the supplied byte array and convert it to a hex encoded String.
      *
@@ -68,13 +95,60 @@ public class HexConverter {
         }
 
         byte[] converted = new byte[toBeConverted.length * 2];
-        for (int i = 0; i < toBeConverted.length; i++) {
-            byte b = toBeConverted[i];
-            converted[i * 2] = HEX_BYTES[b >> 4 & 0x0F];
-            converted[i * 2 + 1] = HEX_BYTES[b & 0x0F];
+        convertToHexBytes(toBeConverted, 0, toBeConverted.length, converted, 0);
+        return converted;
+    }
+
+    /**
+     * Take a range of the supplied byte array and write the encoded hex values into the target array.
+     * <p/>
+     * Each byte of the range will be converted to two bytes in the target array.
+     *
+     * @param toBeConverted - the bytes to be encoded.
+     * @param offset - the offset of the first byte to encode.
+     * @param length - the number of bytes to encode.
+     * @param target - the array to write the hex values to.
+     * @param targetOffset - the offset in the target array to start writing at.
+     * @return the number of bytes written, {@code length * 2}.
+     */
+    public static int convertToHexBytes(byte[] toBeConverted, int offset, int length, byte[] target, int targetOffset) {
+        if (toBeConverted == null || target == null) {
+            throw new NullPointerException("Parameter to be converted can not be null");
         }
 
-        return converted;
+        if (length < 0 || offset < 0 || offset + length > toBeConverted.length || targetOffset < 0
+                || targetOffset + length * 2 > target.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int idx;
+        for (int i = 0; i < length; i++) {
+            idx = (toBeConverted[offset + i] & 0xFF) << 1;
+            target[targetOffset + i * 2] = HEX_PAIRS[idx];
+            target[targetOffset + i * 2 + 1] = HEX_PAIRS[idx + 1];
+        }
+
+        return length * 2;
+    }
+
+    /**
+     * Take a range of the supplied byte array and append the encoded hex values to the target builder.
+     *
+     * @param toBeConverted - the bytes to be encoded.
+     * @param offset - the offset of the first byte to encode.
+     * @param length - the number of bytes to encode.
+     * @param target - the builder to append the hex values to.
+     */
+    public static void convertToHexBytes(byte[] toBeConverted, int offset, int length, ByteStringBuilder target) {
+        if (toBeConverted == null || target == null) {
+            throw new NullPointerException("Parameter to be converted can not be null");
+        }
+        if (length < 0 || offset < 0 || offset + length > toBeConverted.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        final int targetOffset = target.length();
+        convertToHexBytes(toBeConverted, offset, length, target.extend(length * 2), targetOffset);
     }
 
     /**
@@ -95,19 +169,77 @@ public class HexConverter {
 
         for (int i = 0; i < response.length; i++) {
             int posOne = i * 2;
-            response[i] =   (byte)(toByte(toConvert, posOne) << 4 | toByte(toConvert, posOne+1));
+            response[i] = (byte) (toByte(toConvert[posOne], posOne) << 4 | toByte(toConvert[posOne + 1], posOne + 1));
+        }
+
+        return response;
+    }
+
+    private static int toByte(final int c, final int pos) {
+        final int response = c < 256 ? HEX_VALUES[c] : -1;
+        if (response < 0) {
+            throw new IllegalArgumentException("Non-hex character '" + (char) c + "' at index=" + pos);
         }
 
         return response;
     }
 
-    private static byte toByte(final char[] toConvert, final int pos) {
-        int response = Character.digit(toConvert[pos], 16);
-        if (response < 0 || response > 15) {
-            throw new IllegalArgumentException("Non-hex character '" + toConvert[pos] + "' at index=" + pos);
+    /**
+     * Take a range of hex encoded bytes and write the raw byte values into the target array.
+     * <p/>
+     * The bytes of the range are processed in pairs with two bytes of a pair being converted to a single byte.
+     *
+     * @param toConvert - the hex encoded bytes to convert.
+     * @param offset - the offset of the first hex byte.
+     * @param length - the number of hex bytes, which must be even.
+     * @param target - the array to write the raw bytes to.
+     * @param targetOffset - the offset in the target array to start writing at.
+     * @return the number of bytes written, {@code length / 2}.
+     */
+    public static int convertFromHex(final byte[] toConvert, final int offset, final int length, final byte[] target, final int targetOffset) {
+        if (length % 2 != 0) {
+            throw new IllegalArgumentException("The supplied range must contain an even number of hex bytes.");
+        }
+        if (length < 0 || offset < 0 || offset + length > toConvert.length || targetOffset < 0
+                || targetOffset + length / 2 > target.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int high, low;
+        for (int i = 0; i < length; i += 2) {
+            high = HEX_VALUES[toConvert[offset + i] & 0xFF];
+            low = HEX_VALUES[toConvert[offset + i + 1] & 0xFF];
+            if ((high | low) < 0) {
+                final int pos = high < 0 ? i : i + 1;
+                toByte(toConvert[offset + pos] & 0xFF, pos);
+            }
+            target[targetOffset + i / 2] = (byte) (high << 4 | low);
         }
 
-        return (byte) response;
+        return length / 2;
+    }
+
+    /**
+     * Compare two ranges of hex digits, such as a received and an expected digest, in time which depends only on the
+     * lengths and not on the position of the first difference.
+     *
+     * @param hex - the array holding the first range.
+     * @param offset - the offset of the first range.
+     * @param length - the length of the first range.
+     * @param otherHex - the array holding the second range.
+     * @param otherOffset - the offset of the second range.
+     * @param otherLength - the length of the second range.
+     * @return {@code true} if both ranges hold the same bytes.
+     */
+    public static boolean isEqual(final byte[] hex, final int offset, final int length, final byte[] otherHex, final int otherOffset, final int otherLength) {
+        if (length != otherLength) {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < length; i++) {
+            difference |= hex[offset + i] ^ otherHex[otherOffset + i];
+        }
+        return difference == 0;
     }
 
     /**
@@ -120,7 +252,18 @@ public class HexConverter {
      * @return the raw byte array.
      */
     public static byte[] convertFromHex(final String toConvert) {
-        return convertFromHex(toConvert.toCharArray());
+        if (toConvert.length() % 2 != 0) {
+            throw new IllegalArgumentException("The supplied String must contain an even number of hex chars.");
+        }
+
+        byte[] response = new byte[toConvert.length() / 2];
+
+        for (int i = 0; i < response.length; i++) {
+            int posOne = i * 2;
+            response[i] = (byte) (toByte(toConvert.charAt(posOne), posOne) << 4 | toByte(toConvert.charAt(posOne + 1), posOne + 1));
+        }
+
+        return response;
     }
 
     public static void main(String[] args) {
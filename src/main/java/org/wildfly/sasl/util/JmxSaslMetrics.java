@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The default {@link SaslMetrics}, which keeps statistics for each mechanism and registers them with an
+ * {@link MBeanServer} as {@code org.wildfly.sasl:type=Mechanism,name=<mechanism name>} the first time the mechanism is
+ * measured.
+ */
+public final class JmxSaslMetrics implements SaslMetrics {
+
+    /**
+     * The domain of the registered MBeans.
+     */
+    public static final String DOMAIN = "org.wildfly.sasl";
+
+    /**
+     * The number of elements of the evaluation time histogram, the last holds evaluations of more than half a second.
+     */
+    static final int HISTOGRAM_BUCKETS = 20;
+
+    /**
+     * The number of steps measured separately, the last element holds all later steps.
+     */
+    static final int STEPS = 8;
+
+    /**
+     * The most distinct failure reasons kept per mechanism, further reasons are counted together.
+     */
+    static final int MAX_FAILURE_REASONS = 64;
+
+    static final String OTHER_REASON = "<other>";
+
+    private final MBeanServer server;
+    private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+    /**
+     * Construct a new instance registering with the platform MBean server.
+     */
+    public JmxSaslMetrics() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param server the MBean server to register with
+     */
+    public JmxSaslMetrics(final MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Get the name the statistics of a mechanism are registered under.
+     *
+     * @param mechanismName the mechanism name
+     * @return the object name
+     */
+    public static ObjectName getObjectName(final String mechanismName) {
+        try {
+            return new ObjectName(DOMAIN + ":type=Mechanism,name=" + ObjectName.quote(mechanismName));
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public void evaluationComplete(final String mechanismName, final int step, final long nanos, final boolean complete) {
+        Statistics statistics = getStatistics(mechanismName);
+        statistics.evaluated(step, nanos);
+        if (complete) {
+            statistics.completed.incrementAndGet();
+        }
+    }
+
+    public void evaluationFailed(final String mechanismName, final int step, final long nanos, final Throwable cause) {
+        Statistics statistics = getStatistics(mechanismName);
+        statistics.evaluated(step, nanos);
+        statistics.failed(cause);
+    }
+
+    public void callbacksHandled(final String mechanismName, final long nanos) {
+        Statistics statistics = getStatistics(mechanismName);
+        statistics.callbacks.incrementAndGet();
+        statistics.callbackTime.addAndGet(nanos);
+    }
+
+    /**
+     * Unregister the statistics of all mechanisms from the MBean server.
+     */
+    public void close() {
+        for (String mechanismName : statistics.keySet()) {
+            try {
+                server.unregisterMBean(getObjectName(mechanismName));
+            } catch (InstanceNotFoundException ignored) {
+            } catch (JMException ignored) {
+            }
+        }
+        statistics.clear();
+    }
+
+    private Statistics getStatistics(final String mechanismName) {
+        Statistics current = statistics.get(mechanismName);
+        if (current != null) {
+            return current;
+        }
+        Statistics created = new Statistics();
+        current = statistics.putIfAbsent(mechanismName, created);
+        if (current != null) {
+            return current;
+        }
+        final ObjectName name = getObjectName(mechanismName);
+        try {
+            try {
+                server.registerMBean(created, name);
+            } catch (InstanceAlreadyExistsException e) {
+                // left behind by an earlier instance, the statistics of this instance replace it
+                server.unregisterMBean(name);
+                server.registerMBean(created, name);
+            }
+        } catch (JMException ignored) {
+            // the statistics are still kept, they are just not visible
+        }
+        return created;
+    }
+
+    static final class Statistics implements SaslMechanismStatisticsMXBean {
+
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong evaluations = new AtomicLong();
+        private final AtomicLong evaluationTime = new AtomicLong();
+        private final AtomicLong maxEvaluationTime = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final AtomicLongArray stepEvaluations = new AtomicLongArray(STEPS);
+        private final AtomicLongArray stepEvaluationTime = new AtomicLongArray(STEPS);
+        private final AtomicLong callbacks = new AtomicLong();
+        private final AtomicLong callbackTime = new AtomicLong();
+        private final ConcurrentMap<String, AtomicLong> failureReasons = new ConcurrentHashMap<String, AtomicLong>();
+
+        void evaluated(final int step, final long nanos) {
+            final int stepIndex = Math.min(step, STEPS - 1);
+            stepEvaluations.incrementAndGet(stepIndex);
+            stepEvaluationTime.addAndGet(stepIndex, nanos);
+            evaluations.incrementAndGet();
+            evaluationTime.addAndGet(nanos);
+            long max;
+            do {
+                max = maxEvaluationTime.get();
+            } while (nanos > max && maxEvaluationTime.compareAndSet(max, nanos) == false);
+            final long micros = nanos / 1000;
+            histogram.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1));
+        }
+
+        void failed(final Throwable cause) {
+            failed.incrementAndGet();
+            // the class names are bounded where the messages, which may name the user, are not
+            final Throwable nested = cause.getCause();
+            String reason = nested == null ? cause.getClass().getName() : cause.getClass().getName() + ": " + nested.getClass().getName();
+            AtomicLong count = failureReasons.get(reason);
+            if (count == null) {
+                if (failureReasons.size() >= MAX_FAILURE_REASONS) {
+                    reason = OTHER_REASON;
+                }
+                AtomicLong created = new AtomicLong();
+                count = failureReasons.putIfAbsent(reason, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        public long getCompletedNegotiations() {
+            return completed.get();
+        }
+
+        public long getFailedNegotiations() {
+            return failed.get();
+        }
+
+        public long getEvaluations() {
+            return evaluations.get();
+        }
+
+        public long getTotalEvaluationTime() {
+            return evaluationTime.get();
+        }
+
+        public long getMaxEvaluationTime() {
+            return maxEvaluationTime.get();
+        }
+
+        public long[] getEvaluationTimeHistogram() {
+            return toArray(histogram);
+        }
+
+        public long[] getStepEvaluations() {
+            return toArray(stepEvaluations);
+        }
+
+        public long[] getStepEvaluationTime() {
+            return toArray(stepEvaluationTime);
+        }
+
+        public long getCallbackInvocations() {
+            return callbacks.get();
+        }
+
+        public long getTotalCallbackTime() {
+            return callbackTime.get();
+        }
+
+        public Map<String, Long> getFailureReasons() {
+            Map<String, Long> result = new HashMap<String, Long>();
+            for (Map.Entry<String, AtomicLong> entry : failureReasons.entrySet()) {
+                result.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+            }
+            return result;
+        }
+
+        public void reset() {
+            completed.set(0);
+            failed.set(0);
+            evaluations.set(0);
+            evaluationTime.set(0);
+            maxEvaluationTime.set(0);
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+            for (int i = 0; i < STEPS; i++) {
+                stepEvaluations.set(i, 0);
+                stepEvaluationTime.set(i, 0);
+            }
+            callbacks.set(0);
+            callbackTime.set(0);
+            failureReasons.clear();
+        }
+
+        private static long[] toArray(final AtomicLongArray array) {
+            long[] result = new long[array.length()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = array.get(i);
+            }
+            return result;
+        }
+    }
+}
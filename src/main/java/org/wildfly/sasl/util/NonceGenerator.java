@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A shared source of random bytes for nonces.
+ * <p/>
+ * Creating and seeding a {@link SecureRandom} for every nonce is expensive and may block waiting for entropy, so a single
+ * instance is shared per {@link SecureRandom} algorithm.  Random bytes are generated in blocks of {@value #BLOCK_SIZE}
+ * bytes and handed out in turn; each byte is only ever handed out once.  The bytes are intended for values which are sent
+ * over the wire anyway such as nonces, and must not be used for keys.
+ * <p/>
+ * Instances are thread safe.
+ */
+public final class NonceGenerator {
+
+    /**
+     * The number of random bytes generated at a time.
+     */
+    public static final int BLOCK_SIZE = 1024;
+
+    private static final ConcurrentMap<String, NonceGenerator> instances = new ConcurrentHashMap<String, NonceGenerator>();
+
+    private static volatile NonceGenerator defaultInstance;
+
+    private final SecureRandom random;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private int position = BLOCK_SIZE;
+
+    private NonceGenerator(final SecureRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Get the shared generator using the default {@link SecureRandom} implementation.
+     *
+     * @return the shared generator
+     */
+    public static NonceGenerator getDefault() {
+        NonceGenerator instance = defaultInstance;
+        if (instance == null) {
+            synchronized (NonceGenerator.class) {
+                instance = defaultInstance;
+                if (instance == null) {
+                    defaultInstance = instance = new NonceGenerator(new SecureRandom());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Get the shared generator for the given {@link SecureRandom} algorithm, as may be configured using
+     * {@link org.wildfly.sasl.WildFlySasl#SECURE_RNG}.
+     *
+     * @param algorithm the {@link SecureRandom} algorithm name, or {@code null} for the default implementation
+     * @return the shared generator
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static NonceGenerator getInstance(final String algorithm) throws NoSuchAlgorithmException {
+        if (algorithm == null) {
+            return getDefault();
+        }
+        NonceGenerator instance = instances.get(algorithm);
+        if (instance == null) {
+            instance = new NonceGenerator(SecureRandom.getInstance(algorithm));
+            final NonceGenerator appearing = instances.putIfAbsent(algorithm, instance);
+            if (appearing != null) {
+                instance = appearing;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Fill a range of the given array with random bytes.
+     *
+     * @param bytes the array to fill
+     * @param offset the offset of the range
+     * @param len the length of the range
+     */
+    public void nextBytes(final byte[] bytes, int offset, int len) {
+        synchronized (block) {
+            while (len > 0) {
+                final int count = Math.min(len, available());
+                System.arraycopy(block, position, bytes, offset, count);
+                consume(count);
+                offset += count;
+                len -= count;
+            }
+        }
+    }
+
+    /**
+     * Append the Base64 encoding of the given number of random bytes to the target.
+     *
+     * @param len the number of random bytes
+     * @param target the builder to append to
+     */
+    public void appendBase64(int len, final ByteStringBuilder target) {
+        synchronized (block) {
+            while (len > 0) {
+                // keep to whole groups of three so that padding only appears at the very end
+                final int count = len <= available() ? len : available() - available() % 3;
+                if (count == 0) {
+                    refill();
+                    continue;
+                }
+                SaslBase64.encode(block, position, count, target);
+                consume(count);
+                len -= count;
+            }
+        }
+    }
+
+    private int available() {
+        if (position == BLOCK_SIZE) {
+            refill();
+        }
+        return BLOCK_SIZE - position;
+    }
+
+    private void consume(final int count) {
+        // don't keep bytes which have been handed out
+        Arrays.fill(block, position, position + count, (byte) 0);
+        position += count;
+    }
+
+    private void refill() {
+        random.nextBytes(block);
+        position = 0;
+    }
+}
@@ -18,7 +18,15 @@
 
 package org.wildfly.sasl.util;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
+ * Base64 encoding and decoding, as used by the SASL mechanisms for nonces and tokens.
+ * <p/>
+ * Both directions are table driven and work a block of three bytes, or four characters, at a time writing straight into
+ * the target array.  Decoding errors report the position of the offending character in the encoded array.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class SaslBase64 {
@@ -34,109 +42,256 @@ public final class SaslBase64 {
         '4', '5', '6', '7', '8', '9', '+', '/'
     };
 
-    public static void encode(byte[] original, int offset, int len, ByteStringBuilder target) {
-        final byte[] alphabet = SaslBase64.alphabet;
-        int count = 0;
-        byte s;
-        while (count < len) {
-            s = original[offset + count++];
-            // first the top 6 bits of the first byte
-            target.append(alphabet, (s & 0xff) >>> 2, 1);
-            if (count == len) {
-                // bottom 2 bits + 4 zero bits
-                target.append(alphabet, (s & 0xff) << 4 & 0x3f, 1).append('=').append('=');
-                return;
-            }
-            // bottom 2 bits + top 4 bits of second byte
-            target.append(alphabet, ((s & 0xff) << 4 | ((s = original[offset + count++]) & 0xff) >>> 4) & 0x3f, 1);
-            if (count == len) {
-                // bottom 4 bits + 2 zero bits
-                target.append(alphabet, (s & 0xff) << 2 & 0x3f, 1).append('=');
-                return;
-            }
-            // bottom 4 bits + top 2 bits of third byte
-            target.append(alphabet, ((s & 0xff) << 2 | ((s = original[offset + count++]) & 0xff) >>> 6) & 0x3f, 1);
-            // bottom 6 bits of third byte
-            target.append(alphabet, s & 0x3f, 1);
+    private static final byte INVALID = -1;
+    private static final byte PADDING = -2;
+
+    /**
+     * The value of each encoded byte, {@link #INVALID} for bytes outside the alphabet and {@link #PADDING} for '='.
+     */
+    private static final byte[] values = new byte[256];
+
+    static {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = INVALID;
+        }
+        for (int i = 0; i < alphabet.length; i++) {
+            values[alphabet[i]] = (byte) i;
         }
-        // ended right on a boundary, handy
+        values['='] = PADDING;
+    }
+
+    private SaslBase64() {
+    }
+
+    /**
+     * Get the length of the encoding of the given number of bytes, including padding.
+     *
+     * @param len the number of bytes to encode
+     * @return the encoded length
+     */
+    public static int encodedLength(int len) {
+        return (len + 2) / 3 * 4;
+    }
+
+    /**
+     * Get the largest number of bytes the given number of encoded bytes can decode to.
+     *
+     * @param len the number of encoded bytes
+     * @return the largest decoded length
+     */
+    public static int maxDecodedLength(int len) {
+        return (len + 3) / 4 * 3;
+    }
+
+    public static void encode(byte[] original, int offset, int len, ByteStringBuilder target) {
+        final int start = target.length();
+        encode(original, offset, len, target.extend(encodedLength(len)), start);
     }
 
     public static void encode(byte[] original, ByteStringBuilder target) {
         encode(original, 0, original.length, target);
     }
 
-    private static int decodeByte(byte b) {
-        if (b >= 'A' && b <= 'Z') {
-            return b - 'A';
-        } else if (b >= 'a' && b <= 'z') {
-            return b - 'a' + 26;
-        } else if (b >= '0' && b <= '9') {
-            return b - '0' + 52;
-        } else if (b == '+') {
-            return 62;
-        } else if (b == '/') {
-            return 63;
-        } else if (b == '=') {
-            return -2;
-        } else {
-            return -1;
+    /**
+     * Encode bytes into a caller supplied array.
+     *
+     * @param original the bytes to encode
+     * @param offset the offset of the first byte to encode
+     * @param len the number of bytes to encode
+     * @param target the array to write the encoding to, it must have room for {@link #encodedLength(int)} bytes
+     * @param targetOffset the offset in the target to write the encoding from
+     * @return the number of bytes written
+     */
+    public static int encode(byte[] original, int offset, int len, byte[] target, int targetOffset) {
+        final int encodedLength = encodedLength(len);
+        if (target.length - targetOffset < encodedLength) {
+            throw new IndexOutOfBoundsException("Target array too small for " + encodedLength + " encoded bytes");
+        }
+        final byte[] alphabet = SaslBase64.alphabet;
+        final int end = offset + len;
+        int i = offset;
+        int p = targetOffset;
+        for (; end - i >= 3; i += 3, p += 4) {
+            final int bits = (original[i] & 0xff) << 16 | (original[i + 1] & 0xff) << 8 | original[i + 2] & 0xff;
+            target[p] = alphabet[bits >>> 18];
+            target[p + 1] = alphabet[bits >>> 12 & 0x3f];
+            target[p + 2] = alphabet[bits >>> 6 & 0x3f];
+            target[p + 3] = alphabet[bits & 0x3f];
+        }
+        if (i < end) {
+            final int bits = (original[i] & 0xff) << 16 | (end - i == 2 ? (original[i + 1] & 0xff) << 8 : 0);
+            target[p] = alphabet[bits >>> 18];
+            target[p + 1] = alphabet[bits >>> 12 & 0x3f];
+            target[p + 2] = end - i == 2 ? alphabet[bits >>> 6 & 0x3f] : (byte) '=';
+            target[p + 3] = '=';
+        }
+        return encodedLength;
+    }
+
+    /**
+     * Encode bytes into a heap or direct buffer.
+     *
+     * @param original the bytes to encode
+     * @param offset the offset of the first byte to encode
+     * @param len the number of bytes to encode
+     * @param target the buffer to write the encoding to
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the target has less than {@link #encodedLength(int)} bytes remaining, in which
+     *         case nothing is written
+     */
+    public static int encode(byte[] original, int offset, int len, ByteBuffer target) {
+        final int encodedLength = encodedLength(len);
+        if (target.remaining() < encodedLength) {
+            throw new BufferOverflowException();
+        }
+        if (target.hasArray()) {
+            encode(original, offset, len, target.array(), target.arrayOffset() + target.position());
+            target.position(target.position() + encodedLength);
+            return encodedLength;
+        }
+        final byte[] alphabet = SaslBase64.alphabet;
+        final int end = offset + len;
+        int i = offset;
+        for (; end - i >= 3; i += 3) {
+            final int bits = (original[i] & 0xff) << 16 | (original[i + 1] & 0xff) << 8 | original[i + 2] & 0xff;
+            target.put(alphabet[bits >>> 18]);
+            target.put(alphabet[bits >>> 12 & 0x3f]);
+            target.put(alphabet[bits >>> 6 & 0x3f]);
+            target.put(alphabet[bits & 0x3f]);
+        }
+        if (i < end) {
+            final int bits = (original[i] & 0xff) << 16 | (end - i == 2 ? (original[i + 1] & 0xff) << 8 : 0);
+            target.put(alphabet[bits >>> 18]);
+            target.put(alphabet[bits >>> 12 & 0x3f]);
+            target.put(end - i == 2 ? alphabet[bits >>> 6 & 0x3f] : (byte) '=');
+            target.put((byte) '=');
         }
+        return encodedLength;
     }
 
+    /**
+     * Decode bytes, stopping at the first byte outside the alphabet which starts a block of four or once padding has been
+     * read.
+     *
+     * @param encoded the encoded bytes
+     * @param offset the offset of the first encoded byte
+     * @param len the number of encoded bytes available
+     * @param target the builder to append the decoded bytes to
+     * @return the number of encoded bytes consumed
+     * @throws IllegalArgumentException if the encoding is malformed, giving the position of the error
+     */
     public static int decode(byte[] encoded, int offset, int len, ByteStringBuilder target) throws IllegalArgumentException {
-        int count = 0;
-        int t1, t2;
-        while (count < len) {
-            // top 6 bits of the first byte
-            t1 = decodeByte(encoded[offset + count++]);
-            if (t1 == -1) return count - 1;
-            if (t1 == -2) throw unexpectedPadding();
-            if (count == len) throw truncatedInput();
-
-            // bottom 2 bits + top 4 bits of the second byte
-            t2 = decodeByte(encoded[offset + count++]);
-            if (t2 == -1) throw truncatedInput();
-            if (t2 == -2) throw unexpectedPadding();
-            if (count == len) throw truncatedInput();
-            target.append((byte)((t1 & 0xff) << 2 | (t2 & 0xff) >>> 4));
-
-            // bottom 4 bits + top 4 bits of the third byte - or == if it's the end
-            t1 = decodeByte(encoded[offset + count++]);
-            if (t1 == -1) throw truncatedInput();
-            if (count == len) throw truncatedInput();
-            if (t1 == -2) {
-                // expect one more byte of padding
-                assert count < len;
-                if (encoded[offset + count++] != '=') {
-                    throw missingRequiredPadding();
-                }
-                return count;
+        final int start = target.length();
+        final int consumed = decode(encoded, offset, len, target.extend(maxDecodedLength(len)), start, false);
+        target.setLength(start + decodedLength(encoded, offset, consumed));
+        return consumed;
+    }
+
+    public static int decode(byte[] encoded, int offset, ByteStringBuilder target) throws IllegalArgumentException {
+        return decode(encoded, offset, encoded.length - offset, target);
+    }
+
+    /**
+     * Decode bytes into a caller supplied array, all of the given encoded bytes must form a valid encoding.
+     *
+     * @param encoded the encoded bytes
+     * @param offset the offset of the first encoded byte
+     * @param len the number of encoded bytes
+     * @param target the array to write the decoded bytes to, it must have room for {@link #maxDecodedLength(int)} bytes
+     * @param targetOffset the offset in the target to write the decoded bytes from
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the encoding is malformed, giving the position of the error
+     */
+    public static int decode(byte[] encoded, int offset, int len, byte[] target, int targetOffset) throws IllegalArgumentException {
+        final int maxDecodedLength = maxDecodedLength(len);
+        if (target.length - targetOffset < maxDecodedLength) {
+            throw new IndexOutOfBoundsException("Target array too small for " + maxDecodedLength + " decoded bytes");
+        }
+        final int consumed = decode(encoded, offset, len, target, targetOffset, true);
+        return decodedLength(encoded, offset, consumed);
+    }
+
+    /**
+     * Decode whole blocks of four encoded bytes.
+     *
+     * @param strict {@code true} if every encoded byte must be consumed
+     * @return the number of encoded bytes consumed
+     */
+    private static int decode(final byte[] encoded, final int offset, final int len, final byte[] target, final int targetOffset,
+            final boolean strict) {
+        final byte[] values = SaslBase64.values;
+        final int end = offset + len;
+        int i = offset;
+        int p = targetOffset;
+        while (i < end) {
+            final int a = values[encoded[i] & 0xff];
+            if (a == INVALID && strict == false) {
+                break;
+            }
+            if (end - i < 4) {
+                throw a < 0 ? invalid(encoded[i], i) : truncatedInput(end);
+            }
+            final int b = values[encoded[i + 1] & 0xff];
+            final int c = values[encoded[i + 2] & 0xff];
+            final int d = values[encoded[i + 3] & 0xff];
+            if ((a | b | c | d) >= 0) {
+                final int bits = a << 18 | b << 12 | c << 6 | d;
+                target[p] = (byte) (bits >>> 16);
+                target[p + 1] = (byte) (bits >>> 8);
+                target[p + 2] = (byte) bits;
+                i += 4;
+                p += 3;
+                continue;
+            }
+            // something in this block is padding or invalid
+            if (a < 0) throw invalid(encoded[i], i);
+            if (b < 0) throw invalid(encoded[i + 1], i + 1);
+            if (c == INVALID) throw invalid(encoded[i + 2], i + 2);
+            if (c == PADDING) {
+                if (d != PADDING) throw missingRequiredPadding(i + 3);
+                target[p] = (byte) (a << 2 | b >>> 4);
+            } else {
+                if (d == INVALID) throw invalid(encoded[i + 3], i + 3);
+                target[p] = (byte) (a << 2 | b >>> 4);
+                target[p + 1] = (byte) (b << 4 | c >>> 2);
+            }
+            i += 4;
+            if (strict && i < end) {
+                throw new IllegalArgumentException("Unexpected data after padding at position " + i);
             }
-            target.append((byte) ((t2 & 0xff) << 4 | (t1 & 0xff) >>> 2));
+            break;
+        }
+        return i - offset;
+    }
 
-            // top 2 bits of the third byte + bottom 6 bits of the fourth byte - or = if it's the end
-            t2 = decodeByte(encoded[offset + count++]);
-            if (t2 == -1) throw truncatedInput();
-            if (t2 == -2) return count;
-            target.append((byte) ((t1 & 0xff) << 6 | t2));
+    /**
+     * Get the number of bytes decoded from whole blocks of encoded bytes, which may end with padding.
+     */
+    private static int decodedLength(final byte[] encoded, final int offset, final int consumed) {
+        int length = consumed / 4 * 3;
+        if (consumed > 0 && encoded[offset + consumed - 1] == '=') {
+            length--;
+            if (encoded[offset + consumed - 2] == '=') {
+                length--;
+            }
         }
-        return count;
+        return length;
     }
 
-    public static int decode(byte[] encoded, int offset, ByteStringBuilder target) throws IllegalArgumentException {
-        return decode(encoded, offset, encoded.length - offset, target);
+    private static IllegalArgumentException invalid(final byte b, final int position) {
+        return b == '=' ? unexpectedPadding(position)
+                : new IllegalArgumentException("Invalid character 0x" + Integer.toHexString(b & 0xff) + " at position " + position);
     }
 
-    private static IllegalArgumentException missingRequiredPadding() {
-        return new IllegalArgumentException("Missing required padding");
+    private static IllegalArgumentException missingRequiredPadding(final int position) {
+        return new IllegalArgumentException("Missing required padding at position " + position);
     }
 
-    private static IllegalArgumentException unexpectedPadding() {
-        return new IllegalArgumentException("Unexpected padding");
+    private static IllegalArgumentException unexpectedPadding(final int position) {
+        return new IllegalArgumentException("Unexpected padding at position " + position);
     }
 
-    private static IllegalArgumentException truncatedInput() {
-        return new IllegalArgumentException("Truncated input");
+    private static IllegalArgumentException truncatedInput(final int position) {
+        return new IllegalArgumentException("Truncated input at position " + position);
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import javax.security.sasl.SaslException;
+
+/**
+ * A listener notified when an asynchronous evaluation of a SASL challenge or response has finished.  Exactly one of the
+ * methods is called, on the thread which ran the evaluation.
+ */
+public interface SaslEvaluationListener {
+
+    /**
+     * The message was evaluated successfully.
+     *
+     * @param reply the reply message, may be {@code null} if there is nothing to send
+     */
+    void evaluationComplete(byte[] reply);
+
+    /**
+     * The evaluation failed, the negotiation can not continue.
+     *
+     * @param cause the reason for the failure
+     */
+    void evaluationFailed(SaslException cause);
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+/**
+ * The installation point for {@link SaslMetrics}.
+ * <p/>
+ * A mechanism instance picks up the metrics installed when it is created, while no metrics are installed it does not
+ * take any measurements at all.  For example to publish statistics for each mechanism through JMX:
+ * <pre>
+ *     SaslInstrumentation.setMetrics(new JmxSaslMetrics());
+ * </pre>
+ */
+public final class SaslInstrumentation {
+
+    private static volatile SaslMetrics metrics;
+
+    private SaslInstrumentation() {
+    }
+
+    /**
+     * Get the installed metrics.
+     *
+     * @return the metrics, or {@code null} if none are installed
+     */
+    public static SaslMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Install the metrics to be used by mechanism instances created from now on.
+     *
+     * @param metrics the metrics, or {@code null} to disable measurement
+     */
+    public static void setMetrics(final SaslMetrics metrics) {
+        SaslInstrumentation.metrics = metrics;
+    }
+}
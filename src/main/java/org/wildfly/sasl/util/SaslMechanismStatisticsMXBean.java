@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import java.util.Map;
+
+/**
+ * The statistics of a single SASL mechanism, as published by {@link JmxSaslMetrics}.  Times are in nanoseconds.
+ */
+public interface SaslMechanismStatisticsMXBean {
+
+    /**
+     * Get the number of negotiations which completed successfully.
+     *
+     * @return the number of successful negotiations
+     */
+    long getCompletedNegotiations();
+
+    /**
+     * Get the number of negotiations which failed.
+     *
+     * @return the number of failed negotiations
+     */
+    long getFailedNegotiations();
+
+    /**
+     * Get the number of challenge or response evaluations, successful or not.
+     *
+     * @return the number of evaluations
+     */
+    long getEvaluations();
+
+    /**
+     * Get the total time spent evaluating challenges or responses.
+     *
+     * @return the total evaluation time
+     */
+    long getTotalEvaluationTime();
+
+    /**
+     * Get the longest time taken by a single evaluation.
+     *
+     * @return the maximum evaluation time
+     */
+    long getMaxEvaluationTime();
+
+    /**
+     * Get a histogram of the evaluation times.  Element {@code i} counts the evaluations which took less than
+     * {@code 2^i} microseconds and no less than the bound of element {@code i - 1}; the last element also counts all
+     * longer evaluations.
+     *
+     * @return the evaluation time histogram
+     */
+    long[] getEvaluationTimeHistogram();
+
+    /**
+     * Get the number of evaluations of each step of a negotiation.  Element {@code i} counts the evaluations of step
+     * {@code i}, the first step being step 0; the last element also counts all later steps.
+     *
+     * @return the evaluations by step
+     */
+    long[] getStepEvaluations();
+
+    /**
+     * Get the total time spent evaluating each step of a negotiation, indexed as {@link #getStepEvaluations()}.
+     *
+     * @return the total evaluation time by step
+     */
+    long[] getStepEvaluationTime();
+
+    /**
+     * Get the number of callback handler invocations.
+     *
+     * @return the number of callback handler invocations
+     */
+    long getCallbackInvocations();
+
+    /**
+     * Get the total time spent in the callback handler.
+     *
+     * @return the total callback time
+     */
+    long getTotalCallbackTime();
+
+    /**
+     * Get the number of failures for each reason.  The reason is the class name of the exception, followed by that of
+     * its cause if it has one; the message is not used as it may contain user names or other details of a single
+     * negotiation.
+     *
+     * @return the failure counts by reason
+     */
+    Map<String, Long> getFailureReasons();
+
+    /**
+     * Reset all statistics to zero.
+     */
+    void reset();
+}
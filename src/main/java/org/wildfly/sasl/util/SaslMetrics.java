@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+/**
+ * A receiver of measurements taken by the SASL mechanisms, installed with {@link SaslInstrumentation#setMetrics(SaslMetrics)}.
+ * <p/>
+ * Implementations are called on the threads doing the negotiation and so must be thread safe and quick, anything costly
+ * should be deferred until the measurements are read.
+ */
+public interface SaslMetrics {
+
+    /**
+     * A step of a negotiation, a single challenge or response evaluation, completed successfully.
+     *
+     * @param mechanismName the mechanism name
+     * @param step the index of the step within the negotiation, starting at 0
+     * @param nanos the time taken by the step, including any callbacks
+     * @param complete {@code true} if this step completed the negotiation
+     */
+    void evaluationComplete(String mechanismName, int step, long nanos, boolean complete);
+
+    /**
+     * A step of a negotiation failed, the negotiation is over.
+     *
+     * @param mechanismName the mechanism name
+     * @param step the index of the step within the negotiation, starting at 0
+     * @param nanos the time taken by the step, including any callbacks
+     * @param cause the reason for the failure
+     */
+    void evaluationFailed(String mechanismName, int step, long nanos, Throwable cause);
+
+    /**
+     * The callback handler was invoked, whether or not it succeeded.  The time is also included in the time of the
+     * enclosing step.
+     *
+     * @param mechanismName the mechanism name
+     * @param nanos the time taken by the callback handler
+     */
+    void callbacksHandled(String mechanismName, long nanos);
+}
@@ -188,89 +188,365 @@ public final class StringPrep {
 
     // Encoding
 
+    /**
+     * Compiled profiles, scanned linearly by flags so that a lookup allocates nothing; bounded so that a caller
+     * building profiles dynamically cannot make it grow without limit.
+     */
+    private static volatile Profile[] compiledProfiles = new Profile[0];
+
+    private static final int MAX_COMPILED_PROFILES = 32;
+
+    /**
+     * Compile the given profile flags, for callers which encode repeatedly with the same profile.
+     *
+     * @param profile the profile flags
+     * @return the compiled profile
+     */
+    public static Profile compile(long profile) {
+        for (Profile compiled : compiledProfiles) {
+            if (compiled.flags == profile) {
+                return compiled;
+            }
+        }
+        Profile compiled = new Profile(profile);
+        synchronized (StringPrep.class) {
+            Profile[] current = compiledProfiles;
+            if (current.length < MAX_COMPILED_PROFILES) {
+                Profile[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = compiled;
+                compiledProfiles = updated;
+            }
+        }
+        return compiled;
+    }
+
     public static void encode(char[] string, ByteStringBuilder target, long profile) {
-        encode(new String(string), target, profile);
+        compile(profile).encode(string, target);
     }
 
     public static void encode(String string, ByteStringBuilder target, long profile) {
-        // technically we're supposed to normalize after mapping, but it should be equivalent if we don't
-        if (isSet(profile, NORMALIZE_KC)) string = Normalizer.normalize(string, Normalizer.Form.NFKC);
-        final int len = string.length();
-        int ch;
-        int i = 0;
-        boolean isRAndLCat = false;
-        while (i < len) {
-            ch = string.codePointAt(i++);
-            if (Character.isHighSurrogate((char) ch)) {
-                if (i == len) {
-                    throw new IllegalArgumentException("Invalid surrogate pair");
+        compile(profile).encode(string, target);
+    }
+
+    /**
+     * A profile with its mapping and prohibition checks compiled into tables. ASCII input, which is already in
+     * normalization form KC and unaffected by the mapping tables, is encoded in a single pass without normalization.
+     */
+    public static final class Profile {
+        private final long flags;
+        private final boolean normalize;
+        private final boolean mapScramLoginChars;
+        private final boolean forbidUnassigned;
+        /** forbidden ASCII characters, bit {@code c} of {@code asciiForbidden[c >> 6]} */
+        private final long[] asciiForbidden = new long[2];
+        private final RangeTable mapToNothing;
+        private final RangeTable mapToSpace;
+        private final RangeTable prohibited;
+        /** BMP code points subject to any mapping or prohibition table, bit {@code c} of {@code bmpListed[c >> 6]} */
+        private final long[] bmpListed = new long[1024];
+
+        Profile(final long flags) {
+            this.flags = flags;
+            normalize = isSet(flags, NORMALIZE_KC);
+            mapScramLoginChars = isSet(flags, MAP_SCRAM_LOGIN_CHARS);
+            forbidUnassigned = isSet(flags, FORBID_UNASSIGNED);
+            if (isSet(flags, FORBID_ASCII_CONTROL)) {
+                asciiForbidden[0] = 0xFFFFFFFFL;
+                asciiForbidden[1] = 1L << 0x3F;
+            }
+            RangeTable.Builder builder = new RangeTable.Builder();
+            if (isSet(flags, MAP_TO_NOTHING)) {
+                builder.add(0xAD, 0xAD).add(0x034F, 0x034F).add(0x1806, 0x1806).add(0x180B, 0x180D).add(0x200B, 0x200D)
+                        .add(0x2060, 0x2060).add(0xFE00, 0xFE0F).add(0xFEFF, 0xFEFF);
+            }
+            mapToNothing = builder.build();
+            builder = new RangeTable.Builder();
+            if (isSet(flags, MAP_TO_SPACE)) {
+                builder.add(0xA0, 0xA0).add(0x1680, 0x1680).add(0x2000, 0x200B).add(0x202F, 0x202F).add(0x205F, 0x205F)
+                        .add(0x3000, 0x3000);
+            }
+            mapToSpace = builder.build();
+            // checks are added in the order the individual forbid methods used to be applied, the first one wins
+            builder = new RangeTable.Builder();
+            if (isSet(flags, FORBID_NON_ASCII_SPACES)) {
+                builder.message("Invalid non-ASCII space").add(0xA0, 0xA0).add(0x1680, 0x1680).add(0x2000, 0x200B)
+                        .add(0x202F, 0x202F).add(0x205F, 0x205F).add(0x3000, 0x3000);
+            }
+            if (isSet(flags, FORBID_NON_ASCII_CONTROL)) {
+                builder.message("Invalid non-ASCII control").add(0x80, 0x9F).add(0x06DD, 0x06DD).add(0x070F, 0x070F)
+                        .add(0x180E, 0x180E).add(0x200C, 0x200D).add(0x2028, 0x2029).add(0x2060, 0x2063)
+                        .add(0x206A, 0x206F).add(0xFEFF, 0xFEFF).add(0xFFF9, 0xFFFC).add(0x01D173, 0x01D17A);
+            }
+            if (isSet(flags, FORBID_PRIVATE_USE)) {
+                builder.message("Invalid private use character").add(0xE000, 0xF8FF).add(0xF0000, 0xFFFFD)
+                        .add(0x100000, 0x10FFFD);
+            }
+            if (isSet(flags, FORBID_NON_CHARACTER)) {
+                builder.message("Invalid non-character code point").add(0xFDD0, 0xFDEF);
+                for (int plane = 0; plane <= 0x10; plane++) {
+                    builder.add(plane << 16 | 0xFFFE, plane << 16 | 0xFFFF);
                 }
-                char tmp = string.charAt(i ++);
-                if (! Character.isLowSurrogate(tmp)) {
-                    throw new IllegalArgumentException("Invalid surrogate pair");
+            }
+            if (isSet(flags, FORBID_SURROGATE)) {
+                builder.message("Invalid surrogate code point").add(0xD800, 0xDFFF);
+            }
+            if (isSet(flags, FORBID_INAPPROPRIATE_FOR_PLAIN_TEXT)) {
+                builder.message("Invalid plain text code point").add(0xFFF9, 0xFFFD);
+            }
+            if (isSet(flags, FORBID_INAPPROPRIATE_FOR_CANON_REP)) {
+                builder.message("Invalid non-canonical code point").add(0x2FF0, 0x2FFB);
+            }
+            if (isSet(flags, FORBID_CHANGE_DISPLAY_AND_DEPRECATED)) {
+                builder.message("Invalid control character").add(0x0340, 0x0341).add(0x200E, 0x200F).add(0x202A, 0x202E);
+            }
+            if (isSet(flags, FORBID_TAGGING)) {
+                builder.message("Invalid tagging character").add(0x0E0000, 0x0E0000).add(0x0E0020, 0x0E007F);
+            }
+            prohibited = builder.build();
+            mapToNothing.markBmp(bmpListed);
+            mapToSpace.markBmp(bmpListed);
+            prohibited.markBmp(bmpListed);
+        }
+
+        private boolean isListed(final int codePoint) {
+            return codePoint > Character.MAX_VALUE || (bmpListed[codePoint >> 6] & 1L << codePoint) != 0L;
+        }
+
+        public void encode(char[] string, ByteStringBuilder target) {
+            final int start = target.length();
+            for (char c : string) {
+                if (c >= 0x80) {
+                    target.setLength(start);
+                    encodeCodePoints(new String(string), target);
+                    return;
+                }
+                encodeAscii(c, target);
+            }
+        }
+
+        public void encode(String string, ByteStringBuilder target) {
+            final int start = target.length();
+            final int len = string.length();
+            for (int i = 0; i < len; i++) {
+                final char c = string.charAt(i);
+                if (c >= 0x80) {
+                    // normalization may combine the ASCII prefix with what follows, so start over
+                    target.setLength(start);
+                    encodeCodePoints(string, target);
+                    return;
                 }
-                ch = Character.toCodePoint((char) ch, string.charAt(i ++));
-            } else if (Character.isLowSurrogate((char) ch)) {
-                throw new IllegalArgumentException("Invalid surrogate pair");
+                encodeAscii(c, target);
             }
+        }
 
-            if (! Character.isValidCodePoint(ch)) {
-                throw new IllegalArgumentException("Invalid code point");
+        private void encodeAscii(final char c, final ByteStringBuilder target) {
+            if ((asciiForbidden[c >> 6] & 1L << c) != 0L) {
+                throw new IllegalArgumentException("Invalid ASCII control");
+            }
+            if (mapScramLoginChars) {
+                if (c == '=') {
+                    target.append('=').append('3').append('D');
+                    return;
+                } else if (c == ',') {
+                    target.append('=').append('2').append('C');
+                    return;
+                }
             }
+            target.append((byte) c);
+        }
 
-            assert ch < Character.MAX_CODE_POINT;
+        private void encodeCodePoints(String string, final ByteStringBuilder target) {
+            // technically we're supposed to normalize after mapping, but it should be equivalent if we don't
+            if (normalize) string = Normalizer.normalize(string, Normalizer.Form.NFKC);
+            final int len = string.length();
+            int ch;
+            int i = 0;
+            boolean first = true;
+            boolean firstRAndL = false;
+            boolean lastRAndL = false;
+            boolean hasRAndL = false;
+            boolean hasL = false;
+            while (i < len) {
+                ch = string.codePointAt(i);
+                i += Character.charCount(ch);
+                if (ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE) {
+                    throw new IllegalArgumentException("Invalid surrogate pair");
+                }
 
-            switch (Character.getDirectionality(ch)) {
-                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC:
-                case Character.DIRECTIONALITY_RIGHT_TO_LEFT: {
-                    if (i == 0) {
-                        isRAndLCat = true;
+                if (ch < 0x80) {
+                    encodeAscii((char) ch, target);
+                    first = false;
+                    lastRAndL = false;
+                    hasL |= Character.getDirectionality(ch) == Character.DIRECTIONALITY_LEFT_TO_RIGHT;
+                    continue;
+                }
+
+                if (isListed(ch)) {
+                    // StringPrep 3 - Mapping
+                    if (mapToNothing.contains(ch)) continue;
+                    if (mapToSpace.contains(ch)) {
+                        target.append(' ');
+                        first = false;
+                        lastRAndL = false;
+                        continue;
                     }
-                    if (i == len - 1) {
-                        if (! isRAndLCat) {
-                            throw new IllegalArgumentException("Missing trailing R/AL directionality character");
-                        }
+
+                    // StringPrep 5 - Prohibition
+                    final String message = prohibited.find(ch);
+                    if (message != null) {
+                        throw new IllegalArgumentException(message);
                     }
-                    break;
                 }
-                case Character.DIRECTIONALITY_LEFT_TO_RIGHT: {
-                    if (isRAndLCat) {
-                        throw new IllegalArgumentException("Disallowed L directionality character in R/AL string");
+                if (forbidUnassigned && Character.getType(ch) == Character.UNASSIGNED) {
+                    throw new IllegalArgumentException("Unassigned code point");
+                }
+
+                // StringPrep 6 - Bidirectional characters
+                switch (Character.getDirectionality(ch)) {
+                    case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC:
+                    case Character.DIRECTIONALITY_RIGHT_TO_LEFT: {
+                        hasRAndL = true;
+                        firstRAndL |= first;
+                        lastRAndL = true;
+                        break;
                     }
+                    case Character.DIRECTIONALITY_LEFT_TO_RIGHT: {
+                        hasL = true;
+                        lastRAndL = false;
+                        break;
+                    }
+                    default: {
+                        lastRAndL = false;
+                    }
+                }
+                first = false;
+
+                // Now, encode that one
+                target.appendUtf8Raw(ch);
+            }
+            if (hasRAndL) {
+                if (hasL) {
+                    throw new IllegalArgumentException("Disallowed L directionality character in R/AL string");
+                }
+                if (firstRAndL == false || lastRAndL == false) {
+                    throw new IllegalArgumentException("Missing leading or trailing R/AL directionality character");
                 }
             }
+        }
+    }
+
+    /**
+     * Sorted, non-overlapping code point ranges, each with the message of the check that contributed it.
+     */
+    private static final class RangeTable {
+        private final int[] starts;
+        private final int[] ends;
+        private final String[] messages;
+
+        private RangeTable(final int[] starts, final int[] ends, final String[] messages) {
+            this.starts = starts;
+            this.ends = ends;
+            this.messages = messages;
+        }
 
-            // StringPrep 3 - Mapping
-            if (isSet(profile, MAP_TO_NOTHING) && mapCodePointToNothing(ch)) continue;
-            if (isSet(profile, MAP_TO_SPACE) && mapCodePointToSpace(ch)) {
-                target.append(' ');
-                continue;
+        boolean contains(int codePoint) {
+            return indexOf(codePoint) >= 0;
+        }
+
+        String find(int codePoint) {
+            final int idx = indexOf(codePoint);
+            return idx < 0 ? null : messages[idx];
+        }
+
+        void markBmp(final long[] bits) {
+            for (int i = 0; i < starts.length && starts[i] <= Character.MAX_VALUE; i++) {
+                final int end = Math.min(ends[i], Character.MAX_VALUE);
+                for (int cp = starts[i]; cp <= end; cp++) {
+                    bits[cp >> 6] |= 1L << cp;
+                }
             }
-            if (isSet(profile, MAP_SCRAM_LOGIN_CHARS)) {
-                if (ch == '=') {
-                    target.append('=').append('3').append('D');
-                    continue;
-                } else if (ch == ',') {
-                    target.append('=').append('2').append('C');
-                    continue;
+        }
+
+        private int indexOf(int codePoint) {
+            int low = 0;
+            int high = starts.length - 1;
+            while (low <= high) {
+                final int mid = low + high >>> 1;
+                if (codePoint < starts[mid]) {
+                    high = mid - 1;
+                } else if (codePoint > ends[mid]) {
+                    low = mid + 1;
+                } else {
+                    return mid;
                 }
             }
+            return -1;
+        }
+
+        static final class Builder {
+            private int[] starts = new int[16];
+            private int[] ends = new int[16];
+            private String[] messages = new String[16];
+            private int count;
+            private String message = "";
+
+            Builder message(String message) {
+                this.message = message;
+                return this;
+            }
 
-            // StringPrep 5 - Prohibition
-            if (isSet(profile, FORBID_NON_ASCII_SPACES)) forbidNonAsciiSpaces(ch);
-            if (isSet(profile, FORBID_ASCII_CONTROL)) forbidAsciiControl(ch);
-            if (isSet(profile, FORBID_NON_ASCII_CONTROL)) forbidNonAsciiControl(ch);
-            if (isSet(profile, FORBID_PRIVATE_USE)) forbidPrivateUse(ch);
-            if (isSet(profile, FORBID_NON_CHARACTER)) forbidNonCharacter(ch);
-            if (isSet(profile, FORBID_SURROGATE)) forbidSurrogate(ch);
-            if (isSet(profile, FORBID_INAPPROPRIATE_FOR_PLAIN_TEXT)) forbidInappropriateForPlainText(ch);
-            if (isSet(profile, FORBID_INAPPROPRIATE_FOR_CANON_REP)) forbidInappropriateForCanonicalRepresentation(ch);
-            if (isSet(profile, FORBID_CHANGE_DISPLAY_AND_DEPRECATED)) forbidChangeDisplayPropertiesOrDeprecated(ch);
-            if (isSet(profile, FORBID_TAGGING)) forbidTagging(ch);
-            if (isSet(profile, FORBID_UNASSIGNED)) forbidUnassigned(ch);
-
-            // Now, encode that one
-            target.appendUtf8Raw(ch);
+            Builder add(int start, int end) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                    messages = Arrays.copyOf(messages, count * 2);
+                }
+                starts[count] = start;
+                ends[count] = end;
+                messages[count] = message;
+                count++;
+                return this;
+            }
+
+            /**
+             * Split the ranges added so far at every boundary and keep, for each piece, the earliest added range
+             * covering it, then merge neighbouring pieces with the same message.
+             */
+            RangeTable build() {
+                final int[] bounds = new int[count * 2];
+                for (int i = 0; i < count; i++) {
+                    bounds[i * 2] = starts[i];
+                    bounds[i * 2 + 1] = ends[i] + 1;
+                }
+                Arrays.sort(bounds);
+                final int[] resultStarts = new int[bounds.length];
+                final int[] resultEnds = new int[bounds.length];
+                final String[] resultMessages = new String[bounds.length];
+                int size = 0;
+                for (int b = 0; b + 1 < bounds.length; b++) {
+                    final int pieceStart = bounds[b];
+                    final int pieceEnd = bounds[b + 1] - 1;
+                    if (pieceEnd < pieceStart) continue;
+                    String pieceMessage = null;
+                    for (int i = 0; i < count; i++) {
+                        if (starts[i] <= pieceStart && pieceEnd <= ends[i]) {
+                            pieceMessage = messages[i];
+                            break;
+                        }
+                    }
+                    if (pieceMessage == null) continue;
+                    if (size > 0 && resultEnds[size - 1] + 1 == pieceStart && resultMessages[size - 1] == pieceMessage) {
+                        resultEnds[size - 1] = pieceEnd;
+                    } else {
+                        resultStarts[size] = pieceStart;
+                        resultEnds[size] = pieceEnd;
+                        resultMessages[size] = pieceMessage;
+                        size++;
+                    }
+                }
+                return new RangeTable(Arrays.copyOf(resultStarts, size), Arrays.copyOf(resultEnds, size),
+                        Arrays.copyOf(resultMessages, size));
+            }
         }
     }
 }
@@ -30,7 +30,10 @@ import java.security.NoSuchAlgorithmException;
  * and the hex encoded version of the hash.
  * <p/>
  * This class makes use of the MessageDigest by single calls to the .digest(byte[]) method,
- * however beyond that there is no synchronisation so this should not be considered thread safe.
+ * however beyond that there is no synchronisation so this should not be considered thread safe
+ * if a MessageDigest is supplied to the constructor.
+ * <p/>
+ * To generate the hashes of many users at once see {@link BulkUsernamePasswordHashUtil}.
  *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
@@ -44,13 +47,15 @@ public class UsernamePasswordHashUtil {
 
     /**
      * The default constructor for UsernamePasswordHashUtil, when instantiated
-     * using this constructor a local MD5 MessageDigest will be used for the
-     * generated hashes.
+     * using this constructor MD5 MessageDigest instances will be taken from the
+     * {@link DigestPool} for the generated hashes.
      *
      * @throws NoSuchAlgorithmException - If the MD5 MessageDigest fails to be created.
      */
     public UsernamePasswordHashUtil() throws NoSuchAlgorithmException {
-        digest = MessageDigest.getInstance(MD5);
+        // fail early if MD5 is not available
+        DigestPool.release(DigestPool.getMessageDigest(MD5));
+        digest = null;
     }
 
     /**
@@ -137,12 +142,29 @@ public class UsernamePasswordHashUtil {
             baos.write(COLON);
             baos.write(passwordArray);
 
-            return digest.digest(baos.toByteArray());
+            return digest(baos.toByteArray());
         } catch (IOException e) {
             throw new IllegalStateException("The ByteArrayOutputStream should not be throwing this IOException", e);
         }
     }
 
+    private byte[] digest(final byte[] urp) {
+        if (digest != null) {
+            return digest.digest(urp);
+        }
+        final MessageDigest md5;
+        try {
+            md5 = DigestPool.getMessageDigest(MD5);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 was available when this instance was created", e);
+        }
+        try {
+            return md5.digest(urp);
+        } finally {
+            DigestPool.release(md5);
+        }
+    }
+
     public byte[] generateHashedURP(final String userName, final String realm, final char[] password) {
         return generateHashedURP(userName, realm, password, true);
     }
@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.gssapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.PrivilegedExceptionAction;
+import java.security.Provider;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.junit.Test;
+
+/**
+ * Tests of the acceptor credential cache, these use a stub {@link GSSManager} so do not need a KDC.
+ */
+public class GssapiCredentialCacheTest {
+
+    private static final String NAME = "sasl@test_server_1";
+
+    @Test
+    public void testCached() throws Exception {
+        GssapiCredentialCache cache = new GssapiCredentialCache();
+        StubManager manager = new StubManager();
+
+        GSSCredential first = cache.getAcceptorCredential(manager, NAME, TimeUnit.MINUTES.toNanos(5));
+        GSSCredential second = cache.getAcceptorCredential(manager, NAME, TimeUnit.MINUTES.toNanos(5));
+        assertSame(first, second);
+        assertEquals(1, manager.acquired);
+
+        cache.getAcceptorCredential(manager, "other@test_server_1", TimeUnit.MINUTES.toNanos(5));
+        assertEquals(2, manager.acquired);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testPerSubject() throws Exception {
+        final GssapiCredentialCache cache = new GssapiCredentialCache();
+        final StubManager manager = new StubManager();
+
+        GSSCredential noSubject = cache.getAcceptorCredential(manager, NAME, TimeUnit.MINUTES.toNanos(5));
+        GSSCredential withSubject = Subject.doAs(new Subject(), new PrivilegedExceptionAction<GSSCredential>() {
+            @Override
+            public GSSCredential run() throws Exception {
+                return cache.getAcceptorCredential(manager, NAME, TimeUnit.MINUTES.toNanos(5));
+            }
+        });
+        assertNotSame(noSubject, withSubject);
+        assertEquals(2, manager.acquired);
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        GssapiCredentialCache cache = new GssapiCredentialCache();
+        StubManager manager = new StubManager();
+        long ttl = TimeUnit.MILLISECONDS.toNanos(500);
+
+        GSSCredential first = cache.getAcceptorCredential(manager, NAME, ttl);
+        Thread.sleep(450);
+        GSSCredential refreshed = cache.getAcceptorCredential(manager, NAME, ttl);
+        assertNotSame(first, refreshed);
+        assertEquals(2, manager.acquired);
+        assertSame(refreshed, cache.getAcceptorCredential(manager, NAME, ttl));
+    }
+
+    @Test
+    public void testRefreshFailure() throws Exception {
+        GssapiCredentialCache cache = new GssapiCredentialCache();
+        StubManager manager = new StubManager();
+        long ttl = TimeUnit.SECONDS.toNanos(2);
+
+        GSSCredential first = cache.getAcceptorCredential(manager, NAME, ttl);
+        Thread.sleep(1700);
+        manager.fail = true;
+        assertSame(first, cache.getAcceptorCredential(manager, NAME, ttl));
+        manager.fail = false;
+        GSSCredential refreshed = cache.getAcceptorCredential(manager, NAME, ttl);
+        assertNotSame(first, refreshed);
+    }
+
+    @Test(expected = GSSException.class)
+    public void testExpiredFailure() throws Exception {
+        GssapiCredentialCache cache = new GssapiCredentialCache();
+        StubManager manager = new StubManager();
+        long ttl = TimeUnit.MILLISECONDS.toNanos(100);
+
+        cache.getAcceptorCredential(manager, NAME, ttl);
+        Thread.sleep(150);
+        manager.fail = true;
+        cache.getAcceptorCredential(manager, NAME, ttl);
+    }
+
+    /**
+     * A GSSManager which only supports the calls made to acquire an acceptor credential.
+     */
+    private static final class StubManager extends GSSManager {
+
+        private int acquired;
+        private boolean fail;
+
+        @Override
+        public GSSName createName(String nameStr, Oid nameType, Oid mech) throws GSSException {
+            return stub(GSSName.class);
+        }
+
+        @Override
+        public GSSCredential createCredential(GSSName name, int lifetime, Oid mech, int usage) throws GSSException {
+            if (fail) {
+                throw new GSSException(GSSException.NO_CRED);
+            }
+            acquired++;
+            return stub(GSSCredential.class);
+        }
+
+        private static <T> T stub(final Class<T> type) {
+            return type.cast(Proxy.newProxyInstance(GssapiCredentialCacheTest.class.getClassLoader(), new Class<?>[] {type},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if ("getRemainingAcceptLifetime".equals(method.getName())) {
+                                return GSSCredential.INDEFINITE_LIFETIME;
+                            } else if ("equals".equals(method.getName())) {
+                                return proxy == args[0];
+                            } else if ("hashCode".equals(method.getName())) {
+                                return System.identityHashCode(proxy);
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    }));
+        }
+
+        @Override
+        public Oid[] getMechs() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Oid[] getNamesForMech(Oid mech) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Oid[] getMechsForName(Oid nameType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GSSName createName(String nameStr, Oid nameType) throws GSSException {
+            return createName(nameStr, nameType, null);
+        }
+
+        @Override
+        public GSSName createName(byte[] name, Oid nameType) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GSSName createName(byte[] name, Oid nameType, Oid mech) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GSSCredential createCredential(int usage) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GSSCredential createCredential(GSSName name, int lifetime, Oid[] mechs, int usage) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GSSContext createContext(GSSName peer, Oid mech, GSSCredential myCred, int lifetime) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GSSContext createContext(GSSCredential myCred) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GSSContext createContext(byte[] interProcessToken) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addProviderAtFront(Provider p, Oid mech) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addProviderAtEnd(Provider p, Oid mech) throws GSSException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.localuser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * Tests for the deletion of JBOSS-LOCAL-USER challenge files without a finalizer.
+ */
+public class ChallengeFileReaperTest {
+
+    private static final long WAIT_MILLIS = 10000;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("reaper").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private SaslServer createServer(final String timeout) throws SaslException {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(LocalUserServer.LOCAL_USER_CHALLENGE_PATH, directory.getAbsolutePath());
+        props.put(LocalUserServer.LOCAL_USER_USE_SECURE_RANDOM, Boolean.FALSE);
+        props.put(LocalUserServer.LOCAL_USER_CHALLENGE_TIMEOUT, timeout);
+        return new LocalUserServerFactory().createSaslServer(LocalUserSaslFactory.JBOSS_LOCAL_USER, "TestProtocol", "TestServer", props, null);
+    }
+
+    private static File challenge(final SaslServer server) throws SaslException {
+        File file = new File(new String(server.evaluateResponse("George".getBytes(Charsets.UTF_8)), Charsets.UTF_8));
+        assertTrue(file.isFile());
+        return file;
+    }
+
+    private static void awaitDeletion(final File file) throws InterruptedException {
+        final long end = System.currentTimeMillis() + WAIT_MILLIS;
+        while (file.exists()) {
+            if (System.currentTimeMillis() > end) {
+                fail("Challenge file " + file + " was not deleted");
+            }
+            System.gc();
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testDisposeDeletesChallenge() throws Exception {
+        SaslServer server = createServer("60");
+        int outstanding = ChallengeFileReaper.getInstance().getOutstandingCount();
+        File file = challenge(server);
+        assertEquals(outstanding + 1, ChallengeFileReaper.getInstance().getOutstandingCount());
+        server.dispose();
+        assertFalse(file.exists());
+        assertEquals(outstanding, ChallengeFileReaper.getInstance().getOutstandingCount());
+    }
+
+    @Test
+    public void testInvalidTimeout() throws Exception {
+        try {
+            createServer("soon");
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+            assertEquals("Invalid value for " + LocalUserServer.LOCAL_USER_CHALLENGE_TIMEOUT + ": soon", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testAbandonedServer() throws Exception {
+        SaslServer server = createServer("0");
+        File file = challenge(server);
+        server = null;
+        awaitDeletion(file);
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        Object owner = new Object();
+        File file = File.createTempFile(ChallengeFileReaper.PREFIX, ChallengeFileReaper.SUFFIX, directory);
+        ChallengeFileReaper.Challenge challenge = ChallengeFileReaper.getInstance().track(owner, file, 50);
+        awaitDeletion(file);
+        assertTrue(challenge.isExpired());
+        // the owner is still reachable, it was the deadline which removed the file
+        assertTrue(owner.hashCode() == owner.hashCode());
+    }
+
+    @Test
+    public void testExpiredChallengeRejected() throws Exception {
+        SaslServer server = createServer("1");
+        File file = challenge(server);
+        awaitDeletion(file);
+        try {
+            server.evaluateResponse(new byte[8]);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+            assertEquals("Challenge expired", expected.getMessage());
+        }
+        assertFalse(server.isComplete());
+    }
+
+    @Test
+    public void testOrphansDeleted() throws Exception {
+        File orphan = new File(directory, ChallengeFileReaper.PREFIX + "1234" + ChallengeFileReaper.SUFFIX);
+        assertTrue(orphan.createNewFile());
+        assertTrue(orphan.setLastModified(System.currentTimeMillis() - 3600000));
+        File recent = new File(directory, ChallengeFileReaper.PREFIX + "5678" + ChallengeFileReaper.SUFFIX);
+        assertTrue(recent.createNewFile());
+        File orphanSlots = new File(directory, ChallengeSlots.PREFIX + "1234" + ChallengeSlots.SUFFIX);
+        assertTrue(orphanSlots.createNewFile());
+        assertTrue(orphanSlots.setLastModified(System.currentTimeMillis() - 3600000));
+        File unrelated = new File(directory, "unrelated.txt");
+        assertTrue(unrelated.createNewFile());
+        assertTrue(unrelated.setLastModified(System.currentTimeMillis() - 3600000));
+
+        SaslServer server = createServer("60");
+        File file = challenge(server);
+        awaitDeletion(orphan);
+        awaitDeletion(orphanSlots);
+        assertTrue(recent.exists());
+        assertTrue(unrelated.exists());
+        assertTrue(file.exists());
+        server.dispose();
+    }
+}
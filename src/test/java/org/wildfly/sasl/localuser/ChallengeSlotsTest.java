@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.localuser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.sasl.SaslException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the memory mapped file of JBOSS-LOCAL-USER challenge slots.
+ */
+public class ChallengeSlotsTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("slots").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static byte[] read(final File file, final int slot) throws IOException {
+        return Arrays.copyOfRange(Files.readAllBytes(file.toPath()), slot * ChallengeSlots.CHALLENGE_SIZE, (slot + 1) * ChallengeSlots.CHALLENGE_SIZE);
+    }
+
+    @Test
+    public void testAllocateAndRelease() throws Exception {
+        ChallengeSlots slots = ChallengeSlots.getInstance(directory, 70);
+        assertSame(slots, ChallengeSlots.getInstance(directory, 70));
+        assertEquals(70 * ChallengeSlots.CHALLENGE_SIZE, slots.getFile().length());
+
+        Set<Integer> taken = new HashSet<Integer>();
+        for (int i = 0; i < 70; i++) {
+            int slot = slots.allocate();
+            assertTrue(slot >= 0 && slot < 70);
+            assertTrue(taken.add(slot));
+        }
+        assertEquals(-1, slots.allocate());
+
+        slots.release(65);
+        assertEquals(65, slots.allocate());
+        slots.release(3);
+        assertEquals(3, slots.allocate());
+    }
+
+    @Test
+    public void testInvalidSlotCount() throws Exception {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(LocalUserServer.LOCAL_USER_CHALLENGE_PATH, directory.getAbsolutePath());
+        props.put(LocalUserServer.LOCAL_USER_CHALLENGE_SLOTS, "many");
+        try {
+            new LocalUserServerFactory().createSaslServer(LocalUserSaslFactory.JBOSS_LOCAL_USER, "TestProtocol", "TestServer", props, null);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+            assertEquals("Invalid value for " + LocalUserServer.LOCAL_USER_CHALLENGE_SLOTS + ": many", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testChallengeVisibleThroughFile() throws Exception {
+        ChallengeSlots slots = ChallengeSlots.getInstance(directory, 8);
+        int slot = slots.allocate();
+        byte[] challenge = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        slots.write(slot, challenge);
+        assertArrayEquals(challenge, read(slots.getFile(), slot));
+
+        slots.release(slot);
+        assertArrayEquals(new byte[ChallengeSlots.CHALLENGE_SIZE], read(slots.getFile(), slot));
+    }
+
+    @Test
+    public void testSamePermissionsAsChallengeFile() throws Exception {
+        ChallengeSlots slots = ChallengeSlots.getInstance(directory, 1);
+        if (Files.getFileStore(slots.getFile().toPath()).supportsFileAttributeView("posix")) {
+            File challengeFile = File.createTempFile(ChallengeFileReaper.PREFIX, ChallengeFileReaper.SUFFIX, directory);
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(challengeFile.toPath());
+            assertEquals(permissions, Files.getPosixFilePermissions(slots.getFile().toPath()));
+        }
+        assertFalse(slots.getFile().getName().endsWith(ChallengeFileReaper.SUFFIX));
+    }
+
+    @Test
+    public void testAbandonedServerReleasesSlot() throws Exception {
+        ChallengeSlots slots = ChallengeSlots.getInstance(directory, 1);
+        int slot = slots.allocate();
+        slots.write(slot, new byte[] { 1, 1, 1, 1, 1, 1, 1, 1 });
+        Object owner = new Object();
+        ChallengeFileReaper.getInstance().track(owner, slots, slot, 0);
+        owner = null;
+        long end = System.currentTimeMillis() + 10000;
+        while (slots.allocate() == -1) {
+            assertTrue("Slot was not released", System.currentTimeMillis() < end);
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertArrayEquals(new byte[ChallengeSlots.CHALLENGE_SIZE], read(slots.getFile(), slot));
+    }
+
+    @Test
+    public void testAbandonedFileDeleted() throws Exception {
+        ChallengeSlots slots = ChallengeSlots.getInstance(directory, 1);
+        assertFalse(ChallengeSlots.deleteIfAbandoned(slots.getFile()));
+        assertTrue(slots.getFile().exists());
+
+        File locked = File.createTempFile(ChallengeSlots.PREFIX, ChallengeSlots.SUFFIX, directory);
+        FileChannel channel = FileChannel.open(locked.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            channel.lock(Long.MAX_VALUE - 1, 1, false);
+            assertFalse(ChallengeSlots.deleteIfAbandoned(locked));
+            assertTrue(locked.exists());
+        } finally {
+            channel.close();
+        }
+
+        File abandoned = File.createTempFile(ChallengeSlots.PREFIX, ChallengeSlots.SUFFIX, directory);
+        assertTrue(ChallengeSlots.deleteIfAbandoned(abandoned));
+        assertFalse(abandoned.exists());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * Tests for the server side nonce cache used for subsequent authentication.
+ */
+public class DigestNonceCacheTest {
+
+    private static byte[] nonce(String nonce) {
+        return nonce.getBytes(Charsets.LATIN_1);
+    }
+
+    /**
+     * Check and, if accepted, commit as the server does once the response has been verified.
+     */
+    private static boolean use(DigestNonceCache cache, String nonce, int nonceCount, long now) {
+        return cache.check(nonce(nonce), nonceCount, now) && cache.commit(nonce(nonce), nonceCount);
+    }
+
+    @Test
+    public void testNonceCountMustIncrease() {
+        DigestNonceCache cache = new DigestNonceCache(10);
+        cache.add(nonce("a"), 1, 1000);
+        assertFalse(use(cache, "a", 1, 0));
+        assertTrue(use(cache, "a", 2, 0));
+        assertFalse(use(cache, "a", 2, 0));
+        assertTrue(use(cache, "a", 5, 0));
+        assertFalse(use(cache, "a", 3, 0));
+        assertFalse(use(cache, "b", 2, 0));
+    }
+
+    @Test
+    public void testCheckDoesNotRecord() {
+        DigestNonceCache cache = new DigestNonceCache(10);
+        cache.add(nonce("a"), 1, 1000);
+        // a response with a high nonce-count which fails verification is never committed
+        assertTrue(cache.check(nonce("a"), 0x7fffffff, 0));
+        assertTrue(use(cache, "a", 2, 0));
+        // two responses checked with the same nonce-count, only the first to be committed succeeds
+        assertTrue(cache.check(nonce("a"), 3, 0));
+        assertTrue(cache.check(nonce("a"), 3, 0));
+        assertTrue(cache.commit(nonce("a"), 3));
+        assertFalse(cache.commit(nonce("a"), 3));
+        assertFalse(cache.commit(nonce("b"), 3));
+    }
+
+    @Test
+    public void testExpiry() {
+        DigestNonceCache cache = new DigestNonceCache(10);
+        cache.add(nonce("a"), 1, 1000);
+        assertTrue(use(cache, "a", 2, 1000));
+        assertFalse(use(cache, "a", 3, 1001));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        DigestNonceCache cache = new DigestNonceCache(2);
+        cache.add(nonce("a"), 1, 1000);
+        cache.add(nonce("b"), 1, 1000);
+        cache.add(nonce("c"), 1, 1000);
+        assertEquals(2, cache.size());
+        assertFalse(use(cache, "a", 2, 0));
+        assertTrue(use(cache, "c", 2, 0));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * Tests for the client side session cache used for subsequent authentication.
+ */
+public class DigestSessionCacheTest {
+
+    private static DigestSessionCache.Session session(String userName) {
+        return new DigestSessionCache.Session(userName, "realm", new byte[] { 1 }, new byte[] { 2 }, Charsets.UTF_8, "auth",
+                65536, null, 1);
+    }
+
+    @Test
+    public void testContains() {
+        DigestSessionCache cache = new DigestSessionCache(10);
+        DigestSessionCache.Session george = session("George");
+        DigestSessionCache.Session borris = session("Borris");
+        cache.put("ldap/a", null, george);
+        cache.put("ldap/a", null, borris);
+        cache.put("ldap/a", null, borris);
+        assertTrue(cache.contains("ldap/a", null));
+        assertFalse(cache.contains("ldap/a", ""));
+        assertFalse(cache.contains("ldap/b", null));
+
+        cache.remove("ldap/a", null, george);
+        assertTrue(cache.contains("ldap/a", null));
+        // a session which has been replaced is not removed
+        cache.remove("ldap/a", null, session("Borris"));
+        assertSame(borris, cache.get("ldap/a", null, "Borris"));
+        cache.remove("ldap/a", null, borris);
+        assertFalse(cache.contains("ldap/a", null));
+    }
+
+    @Test
+    public void testEviction() {
+        DigestSessionCache cache = new DigestSessionCache(2);
+        cache.put("ldap/a", "admin", session("George"));
+        cache.put("ldap/b", null, session("George"));
+        cache.get("ldap/a", "admin", "George");
+        cache.put("ldap/c", null, session("George"));
+        assertNull(cache.get("ldap/b", null, "George"));
+        assertFalse(cache.contains("ldap/b", null));
+        assertTrue(cache.contains("ldap/a", "admin"));
+        assertTrue(cache.contains("ldap/c", null));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.md5digest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.security.sasl.SaslException;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * Tests for the DIGEST-MD5 directive parser.
+ */
+public class ParsedDigestMessageTest {
+
+    private static ParsedDigestMessage parse(String message) throws SaslException {
+        return new ParsedDigestMessage().parse(message.getBytes(Charsets.UTF_8));
+    }
+
+    @Test
+    public void testChallenge() throws Exception {
+        ParsedDigestMessage parsed = parse("realm=\"elwood.innosoft.com\",nonce=\"OA6MG9tEQGm2hh\",qop=\"auth\",\r\n"
+                + "algorithm=md5-sess,charset=utf-8");
+        assertEquals(1, parsed.getRealmCount());
+        assertEquals("elwood.innosoft.com", parsed.getRealm(0, Charsets.UTF_8));
+        assertArrayEquals("OA6MG9tEQGm2hh".getBytes(Charsets.LATIN_1), parsed.getBytes(DigestDirective.NONCE));
+        assertEquals("auth", parsed.getString(DigestDirective.QOP, Charsets.UTF_8));
+        assertTrue(parsed.contentEqualsIgnoreCase(DigestDirective.ALGORITHM, "MD5-sess"));
+        assertTrue(parsed.contentEqualsIgnoreCase(DigestDirective.CHARSET, "utf-8"));
+        assertFalse(parsed.contains(DigestDirective.STALE));
+        assertNull(parsed.getString(DigestDirective.CIPHER, Charsets.UTF_8));
+    }
+
+    @Test
+    public void testRepeatedRealms() throws Exception {
+        ParsedDigestMessage parsed = parse("realm=\"one\", realm=\"two\" ,realm=three,nonce=\"n\"");
+        assertEquals(3, parsed.getRealmCount());
+        assertEquals("one", parsed.getRealm(0, Charsets.UTF_8));
+        assertEquals("two", parsed.getRealm(1, Charsets.UTF_8));
+        assertEquals("three", parsed.getRealm(2, Charsets.UTF_8));
+    }
+
+    @Test
+    public void testEscapedValue() throws Exception {
+        ParsedDigestMessage parsed = parse("username=\"chris\\\\\\\"s\",nonce=\"abc\"");
+        assertEquals("chris\\\"s", parsed.getString(DigestDirective.USERNAME, Charsets.UTF_8));
+        assertTrue(parsed.contentEquals(DigestDirective.NONCE, "abc".getBytes(Charsets.LATIN_1)));
+        assertFalse(parsed.contentEquals(DigestDirective.NONCE, "abd".getBytes(Charsets.LATIN_1)));
+    }
+
+    @Test
+    public void testUnknownAndEmptyElements() throws Exception {
+        ParsedDigestMessage parsed = parse(",, future-directive=\"x,y\",,maxbuf=65536,");
+        assertEquals(65536, parsed.getInt(DigestDirective.MAXBUF, 10));
+        assertEquals(0, parsed.getRealmCount());
+    }
+
+    @Test
+    public void testNonceCount() throws Exception {
+        assertEquals(1, parse("nc=00000001").getInt(DigestDirective.NONCE_COUNT, 16));
+        assertEquals(0x1f, parse("nc=0000001F").getInt(DigestDirective.NONCE_COUNT, 16));
+        assertInvalid(parse("nc=0000001g"), DigestDirective.NONCE_COUNT);
+        assertInvalid(parse("nc=1ffffffff"), DigestDirective.NONCE_COUNT);
+        assertInvalid(parse("qop=auth"), DigestDirective.NONCE_COUNT);
+    }
+
+    @Test
+    public void testDigestEquals() throws Exception {
+        byte[] expected = "--0123456789abcdef".getBytes(Charsets.LATIN_1);
+        assertTrue(parse("response=0123456789abcdef").digestEquals(DigestDirective.RESPONSE, expected, 2, 16));
+        assertTrue(parse("response=\"0123456789ab\\cdef\"").digestEquals(DigestDirective.RESPONSE, expected, 2, 16));
+        assertFalse(parse("response=0123456789abcdee").digestEquals(DigestDirective.RESPONSE, expected, 2, 16));
+        assertFalse(parse("response=0123456789abcde").digestEquals(DigestDirective.RESPONSE, expected, 2, 16));
+        assertFalse(parse("nonce=abc").digestEquals(DigestDirective.RESPONSE, expected, 2, 16));
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        ParsedDigestMessage parsed = new ParsedDigestMessage();
+        parsed.parse("realm=\"a\",qop=auth".getBytes(Charsets.LATIN_1));
+        parsed.parse("nonce=\"b\"".getBytes(Charsets.LATIN_1));
+        assertEquals(0, parsed.getRealmCount());
+        assertFalse(parsed.contains(DigestDirective.QOP));
+        assertTrue(parsed.contains(DigestDirective.NONCE));
+    }
+
+    @Test
+    public void testMalformed() {
+        assertMalformed("realm");
+        assertMalformed("realm=");
+        assertMalformed("=value");
+        assertMalformed("realm=\"unterminated");
+        assertMalformed("realm=\"a\" nonce=\"b\"");
+        assertMalformed("realm=a b");
+    }
+
+    private static void assertInvalid(ParsedDigestMessage parsed, DigestDirective directive) {
+        try {
+            parsed.getInt(directive, 16);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+    }
+
+    private static void assertMalformed(String message) {
+        try {
+            parse(message);
+            fail("Expected SaslException for " + message);
+        } catch (SaslException expected) {
+        }
+    }
+}
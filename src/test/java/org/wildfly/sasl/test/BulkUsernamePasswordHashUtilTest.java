@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.wildfly.sasl.scram.ScramUtil;
+import org.wildfly.sasl.util.BulkUsernamePasswordHashUtil;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.SaslBase64;
+import org.wildfly.sasl.util.UsernamePasswordHashUtil;
+
+/**
+ * Tests for the parallel generation of stored credentials.
+ */
+public class BulkUsernamePasswordHashUtilTest {
+
+    @Test
+    public void testDigestMatchesSingleUserHash() throws Exception {
+        StringBuilder input = new StringBuilder("# users\n\n");
+        for (int i = 0; i < 1000; i++) {
+            input.append("user").append(i).append("=pw=").append(i).append('\n');
+        }
+        input.append("J\u00fcrgen=\u0442\u0435\u0441\u0442");
+
+        StringWriter output = new StringWriter();
+        long count = new BulkUsernamePasswordHashUtil(BulkUsernamePasswordHashUtil.DIGEST, "TestRealm", 0, 4, 37)
+                .generate(new StringReader(input.toString()), output);
+        assertEquals(1001, count);
+
+        UsernamePasswordHashUtil single = new UsernamePasswordHashUtil();
+        String[] lines = output.toString().split("\n");
+        assertEquals(1001, lines.length);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("user" + i + "=" + single.generateHashedHexURP("user" + i, "TestRealm", ("pw=" + i).toCharArray()), lines[i]);
+        }
+        assertEquals("J\u00fcrgen=" + single.generateHashedHexURP("J\u00fcrgen", "TestRealm", "\u0442\u0435\u0441\u0442".toCharArray()), lines[1000]);
+    }
+
+    @Test
+    public void testScramCredentials() throws Exception {
+        StringWriter output = new StringWriter();
+        long count = new BulkUsernamePasswordHashUtil("SCRAM-SHA-256", null, 1024, 2, 3)
+                .generate(new StringReader("alice=secret\nbob=pencil\ncarol=secret\n"), output);
+        assertEquals(3, count);
+
+        String[] lines = output.toString().split("\n");
+        assertEquals(3, lines.length);
+        String[] passwords = { "secret", "pencil", "secret" };
+        String[] salts = new String[3];
+        for (int i = 0; i < 3; i++) {
+            String[] credential = lines[i].substring(lines[i].indexOf('=') + 1).split(":");
+            assertEquals(4, credential.length);
+            assertEquals("1024", credential[0]);
+            salts[i] = credential[1];
+            byte[] salt = base64(credential[1]);
+            assertEquals(16, salt.length);
+            byte[] saltedPassword = ScramUtil.getSaltedPassword("SCRAM-SHA-256", passwords[i].toCharArray(), salt, 1024);
+            assertArrayEquals(ScramUtil.getStoredKey("SCRAM-SHA-256", saltedPassword), base64(credential[2]));
+            assertArrayEquals(ScramUtil.getServerKey("SCRAM-SHA-256", saltedPassword), base64(credential[3]));
+        }
+        assertTrue(lines[0].startsWith("alice="));
+        assertTrue(lines[2].startsWith("carol="));
+        assertTrue(salts[0].equals(salts[2]) == false);
+    }
+
+    @Test
+    public void testInvalidRecord() throws Exception {
+        StringWriter output = new StringWriter();
+        try {
+            new BulkUsernamePasswordHashUtil(BulkUsernamePasswordHashUtil.DIGEST, "", 0, 2, 2)
+                    .generate(new StringReader("a=1\nb=2\nc=3\nno-separator\n"), output);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("line 4"));
+        }
+        // the records before the invalid one have been written
+        assertEquals(3, output.toString().split("\n").length);
+
+        try {
+            new BulkUsernamePasswordHashUtil("SCRAM-SHA-1", "", 4096, 2, 10).generate(new StringReader("a=\n"), new StringWriter());
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testInvalidConfiguration() throws Exception {
+        try {
+            new BulkUsernamePasswordHashUtil("PLAIN", "", 4096);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new BulkUsernamePasswordHashUtil("SCRAM-SHA-256", "", 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static byte[] base64(String encoded) {
+        ByteStringBuilder b = new ByteStringBuilder();
+        SaslBase64.decode(encoded.getBytes(Charsets.LATIN_1), 0, b);
+        return b.toArray();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+
+/**
+ * Tests for ByteStringBuilder sizing, reuse and views.
+ */
+public class ByteStringBuilderTest {
+
+    @Test
+    public void testAppendStringRange() {
+        ByteStringBuilder builder = new ByteStringBuilder();
+        builder.append("xxabcéyy", 2, 4);
+        assertArrayEquals("abcé".getBytes(Charsets.UTF_8), builder.toArray());
+    }
+
+    @Test
+    public void testInitialCapacity() {
+        ByteStringBuilder builder = new ByteStringBuilder(100);
+        assertEquals(100, builder.capacity());
+        builder.append(new byte[100]);
+        assertEquals(100, builder.capacity());
+
+        ByteStringBuilder empty = new ByteStringBuilder(0);
+        empty.append((byte) 1).append("two");
+        assertArrayEquals(new byte[] { 1, 't', 'w', 'o' }, empty.toArray());
+    }
+
+    @Test
+    public void testReset() {
+        ByteStringBuilder builder = new ByteStringBuilder();
+        builder.append("some content which needs a bigger array");
+        int capacity = builder.capacity();
+        builder.reset();
+        assertEquals(0, builder.length());
+        assertEquals(capacity, builder.capacity());
+        builder.append("abc");
+        assertArrayEquals("abc".getBytes(Charsets.UTF_8), builder.toArray());
+    }
+
+    @Test
+    public void testReadOnlyBuffer() {
+        ByteStringBuilder builder = new ByteStringBuilder();
+        builder.append("abcdef");
+        ByteBuffer buffer = builder.asReadOnlyBuffer();
+        assertEquals(0, buffer.position());
+        assertEquals(6, buffer.remaining());
+        assertEquals('a', buffer.get(0));
+        try {
+            buffer.put(0, (byte) 'z');
+            fail("Expected ReadOnlyBufferException");
+        } catch (ReadOnlyBufferException expected) {
+        }
+    }
+
+    @Test
+    public void testPooledReuse() {
+        ByteStringBuilder first = ByteStringBuilder.pooled(64);
+        first.append("first");
+        assertArrayEquals("first".getBytes(Charsets.UTF_8), first.toArray());
+        first.release();
+        assertEquals(0, first.length());
+
+        ByteStringBuilder second = ByteStringBuilder.pooled(32);
+        assertEquals(0, second.length());
+        assertTrue(second.capacity() >= 64);
+        ByteStringBuilder nested = ByteStringBuilder.pooled(32);
+        assertEquals(32, nested.capacity());
+        second.append("second");
+        nested.append("nested");
+        assertArrayEquals("second".getBytes(Charsets.UTF_8), second.toArray());
+        assertArrayEquals("nested".getBytes(Charsets.UTF_8), nested.toArray());
+        second.release();
+        nested.release();
+
+        // a released builder remains usable
+        first.append("again");
+        assertArrayEquals("again".getBytes(Charsets.UTF_8), first.toArray());
+    }
+
+    @Test
+    public void testByteAtBounds() {
+        ByteStringBuilder builder = new ByteStringBuilder();
+        builder.append("ab");
+        assertEquals('b', builder.byteAt(1));
+        try {
+            builder.byteAt(2);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.DigestPool;
+
+/**
+ * Tests for the per-thread {@link DigestPool}.
+ */
+public class DigestPoolTest {
+
+    @Test
+    public void testReleasedDigestIsReused() throws Exception {
+        MessageDigest first = DigestPool.getMessageDigest("MD5");
+        DigestPool.release(first);
+
+        long hits = DigestPool.getHitCount();
+        MessageDigest second = DigestPool.getMessageDigest("MD5");
+        try {
+            assertSame(first, second);
+            assertEquals(hits + 1, DigestPool.getHitCount());
+        } finally {
+            DigestPool.release(second);
+        }
+    }
+
+    @Test
+    public void testCountsOfOtherThreads() throws Exception {
+        long hits = DigestPool.getHitCount();
+        long misses = DigestPool.getMissCount();
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    DigestPool.release(DigestPool.getMessageDigest("MD5"));
+                    DigestPool.release(DigestPool.getMessageDigest("MD5"));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(hits + 1, DigestPool.getHitCount());
+        assertEquals(misses + 1, DigestPool.getMissCount());
+
+        // the counts are kept once the thread has gone
+        thread = null;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(hits + 1, DigestPool.getHitCount());
+        assertEquals(misses + 1, DigestPool.getMissCount());
+    }
+
+    @Test
+    public void testNestedUseGetsSeparateInstances() throws Exception {
+        MessageDigest outer = DigestPool.getMessageDigest("MD5");
+        try {
+            MessageDigest inner = DigestPool.getMessageDigest("MD5");
+            try {
+                assertNotSame(outer, inner);
+            } finally {
+                DigestPool.release(inner);
+            }
+        } finally {
+            DigestPool.release(outer);
+        }
+    }
+
+    @Test
+    public void testDigestIsResetOnRelease() throws Exception {
+        byte[] data = "George:TestRealm:gpwd".getBytes(Charsets.UTF_8);
+        byte[] expected = MessageDigest.getInstance("MD5").digest(data);
+
+        MessageDigest md5 = DigestPool.getMessageDigest("MD5");
+        md5.update((byte) 'x');
+        DigestPool.release(md5);
+
+        md5 = DigestPool.getMessageDigest("MD5");
+        try {
+            assertArrayEquals(expected, md5.digest(data));
+        } finally {
+            DigestPool.release(md5);
+        }
+    }
+
+    @Test
+    public void testMac() throws Exception {
+        SecretKeySpec key = new SecretKeySpec(new byte[16], "HmacMD5");
+        byte[] data = "data".getBytes(Charsets.UTF_8);
+        Mac reference = Mac.getInstance("HmacMD5");
+        reference.init(key);
+        byte[] expected = reference.doFinal(data);
+
+        Mac mac = DigestPool.getMac("HmacMD5");
+        try {
+            mac.init(key);
+            mac.update((byte) 'x');
+        } finally {
+            DigestPool.release(mac);
+        }
+
+        mac = DigestPool.getMac("HmacMD5");
+        try {
+            mac.init(key);
+            assertArrayEquals(expected, mac.doFinal(data));
+        } finally {
+            DigestPool.release(mac);
+        }
+    }
+
+    @Test
+    public void testMacKeyIsClearedOnRelease() throws Exception {
+        SecretKeySpec key = new SecretKeySpec(new byte[] { 1, 2, 3, 4 }, "HmacMD5");
+        byte[] data = "data".getBytes(Charsets.UTF_8);
+        Mac reference = Mac.getInstance("HmacMD5");
+        reference.init(key);
+        byte[] keyed = reference.doFinal(data);
+
+        Mac mac = DigestPool.getMac("HmacMD5");
+        try {
+            mac.init(key);
+        } finally {
+            DigestPool.release(mac);
+        }
+
+        mac = DigestPool.getMac("HmacMD5");
+        try {
+            assertFalse(Arrays.equals(keyed, mac.doFinal(data)));
+        } finally {
+            DigestPool.release(mac);
+        }
+    }
+}
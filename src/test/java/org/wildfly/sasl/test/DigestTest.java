@@ -18,12 +18,19 @@
 
 package org.wildfly.sasl.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,12 +38,15 @@ import java.util.Map;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
 
 import org.jboss.logging.Logger;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.wildfly.sasl.WildFlySasl;
 import org.wildfly.sasl.md5digest.MD5DigestServerFactory;
+import org.wildfly.sasl.util.AbstractSaslParticipant;
 import org.wildfly.sasl.util.UsernamePasswordHashUtil;
 
 /**
@@ -133,6 +143,513 @@ public class DigestTest extends BaseTestCase {
         assertEquals("George", server.getAuthorizationID());
     }
 
+    /**
+     * Test a successful exchange using the DIGEST mechanism with nonces from a configured secure random algorithm.
+     */
+    @Test
+    public void testSuccessfulExchange_SecureRng() throws Exception {
+        CallbackHandler serverCallback = new ServerCallbackHandler("George", "gpwd".toCharArray());
+        Map<String, Object> serverProps = new HashMap<String, Object>();
+        serverProps.put(REALM_PROPERTY, "TestRealm");
+        serverProps.put(WildFlySasl.SECURE_RNG, "SHA1PRNG");
+        SaslServer server = Sasl.createSaslServer(DIGEST, "TestProtocol", "TestServer", serverProps, serverCallback);
+
+        CallbackHandler clientCallback = new ClientCallbackHandler("George", "gpwd".toCharArray());
+        Map<String, Object> clientProps = new HashMap<String, Object>();
+        clientProps.put(WildFlySasl.SECURE_RNG, "SHA1PRNG");
+        SaslClient client = Sasl.createSaslClient(new String[]{DIGEST}, "George", "TestProtocol", "TestServer", clientProps, clientCallback);
+
+        byte[] message = server.evaluateResponse(new byte[0]);
+        message = client.evaluateChallenge(message);
+        server.evaluateResponse(message);
+        assertTrue(server.isComplete());
+        assertEquals("George", server.getAuthorizationID());
+    }
+
+    /**
+     * Test that an unknown secure random algorithm is reported when the server is created.
+     */
+    @Test
+    public void testUnknownSecureRng() throws Exception {
+        CallbackHandler serverCallback = new ServerCallbackHandler("George", "gpwd".toCharArray());
+        Map<String, Object> serverProps = new HashMap<String, Object>();
+        serverProps.put(WildFlySasl.SECURE_RNG, "NoSuchRandom");
+        try {
+            Sasl.createSaslServer(DIGEST, "TestProtocol", "TestServer", serverProps, serverCallback);
+            fail("Expection exception not thrown.");
+        } catch (SaslException e) {
+        }
+    }
+
+    private static Map<String, Object> properties(final String... namesAndValues) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            properties.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return properties;
+    }
+
+    private static SaslServer createServer(final String serverName, final String username, final String password,
+            final Map<String, Object> extraProps) throws SaslException {
+        CallbackHandler serverCallback = new ServerCallbackHandler(username, password.toCharArray());
+        Map<String, Object> serverProps = new HashMap<String, Object>(extraProps);
+        serverProps.put(REALM_PROPERTY, "TestRealm");
+        return Sasl.createSaslServer(DIGEST, "TestProtocol", serverName, serverProps, serverCallback);
+    }
+
+    private static SaslClient createClient(final String serverName, final String username, final String password,
+            final Map<String, Object> clientProps) throws SaslException {
+        CallbackHandler clientCallback = new ClientCallbackHandler(username, password.toCharArray());
+        return Sasl.createSaslClient(new String[]{DIGEST}, username, "TestProtocol", serverName, clientProps, clientCallback);
+    }
+
+    /*
+     *  Subsequent authentication.
+     */
+
+    /**
+     * Test that a second authentication reuses the nonce of the first one without a challenge.
+     */
+    @Test
+    public void testSubsequentAuthentication() throws Exception {
+        SaslServer server = createServer("ReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        SaslClient client = createClient("ReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_REAUTHENTICATION, "true"));
+        assertFalse(client.hasInitialResponse());
+        byte[] message = server.evaluateResponse(new byte[0]);
+        message = client.evaluateChallenge(message);
+        message = server.evaluateResponse(message);
+        assertTrue(server.isComplete());
+        client.evaluateChallenge(message);
+        assertTrue(client.isComplete());
+
+        for (int i = 0; i < 2; i++) {
+            server = createServer("ReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+            client = createClient("ReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_REAUTHENTICATION, "true"));
+            assertTrue(client.hasInitialResponse());
+            message = client.evaluateChallenge(new byte[0]);
+            message = server.evaluateResponse(message);
+            assertTrue(server.isComplete());
+            assertEquals("George", server.getAuthorizationID());
+            client.evaluateChallenge(message);
+            assertTrue(client.isComplete());
+        }
+    }
+
+    /**
+     * Test that a replayed subsequent authentication gets a new challenge.
+     */
+    @Test
+    public void testSubsequentAuthentication_Replay() throws Exception {
+        SaslServer server = createServer("ReplayServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        SaslClient client = createClient("ReplayServer", "George", "gpwd", properties(WildFlySasl.DIGEST_REAUTHENTICATION, "true"));
+        // the client must verify the rspauth of the server before it reuses the authentication
+        authenticate(server, client);
+
+        client = createClient("ReplayServer", "George", "gpwd", properties(WildFlySasl.DIGEST_REAUTHENTICATION, "true"));
+        byte[] initialResponse = client.evaluateChallenge(new byte[0]);
+        server = createServer("ReplayServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        server.evaluateResponse(initialResponse);
+        assertTrue(server.isComplete());
+
+        server = createServer("ReplayServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        byte[] challenge = server.evaluateResponse(initialResponse);
+        assertFalse(server.isComplete());
+        assertTrue(new String(challenge, "UTF-8").contains("stale=true"));
+    }
+
+    /**
+     * Test that only an authentication in which the server proved it knows the password is reused, and that a reused one
+     * is dropped once the server fails to prove it.
+     */
+    @Test
+    public void testSubsequentAuthentication_ServerNotVerified() throws Exception {
+        Map<String, Object> clientProps = properties(WildFlySasl.DIGEST_REAUTHENTICATION, "true");
+        SaslServer server = createServer("UnverifiedServer", "George", "bad", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        SaslClient client = createClient("UnverifiedServer", "George", "gpwd", clientProps);
+        try {
+            authenticate(server, client);
+            fail("Expected SaslException not thrown");
+        } catch (SaslException e) {
+        }
+        assertFalse(createClient("UnverifiedServer", "George", "gpwd", clientProps).hasInitialResponse());
+
+        server = createServer("UnverifiedServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        authenticate(server, client = createClient("UnverifiedServer", "George", "gpwd", clientProps));
+        client = createClient("UnverifiedServer", "George", "gpwd", clientProps);
+        assertTrue(client.hasInitialResponse());
+        server = createServer("UnverifiedServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        byte[] message = server.evaluateResponse(client.evaluateChallenge(new byte[0]));
+        assertTrue(server.isComplete());
+        // rspauth=<32 hex digits>, change the last digit
+        message[message.length - 1] = (byte) (message[message.length - 1] == '0' ? '1' : '0');
+        try {
+            client.evaluateChallenge(message);
+            fail("Expected SaslException not thrown");
+        } catch (SaslException e) {
+        }
+        assertFalse(createClient("UnverifiedServer", "George", "gpwd", clientProps).hasInitialResponse());
+    }
+
+    /**
+     * Test that a client attempting subsequent authentication falls back to a full authentication when the server does
+     * not support it.
+     */
+    @Test
+    public void testSubsequentAuthentication_NotSupported() throws Exception {
+        SaslServer server = createServer("NoReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "0"));
+        SaslClient client = createClient("NoReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_REAUTHENTICATION, "true"));
+        authenticate(server, client);
+
+        server = createServer("NoReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "0"));
+        client = createClient("NoReauthServer", "George", "gpwd", properties(WildFlySasl.DIGEST_REAUTHENTICATION, "true"));
+        assertTrue(client.hasInitialResponse());
+        byte[] message = server.evaluateResponse(client.evaluateChallenge(new byte[0]));
+        assertFalse(server.isComplete());
+        message = client.evaluateChallenge(message);
+        message = server.evaluateResponse(message);
+        assertTrue(server.isComplete());
+        assertEquals("George", server.getAuthorizationID());
+        client.evaluateChallenge(message);
+        assertTrue(client.isComplete());
+    }
+
+    /**
+     * Test that a client of a different user does not reuse the previous authentication of another user with the same
+     * server but falls back to a full authentication.
+     */
+    @Test
+    public void testSubsequentAuthentication_DifferentUser() throws Exception {
+        Map<String, Object> clientProps = new HashMap<String, Object>();
+        clientProps.put(WildFlySasl.DIGEST_REAUTHENTICATION, "true");
+
+        SaslServer server = createServer("UserServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        SaslClient client = Sasl.createSaslClient(new String[]{DIGEST}, null, "TestProtocol", "UserServer", clientProps,
+                new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        authenticate(server, client);
+
+        server = createServer("UserServer", "Borris", "bpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        client = Sasl.createSaslClient(new String[]{DIGEST}, null, "TestProtocol", "UserServer", clientProps,
+                new ClientCallbackHandler("Borris", "bpwd".toCharArray()));
+        assertTrue(client.hasInitialResponse());
+        byte[] message = client.evaluateChallenge(new byte[0]);
+        assertEquals(0, message.length);
+        message = server.evaluateResponse(message);
+        assertFalse(server.isComplete());
+        message = client.evaluateChallenge(message);
+        message = server.evaluateResponse(message);
+        assertTrue(server.isComplete());
+        assertEquals("Borris", server.getAuthorizationID());
+        assertNull(client.evaluateChallenge(message));
+        assertTrue(client.isComplete());
+
+        // each user now reuses their own previous authentication
+        server = createServer("UserServer", "George", "gpwd", properties(WildFlySasl.DIGEST_NONCE_LIFETIME, "60"));
+        client = Sasl.createSaslClient(new String[]{DIGEST}, null, "TestProtocol", "UserServer", clientProps,
+                new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        message = server.evaluateResponse(client.evaluateChallenge(new byte[0]));
+        assertTrue(server.isComplete());
+        assertEquals("George", server.getAuthorizationID());
+        assertNull(client.evaluateChallenge(message));
+        assertTrue(client.isComplete());
+    }
+
+    private static void authenticate(SaslServer server, SaslClient client) throws SaslException {
+        byte[] message = server.evaluateResponse(new byte[0]);
+        message = client.evaluateChallenge(message);
+        message = server.evaluateResponse(message);
+        assertTrue(server.isComplete());
+        assertNull(client.evaluateChallenge(message));
+        assertTrue(client.isComplete());
+    }
+
+    private static void assertWrapping(SaslServer server, SaslClient client) throws SaslException {
+        for (int i = 0; i < 20; i++) {
+            byte[] message = new byte[i * 7];
+            for (int j = 0; j < message.length; j++) {
+                message[j] = (byte) (i + j);
+            }
+            byte[] wrapped = client.wrap(message, 0, message.length);
+            assertArrayEquals(message, server.unwrap(wrapped, 0, wrapped.length));
+            wrapped = server.wrap(message, 0, message.length);
+            assertArrayEquals(message, client.unwrap(wrapped, 0, wrapped.length));
+        }
+    }
+
+    /**
+     * Test the integrity protection security layer.
+     */
+    @Test
+    public void testIntegrity() throws Exception {
+        SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-int,auth"));
+        SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-int"));
+        authenticate(server, client);
+        assertEquals("auth-int", client.getNegotiatedProperty(Sasl.QOP));
+        assertEquals("auth-int", server.getNegotiatedProperty(Sasl.QOP));
+        assertWrapping(server, client);
+
+        // the message is sent in the clear followed by the MAC
+        byte[] message = "integrity".getBytes("UTF-8");
+        byte[] wrapped = client.wrap(message, 0, message.length);
+        assertEquals(message.length + 16, wrapped.length);
+        assertArrayEquals(message, Arrays.copyOf(wrapped, message.length));
+    }
+
+    /**
+     * Test the confidentiality protection security layer.
+     */
+    @Test
+    public void testConfidentiality() throws Exception {
+        SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf,auth-int,auth"));
+        SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf,auth-int"));
+        authenticate(server, client);
+        assertEquals("auth-conf", client.getNegotiatedProperty(Sasl.QOP));
+        assertEquals("auth-conf", server.getNegotiatedProperty(Sasl.QOP));
+        assertWrapping(server, client);
+
+        byte[] message = "confidentiality".getBytes("UTF-8");
+        byte[] wrapped = client.wrap(message, 0, message.length);
+        assertFalse(Arrays.equals(message, Arrays.copyOf(wrapped, message.length)));
+        assertArrayEquals(message, server.unwrap(wrapped, 0, wrapped.length));
+    }
+
+    /**
+     * Test wrapping between direct and heap buffers, interleaved with the byte array methods.
+     */
+    @Test
+    public void testWrapping_ByteBuffer() throws Exception {
+        for (String qop : new String[] { "auth-int", "auth-conf" }) {
+            SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, qop));
+            SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, qop));
+            authenticate(server, client);
+            AbstractSaslParticipant clientParticipant = (AbstractSaslParticipant) client;
+            AbstractSaslParticipant serverParticipant = (AbstractSaslParticipant) server;
+
+            ByteBuffer source = ByteBuffer.allocateDirect(100);
+            ByteBuffer wrapped = ByteBuffer.allocateDirect(200);
+            ByteBuffer unwrapped = ByteBuffer.allocate(200);
+            for (int i = 0; i < 10; i++) {
+                byte[] message = ("message " + i).getBytes("UTF-8");
+                source.clear();
+                source.put(message).flip();
+                wrapped.clear();
+                int length = clientParticipant.wrap(source, wrapped);
+                assertFalse(source.hasRemaining());
+                assertEquals(length, wrapped.position());
+                wrapped.flip();
+                unwrapped.clear();
+                assertEquals(message.length, serverParticipant.unwrap(wrapped, unwrapped));
+                assertFalse(wrapped.hasRemaining());
+                assertArrayEquals(message, Arrays.copyOf(unwrapped.array(), message.length));
+
+                byte[] wrappedArray = server.wrap(message, 0, message.length);
+                unwrapped.clear();
+                assertEquals(message.length, clientParticipant.unwrap(ByteBuffer.wrap(wrappedArray), unwrapped));
+            }
+
+            // a target which is too small is left untouched
+            source.clear();
+            source.put(new byte[50]).flip();
+            ByteBuffer small = ByteBuffer.allocate(50);
+            try {
+                clientParticipant.wrap(source, small);
+                fail("Expected BufferOverflowException not thrown");
+            } catch (BufferOverflowException e) {
+            }
+            assertEquals(0, source.position());
+            assertEquals(0, small.position());
+            byte[] wrappedArray = client.wrap(new byte[50], 0, 50);
+            assertArrayEquals(new byte[50], server.unwrap(wrappedArray, 0, wrappedArray.length));
+        }
+    }
+
+    /**
+     * Test that unwrapping into a target which is too small leaves the security layer untouched, so that the same message
+     * can be unwrapped again into a larger target.
+     */
+    @Test
+    public void testUnwrap_OverflowRetry() throws Exception {
+        for (String qop : new String[] { "auth-int", "auth-conf" }) {
+            SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, qop));
+            SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, qop));
+            authenticate(server, client);
+            AbstractSaslParticipant serverParticipant = (AbstractSaslParticipant) server;
+
+            for (int i = 0; i < 3; i++) {
+                byte[] message = ("message " + i).getBytes("UTF-8");
+                ByteBuffer wrapped = ByteBuffer.wrap(client.wrap(message, 0, message.length));
+                ByteBuffer small = ByteBuffer.allocate(message.length - 1);
+                try {
+                    serverParticipant.unwrap(wrapped, small);
+                    fail("Expected BufferOverflowException not thrown");
+                } catch (BufferOverflowException e) {
+                }
+                assertEquals(0, wrapped.position());
+                assertEquals(0, small.position());
+
+                ByteBuffer unwrapped = ByteBuffer.allocateDirect(64);
+                assertEquals(message.length, serverParticipant.unwrap(wrapped, unwrapped));
+                unwrapped.flip();
+                byte[] result = new byte[unwrapped.remaining()];
+                unwrapped.get(result);
+                assertArrayEquals(message, result);
+            }
+        }
+    }
+
+    /**
+     * Test wrapping a batch of frames into a single buffer and unwrapping them again, including a target which only has
+     * room for part of the batch and a source holding an incomplete frame.
+     */
+    @Test
+    public void testWrapping_Batch() throws Exception {
+        SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf"));
+        SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf"));
+        authenticate(server, client);
+        AbstractSaslParticipant clientParticipant = (AbstractSaslParticipant) client;
+        AbstractSaslParticipant serverParticipant = (AbstractSaslParticipant) server;
+
+        ByteBuffer[] frames = new ByteBuffer[10];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = ByteBuffer.wrap(("frame " + i).getBytes("UTF-8"));
+        }
+        // each frame wraps to 4 + 7 + 7 (padding) + 16 = 34 bytes with the 3des cipher
+        ByteBuffer wrapped = ByteBuffer.allocate(34 * 6 + 10);
+        assertEquals(6, clientParticipant.wrap(frames, 0, frames.length, wrapped));
+        assertEquals(34 * 6, wrapped.position());
+        assertFalse(frames[5].hasRemaining());
+        assertTrue(frames[6].hasRemaining());
+
+        ByteBuffer[] targets = new ByteBuffer[10];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = ByteBuffer.allocateDirect(32);
+        }
+        // the last frame has not fully arrived
+        wrapped.flip();
+        wrapped.limit(wrapped.limit() - 5);
+        assertEquals(5, serverParticipant.unwrap(wrapped, targets, 0, targets.length));
+        assertEquals(34 * 5, wrapped.position());
+        wrapped.limit(34 * 6);
+        assertEquals(1, serverParticipant.unwrap(wrapped, targets, 5, 5));
+        assertFalse(wrapped.hasRemaining());
+
+        wrapped.clear();
+        assertEquals(4, clientParticipant.wrap(frames, 6, 4, wrapped));
+        wrapped.flip();
+        assertEquals(4, serverParticipant.unwrap(wrapped, targets, 6, 4));
+
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].flip();
+            byte[] frame = new byte[targets[i].remaining()];
+            targets[i].get(frame);
+            assertEquals("frame " + i, new String(frame, "UTF-8"));
+        }
+    }
+
+    /**
+     * Test that a modified, replayed or reordered message is rejected.
+     */
+    @Test
+    public void testIntegrity_Tampered() throws Exception {
+        SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-int"));
+        SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-int"));
+        authenticate(server, client);
+
+        byte[] message = "integrity".getBytes("UTF-8");
+        byte[] wrapped = client.wrap(message, 0, message.length);
+        wrapped[0] ^= 1;
+        try {
+            server.unwrap(wrapped, 0, wrapped.length);
+            fail("Expected SaslException not thrown");
+        } catch (SaslException e) {
+        }
+        wrapped[0] ^= 1;
+        assertArrayEquals(message, server.unwrap(wrapped, 0, wrapped.length));
+        try {
+            server.unwrap(wrapped, 0, wrapped.length);
+            fail("Expected SaslException not thrown");
+        } catch (SaslException e) {
+        }
+    }
+
+    /**
+     * Test that negotiation fails if the server offers none of the qop values the client accepts.
+     */
+    @Test
+    public void testNoCommonQop() throws Exception {
+        SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth"));
+        SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-int,auth-conf"));
+        try {
+            authenticate(server, client);
+            fail("Expected SaslException not thrown");
+        } catch (SaslException e) {
+        }
+    }
+
+    /**
+     * Test that only the configured ciphers are offered and accepted.
+     */
+    @Test
+    public void testConfiguredCiphers() throws Exception {
+        SaslServer server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf", WildFlySasl.DIGEST_CIPHERS, "RC4-40, des"));
+        SaslClient client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf", WildFlySasl.DIGEST_CIPHERS, "des"));
+        authenticate(server, client);
+        assertWrapping(server, client);
+
+        server = createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf", WildFlySasl.DIGEST_CIPHERS, "rc4-40"));
+        client = createClient("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf", WildFlySasl.DIGEST_CIPHERS, "3des,des"));
+        try {
+            authenticate(server, client);
+            fail("Expected SaslException not thrown");
+        } catch (SaslException e) {
+        }
+
+        try {
+            createServer("TestServer", "George", "gpwd", properties(Sasl.QOP, "auth-conf", WildFlySasl.DIGEST_CIPHERS, "aes"));
+            fail("Expected SaslException not thrown");
+        } catch (SaslException e) {
+        }
+    }
+
+    /**
+     * Test that a disposed server is reused, with no state carried over from its previous negotiation.
+     */
+    @Test
+    public void testPooledServer() throws Exception {
+        Map<String, Object> serverProps = properties(Sasl.QOP, "auth-int,auth", WildFlySasl.DIGEST_SERVER_POOL_SIZE, "2");
+        SaslServer server = createServer("PooledServer", "George", "gpwd", serverProps);
+        SaslClient client = createClient("PooledServer", "George", "gpwd", properties(Sasl.QOP, "auth-int"));
+        authenticate(server, client);
+        assertEquals("George", server.getAuthorizationID());
+        assertWrapping(server, client);
+        server.dispose();
+        server.dispose();
+
+        SaslServer reused = createServer("PooledServer", "Sally", "spwd", serverProps);
+        assertSame(server, reused);
+        assertFalse(reused.isComplete());
+        assertNull(reused.getAuthorizationID());
+        client = createClient("PooledServer", "Sally", "spwd", properties(Sasl.QOP, "auth"));
+        authenticate(reused, client);
+        assertEquals("Sally", reused.getAuthorizationID());
+        assertEquals("auth", reused.getNegotiatedProperty(Sasl.QOP));
+
+        // a server still in use is not handed out again
+        assertNotSame(reused, createServer("PooledServer", "Sally", "spwd", serverProps));
+        reused.dispose();
+
+        // the callback handler of the new negotiation is used
+        reused = createServer("PooledServer", "Sally", "other", serverProps);
+        assertSame(server, reused);
+        client = createClient("PooledServer", "Sally", "spwd", properties(Sasl.QOP, "auth"));
+        byte[] message = client.evaluateChallenge(reused.evaluateResponse(new byte[0]));
+        try {
+            reused.evaluateResponse(message);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+        reused.dispose();
+    }
+
     /**
      * Test a successful exchange using the DIGEST mechanism but with the server side supporting an alternative protocol.
      */
@@ -238,7 +755,6 @@ public class DigestTest extends BaseTestCase {
      * Test a successful exchange using the DIGEST mechanism with a pre-hashed password.
      */
     @Test
-    @Ignore
     public void testSuccessfulExchange_PreHashedServer() throws Exception {
         String urpHexHash = new UsernamePasswordHashUtil().generateHashedHexURP("George", "TestRealm", "gpwd".toCharArray());
         CallbackHandler serverCallback = new ServerCallbackHandler("George", urpHexHash);
@@ -264,7 +780,6 @@ public class DigestTest extends BaseTestCase {
      * Test a successful exchange using the DIGEST mechanism but the default realm with a pre-hashed password.
      */
     @Test
-    @Ignore
     public void testSuccessfulExchange_DefaultRealm_PreHashedServer() throws Exception {
         String urpHexHash = new UsernamePasswordHashUtil().generateHashedHexURP("George", "TestServer", "gpwd".toCharArray());
         CallbackHandler serverCallback = new ServerCallbackHandler("George", urpHexHash);
@@ -290,7 +805,6 @@ public class DigestTest extends BaseTestCase {
      * Test that verification fails for a bad password with a pre-hashed password.
      */
     @Test
-    @Ignore
     public void testBadPassword_PreHashedServer() throws Exception {
         String urpHexHash = new UsernamePasswordHashUtil().generateHashedHexURP("George", "TestServer", "bad".toCharArray());
         CallbackHandler serverCallback = new ServerCallbackHandler("George", urpHexHash);
@@ -318,7 +832,6 @@ public class DigestTest extends BaseTestCase {
      * Test that verification fails for a bad username with a pre-hashed password.
      */
     @Test
-    @Ignore
     public void testBadUsername_PreHashedServer() throws Exception {
         String urpHexHash = new UsernamePasswordHashUtil().generateHashedHexURP("Borris", "TestRealm", "gpwd".toCharArray());
         CallbackHandler serverCallback = new ServerCallbackHandler("George", urpHexHash);
@@ -345,7 +858,6 @@ public class DigestTest extends BaseTestCase {
      * Test that verification fails for a bad realm with a pre-hashed password
      */
     @Test
-    @Ignore
     public void testBadRealm_PreHashedServer() throws Exception {
         String urpHexHash = new UsernamePasswordHashUtil().generateHashedHexURP("George", "BadRealm", "gpwd".toCharArray());
         CallbackHandler serverCallback = new ServerCallbackHandler("George", urpHexHash);
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.HexConverter;
+
+/**
+ * Tests for HexConverter.
+ */
+public class HexConverterTest {
+
+    private static final byte[] RAW = { 0x00, 0x01, (byte) 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff };
+    private static final String HEX = "00017f80abff";
+
+    @Test
+    public void testEncode() {
+        assertEquals(HEX, HexConverter.convertToHexString(RAW));
+        assertArrayEquals(bytes(HEX), HexConverter.convertToHexBytes(RAW));
+
+        byte[] target = bytes("xx--------xx");
+        assertEquals(8, HexConverter.convertToHexBytes(RAW, 1, 4, target, 2));
+        assertArrayEquals(bytes("xx017f80abxx"), target);
+
+        ByteStringBuilder builder = new ByteStringBuilder();
+        builder.append("h=");
+        HexConverter.convertToHexBytes(RAW, 0, RAW.length, builder);
+        assertArrayEquals(bytes("h=" + HEX), builder.toArray());
+    }
+
+    @Test
+    public void testDecode() {
+        assertArrayEquals(RAW, HexConverter.convertFromHex(HEX));
+        assertArrayEquals(RAW, HexConverter.convertFromHex("00017F80ABFF"));
+        assertArrayEquals(RAW, HexConverter.convertFromHex(HEX.toCharArray()));
+
+        byte[] target = new byte[RAW.length + 1];
+        assertEquals(RAW.length, HexConverter.convertFromHex(bytes("-" + HEX), 1, HEX.length(), target, 1));
+        for (int i = 0; i < RAW.length; i++) {
+            assertEquals(RAW[i], target[i + 1]);
+        }
+    }
+
+    @Test
+    public void testDecodeErrors() {
+        assertInvalid("0g", "Non-hex character 'g' at index=1");
+        assertInvalid("z0", "Non-hex character 'z' at index=0");
+        assertInvalid("0\u0130", "Non-hex character '\u0130' at index=1");
+        try {
+            HexConverter.convertFromHex(bytes("x0g"), 1, 2, new byte[1], 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Non-hex character 'g' at index=1", expected.getMessage());
+        }
+        try {
+            HexConverter.convertFromHex("abc");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            HexConverter.convertToHexBytes(RAW, 0, RAW.length, new byte[RAW.length], 0);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void testIsEqual() {
+        byte[] digest = bytes("--" + HEX);
+        assertTrue(HexConverter.isEqual(digest, 2, HEX.length(), bytes(HEX), 0, HEX.length()));
+        assertFalse(HexConverter.isEqual(digest, 2, HEX.length(), bytes("00017f80abfe"), 0, HEX.length()));
+        assertFalse(HexConverter.isEqual(digest, 2, HEX.length(), bytes(HEX), 0, HEX.length() - 1));
+        assertTrue(HexConverter.isEqual(digest, 0, 0, new byte[0], 0, 0));
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(Charsets.LATIN_1);
+    }
+
+    private static void assertInvalid(String hex, String message) {
+        try {
+            HexConverter.convertFromHex(hex);
+            fail("Expected IllegalArgumentException for " + hex);
+        } catch (IllegalArgumentException expected) {
+            assertEquals(message, expected.getMessage());
+        }
+    }
+}
@@ -19,11 +19,13 @@
 package org.wildfly.sasl.test;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Test;
+import org.wildfly.sasl.localuser.LocalUserServer;
 import org.wildfly.sasl.util.Charsets;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -392,4 +394,97 @@ public class LocalUserTest extends BaseTestCase {
         assertFalse("Temporary file was deleted.", file.exists());
     }
 
+    /**
+     * Test successful exchanges where the challenges are held in a memory mapped file of slots, including one made
+     * while all slots are in use which falls back to a challenge file.
+     */
+
+    @Test
+    public void testChallengeSlots_CF() throws Exception {
+        File directory = Files.createTempDirectory("slots").toFile();
+        try {
+            Map<String, Object> serverOptions = new HashMap<String, Object>();
+            serverOptions.put(LocalUserServer.LOCAL_USER_CHALLENGE_PATH, directory.getAbsolutePath());
+            serverOptions.put(LocalUserServer.LOCAL_USER_CHALLENGE_SLOTS, "1");
+            CallbackHandler serverCallback = new ServerCallbackHandler("George", (char[]) null);
+            CallbackHandler clientCallback = new ClientCallbackHandler("George", (char[]) null);
+
+            for (int i = 0; i < 3; i++) {
+                SaslServer server = Sasl.createSaslServer(LOCAL_USER, "TestProtocol", "TestServer", serverOptions, serverCallback);
+                SaslClient client = Sasl.createSaslClient(new String[]{ LOCAL_USER }, "George", "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), clientCallback);
+
+                byte[] response = client.evaluateChallenge(new byte[0]);
+                byte[] challenge = server.evaluateResponse(response);
+                assertTrue(Charsets.indexOf(challenge, 0) > 0);
+                response = client.evaluateChallenge(challenge);
+                challenge = server.evaluateResponse(response);
+                assertNull(challenge);
+                assertTrue(server.isComplete());
+                assertEquals("George", server.getAuthorizationID());
+                server.dispose();
+            }
+            File[] files = directory.listFiles();
+            assertEquals(1, files.length);
+            assertTrue(files[0].getName().endsWith(".challenge-slots"));
+
+            SaslServer first = Sasl.createSaslServer(LOCAL_USER, "TestProtocol", "TestServer", serverOptions, serverCallback);
+            SaslServer second = Sasl.createSaslServer(LOCAL_USER, "TestProtocol", "TestServer", serverOptions, serverCallback);
+            SaslClient firstClient = Sasl.createSaslClient(new String[]{ LOCAL_USER }, "George", "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), clientCallback);
+            SaslClient secondClient = Sasl.createSaslClient(new String[]{ LOCAL_USER }, "George", "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), clientCallback);
+            byte[] firstChallenge = first.evaluateResponse(firstClient.evaluateChallenge(new byte[0]));
+            byte[] secondChallenge = second.evaluateResponse(secondClient.evaluateChallenge(new byte[0]));
+            assertTrue(Charsets.indexOf(firstChallenge, 0) > 0);
+            assertEquals(-1, Charsets.indexOf(secondChallenge, 0));
+            assertNull(second.evaluateResponse(secondClient.evaluateChallenge(secondChallenge)));
+            assertNull(first.evaluateResponse(firstClient.evaluateChallenge(firstChallenge)));
+            assertTrue(first.isComplete());
+            assertTrue(second.isComplete());
+            first.dispose();
+            second.dispose();
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Test that a client cannot answer with a challenge taken from a slot which is not its own.
+     */
+
+    @Test
+    public void testBadChallengeSlot_CF() throws Exception {
+        File directory = Files.createTempDirectory("slots").toFile();
+        try {
+            Map<String, Object> serverOptions = new HashMap<String, Object>();
+            serverOptions.put(LocalUserServer.LOCAL_USER_CHALLENGE_PATH, directory.getAbsolutePath());
+            serverOptions.put(LocalUserServer.LOCAL_USER_CHALLENGE_SLOTS, 4);
+            CallbackHandler serverCallback = new ServerCallbackHandler("George", (char[]) null);
+            SaslServer server = Sasl.createSaslServer(LOCAL_USER, "TestProtocol", "TestServer", serverOptions, serverCallback);
+
+            CallbackHandler clientCallback = new ClientCallbackHandler("George", (char[]) null);
+            SaslClient client = Sasl.createSaslClient(new String[]{ LOCAL_USER }, "George", "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), clientCallback);
+
+            byte[] challenge = server.evaluateResponse(client.evaluateChallenge(new byte[0]));
+            int separator = Charsets.indexOf(challenge, 0);
+            // point the client at the next slot, which is free and so holds zeros
+            int slot = Integer.parseInt(new String(challenge, separator + 1, challenge.length - separator - 1, Charsets.UTF_8));
+            String path = new String(challenge, 0, separator, Charsets.UTF_8) + '\0' + (slot + 1);
+            byte[] response = client.evaluateChallenge(path.getBytes(Charsets.UTF_8));
+            try {
+                server.evaluateResponse(response);
+                fail("Expected SaslException not thrown.");
+            } catch (SaslException expected) {
+            }
+            assertFalse(server.isComplete());
+            server.dispose();
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
 }
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.NonceGenerator;
+import org.wildfly.sasl.util.SaslBase64;
+
+/**
+ * Tests for the shared {@link NonceGenerator}.
+ */
+public class NonceGeneratorTest {
+
+    @Test
+    public void testSharedInstances() throws Exception {
+        assertSame(NonceGenerator.getDefault(), NonceGenerator.getInstance(null));
+        assertSame(NonceGenerator.getInstance("SHA1PRNG"), NonceGenerator.getInstance("SHA1PRNG"));
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void testUnknownAlgorithm() throws Exception {
+        NonceGenerator.getInstance("NoSuchRandom");
+    }
+
+    @Test
+    public void testNextBytesAcrossBlocks() throws Exception {
+        NonceGenerator generator = NonceGenerator.getInstance("SHA1PRNG");
+        byte[] first = new byte[NonceGenerator.BLOCK_SIZE - 10];
+        byte[] second = new byte[NonceGenerator.BLOCK_SIZE];
+        generator.nextBytes(first, 0, first.length);
+        generator.nextBytes(second, 0, second.length);
+        assertFalse(Arrays.equals(Arrays.copyOf(first, 100), Arrays.copyOf(second, 100)));
+    }
+
+    @Test
+    public void testBase64AcrossBlocks() throws Exception {
+        NonceGenerator generator = NonceGenerator.getInstance("SHA1PRNG");
+        for (int len : new int[] { 36, NonceGenerator.BLOCK_SIZE - 1, 5, NonceGenerator.BLOCK_SIZE + 7 }) {
+            ByteStringBuilder encoded = new ByteStringBuilder();
+            generator.appendBase64(len, encoded);
+            assertEquals((len + 2) / 3 * 4, encoded.length());
+
+            ByteStringBuilder decoded = new ByteStringBuilder();
+            SaslBase64.decode(encoded.toArray(), 0, decoded);
+            assertEquals(len, decoded.length());
+        }
+    }
+}
@@ -19,14 +19,19 @@ package org.wildfly.sasl.test;
 
 import static javax.security.sasl.Sasl.POLICY_NOPLAINTEXT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
 import javax.security.sasl.SaslServerFactory;
 
@@ -34,10 +39,16 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 import org.wildfly.sasl.plain.PlainSaslServer;
 import org.wildfly.sasl.plain.PlainServerFactory;
+import org.wildfly.sasl.util.SaslEvaluationListener;
 
 /**
  * Test the server side of the Plain SASL mecanism.
@@ -132,6 +143,89 @@ public class PlainTest extends BaseTestCase {
         }
     }
 
+    /**
+     * Test an exchange where the server evaluates the response, including the callbacks, on a separate executor.
+     */
+    @Test
+    public void testAsynchronousExchange() throws Exception {
+        final Thread testThread = Thread.currentThread();
+        final AtomicReference<Thread> callbackThread = new AtomicReference<Thread>();
+        final CallbackHandler delegate = new ServerCallbackHandler("George", "gpwd".toCharArray());
+        CallbackHandler serverCallback = new CallbackHandler() {
+            public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                callbackThread.set(Thread.currentThread());
+                delegate.handle(callbacks);
+            }
+        };
+        PlainSaslServer server = (PlainSaslServer) Sasl.createSaslServer(PLAIN, "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), serverCallback);
+
+        CallbackHandler clientCallback = new ClientCallbackHandler("George", "gpwd".toCharArray());
+        SaslClient client = Sasl.createSaslClient(new String[]{PLAIN}, "George", "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), clientCallback);
+        byte[] message = client.evaluateChallenge(new byte[0]);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ResultListener listener = new ResultListener();
+            server.evaluateResponse(message, executor, listener);
+            listener.await();
+            assertNull(listener.failure);
+            assertTrue(server.isComplete());
+            assertEquals("George", server.getAuthorizationID());
+            assertNotNull(callbackThread.get());
+            assertNotSame(testThread, callbackThread.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test that a failed asynchronous evaluation is reported to the listener and fails the negotiation.
+     */
+    @Test
+    public void testAsynchronousBadPassword() throws Exception {
+        CallbackHandler serverCallback = new ServerCallbackHandler("George", "bad".toCharArray());
+        PlainSaslServer server = (PlainSaslServer) Sasl.createSaslServer(PLAIN, "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), serverCallback);
+
+        CallbackHandler clientCallback = new ClientCallbackHandler("George", "gpwd".toCharArray());
+        SaslClient client = Sasl.createSaslClient(new String[]{PLAIN}, "George", "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), clientCallback);
+        byte[] message = client.evaluateChallenge(new byte[0]);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ResultListener listener = new ResultListener();
+            server.evaluateResponse(message, executor, listener);
+            listener.await();
+            assertNotNull(listener.failure);
+            assertFalse(server.isComplete());
+            try {
+                server.evaluateResponse(message);
+                fail("Expection exception not thrown.");
+            } catch (SaslException e) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static final class ResultListener implements SaslEvaluationListener {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile SaslException failure;
+
+        public void evaluationComplete(byte[] reply) {
+            latch.countDown();
+        }
+
+        public void evaluationFailed(SaslException cause) {
+            failure = cause;
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Evaluation did not finish", latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
     /**
      * Test that an exchange involving a bad username is correctly rejected.
      */
@@ -18,10 +18,17 @@
 
 package org.wildfly.sasl.test;
 
-import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
 import org.wildfly.sasl.util.SaslBase64;
 
 /**
@@ -59,6 +66,84 @@ public class SaslBase64TestCase {
         doEncodeDecodeTest(generateData(253));
     }
 
+    /**
+     * Tests the test vectors of RFC 4648 section 10, through each of the encode and decode targets.
+     */
+    @Test
+    public void testVectors() {
+        String[][] vectors = {
+            { "", "" }, { "f", "Zg==" }, { "fo", "Zm8=" }, { "foo", "Zm9v" },
+            { "foob", "Zm9vYg==" }, { "fooba", "Zm9vYmE=" }, { "foobar", "Zm9vYmFy" }
+        };
+        for (String[] vector : vectors) {
+            byte[] plain = vector[0].getBytes(Charsets.LATIN_1);
+            byte[] encoded = vector[1].getBytes(Charsets.LATIN_1);
+
+            ByteStringBuilder bsb = new ByteStringBuilder();
+            bsb.append('>');
+            SaslBase64.encode(plain, bsb);
+            assertEquals(">" + vector[1], new String(bsb.toArray(), Charsets.LATIN_1));
+
+            byte[] array = new byte[SaslBase64.encodedLength(plain.length) + 2];
+            assertEquals(encoded.length, SaslBase64.encode(plain, 0, plain.length, array, 1));
+            assertArrayEquals(encoded, Arrays.copyOfRange(array, 1, 1 + encoded.length));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+            assertEquals(encoded.length, SaslBase64.encode(plain, 0, plain.length, direct));
+            assertEquals(0, direct.remaining());
+            direct.flip();
+            byte[] fromDirect = new byte[encoded.length];
+            direct.get(fromDirect);
+            assertArrayEquals(encoded, fromDirect);
+
+            bsb = new ByteStringBuilder();
+            assertEquals(encoded.length, SaslBase64.decode(encoded, 0, bsb));
+            assertArrayEquals(plain, bsb.toArray());
+
+            array = new byte[SaslBase64.maxDecodedLength(encoded.length)];
+            int decodedLength = SaslBase64.decode(encoded, 0, encoded.length, array, 0);
+            assertArrayEquals(plain, Arrays.copyOf(array, decodedLength));
+        }
+    }
+
+    /**
+     * Tests that decoding into a builder stops at the end of the encoding.
+     */
+    @Test
+    public void testDecodeStopsAtEnd() {
+        ByteStringBuilder bsb = new ByteStringBuilder();
+        assertEquals(8, SaslBase64.decode("Zm9vYmFy,rest".getBytes(Charsets.LATIN_1), 0, bsb));
+        assertEquals("foobar", new String(bsb.toArray(), Charsets.LATIN_1));
+
+        bsb = new ByteStringBuilder();
+        assertEquals(4, SaslBase64.decode("Zm8=Zm9v".getBytes(Charsets.LATIN_1), 0, bsb));
+        assertEquals("fo", new String(bsb.toArray(), Charsets.LATIN_1));
+    }
+
+    /**
+     * Tests that malformed encodings are rejected with the position of the error.
+     */
+    @Test
+    public void testDecodeErrors() {
+        assertDecodeError("Zm9vY", "position 5");
+        assertDecodeError("Zm9v=mFy", "position 4");
+        assertDecodeError("Zm9vY=Fy", "position 5");
+        assertDecodeError("Zm9vYm=y", "position 7");
+        assertDecodeError("Zm9vY*Fy", "position 5");
+        assertDecodeError("Zm8=Zm9v", "position 4");
+        assertDecodeError("Zm9v,", "position 4");
+    }
+
+    private void assertDecodeError(String encoded, String position) {
+        byte[] bytes = encoded.getBytes(Charsets.LATIN_1);
+        try {
+            SaslBase64.decode(bytes, 0, bytes.length, new byte[SaslBase64.maxDecodedLength(bytes.length)], 0);
+            fail("Expected IllegalArgumentException for " + encoded);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(position));
+        }
+    }
+
     private void doEncodeDecodeTest(byte[] inputData) {
         ByteStringBuilder bsb = new ByteStringBuilder();
         SaslBase64.encode(inputData, bsb);
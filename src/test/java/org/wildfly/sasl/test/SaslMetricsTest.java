@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.Sasl;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.sasl.util.JmxSaslMetrics;
+import org.wildfly.sasl.util.SaslInstrumentation;
+
+/**
+ * Tests of the statistics published by {@link JmxSaslMetrics}.
+ */
+public class SaslMetricsTest extends BaseTestCase {
+
+    private static final String PLAIN = "PLAIN";
+
+    private MBeanServer mBeanServer;
+    private JmxSaslMetrics metrics;
+
+    @Before
+    public void installMetrics() {
+        mBeanServer = MBeanServerFactory.newMBeanServer();
+        metrics = new JmxSaslMetrics(mBeanServer);
+        SaslInstrumentation.setMetrics(metrics);
+    }
+
+    @After
+    public void removeMetrics() {
+        SaslInstrumentation.setMetrics(null);
+        metrics.close();
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        authenticate("gpwd");
+        authenticate("gpwd");
+        try {
+            authenticate("bad");
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+
+        ObjectName name = JmxSaslMetrics.getObjectName(PLAIN);
+        assertTrue(mBeanServer.isRegistered(name));
+        assertEquals(2L, mBeanServer.getAttribute(name, "CompletedNegotiations"));
+        assertEquals(1L, mBeanServer.getAttribute(name, "FailedNegotiations"));
+        assertEquals(3L, mBeanServer.getAttribute(name, "Evaluations"));
+        // a successful exchange verifies the password then authorizes, a failed one stops after the password
+        assertEquals(5L, mBeanServer.getAttribute(name, "CallbackInvocations"));
+
+        long total = 0;
+        for (long count : (long[]) mBeanServer.getAttribute(name, "EvaluationTimeHistogram")) {
+            total += count;
+        }
+        assertEquals(3, total);
+        // PLAIN is a single step
+        long[] steps = (long[]) mBeanServer.getAttribute(name, "StepEvaluations");
+        assertEquals(3L, steps[0]);
+        assertEquals(0L, steps[1]);
+        assertEquals(mBeanServer.getAttribute(name, "TotalEvaluationTime"), ((long[]) mBeanServer.getAttribute(name, "StepEvaluationTime"))[0]);
+        long max = (Long) mBeanServer.getAttribute(name, "MaxEvaluationTime");
+        assertTrue(max > 0 && max <= (Long) mBeanServer.getAttribute(name, "TotalEvaluationTime"));
+
+        mBeanServer.invoke(name, "reset", null, null);
+        assertEquals(0L, mBeanServer.getAttribute(name, "Evaluations"));
+
+        metrics.close();
+        assertTrue(mBeanServer.isRegistered(name) == false);
+    }
+
+    @Test
+    public void testFailureReasons() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                // a different user each time, the user name is part of the message but not of the reason
+                authenticate("George" + i, "bad");
+                fail("Expected SaslException");
+            } catch (SaslException expected) {
+            }
+        }
+        ObjectName name = JmxSaslMetrics.getObjectName(PLAIN);
+        Map<?, ?> reasons = (Map<?, ?>) mBeanServer.getAttribute(name, "FailureReasons");
+        // exposed as open data, a table of key and value
+        assertEquals(1, reasons.size());
+        assertTrue(reasons.toString().contains(SaslException.class.getName()));
+        assertTrue(reasons.toString().contains("George") == false);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        SaslInstrumentation.setMetrics(null);
+        authenticate("gpwd");
+        assertTrue(mBeanServer.isRegistered(JmxSaslMetrics.getObjectName(PLAIN)) == false);
+    }
+
+    private void authenticate(String serverPassword) throws Exception {
+        authenticate("George", serverPassword);
+    }
+
+    private void authenticate(String userName, String serverPassword) throws Exception {
+        CallbackHandler serverCallback = new ServerCallbackHandler(userName, serverPassword.toCharArray());
+        SaslServer server = Sasl.createSaslServer(PLAIN, "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), serverCallback);
+
+        CallbackHandler clientCallback = new ClientCallbackHandler(userName, "gpwd".toCharArray());
+        SaslClient client = Sasl.createSaslClient(new String[]{PLAIN}, userName, "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), clientCallback);
+
+        server.evaluateResponse(client.evaluateChallenge(new byte[0]));
+        assertTrue(server.isComplete());
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.sasl.AuthorizeCallback;
+import javax.security.sasl.Sasl;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.junit.Test;
+import org.wildfly.sasl.WildFlySasl;
+import org.wildfly.sasl.callback.ScramCredentialCallback;
+import org.wildfly.sasl.scram.ScramClientFactory;
+import org.wildfly.sasl.scram.ScramIterationCalibrator;
+import org.wildfly.sasl.scram.ScramSaslClient;
+import org.wildfly.sasl.scram.ScramSaslServer;
+import org.wildfly.sasl.scram.ScramServerFactory;
+import org.wildfly.sasl.scram.ScramUtil;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.SaslBase64;
+
+/**
+ * Tests for the SCRAM-SHA-1 and SCRAM-SHA-256 mechanisms, including the examples of RFC 5802 and RFC 7677.
+ */
+public class ScramTest extends BaseTestCase {
+
+    private static final String SCRAM_SHA_1 = "SCRAM-SHA-1";
+    private static final String SCRAM_SHA_256 = "SCRAM-SHA-256";
+
+    private static final byte[] SALT = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+
+    @Test
+    public void testPolicy() throws Exception {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Sasl.POLICY_NOPLAINTEXT, true);
+        props.put(Sasl.POLICY_NOANONYMOUS, true);
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer", props, null);
+        assertEquals(ScramSaslServer.class, server.getClass());
+        assertArrayEquals(new String[] { SCRAM_SHA_256, SCRAM_SHA_1 }, new ScramServerFactory().getMechanismNames(props));
+
+        props.put(Sasl.POLICY_NODICTIONARY, true);
+        assertEquals(0, new ScramServerFactory().getMechanismNames(props).length);
+        assertNull(new ScramServerFactory().createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer", props, null));
+    }
+
+    @Test
+    public void testRfc5802Example() throws Exception {
+        // RFC 5802 section 5
+        assertServerSignature(SCRAM_SHA_1, "HmacSHA1", "QSXCR+Q6sek8bf92", "fyko+d2lbbFgONRv9qkxdawL",
+                "fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j", "v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=", "rmF9pqV8S7suAoZWja4dJRkFsKQ=");
+        // RFC 7677 section 3
+        assertServerSignature(SCRAM_SHA_256, "HmacSHA256", "W22ZaJ0SNY7soEsUEjb6gQ==", "rOprNGfwEbeRWgbNEkqO",
+                "rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0", "dHzbZapWIk4jUhN+Ute9ytag9zjfMHgsqmmiz7AndVQ=",
+                "6rriTRBi23WpRR/wtup+mMhUZUn/dB5nLTJRsjl95G4=");
+    }
+
+    private static void assertServerSignature(String mechanism, String mac, String salt, String clientNonce, String nonce,
+            String proof, String serverSignature) throws Exception {
+        byte[] saltedPassword = ScramUtil.getSaltedPassword(mechanism, "pencil".toCharArray(), base64(salt), 4096);
+        String authMessage = "n=user,r=" + clientNonce + ",r=" + nonce + ",s=" + salt + ",i=4096,c=biws,r=" + nonce;
+        byte[] clientKey = hmac(mac, saltedPassword, "Client Key".getBytes(Charsets.UTF_8));
+        byte[] storedKey = ScramUtil.getStoredKey(mechanism, saltedPassword);
+        byte[] clientProof = hmac(mac, storedKey, authMessage.getBytes(Charsets.UTF_8));
+        for (int i = 0; i < clientProof.length; i++) {
+            clientProof[i] ^= clientKey[i];
+        }
+        assertEquals(proof, base64(clientProof));
+        byte[] serverKey = ScramUtil.getServerKey(mechanism, saltedPassword);
+        assertEquals(serverSignature, base64(hmac(mac, serverKey, authMessage.getBytes(Charsets.UTF_8))));
+    }
+
+    @Test
+    public void testSuccessfulExchange() throws Exception {
+        for (String mechanism : new String[] { SCRAM_SHA_256, SCRAM_SHA_1 }) {
+            SaslServer server = Sasl.createSaslServer(mechanism, "TestProtocol", "TestServer",
+                    Collections.<String, Object>emptyMap(), new CredentialCallbackHandler("George", "gpwd", 4096));
+            SaslClient client = Sasl.createSaslClient(new String[] { mechanism }, null, "TestProtocol", "TestServer",
+                    Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "gpwd".toCharArray()));
+            assertEquals(ScramSaslClient.class, client.getClass());
+            assertEquals(mechanism, client.getMechanismName());
+            assertTrue(client.hasInitialResponse());
+
+            exchange(client, server);
+            assertTrue(server.isComplete());
+            assertTrue(client.isComplete());
+            assertEquals("George", server.getAuthorizationID());
+        }
+    }
+
+    @Test
+    public void testClientPrefersFirstOffered() throws Exception {
+        SaslClient client = new ScramClientFactory().createSaslClient(new String[] { "PLAIN", SCRAM_SHA_1, SCRAM_SHA_256 },
+                null, "TestProtocol", "TestServer", Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        assertEquals(SCRAM_SHA_1, client.getMechanismName());
+    }
+
+    @Test
+    public void testEscapedNameAndAuthorizationId() throws Exception {
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new CredentialCallbackHandler("Geo,rge=x", "gpwd", 4096));
+        SaslClient client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, "Geo,rge=x", "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new ClientCallbackHandler("Geo,rge=x", "gpwd".toCharArray()));
+        byte[] clientFirst = client.evaluateChallenge(new byte[0]);
+        assertTrue(new String(clientFirst, Charsets.UTF_8).startsWith("n,a=Geo=2Crge=3Dx,n=Geo=2Crge=3Dx,r="));
+        byte[] message = server.evaluateResponse(clientFirst);
+        message = client.evaluateChallenge(message);
+        message = server.evaluateResponse(message);
+        assertNull(client.evaluateChallenge(message));
+        assertEquals("Geo,rge=x", server.getAuthorizationID());
+    }
+
+    @Test
+    public void testUnauthorizedId() throws Exception {
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new CredentialCallbackHandler("George", "gpwd", 4096));
+        SaslClient client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, "Alfred", "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        try {
+            exchange(client, server);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+        assertFalse(server.isComplete());
+    }
+
+    @Test
+    public void testBadPassword() throws Exception {
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new CredentialCallbackHandler("George", "gpwd", 4096));
+        SaslClient client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "bad".toCharArray()));
+        try {
+            exchange(client, server);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+        assertFalse(server.isComplete());
+        assertFalse(client.isComplete());
+    }
+
+    @Test
+    public void testUnknownUser() throws Exception {
+        CallbackHandler serverCallback = new CredentialCallbackHandler("George", "gpwd", 4096);
+        byte[][] serverFirst = new byte[2][];
+        for (int i = 0; i < 2; i++) {
+            SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                    Collections.<String, Object>emptyMap(), serverCallback);
+            SaslClient client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer",
+                    Collections.<String, Object>emptyMap(), new ClientCallbackHandler("Borris", "bpwd".toCharArray()));
+            // the first step succeeds as it would for a known user
+            serverFirst[i] = server.evaluateResponse(client.evaluateChallenge(new byte[0]));
+            byte[] clientFinal = client.evaluateChallenge(serverFirst[i]);
+            try {
+                server.evaluateResponse(clientFinal);
+                fail("Expected SaslException");
+            } catch (SaslException expected) {
+                assertEquals(SCRAM_SHA_256 + ": authentication failed", expected.getMessage());
+            }
+            assertFalse(server.isComplete());
+        }
+        // the nonces differ but the salt and iteration count are the same on each attempt
+        String first = new String(serverFirst[0], Charsets.UTF_8);
+        String second = new String(serverFirst[1], Charsets.UTF_8);
+        assertEquals(first.substring(first.indexOf(",s=")), second.substring(second.indexOf(",s=")));
+        assertTrue(first.endsWith(",i=4096"));
+    }
+
+    @Test
+    public void testIterationCountBounds() throws Exception {
+        CallbackHandler serverCallback = new CredentialCallbackHandler("George", "gpwd", 1024);
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), serverCallback);
+        SaslClient client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        try {
+            exchange(client, server);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("below the minimum"));
+        }
+
+        Map<String, Object> clientProps = new HashMap<String, Object>();
+        clientProps.put(WildFlySasl.SCRAM_MIN_ITERATION_COUNT, "1000");
+        server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), serverCallback);
+        client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer", clientProps,
+                new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        exchange(client, server);
+        assertTrue(server.isComplete());
+
+        clientProps.put(WildFlySasl.SCRAM_MAX_ITERATION_COUNT, "999");
+        try {
+            Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer", clientProps,
+                    new ClientCallbackHandler("George", "gpwd".toCharArray()));
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+    }
+
+    /**
+     * Drive the server with messages built independently of the client implementation.
+     */
+    @Test
+    public void testServerAgainstIndependentClient() throws Exception {
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_1, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new CredentialCallbackHandler("user", "pencil", 4096));
+        String clientFirstBare = "n=user,r=fyko+d2lbbFgONRv9qkxdawL";
+        String serverFirst = new String(server.evaluateResponse(("n,," + clientFirstBare).getBytes(Charsets.UTF_8)), Charsets.UTF_8);
+        assertTrue(serverFirst, serverFirst.startsWith("r=fyko+d2lbbFgONRv9qkxdawL"));
+        assertTrue(serverFirst, serverFirst.endsWith(",s=" + base64(SALT) + ",i=4096"));
+        String nonce = serverFirst.substring(2, serverFirst.indexOf(','));
+        assertTrue(nonce.length() > "fyko+d2lbbFgONRv9qkxdawL".length());
+
+        String withoutProof = "c=biws,r=" + nonce + ",x=ignored";
+        byte[] authMessage = (clientFirstBare + "," + serverFirst + "," + withoutProof).getBytes(Charsets.UTF_8);
+        byte[] saltedPassword = ScramUtil.getSaltedPassword(SCRAM_SHA_1, "pencil".toCharArray(), SALT, 4096);
+        byte[] clientKey = hmac("HmacSHA1", saltedPassword, "Client Key".getBytes(Charsets.UTF_8));
+        byte[] proof = hmac("HmacSHA1", MessageDigest.getInstance("SHA-1").digest(clientKey), authMessage);
+        for (int i = 0; i < proof.length; i++) {
+            proof[i] ^= clientKey[i];
+        }
+        byte[] serverFinal = server.evaluateResponse((withoutProof + ",p=" + base64(proof)).getBytes(Charsets.UTF_8));
+        byte[] serverKey = hmac("HmacSHA1", saltedPassword, "Server Key".getBytes(Charsets.UTF_8));
+        assertEquals("v=" + base64(hmac("HmacSHA1", serverKey, authMessage)), new String(serverFinal, Charsets.UTF_8));
+        assertTrue(server.isComplete());
+        assertEquals("user", server.getAuthorizationID());
+    }
+
+    @Test
+    public void testMalformedClientMessages() throws Exception {
+        assertRejected("p=tls-unique,,n=user,r=abc");
+        assertRejected("x,,n=user,r=abc");
+        assertRejected("n,,m=ext,n=user,r=abc");
+        assertRejected("n,,n=us=2Xer,r=abc");
+        assertRejected("n,,n=user");
+        assertRejected("n,,n=user,r=");
+        assertRejected("n,a=,n=user,r=abc");
+    }
+
+    private static void assertRejected(String clientFirst) throws Exception {
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new CredentialCallbackHandler("user", "pencil", 4096));
+        try {
+            server.evaluateResponse(clientFirst.getBytes(Charsets.UTF_8));
+            fail("Expected SaslException for " + clientFirst);
+        } catch (SaslException expected) {
+        }
+    }
+
+    @Test
+    public void testTamperedServerSignature() throws Exception {
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new CredentialCallbackHandler("George", "gpwd", 4096));
+        SaslClient client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        byte[] message = server.evaluateResponse(client.evaluateChallenge(new byte[0]));
+        message = server.evaluateResponse(client.evaluateChallenge(message));
+        // the last characters may only carry padding bits, change the first one of the signature instead
+        message[2] = (byte) (message[2] == 'A' ? 'B' : 'A');
+        try {
+            client.evaluateChallenge(message);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+        assertFalse(client.isComplete());
+    }
+
+    @Test
+    public void testIterationCalibration() throws Exception {
+        ScramIterationCalibrator generous = new ScramIterationCalibrator(SCRAM_SHA_256, 60000000L, 4096, 16384, 0);
+        assertEquals(16384, generous.getIterationCount());
+        assertTrue(generous.getNanosPerIteration() > 0);
+
+        ScramIterationCalibrator tight = new ScramIterationCalibrator(SCRAM_SHA_1, 1L, 2048, 16384, 0);
+        assertEquals(2048, tight.getIterationCount());
+
+        ScramIterationCalibrator between = new ScramIterationCalibrator(SCRAM_SHA_256, 2000L, 1, Integer.MAX_VALUE, 0);
+        int count = between.calibrate();
+        assertTrue(count >= 1);
+        assertTrue(count == 1 || count % 256 == 0);
+
+        try {
+            new ScramIterationCalibrator("PLAIN", 2000L, 4096, 16384, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new ScramIterationCalibrator(SCRAM_SHA_256, 2000L, 16384, 4096, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testRecommendedIterationCount() throws Exception {
+        CredentialCallbackHandler serverCallback = new CredentialCallbackHandler("George", "gpwd", 4096);
+        SaslServer server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), serverCallback);
+        SaslClient client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        exchange(client, server);
+        assertEquals(0, serverCallback.recommendedIterationCount);
+
+        Map<String, Object> serverProps = new HashMap<String, Object>();
+        serverProps.put(WildFlySasl.SCRAM_ITERATION_BUDGET, "60000000");
+        serverProps.put(WildFlySasl.SCRAM_MAX_ITERATION_COUNT, 8192);
+        server = Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer", serverProps, serverCallback);
+        client = Sasl.createSaslClient(new String[] { SCRAM_SHA_256 }, null, "TestProtocol", "TestServer",
+                Collections.<String, Object>emptyMap(), new ClientCallbackHandler("George", "gpwd".toCharArray()));
+        exchange(client, server);
+        assertTrue(server.isComplete());
+        assertEquals(8192, serverCallback.recommendedIterationCount);
+
+        serverProps.put(WildFlySasl.SCRAM_RECALIBRATION_INTERVAL, "-1");
+        try {
+            Sasl.createSaslServer(SCRAM_SHA_256, "TestProtocol", "TestServer", serverProps, serverCallback);
+            fail("Expected SaslException");
+        } catch (SaslException expected) {
+        }
+    }
+
+    private static void exchange(SaslClient client, SaslServer server) throws SaslException {
+        byte[] message = client.evaluateChallenge(new byte[0]);
+        while (true) {
+            message = server.evaluateResponse(message);
+            message = client.evaluateChallenge(message);
+            if (client.isComplete()) {
+                assertNull(message);
+                return;
+            }
+        }
+    }
+
+    private static byte[] hmac(String algorithm, byte[] key, byte[] data) throws Exception {
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(key, algorithm));
+        return mac.doFinal(data);
+    }
+
+    private static String base64(byte[] bytes) {
+        ByteStringBuilder b = new ByteStringBuilder();
+        SaslBase64.encode(bytes, b);
+        return new String(b.toArray(), Charsets.LATIN_1);
+    }
+
+    private static byte[] base64(String encoded) {
+        ByteStringBuilder b = new ByteStringBuilder();
+        SaslBase64.decode(encoded.getBytes(Charsets.LATIN_1), 0, b);
+        return b.toArray();
+    }
+
+    /**
+     * A server callback handler which supplies the stored SCRAM credential of a single user.
+     */
+    private static final class CredentialCallbackHandler implements CallbackHandler {
+
+        private final String username;
+        private final String password;
+        private final int iterationCount;
+        private int recommendedIterationCount;
+
+        CredentialCallbackHandler(final String username, final String password, final int iterationCount) {
+            this.username = username;
+            this.password = password;
+            this.iterationCount = iterationCount;
+        }
+
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            boolean known = true;
+            for (Callback current : callbacks) {
+                if (current instanceof NameCallback) {
+                    // an unknown user is given no credential
+                    known = username.equals(((NameCallback) current).getDefaultName());
+                } else if (current instanceof ScramCredentialCallback) {
+                    if (known == false) {
+                        continue;
+                    }
+                    ScramCredentialCallback scc = (ScramCredentialCallback) current;
+                    recommendedIterationCount = scc.getRecommendedIterationCount();
+                    final int iterationCount = recommendedIterationCount > 0 ? recommendedIterationCount : this.iterationCount;
+                    try {
+                        byte[] saltedPassword = ScramUtil.getSaltedPassword(scc.getMechanismName(), password.toCharArray(), SALT, iterationCount);
+                        scc.setCredential(SALT, iterationCount, ScramUtil.getStoredKey(scc.getMechanismName(), saltedPassword),
+                                ScramUtil.getServerKey(scc.getMechanismName(), saltedPassword));
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                } else if (current instanceof AuthorizeCallback) {
+                    AuthorizeCallback acb = (AuthorizeCallback) current;
+                    acb.setAuthorized(acb.getAuthenticationID().equals(acb.getAuthorizationID()));
+                } else {
+                    throw new UnsupportedCallbackException(current, current.getClass().getSimpleName() + " not supported.");
+                }
+            }
+        }
+    }
+}
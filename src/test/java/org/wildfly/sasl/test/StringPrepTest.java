@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.wildfly.sasl.util.ByteStringBuilder;
+import org.wildfly.sasl.util.Charsets;
+import org.wildfly.sasl.util.StringPrep;
+
+/**
+ * Tests for StringPrep profiles, including the RFC 4013 SASLprep examples.
+ */
+public class StringPrepTest {
+
+    private static final long ALL_PROHIBITIONS = 0
+        | StringPrep.FORBID_NON_ASCII_SPACES
+        | StringPrep.FORBID_ASCII_CONTROL
+        | StringPrep.FORBID_NON_ASCII_CONTROL
+        | StringPrep.FORBID_PRIVATE_USE
+        | StringPrep.FORBID_NON_CHARACTER
+        | StringPrep.FORBID_SURROGATE
+        | StringPrep.FORBID_INAPPROPRIATE_FOR_PLAIN_TEXT
+        | StringPrep.FORBID_INAPPROPRIATE_FOR_CANON_REP
+        | StringPrep.FORBID_CHANGE_DISPLAY_AND_DEPRECATED
+        | StringPrep.FORBID_TAGGING;
+
+    private static String encode(String string, long profile) {
+        ByteStringBuilder target = new ByteStringBuilder();
+        StringPrep.encode(string, target, profile);
+        return new String(target.toArray(), Charsets.UTF_8);
+    }
+
+    @Test
+    public void testSaslPrepExamples() {
+        assertEquals("IX", encode("I\u00ADX", StringPrep.PROFILE_SASL_QUERY));
+        assertEquals("user", encode("user", StringPrep.PROFILE_SASL_QUERY));
+        assertEquals("USER", encode("USER", StringPrep.PROFILE_SASL_QUERY));
+        assertEquals("a", encode("\u00AA", StringPrep.PROFILE_SASL_QUERY));
+        assertEquals("IX", encode("\u2168", StringPrep.PROFILE_SASL_QUERY));
+        assertProhibited("\u0007", StringPrep.PROFILE_SASL_QUERY, "Invalid ASCII control");
+        assertProhibited("\u06271", StringPrep.PROFILE_SASL_QUERY, "Missing leading or trailing R/AL directionality character");
+    }
+
+    @Test
+    public void testMappingAndNormalization() {
+        assertEquals("a b", encode("a\u00A0b", StringPrep.PROFILE_SASL_QUERY));
+        assertEquals("ab", encode("a\uFEFFb", StringPrep.PROFILE_SASL_QUERY));
+        // the ASCII prefix combines with the following accent
+        assertEquals("caf\u00E9", encode("cafe\u0301", StringPrep.PROFILE_SASL_QUERY));
+        assertEquals("cafe\u0301", encode("cafe\u0301", 0));
+        assertEquals("\uD840\uDC00", encode("\uD840\uDC00", StringPrep.PROFILE_SASL_STORED));
+        assertProhibited("a\uDC00", StringPrep.PROFILE_SASL_QUERY, "Invalid surrogate pair");
+    }
+
+    @Test
+    public void testScramLoginChars() {
+        long profile = StringPrep.PROFILE_SASL_QUERY | StringPrep.MAP_SCRAM_LOGIN_CHARS;
+        assertEquals("a=3Db=2Cc", encode("a=b,c", profile));
+        assertEquals("\u00E9=2C", encode("\u00E9,", profile));
+        char[] chars = "x=y".toCharArray();
+        ByteStringBuilder target = new ByteStringBuilder();
+        StringPrep.encode(chars, target, profile);
+        assertEquals("x=3Dy", new String(target.toArray(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testBidi() {
+        assertEquals("\u06271\u0628", encode("\u06271\u0628", StringPrep.PROFILE_SASL_QUERY));
+        assertProhibited("\u0627a\u0628", StringPrep.PROFILE_SASL_QUERY, "Disallowed L directionality character in R/AL string");
+        assertProhibited("1\u0627", StringPrep.PROFILE_SASL_QUERY, "Missing leading or trailing R/AL directionality character");
+    }
+
+    @Test
+    public void testUnassigned() {
+        encode("\u0221", StringPrep.PROFILE_SASL_QUERY);
+        assertProhibited("\uD83F\uDFFD", StringPrep.PROFILE_SASL_STORED, "Unassigned code point");
+    }
+
+    @Test
+    public void testCompiledProfileReused() {
+        assertSame(StringPrep.compile(StringPrep.PROFILE_SASL_STORED), StringPrep.compile(StringPrep.PROFILE_SASL_STORED));
+    }
+
+    /**
+     * The compiled tables must agree with the individual prohibition checks, including which check reports a code
+     * point forbidden by more than one of them.
+     */
+    @Test
+    public void testTablesMatchChecks() {
+        StringPrep.Profile profile = StringPrep.compile(ALL_PROHIBITIONS);
+        ByteStringBuilder target = new ByteStringBuilder();
+        for (int cp = 0; cp <= Character.MAX_CODE_POINT; cp++) {
+            if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+                continue;
+            }
+            String expected = null;
+            try {
+                StringPrep.forbidNonAsciiSpaces(cp);
+                StringPrep.forbidAsciiControl(cp);
+                StringPrep.forbidNonAsciiControl(cp);
+                StringPrep.forbidPrivateUse(cp);
+                StringPrep.forbidNonCharacter(cp);
+                StringPrep.forbidSurrogate(cp);
+                StringPrep.forbidInappropriateForPlainText(cp);
+                StringPrep.forbidInappropriateForCanonicalRepresentation(cp);
+                StringPrep.forbidChangeDisplayPropertiesOrDeprecated(cp);
+                StringPrep.forbidTagging(cp);
+            } catch (IllegalArgumentException e) {
+                expected = e.getMessage();
+            }
+            String actual = null;
+            target.reset();
+            try {
+                profile.encode(new String(Character.toChars(cp)), target);
+            } catch (IllegalArgumentException e) {
+                actual = e.getMessage();
+            }
+            assertEquals(Integer.toHexString(cp), expected, actual);
+        }
+    }
+
+    private static void assertProhibited(String string, long profile, String message) {
+        try {
+            encode(string, profile);
+            fail("Expected IllegalArgumentException for " + string);
+        } catch (IllegalArgumentException expected) {
+            assertEquals(message, expected.getMessage());
+        }
+    }
+}
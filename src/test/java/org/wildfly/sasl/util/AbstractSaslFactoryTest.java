@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.sasl.Sasl;
+
+import org.junit.Test;
+import org.wildfly.sasl.anonymous.AnonymousServerFactory;
+import org.wildfly.sasl.md5digest.MD5DigestServerFactory;
+import org.wildfly.sasl.plain.PlainServerFactory;
+import org.wildfly.sasl.scram.ScramServerFactory;
+
+/**
+ * Tests for the precomputed policy matching of {@link AbstractSaslFactory}.
+ */
+public class AbstractSaslFactoryTest {
+
+    private static final String[] POLICIES = {
+        Sasl.POLICY_NOPLAINTEXT,
+        Sasl.POLICY_NOANONYMOUS,
+        Sasl.POLICY_FORWARD_SECRECY,
+        Sasl.POLICY_NOACTIVE,
+        Sasl.POLICY_NODICTIONARY,
+        Sasl.POLICY_PASS_CREDENTIALS
+    };
+
+    /**
+     * A factory with the given characteristics, bit {@code n} set meaning the characteristic which conflicts with policy
+     * {@code n} of {@link #POLICIES}.
+     */
+    static final class TestFactory extends AbstractSaslFactory {
+
+        private final int conflicts;
+
+        TestFactory(final int conflicts) {
+            super("TEST");
+            this.conflicts = conflicts;
+        }
+
+        protected boolean isPlainText() {
+            return (conflicts & 1) != 0;
+        }
+
+        protected boolean isAnonymous() {
+            return (conflicts & 1 << 1) != 0;
+        }
+
+        protected boolean isForwardSecrecy() {
+            return (conflicts & 1 << 2) == 0;
+        }
+
+        protected boolean isActiveSusceptible() {
+            return (conflicts & 1 << 3) != 0;
+        }
+
+        protected boolean isDictionarySusceptible() {
+            return (conflicts & 1 << 4) != 0;
+        }
+
+        protected boolean isPassCredentials() {
+            return (conflicts & 1 << 5) == 0;
+        }
+    }
+
+    /**
+     * The matching as it was before the policy sets were precomputed.
+     */
+    private static boolean referenceMatches(final AbstractSaslFactory factory, final Map<String, ?> props) {
+        return  ! (factory.getPropertyValue(Sasl.POLICY_NOPLAINTEXT, props, false) && factory.isPlainText()
+                || factory.getPropertyValue(Sasl.POLICY_NOANONYMOUS, props, false) && factory.isAnonymous()
+                || factory.getPropertyValue(Sasl.POLICY_FORWARD_SECRECY, props, false) && ! factory.isForwardSecrecy()
+                || factory.getPropertyValue(Sasl.POLICY_NOACTIVE, props, false) && factory.isActiveSusceptible()
+                || factory.getPropertyValue(Sasl.POLICY_NODICTIONARY, props, false) && factory.isDictionarySusceptible()
+                || factory.getPropertyValue(Sasl.POLICY_PASS_CREDENTIALS, props, false) && ! factory.isPassCredentials());
+    }
+
+    private static Map<String, Object> policies(final int policySet, final Object enabled, final Object disabled) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        for (int i = 0; i < POLICIES.length; i++) {
+            props.put(POLICIES[i], (policySet & 1 << i) != 0 ? enabled : disabled);
+        }
+        props.put(Sasl.QOP, "auth");
+        return props;
+    }
+
+    private static void assertMatchesReference(final AbstractSaslFactory factory) {
+        for (int policySet = 0; policySet < 1 << POLICIES.length; policySet++) {
+            for (Map<String, Object> props : new Map[] {
+                    policies(policySet, Boolean.TRUE, Boolean.FALSE),
+                    policies(policySet, "true", "false"),
+                    policies(policySet, "TRUE", "no") }) {
+                String[] expected = referenceMatches(factory, props) ? factory.getMechanismNames(null) : AbstractSaslFactory.EMPTY;
+                assertArrayEquals(factory + " " + props, expected, factory.getMechanismNames(props));
+                assertEquals(expected.length != 0, factory.matches(props));
+            }
+        }
+    }
+
+    @Test
+    public void testGetPolicies() {
+        assertEquals(0, AbstractSaslFactory.getPolicies(null));
+        assertEquals(0, AbstractSaslFactory.getPolicies(Collections.<String, Object>emptyMap()));
+        assertEquals(0, AbstractSaslFactory.getPolicies(Collections.singletonMap(Sasl.QOP, "auth")));
+        for (int i = 0; i < POLICIES.length; i++) {
+            assertEquals(1 << i, AbstractSaslFactory.getPolicies(Collections.singletonMap(POLICIES[i], Boolean.TRUE)));
+            assertEquals(1 << i, AbstractSaslFactory.getPolicies(Collections.singletonMap(POLICIES[i], "true")));
+            assertEquals(0, AbstractSaslFactory.getPolicies(Collections.singletonMap(POLICIES[i], Boolean.FALSE)));
+            assertEquals(0, AbstractSaslFactory.getPolicies(Collections.singletonMap(POLICIES[i], "false")));
+        }
+        assertEquals(63, AbstractSaslFactory.getPolicies(policies(63, Boolean.TRUE, Boolean.FALSE)));
+    }
+
+    @Test
+    public void testNoPolicies() {
+        AbstractSaslFactory factory = new PlainServerFactory();
+        String[] names = factory.getMechanismNames(null);
+        assertEquals(1, names.length);
+        assertSame(names, factory.getMechanismNames(Collections.<String, Object>emptyMap()));
+        assertSame(AbstractSaslFactory.EMPTY, factory.getMechanismNames(Collections.singletonMap(Sasl.POLICY_NOPLAINTEXT, Boolean.TRUE)));
+    }
+
+    @Test
+    public void testMechanismFactories() {
+        List<AbstractSaslFactory> factories = new ArrayList<AbstractSaslFactory>();
+        factories.add(new PlainServerFactory());
+        factories.add(new AnonymousServerFactory());
+        factories.add(new MD5DigestServerFactory());
+        factories.add(new ScramServerFactory());
+        for (AbstractSaslFactory factory : factories) {
+            assertMatchesReference(factory);
+        }
+    }
+
+    @Test
+    public void testAllCharacteristics() {
+        for (int conflicts = 0; conflicts < 1 << POLICIES.length; conflicts++) {
+            TestFactory factory = new TestFactory(conflicts);
+            assertMatchesReference(factory);
+            // each policy rules the factory out exactly when it has the conflicting characteristic
+            for (int i = 0; i < POLICIES.length; i++) {
+                boolean expected = (conflicts & 1 << i) == 0;
+                assertEquals(expected, factory.getMechanismNames(Collections.singletonMap(POLICIES[i], Boolean.TRUE)).length != 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.sasl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.security.sasl.SaslException;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link java.nio.ByteBuffer} operations offered by {@link AbstractSaslWrapper#of(SaslWrapper)} for a
+ * wrapper which only implements {@link SaslWrapper}.
+ */
+public class AbstractSaslWrapperTest {
+
+    /**
+     * Appends a one byte checksum to each message.
+     */
+    static final class ChecksumWrapper implements SaslWrapper {
+
+        public byte[] wrap(final byte[] outgoing, final int offset, final int len) throws SaslException {
+            byte[] wrapped = Arrays.copyOfRange(outgoing, offset, offset + len + 1);
+            wrapped[len] = checksum(outgoing, offset, len);
+            return wrapped;
+        }
+
+        public byte[] unwrap(final byte[] incoming, final int offset, final int len) throws SaslException {
+            if (len < 1 || incoming[offset + len - 1] != checksum(incoming, offset, len - 1)) {
+                throw new SaslException("Bad checksum");
+            }
+            return Arrays.copyOfRange(incoming, offset, offset + len - 1);
+        }
+
+        private static byte checksum(final byte[] bytes, final int offset, final int len) {
+            byte checksum = 0;
+            for (int i = offset; i < offset + len; i++) {
+                checksum ^= bytes[i];
+            }
+            return checksum;
+        }
+    }
+
+    /**
+     * Prefixes each message with a sequence number, which is used up by each call as with a real security layer.
+     */
+    static final class SequenceWrapper implements SaslWrapper {
+
+        private byte sendSequence;
+        private byte receiveSequence;
+
+        public byte[] wrap(final byte[] outgoing, final int offset, final int len) throws SaslException {
+            byte[] wrapped = new byte[len + 1];
+            wrapped[0] = sendSequence++;
+            System.arraycopy(outgoing, offset, wrapped, 1, len);
+            return wrapped;
+        }
+
+        public byte[] unwrap(final byte[] incoming, final int offset, final int len) throws SaslException {
+            if (len < 1 || incoming[offset] != receiveSequence++) {
+                throw new SaslException("Bad sequence number");
+            }
+            return Arrays.copyOfRange(incoming, offset + 1, offset + len);
+        }
+    }
+
+    private static byte[] remaining(final ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testOf() {
+        assertNull(AbstractSaslWrapper.of(null));
+        AbstractSaslWrapper adapted = AbstractSaslWrapper.of(new ChecksumWrapper());
+        assertSame(adapted, AbstractSaslWrapper.of(adapted));
+    }
+
+    @Test
+    public void testSingleMessage() throws Exception {
+        AbstractSaslWrapper wrapper = AbstractSaslWrapper.of(new ChecksumWrapper());
+        byte[] message = { 1, 2, 3, 4 };
+        for (ByteBuffer source : new ByteBuffer[] { ByteBuffer.wrap(new byte[] { 9, 1, 2, 3, 4 }, 1, 4), ByteBuffer.allocateDirect(4).put(message) }) {
+            if (source.isDirect()) {
+                source.flip();
+            }
+            ByteBuffer wrapped = ByteBuffer.allocateDirect(16);
+            assertEquals(5, wrapper.wrap(source, wrapped));
+            assertEquals(0, source.remaining());
+            wrapped.flip();
+            ByteBuffer unwrapped = ByteBuffer.allocate(16);
+            assertEquals(4, wrapper.unwrap(wrapped, unwrapped));
+            assertEquals(0, wrapped.remaining());
+            unwrapped.flip();
+            assertArrayEquals(message, remaining(unwrapped));
+        }
+
+        // a target which is too small is left untouched along with the source
+        ByteBuffer source = ByteBuffer.wrap(message);
+        ByteBuffer small = ByteBuffer.allocate(4);
+        try {
+            wrapper.wrap(source, small);
+            fail("Expected BufferOverflowException not thrown");
+        } catch (BufferOverflowException expected) {
+        }
+        assertEquals(0, source.position());
+        assertEquals(0, small.position());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        AbstractSaslWrapper wrapper = AbstractSaslWrapper.of(new ChecksumWrapper());
+        ByteBuffer[] sources = new ByteBuffer[3];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = ByteBuffer.wrap(new byte[] { (byte) i, (byte) (i + 1) });
+        }
+        ByteBuffer wrapped = ByteBuffer.allocate(AbstractSaslWrapper.FRAME_HEADER_LENGTH * 3 + 3 * 3);
+        assertEquals(3, wrapper.wrap(sources, 0, 3, wrapped));
+        wrapped.flip();
+
+        ByteBuffer[] targets = new ByteBuffer[3];
+        for (int i = 0; i < targets.length; i++) {
+            // the adapter requires room for the whole wrapped frame
+            targets[i] = ByteBuffer.allocate(3);
+        }
+        assertEquals(3, wrapper.unwrap(wrapped, targets, 0, 3));
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].flip();
+            assertArrayEquals(new byte[] { (byte) i, (byte) (i + 1) }, remaining(targets[i]));
+        }
+    }
+
+    @Test
+    public void testOverflowRetry() throws Exception {
+        AbstractSaslWrapper sender = AbstractSaslWrapper.of(new SequenceWrapper());
+        AbstractSaslWrapper receiver = AbstractSaslWrapper.of(new SequenceWrapper());
+        for (int i = 0; i < 3; i++) {
+            byte[] message = { (byte) i, 2, 3 };
+            ByteBuffer source = ByteBuffer.allocateDirect(3).put(message);
+            source.flip();
+            ByteBuffer small = ByteBuffer.allocate(3);
+            try {
+                sender.wrap(source, small);
+                fail("Expected BufferOverflowException not thrown");
+            } catch (BufferOverflowException expected) {
+            }
+            assertEquals(0, source.position());
+            assertEquals(0, small.position());
+            ByteBuffer wrapped = ByteBuffer.allocate(4);
+            assertEquals(4, sender.wrap(source, wrapped));
+            wrapped.flip();
+
+            try {
+                receiver.unwrap(wrapped, ByteBuffer.allocate(2));
+                fail("Expected BufferOverflowException not thrown");
+            } catch (BufferOverflowException expected) {
+            }
+            assertEquals(0, wrapped.position());
+            ByteBuffer unwrapped = ByteBuffer.allocate(4);
+            assertEquals(3, receiver.unwrap(wrapped, unwrapped));
+            unwrapped.flip();
+            assertArrayEquals(message, remaining(unwrapped));
+        }
+
+        // a different message may not take the place of the one which overflowed
+        try {
+            sender.wrap(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), ByteBuffer.allocate(1));
+            fail("Expected BufferOverflowException not thrown");
+        } catch (BufferOverflowException expected) {
+        }
+        try {
+            sender.wrap(ByteBuffer.wrap(new byte[] { 4, 5, 6 }), ByteBuffer.allocate(8));
+            fail("Expected SaslException not thrown");
+        } catch (SaslException expected) {
+        }
+    }
+}